@@ -0,0 +1,113 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.SocialMediaDAO;
+import DAO.TieredStore;
+import Model.Message;
+
+/**
+ * Times reads of seedSize messages through TieredStore while they are in the h2 table and, with tier=archive,
+ * once every one of them has been moved to the column file archive: a scan of every message, a time window of a
+ * tenth of them, an account's first page and lookups by id. How long the move took is printed when it is made.
+ *
+ * mvn -P jmh test-compile exec:exec -Djmh.args="ArchiveBenchmark -p seedSize=1000000"
+ *
+ * Segment files go in a temporary directory that is deleted after the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArchiveBenchmark {
+
+    //Time of the first seeded message, BenchmarkDatabase posts one a second from here
+    private static final long FIRST_EPOCH = 1669947792L;
+
+    @Param({"100000"})
+    public int seedSize;
+
+    @Param({"h2", "archive"})
+    public String tier;
+
+    Path directory;
+    TieredStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        BenchmarkDatabase.seed(seedSize);
+        directory = Files.createTempDirectory("archive-benchmark");
+        store = new TieredStore(new SocialMediaDAO(), directory, 0, 0, 250_000);
+        if (tier.equals("archive")) {
+            long start = System.nanoTime();
+            int moved = store.archive(Long.MAX_VALUE);
+            if (moved != seedSize + 1) {
+                throw new IllegalStateException("Moved " + moved + " of " + (seedSize + 1));
+            }
+            System.out.printf("moved %d messages in %.0f ms, %d segments, %.0f MB mapped%n", moved,
+                (System.nanoTime() - start) / 1e6, store.getArchive().getSegmentCount(),
+                store.getArchive().getMappedBytes() / (1024.0 * 1024.0));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long scan(DAOBenchmark.FreshTable freshTable) {
+        long[] count = new long[1];
+        store.streamMessages(0, 0, message -> count[0]++);
+        return count[0];
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long window(DAOBenchmark.FreshTable freshTable) {
+        long since = FIRST_EPOCH + seedSize / 2;
+        long[] count = new long[1];
+        store.streamMessagesInTimeRange(since, since + seedSize / 10, message -> count[0]++);
+        return count[0];
+    }
+
+    @Benchmark
+    public List<Message> page() {
+        return store.selectMessagesPageFromAccountId(1 + ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ACCOUNTS),
+            Long.MAX_VALUE, 0, 50);
+    }
+
+    @Benchmark
+    public Message lookup() {
+        return store.selectMessage(1 + ThreadLocalRandom.current().nextInt(seedSize + 1));
+    }
+}
@@ -0,0 +1,54 @@
+package Benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.PooledConnection;
+
+/**
+ * Resets the h2 database in ./h2 and fills it with a known number of accounts and messages for the benchmarks.
+ * Account 1 and message 1 from SocialMedia.sql are kept, seeded messages get ids 2 and up.
+ */
+public class BenchmarkDatabase {
+
+    //Accounts the seeded messages are spread over
+    public static final int ACCOUNTS = 100;
+
+    private static final int BATCH_SIZE = 5_000;
+
+    /**
+     * @param messages number of messages to add on top of the one in SocialMedia.sql
+     */
+    public static void seed(int messages) throws SQLException {
+        ConnectionUtil.resetTestDatabase();
+        try (PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement account = connection.prepareStatement(
+                "INSERT INTO account (username, password) VALUES (?, 'password')");
+            for (int i = 2; i <= ACCOUNTS; i++) {
+                account.setString(1, "benchuser" + i);
+                account.addBatch();
+            }
+            account.executeBatch();
+
+            PreparedStatement message = connection.prepareStatement(
+                "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)");
+            for (int i = 1; i <= messages; i++) {
+                message.setInt(1, 1 + i % ACCOUNTS);
+                message.setString(2, "benchmark message " + i);
+                message.setLong(3, 1669947792L + i);
+                message.addBatch();
+                if (i % BATCH_SIZE == 0) {
+                    message.executeBatch();
+                    connection.commit();
+                }
+            }
+            message.executeBatch();
+            connection.commit();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Controller.SocialMediaController;
+import io.javalin.Javalin;
+
+/**
+ * Times GET /messages over http against a database seeded with seedSize messages, three ways: without compression
+ * (identity), gzipped by Javalin on every request (gzip), and served from the list body cache that gzips once per
+ * change (gzipCached). The size of one response in each mode is printed when the app starts. Client and server
+ * share the jvm, so the gc profiler shows what both allocate per request:
+ *
+ * mvn -P jmh test-compile exec:exec -Djmh.args="CompressionBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"10000"})
+    public int seedSize;
+
+    @Param({"identity", "gzip", "gzipCached"})
+    public String mode;
+
+    Javalin app;
+    HttpClient client;
+    HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException, InterruptedException {
+        BenchmarkDatabase.seed(seedSize);
+        //The body cache size is read when the controller is built
+        System.setProperty("bodyCache.maxEntries", mode.equals("gzipCached") ? "64" : "0");
+        app = new SocialMediaController().startAPI().start(0);
+        client = HttpClient.newHttpClient();
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port() + "/messages"));
+        if (!mode.equals("identity")) {
+            builder.header("Accept-Encoding", "gzip");
+        }
+        request = builder.build();
+        System.out.println(mode + " response bytes: " + getMessages().length);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        app.stop();
+    }
+
+    @Benchmark
+    public byte[] getMessages() throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+}
@@ -0,0 +1,85 @@
+package Benchmarks;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.PooledConnection;
+
+/**
+ * Times the message queries in SocialMediaDAO against a database seeded with seedSize messages.
+ * The database is seeded once per fork, so inserts grow it a little during the run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DAOBenchmark {
+
+    @Param({"10000"})
+    public int seedSize;
+
+    SocialMediaDAO socialMediaDAO;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.seed(seedSize);
+        socialMediaDAO = new SocialMediaDAO();
+    }
+
+    /**
+     * Random ids so h2 can't hand back the result of the previous identical query
+     */
+    @Benchmark
+    public Message selectMessage() {
+        return socialMediaDAO.selectMessage(1 + ThreadLocalRandom.current().nextInt(seedSize + 1));
+    }
+
+    @Benchmark
+    public Message insertMessage() {
+        return socialMediaDAO.insertMessage(new Message(1, "benchmark insert", 1669947792L));
+    }
+
+    /**
+     * Reads the whole table, so the time grows with seedSize
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Message> selectAllMessages(FreshTable freshTable) {
+        return socialMediaDAO.selectAllMessages();
+    }
+
+    /**
+     * h2 hands back its last result for the same query when nothing was written since, so a row is touched
+     * before every full read to make the query really run. The touch isn't timed.
+     */
+    @State(Scope.Thread)
+    public static class FreshTable {
+        @Setup(Level.Invocation)
+        public void touch() throws SQLException {
+            try (PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+                pooled.prepareStatement("UPDATE message SET time_posted_epoch = time_posted_epoch WHERE message_id = 1")
+                    .executeUpdate();
+            }
+        }
+    }
+}
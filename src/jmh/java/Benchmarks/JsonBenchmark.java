@@ -0,0 +1,86 @@
+package Benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.JsonCodec;
+import Model.Account;
+import Model.Message;
+
+/**
+ * Times Message and Account json round trips, write to bytes then read back, through the shared JsonCodec.
+ * The newMapper variants build an ObjectMapper per round trip like the handlers used to, for comparison.
+ * The read variants parse a request body from a stream the way the handlers do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    JsonCodec codec = JsonCodec.INSTANCE;
+    Message message;
+    Account account;
+    byte[] messageBody;
+    byte[] accountBody;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        message = new Message(1, 1, "test message 1", 1669947792L);
+        account = new Account(1, "testuser1", "password");
+        messageBody = "{\"posted_by\":1,\"message_text\":\"test message 1\",\"time_posted_epoch\":1669947792}"
+                .getBytes(StandardCharsets.UTF_8);
+        accountBody = "{\"username\":\"testuser1\",\"password\":\"password\"}"
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Message messageRoundTrip() throws IOException {
+        return codec.read(codec.writerFor(Message.class).writeValueAsBytes(message), Message.class);
+    }
+
+    @Benchmark
+    public Account accountRoundTrip() throws IOException {
+        return codec.read(codec.writerFor(Account.class).writeValueAsBytes(account), Account.class);
+    }
+
+    @Benchmark
+    public Message messageRoundTripNewMapper() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.readValue(mapper.writeValueAsBytes(message), Message.class);
+    }
+
+    @Benchmark
+    public Account accountRoundTripNewMapper() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        return mapper.readValue(mapper.writeValueAsBytes(account), Account.class);
+    }
+
+    @Benchmark
+    public Message messageRead() throws IOException {
+        return codec.read(new ByteArrayInputStream(messageBody), Message.class);
+    }
+
+    @Benchmark
+    public Account accountRead() throws IOException {
+        return codec.read(new ByteArrayInputStream(accountBody), Account.class);
+    }
+}
@@ -0,0 +1,82 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Controller.JsonCodec;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Model.MessageBatch;
+
+/**
+ * Compares the two ways GET /messages can answer with every message: a List of Message from selectAllMessages,
+ * or a MessageBatch from selectMessagesBatch, each read from h2 and written as json to a stream that drops the
+ * bytes. The write variants skip the query to show the json writer alone. Run with the gc profiler to see the
+ * allocation per request:
+ *
+ * mvn -P jmh test-compile exec:exec -Djmh.args="MessageBatchBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBatchBenchmark {
+
+    @Param({"10000"})
+    public int seedSize;
+
+    JsonCodec codec = JsonCodec.INSTANCE;
+    SocialMediaDAO socialMediaDAO;
+    List<Message> list;
+    MessageBatch batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.seed(seedSize);
+        socialMediaDAO = new SocialMediaDAO();
+        list = socialMediaDAO.selectAllMessages();
+        batch = socialMediaDAO.selectMessagesBatch(0, 0);
+    }
+
+    @Benchmark
+    public List<Message> readAndWriteList(DAOBenchmark.FreshTable freshTable) throws IOException {
+        List<Message> messages = socialMediaDAO.selectAllMessages();
+        codec.writerFor(codec.messageListType).writeValue(OutputStream.nullOutputStream(), messages);
+        return messages;
+    }
+
+    @Benchmark
+    public MessageBatch readAndWriteBatch(DAOBenchmark.FreshTable freshTable) throws IOException {
+        MessageBatch messages = socialMediaDAO.selectMessagesBatch(0, 0);
+        codec.writerFor(MessageBatch.class).writeValue(OutputStream.nullOutputStream(), messages);
+        return messages;
+    }
+
+    @Benchmark
+    public void writeList() throws IOException {
+        codec.writerFor(codec.messageListType).writeValue(OutputStream.nullOutputStream(), list);
+    }
+
+    @Benchmark
+    public void writeBatch() throws IOException {
+        codec.writerFor(MessageBatch.class).writeValue(OutputStream.nullOutputStream(), batch);
+    }
+}
@@ -0,0 +1,108 @@
+package Benchmarks;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Account;
+import Service.QueueFullException;
+import Service.SocialMediaService;
+import Util.PasswordHasher;
+
+/**
+ * Login throughput through SocialMediaService for a range of password work factors, with the verified login cache
+ * off (cacheTtlMs=0) and on, from several threads logging in to accountCount accounts round robin. hash times one
+ * hash at the work factor. Logins turned away with a full hashing queue are counted as rejected.
+ *
+ * mvn -P jmh test-compile exec:exec -Djmh.args="PasswordHashingBenchmark -p workFactor=10,12"
+ *
+ * The work factor and cache ttl are read once per process, so every combination runs in its own fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PasswordHashingBenchmark {
+
+    @Param({"10", "12", "14", "16"})
+    public int workFactor;
+
+    @Param({"0", "60000"})
+    public long cacheTtlMs;
+
+    @Param({"50"})
+    public int accountCount;
+
+    SocialMediaService socialMediaService;
+    Account[] logins;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        System.setProperty("password.workFactor", Integer.toString(workFactor));
+        System.setProperty("password.cacheTtlMs", Long.toString(cacheTtlMs));
+        BenchmarkDatabase.seed(0);
+        socialMediaService = new SocialMediaService();
+        logins = new Account[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            //Registering stores a hash at this work factor, the seeded accounts have plaintext passwords
+            socialMediaService.register(new Account("hashuser" + i, "password" + i));
+            logins[i] = new Account("hashuser" + i, "password" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        socialMediaService.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Account login(Logins state) {
+        Account login = logins[state.next];
+        state.next = (state.next + 1) % logins.length;
+        try {
+            Account account = socialMediaService.login(new Account(login.getUsername(), login.getPassword()));
+            if (account == null) {
+                throw new IllegalStateException("Login failed for " + login.getUsername());
+            }
+            return account;
+        } catch (QueueFullException e) {
+            state.rejected++;
+            return null;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String hash() {
+        return PasswordHasher.getInstance().hash("password");
+    }
+
+    /**
+     * Where each thread is in the round robin, and how many of its logins were rejected
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Logins {
+        public long rejected;
+        int next;
+    }
+}
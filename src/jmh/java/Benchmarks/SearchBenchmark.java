@@ -0,0 +1,108 @@
+package Benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.MessageSearchIndex;
+
+/**
+ * Times MessageSearchIndex.search for rare, common and multi word queries over messageCount synthetic messages
+ * whose words follow a Zipf like distribution, word0 being the most common. Runs against the index alone, so
+ * the database read of the page of results is left out and nothing is seeded.
+ *
+ * mvn -P jmh test-compile exec:exec -Djmh.args="SearchBenchmark -p query=common,rare"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    //Distinct words in the synthetic vocabulary
+    private static final int VOCABULARY = 50_000;
+    private static final int WORDS_PER_MESSAGE = 12;
+    //Queries cycled through, made up front so building them isn't timed
+    private static final int QUERIES = 1024;
+
+    @Param({"1000000"})
+    public int messageCount;
+
+    @Param({"rare", "common", "twoCommon", "commonAndRare", "threeWords"})
+    public String query;
+
+    MessageSearchIndex index;
+    String[] queries;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        //Cumulative Zipf weights, so a word is picked with a binary search over a uniform number
+        double[] cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        Random random = new Random(42);
+        index = new MessageSearchIndex();
+        StringBuilder text = new StringBuilder();
+        for (int id = 1; id <= messageCount; id++) {
+            text.setLength(0);
+            for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+                int word = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                text.append(w == 0 ? "" : " ").append("word").append(word < 0 ? -word - 1 : word);
+            }
+            index.index(new Message(id, 1, text.toString(), id));
+        }
+
+        Function<Random, String> kind;
+        switch (query) {
+            case "rare":
+                kind = r -> "word" + (20_000 + r.nextInt(30_000));
+                break;
+            case "common":
+                kind = r -> "word" + r.nextInt(10);
+                break;
+            case "twoCommon":
+                kind = r -> "word" + r.nextInt(5) + " word" + (5 + r.nextInt(5));
+                break;
+            case "commonAndRare":
+                kind = r -> "word" + r.nextInt(3) + " word" + (1000 + r.nextInt(1000));
+                break;
+            case "threeWords":
+                kind = r -> "word" + r.nextInt(20) + " word" + (20 + r.nextInt(80)) + " word" + (100 + r.nextInt(400));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown query kind " + query);
+        }
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = kind.apply(random);
+        }
+    }
+
+    @Benchmark
+    public MessageSearchIndex.Result search() {
+        String q = queries[next];
+        next = (next + 1) % QUERIES;
+        return index.search(q, 0, 20);
+    }
+}
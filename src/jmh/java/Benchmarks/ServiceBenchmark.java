@@ -0,0 +1,68 @@
+package Benchmarks;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import Model.Message;
+import Service.SocialMediaService;
+
+/**
+ * Times SocialMediaService.createMessage. The rejected cases fail validation and never reach the database,
+ * the valid case includes the insert.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBenchmark {
+
+    @Param({"10000"})
+    public int seedSize;
+
+    SocialMediaService socialMediaService;
+    Message blank;
+    Message tooLong;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        BenchmarkDatabase.seed(seedSize);
+        socialMediaService = new SocialMediaService();
+        blank = new Message(1, "", 1669947792L);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 255; i++) {
+            text.append('a');
+        }
+        tooLong = new Message(1, text.toString(), 1669947792L);
+    }
+
+    @Benchmark
+    public Message createMessageBlank() {
+        return socialMediaService.createMessage(blank);
+    }
+
+    @Benchmark
+    public Message createMessageTooLong() {
+        return socialMediaService.createMessage(tooLong);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Message createMessageValid() {
+        return socialMediaService.createMessage(new Message(1, "benchmark insert", 1669947792L));
+    }
+}
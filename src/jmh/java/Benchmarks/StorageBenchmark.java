@@ -0,0 +1,123 @@
+package Benchmarks;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.InMemoryStore;
+import DAO.SocialMediaDAO;
+import DAO.SocialMediaStore;
+import Model.Account;
+import Model.Message;
+import Service.SocialMediaService;
+
+/**
+ * Times the service layer on the h2 store and on the in-memory store, each holding seedSize messages spread over
+ * BenchmarkDatabase.ACCOUNTS accounts: creating a message, reading one by id past the cache, reading an account's
+ * first page and updating one. Creates grow the store a little during the run.
+ *
+ * mvn -P jmh test-compile exec:exec -Djmh.args="StorageBenchmark -p seedSize=100000"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"100000"})
+    public int seedSize;
+
+    @Param({"h2", "memory"})
+    public String engine;
+
+    SocialMediaService socialMediaService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        //Searches and the message cache would hide what the store costs
+        System.setProperty("search.enabled", "false");
+        System.setProperty("cache.messages.maxSize", "1");
+        SocialMediaStore store;
+        if (engine.equals("h2")) {
+            BenchmarkDatabase.seed(seedSize);
+            store = new SocialMediaDAO();
+        } else {
+            store = new InMemoryStore();
+            seed(store);
+        }
+        socialMediaService = new SocialMediaService(store);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        socialMediaService.close();
+    }
+
+    @Benchmark
+    public Message createMessage() {
+        return socialMediaService.createMessage(new Message(randomAccount(), "benchmark create", 1669947792L));
+    }
+
+    @Benchmark
+    public Message readMessage() {
+        return socialMediaService.readMessage(randomMessage());
+    }
+
+    @Benchmark
+    public List<Message> readPage() {
+        return socialMediaService.readMessagesPageById(randomAccount(), Long.MAX_VALUE, 0, 50);
+    }
+
+    @Benchmark
+    public Message updateMessage() {
+        return socialMediaService.updateMessage(new Message(randomMessage(), 0, "benchmark update", 0));
+    }
+
+    /**
+     * Fills the in-memory store the way BenchmarkDatabase fills h2: the same accounts, and messages with the same
+     * ids, posters and times
+     */
+    private void seed(SocialMediaStore store) {
+        //Straight into the store, registering would time the password hash
+        for (int i = 1; i <= BenchmarkDatabase.ACCOUNTS; i++) {
+            store.insertAccount(new Account("benchuser" + i, "password"));
+        }
+        List<Message> batch = new ArrayList<>();
+        //Stands in for message 1 from SocialMedia.sql
+        batch.add(new Message(1, "follow this account", 1669947792L));
+        for (int i = 1; i <= seedSize; i++) {
+            batch.add(new Message(1 + i % BenchmarkDatabase.ACCOUNTS, "benchmark message " + i, 1669947792L + i));
+            if (batch.size() == 10_000) {
+                store.insertMessages(batch);
+                batch.clear();
+            }
+        }
+        store.insertMessages(batch);
+    }
+
+    private static int randomAccount() {
+        return 1 + ThreadLocalRandom.current().nextInt(BenchmarkDatabase.ACCOUNTS);
+    }
+
+    private int randomMessage() {
+        return 1 + ThreadLocalRandom.current().nextInt(seedSize + 1);
+    }
+}
@@ -0,0 +1,190 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import DAO.InMemoryStore;
+import DAO.StoreLog;
+import Model.Account;
+import Model.Message;
+
+/**
+ * Times InMemoryStore with its write-ahead log. write is one change from four threads under each sync policy:
+ * creates, updates and deletes in equal parts once warmed up, each thread keeping its newest WINDOW messages, so
+ * the log grows with every change while the store stays a fixed size. recover times opening a store from a log of
+ * logOperations changes, replayed from the log alone or loaded from a snapshot.
+ *
+ * mvn -P jmh test-compile exec:exec -Djmh.args="StoreLogBenchmark.write -p policy=always"
+ *
+ * Log files go in a temporary directory that is deleted after the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreLogBenchmark {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int WINDOW = 100_000;
+
+    @Benchmark
+    @Threads(4)
+    public Message write(Writes writes, Writer writer) {
+        return writer.next(writes.store);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Measurement(iterations = 5)
+    public InMemoryStore recover(Recovery recovery) {
+        InMemoryStore recovered = open(recovery.snapshotPath, StoreLog.SyncPolicy.NONE);
+        //Closes the log without the snapshot close() would take, so every invocation recovers the same files
+        recovered.getLog().close();
+        return recovered;
+    }
+
+    /**
+     * The store being written, with its log under the policy being measured
+     */
+    @State(Scope.Benchmark)
+    public static class Writes {
+        @Param({"none", "interval", "always"})
+        public String policy;
+
+        Path directory;
+        InMemoryStore store;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("store-log-benchmark");
+            store = open(directory.resolve("store.snapshot"), StoreLog.SyncPolicy.valueOf(policy.toUpperCase()));
+            addAccounts(store);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            StoreLog log = store.getLog();
+            System.out.printf("%d records, %d syncs, %.0f MB logged%n", log.getRecords(), log.getSyncs(),
+                log.getBytes() / (1024.0 * 1024.0));
+            log.close();
+            delete(directory);
+        }
+    }
+
+    /**
+     * One writing thread's messages: the ones it may delete, oldest first, and recent ones it may update
+     */
+    @State(Scope.Thread)
+    public static class Writer {
+        final ArrayDeque<Integer> window = new ArrayDeque<>();
+        final List<Integer> recent = new ArrayList<>();
+        long count;
+
+        /**
+         * Makes this writer's next change, cycling through create, update and delete
+         */
+        Message next(InMemoryStore store) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long i = count++;
+            int step = (int) (i % 3);
+            if (step == 0 || window.isEmpty()) {
+                Message message = store.insertMessage(new Message(1 + random.nextInt(ACCOUNTS),
+                    "benchmark message " + i, System.currentTimeMillis() / 1000));
+                window.addLast(message.getMessage_id());
+                recent.add(message.getMessage_id());
+                if (recent.size() > 1024) {
+                    recent.subList(0, 512).clear();
+                }
+                return message;
+            }
+            if (step == 1) {
+                return store.updateMessage(recent.get(random.nextInt(recent.size())), "edited message " + i);
+            }
+            if (window.size() > WINDOW) {
+                return store.deleteMessage(window.removeFirst());
+            }
+            return store.updateMessage(recent.get(random.nextInt(recent.size())), "edited again " + i);
+        }
+    }
+
+    /**
+     * Files left by a store that made logOperations changes, with or without a snapshot of them
+     */
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"1000000"})
+        public int logOperations;
+
+        @Param({"false", "true"})
+        public boolean fromSnapshot;
+
+        Path directory;
+        Path snapshotPath;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("store-log-benchmark");
+            snapshotPath = directory.resolve("store.snapshot");
+            InMemoryStore store = open(snapshotPath, StoreLog.SyncPolicy.NONE);
+            addAccounts(store);
+            Writer writer = new Writer();
+            for (int i = 0; i < logOperations; i++) {
+                writer.next(store);
+            }
+            if (fromSnapshot) {
+                store.snapshot();
+            }
+            store.getLog().close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Opens a store on the files at snapshotPath with no scheduled snapshots
+     */
+    private static InMemoryStore open(Path snapshotPath, StoreLog.SyncPolicy policy) {
+        return new InMemoryStore(snapshotPath, 0, policy, 10);
+    }
+
+    private static void addAccounts(InMemoryStore store) {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            store.insertAccount(new Account("user" + i, "password"));
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,17 @@
+package Controller;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a request body that is longer than the endpoint accepts, before the rest of it is read
+ */
+public class BodyTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param maxBytes most bytes the body could have had
+     */
+    public BodyTooLargeException(long maxBytes) {
+        super("Request body is over " + maxBytes + " bytes");
+    }
+}
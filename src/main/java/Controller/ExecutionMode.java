@@ -0,0 +1,65 @@
+package Controller;
+
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Which threads the server runs request handlers on. Picked with the server.executionMode system property,
+ * platform or virtual.
+ *
+ * PLATFORM is a fixed pool of server.maxThreads platform threads, the most requests that can be in flight at once.
+ * Handlers block on jdbc, so once every thread is waiting on the database new requests queue up behind them.
+ *
+ * VIRTUAL runs each request's handler on its own virtual thread so a blocked handler only holds a cheap virtual
+ * thread. Jetty's selector and acceptor stay on the platform pool, putting those on virtual threads too starves
+ * them when every carrier thread is busy. The connection pool then becomes the limit on concurrent database work
+ * instead of the thread pool. Needs a JDK with virtual threads (21+), on older JDKs it falls back to PLATFORM.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    //Same name Javalin gives its own pool so thread dumps look the same
+    private static final String POOL_NAME = "JettyServerThreadPool";
+
+    /**
+     * @return the mode from the server.executionMode system property, PLATFORM when it isn't set
+     */
+    public static ExecutionMode fromSystemProperty() {
+        String mode = System.getProperty("server.executionMode", PLATFORM.name());
+        try {
+            return valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown server.executionMode " + mode + ", using " + PLATFORM);
+            return PLATFORM;
+        }
+    }
+
+    /**
+     * @return true if this mode can run on the current JDK
+     */
+    public boolean isAvailable() {
+        return this == PLATFORM || VirtualThreads.areSupported();
+    }
+
+    /**
+     * Creates the Jetty thread pool for this mode
+     * @return the pool, a platform pool if virtual threads aren't available
+     */
+    public ThreadPool threadPool() {
+        //Javalin's defaults, the max can be changed with the server.maxThreads system property
+        QueuedThreadPool pool = new QueuedThreadPool(Integer.getInteger("server.maxThreads", 250), 8, 60_000);
+        pool.setName(POOL_NAME);
+        if (this == VIRTUAL) {
+            if (isAvailable()) {
+                //Jetty hands blocking work, which is every handler, to this executor
+                pool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+            } else {
+                System.out.println("Virtual threads need JDK 21+, running on " + System.getProperty("java.version")
+                        + ", using " + PLATFORM);
+            }
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,311 @@
+package Controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import Model.Account;
+import Model.BatchItemResult;
+import Model.Message;
+import Model.MessageBatch;
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.json.JsonMapper;
+
+/**
+ * One shared, thread safe Jackson setup for the whole API. Building an ObjectMapper and looking up the serializers
+ * for a type is the expensive part of Jackson, so it is done once here and every handler reuses the cached
+ * ObjectReader and ObjectWriter for Account, Message and List of Message. A MessageBatch is written as the same
+ * json array a List of Message is.
+ * It is also registered as Javalin's JsonMapper so context.json and bodyAsClass use the same configuration.
+ *
+ * Request bodies are read by the cached ObjectReader straight from the request stream, so the body is never held
+ * as a whole, and a body over request.maxBodyBytes is refused as soon as that many bytes have arrived.
+ */
+public class JsonCodec implements JsonMapper {
+
+    //Shared instance, ObjectMapper readers and writers are immutable once configured so they are safe to share
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    private final ObjectMapper mapper;
+
+    //Readers and writers for every type seen so far, the model types are added up front
+    private final ConcurrentHashMap<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Type, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    //Most bytes a single account or message request body can have. Set with the request.maxBodyBytes system property
+    public static final int MAX_BODY_BYTES = Integer.getInteger("request.maxBodyBytes", 16 * 1024);
+
+    //Most bytes a batch request body can have, room for a full batch of long messages. Set with the
+    //request.maxBatchBodyBytes system property
+    public static final int MAX_BATCH_BODY_BYTES = Integer.getInteger("request.maxBatchBodyBytes", 1024 * 1024);
+
+    //Type used for json arrays of messages
+    public final JavaType messageListType;
+
+    //Type used for the per element results of batch requests
+    public final JavaType batchResultListType;
+
+    private JsonCodec() {
+        this.mapper = new ObjectMapper();
+        //Handlers own the response stream, so Jackson must not close it or flush after every value
+        this.mapper.getFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.mapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.mapper.registerModule(new SimpleModule().addSerializer(new MessageBatchSerializer()));
+
+        this.messageListType = mapper.getTypeFactory().constructCollectionType(List.class, Message.class);
+        this.batchResultListType = mapper.getTypeFactory().constructCollectionType(List.class, BatchItemResult.class);
+
+        //Warm up the model types so the first request doesn't pay for serializer lookup
+        for (Type type : new Type[] {Account.class, Message.class, messageListType}) {
+            readerFor(type);
+            writerFor(type);
+        }
+        writerFor(MessageBatch.class);
+    }
+
+    /**
+     * @param type type to read
+     * @return cached reader for the type
+     */
+    public ObjectReader readerFor(Type type) {
+        return readers.computeIfAbsent(type, t -> mapper.readerFor(mapper.constructType(t)));
+    }
+
+    /**
+     * @param type type to write
+     * @return cached writer for the type
+     */
+    public ObjectWriter writerFor(Type type) {
+        return writers.computeIfAbsent(type, t -> mapper.writerFor(mapper.constructType(t)));
+    }
+
+    /**
+     * @return the factory for handlers that write json a piece at a time with a JsonGenerator
+     */
+    public JsonFactory getFactory() {
+        return mapper.getFactory();
+    }
+
+    /**
+     * Reads a request body without turning it into a String first
+     * @param body raw request body
+     * @param type type to read
+     * @return the parsed object
+     * @throws IOException if the body isn't valid json for the type
+     */
+    public <T> T read(byte[] body, Class<T> type) throws IOException {
+        return readerFor(type).readValue(body);
+    }
+
+    /**
+     * Reads a request body stream, such as one from body(context)
+     * @param body request body stream
+     * @param type type to read
+     * @return the parsed object
+     * @throws BodyTooLargeException if the stream went over its limit, even where Jackson wrapped it
+     * @throws IOException if the body isn't valid json for the type
+     */
+    public <T> T read(InputStream body, Type type) throws IOException {
+        try {
+            return readerFor(type).readValue(body);
+        } catch (JsonMappingException e) {
+            //Thrown inside a collection or bean the stream's exception comes back wrapped with its path
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof BodyTooLargeException) {
+                    throw (BodyTooLargeException) cause;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the request body as a stream that fails once more than MAX_BODY_BYTES have been read
+     * @param context context of the request being read
+     * @return the request body stream
+     * @throws BodyTooLargeException if the Content-Length is over the limit
+     * @throws IOException if the body can't be opened
+     */
+    public InputStream body(Context context) throws IOException {
+        return body(context, MAX_BODY_BYTES);
+    }
+
+    /**
+     * Opens the request body as a stream that fails once more than maxBytes have been read. A body that says it
+     * is longer in its Content-Length is refused before any of it is read.
+     * @param context context of the request being read
+     * @param maxBytes most bytes the body can have
+     * @return the request body stream
+     * @throws BodyTooLargeException if the Content-Length is over the limit
+     * @throws IOException if the body can't be opened
+     */
+    public InputStream body(Context context, int maxBytes) throws IOException {
+        if (context.req().getContentLengthLong() > maxBytes) {
+            throw new BodyTooLargeException(maxBytes);
+        }
+        return new LimitedInputStream(context.req().getInputStream(), maxBytes);
+    }
+
+    /**
+     * Serializes the value straight into the response stream and sets the json content type
+     * @param context context of the request being answered
+     * @param value object to write
+     * @param type declared type of the value, used to pick the cached writer
+     * @throws IOException if the response can't be written
+     */
+    public void write(Context context, Object value, Type type) throws IOException {
+        context.contentType(ContentType.APPLICATION_JSON);
+        writerFor(type).writeValue(context.outputStream(), value);
+    }
+
+    /**
+     * Same as write(Context, Object, Type) using the value's class as the type
+     */
+    public void write(Context context, Object value) throws IOException {
+        write(context, value, value.getClass());
+    }
+
+    @Override
+    public String toJsonString(Object obj, Type type) {
+        //Strings are treated as already serialized json, same as Javalin's default mapper
+        if (obj instanceof String) {
+            return (String) obj;
+        }
+        try {
+            return writerFor(type).writeValueAsString(obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public InputStream toJsonStream(Object obj, Type type) {
+        try {
+            return new ByteArrayInputStream(writerFor(type).writeValueAsBytes(obj));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonString(String json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T fromJsonStream(InputStream json, Type targetType) {
+        try {
+            return readerFor(targetType).readValue(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a MessageBatch as a json array of message objects, with the same fields in the same order Jackson
+     * gives Message. The text is passed to the generator as the batch's UTF-8 bytes, which the byte generator
+     * escapes and copies without building a String. Writers to a char stream, such as writeValueAsString, can't
+     * take bytes, so they get a decoded String.
+     */
+    private static class MessageBatchSerializer extends StdSerializer<MessageBatch> {
+        private static final long serialVersionUID = 1L;
+
+        //Field names encoded once
+        private static final SerializableString MESSAGE_ID = new SerializedString("message_id");
+        private static final SerializableString POSTED_BY = new SerializedString("posted_by");
+        private static final SerializableString MESSAGE_TEXT = new SerializedString("message_text");
+        private static final SerializableString TIME_POSTED_EPOCH = new SerializedString("time_posted_epoch");
+
+        MessageBatchSerializer() {
+            super(MessageBatch.class);
+        }
+
+        @Override
+        public void serialize(MessageBatch batch, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            boolean bytes = generator.getOutputTarget() instanceof OutputStream;
+            generator.writeStartArray(batch, batch.size());
+            for (int row = 0; row < batch.size(); row++) {
+                generator.writeStartObject();
+                generator.writeFieldName(MESSAGE_ID);
+                generator.writeNumber(batch.getMessage_id(row));
+                generator.writeFieldName(POSTED_BY);
+                generator.writeNumber(batch.getPosted_by(row));
+                generator.writeFieldName(MESSAGE_TEXT);
+                if (bytes) {
+                    generator.writeUTF8String(batch.getTextBytes(row), batch.getTextOffset(row), batch.getTextLength(row));
+                } else {
+                    generator.writeString(batch.getMessage_text(row));
+                }
+                generator.writeFieldName(TIME_POSTED_EPOCH);
+                generator.writeNumber(batch.getTime_posted_epoch(row));
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Passes reads through until more than maxBytes have been read, then fails instead of reading the rest
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && --remaining < 0) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            //Asks for one byte past the limit so a body of exactly maxBytes isn't refused
+            int read = super.read(b, off, (int) Math.min(len, remaining + 1));
+            if (read > 0 && (remaining -= read) < 0) {
+                throw new BodyTooLargeException(maxBytes);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int length = (int) Math.min(Math.max(n, 0), 8192);
+            return Math.max(0, read(new byte[length], 0, length));
+        }
+    }
+}
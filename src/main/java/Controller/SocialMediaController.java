@@ -1,18 +1,51 @@
 package Controller;
 
+import DAO.MessageSink;
 import Model.Account;
+import Model.BatchItemResult;
 import Model.Message;
+import Model.MessageBatch;
+import Service.MessageFeed;
+import Service.MessageSearchIndex;
+import Service.MessageWriteBehind;
+import Service.QueueFullException;
 import Service.SocialMediaService;
-
+import Service.TimelineStore;
+import Util.ConnectionPool;
+import Util.CredentialCache;
+import Util.EncodedBodyCache;
+import Util.Metrics;
+import Util.PasswordHasher;
+import Util.UsernameIndex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import io.javalin.Javalin;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.sse.SseClient;
 
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller. The endpoints you will need can be
@@ -25,36 +58,248 @@ public class SocialMediaController {
     //Class field for service object for handler functions to reference to
     private SocialMediaService socialMediaService = new SocialMediaService();
 
+    //Shared Jackson setup with cached readers and writers, building a mapper per request is expensive
+    private final JsonCodec codec = JsonCodec.INSTANCE;
+
+    //Encodes feed events, each event is encoded once no matter how many clients get it
+    private final Function<Message, String> feedEncoder = message -> codec.toJsonString(message, Message.class);
+
+    //SSE comment sent as a feed heartbeat
+    private static final byte[] HEARTBEAT_FRAME = ": heartbeat\n\n".getBytes(StandardCharsets.US_ASCII);
+
+    //Page size used when a page is requested without a limit, and the largest page a client can ask for
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    //Most messages accepted in one batch request
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    //Response header holding the cursor for the next page
+    private static final String NEXT_CURSOR_HEADER = "Next-After-Message-Id";
+
+    //Response header holding the time_posted_epoch:message_id cursor for the next page of an account's messages
+    private static final String NEXT_PAGE_CURSOR_HEADER = "Next-Cursor";
+
+    //Search results per page when no limit is given, the largest page and the deepest a client can page
+    private static final int DEFAULT_SEARCH_PAGE_SIZE = 20;
+    private static final int MAX_SEARCH_PAGE_SIZE = 100;
+    private static final int MAX_SEARCH_OFFSET = 10_000;
+
+    //Response headers holding the number of search matches and the offset of the next page
+    private static final String SEARCH_TOTAL_HEADER = "Search-Total-Hits";
+    private static final String NEXT_OFFSET_HEADER = "Next-Offset";
+
+    //Timeline messages per page when no limit is given, and the largest page a client can ask for
+    private static final int DEFAULT_TIMELINE_PAGE_SIZE = 50;
+    private static final int MAX_TIMELINE_PAGE_SIZE = 200;
+
+    //Response header holding the message id to pass as before for the next page of a timeline
+    private static final String NEXT_TIMELINE_CURSOR_HEADER = "Next-Before-Message-Id";
+
+    //Request attribute holding System.nanoTime() from when the request arrived
+    private static final String REQUEST_START_ATTRIBUTE = "metrics.start";
+
+    //Route label for requests that didn't match any endpoint, so unknown paths don't each get their own series
+    private static final String UNMATCHED_ROUTE = "unmatched";
+
+    //Process wide request and sql metrics
+    private final Metrics metrics = Metrics.getInstance();
+
+    //Gzip level for responses, 0 turns compression off. Set with the compression.level system property
+    private static final int COMPRESSION_LEVEL = Integer.getInteger("compression.level", 6);
+
+    //Responses smaller than this many bytes aren't worth compressing. Set with compression.minSize
+    private static final int COMPRESSION_MIN_SIZE = Integer.getInteger("compression.minSize", 1500);
+
+    //Full message lists already encoded and gzipped, rebuilt once per change instead of once per request.
+    //Holds bodyCache.maxEntries lists (default 64), 0 turns it off and null when off
+    private final EncodedBodyCache listBodyCache = Integer.getInteger("bodyCache.maxEntries", 64) > 0
+            ? new EncodedBodyCache(Integer.getInteger("bodyCache.maxEntries", 64), Math.max(1, COMPRESSION_LEVEL),
+                    COMPRESSION_MIN_SIZE)
+            : null;
+
     /**
-     * Creates an instance of a Javalin Jettyserver. 
+     * Creates an instance of a Javalin Jettyserver. Handlers run on the threads picked by the server.executionMode
+     * system property.
      * @return a Javalin app object which defines the behavior of the Javalin controller.
      */
     public Javalin startAPI() {
-        Javalin app = Javalin.create();
+        return startAPI(ExecutionMode.fromSystemProperty());
+    }
+
+    /**
+     * Creates an instance of a Javalin Jettyserver.
+     * @param executionMode whether handlers run on a platform thread pool or on virtual threads
+     * @return a Javalin app object which defines the behavior of the Javalin controller.
+     */
+    public Javalin startAPI(ExecutionMode executionMode) {
+        Javalin app = Javalin.create(config -> {
+            config.jsonMapper(codec);
+            //Gzip for clients that accept it. Brotli needs a native library this build doesn't ship
+            if (COMPRESSION_LEVEL > 0) {
+                CompressionStrategy compression = new CompressionStrategy(null, new Gzip(COMPRESSION_LEVEL));
+                compression.setMinSizeForCompression(COMPRESSION_MIN_SIZE);
+                config.compression.custom(compression);
+            } else {
+                config.compression.none();
+            }
+            config.jetty.server(() -> {
+                Server server = new Server(executionMode.threadPool());
+                //Javalin's default server tracks in flight requests so stop can wait for them, keep that
+                server.insertHandler(new StatisticsHandler());
+                return server;
+            });
+        });
+        //Write-behind queue is full, tell the client to slow down and retry
+        app.exception(QueueFullException.class, (e, context) -> context.status(429));
+        //Body over request.maxBodyBytes, or request.maxBatchBodyBytes for a batch, refused without reading the rest of it
+        app.exception(BodyTooLargeException.class, (e, context) -> context.status(413));
+        //Save messages still waiting in write-behind mode before the server goes away
+        app.events(event -> event.serverStopped(socialMediaService::close));
+        //Times every request, after handlers also run when the endpoint threw
+        app.before(context -> context.attribute(REQUEST_START_ATTRIBUTE, System.nanoTime()));
+        app.after(this::recordRequestMetrics);
+        app.get("/metrics", this::getMetricsHandler);
         app.post("/register", this::registerHandler);
         app.post("/login", this::loginHandler);
         app.post("/messages", this::postMessageHandler);
+        app.post("/messages/batch", this::postMessagesBatchHandler);
         app.get("/messages", this::getAllMessagesHandler);
+        //Before /messages/{message_id} so search isn't taken for an id
+        app.get("/messages/search", this::searchMessagesHandler);
         app.get("/messages/{message_id}", this::getMessageHandler);
         app.delete("/messages/{message_id}", this::deleteMessageHandler);
         app.patch("/messages/{message_id}", this::patchMessageHandler);
         app.get("/accounts/{account_id}/messages", this::getMessagesByIdHandler);
+        app.get("/accounts/{account_id}/timeline", this::getTimelineHandler);
+        app.post("/accounts/{account_id}/following/{followee_id}", this::followHandler);
+        app.delete("/accounts/{account_id}/following/{followee_id}", this::unfollowHandler);
+        app.sse("/feed", client -> feedHandler(client, MessageFeed.ALL_ACCOUNTS));
+        app.sse("/accounts/{account_id}/feed",
+                client -> feedHandler(client, Integer.parseInt(client.ctx.pathParam("account_id"))));
         return app;
     }
 
     /**
-     * Uses Object mapper to turn json request body into an account object
+     * Records the request's time and status against its route pattern
      * @param context The Javalin Context object manages information about both the HTTP request and response.
-     * @throws JsonProcessingException
-     * @throws JsonMappingException
      */
-    private void registerHandler(Context context) throws JsonMappingException, JsonProcessingException {
+    private void recordRequestMetrics(Context context) {
+        Long start = context.attribute(REQUEST_START_ATTRIBUTE);
+        if (start == null) {
+            return;
+        }
+        //Javalin puts a description instead of a route here when nothing matched
+        String route = context.endpointHandlerPath();
+        if (route == null || !route.startsWith("/")) {
+            route = UNMATCHED_ROUTE;
+        }
+        metrics.recordRequest(context.method().name(), route, context.statusCode(), System.nanoTime() - start);
+    }
+    /**
+     * Writes request, sql, connection pool, cache, password hashing, feed, timeline, username index and write-behind metrics in the Prometheus text format
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     */
+    private void getMetricsHandler(Context context) {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        metrics.writePrometheus(out);
+        //Only stores on the database have a pool, asking for one otherwise would create the database
+        ConnectionPool pool = socialMediaService.getConnectionPool();
+        if (pool != null) {
+            Metrics.writePool(out, pool);
+        }
+        Metrics.writeCache(out, "message_cache", socialMediaService.getMessageCache());
+
+        PasswordHasher hasher = PasswordHasher.getInstance();
+        Metrics.writeGauge(out, "password_hash_work_factor", "Log2 of the PBKDF2 iterations for new hashes.",
+                hasher.getWorkFactor());
+        Metrics.writeGauge(out, "password_hash_queue_depth", "Hashes waiting for a hashing thread.", hasher.getQueueDepth());
+        Metrics.writeCounter(out, "password_hashes_total", "Password hashes computed.", hasher.getHashes());
+        Metrics.writeCounter(out, "password_hash_rejected_total", "Hashes rejected with a full queue.",
+                hasher.getRejected());
+        Metrics.writeCounter(out, "password_hash_seconds_total", "Time spent hashing.", hasher.getHashNanos() / 1e9);
+        CredentialCache credentials = socialMediaService.getCredentialCache();
+        Metrics.writeGauge(out, "credential_cache_size", "Recently verified logins remembered.", credentials.size());
+        Metrics.writeCounter(out, "credential_cache_hits_total", "Logins answered without hashing.", credentials.getHits());
+        Metrics.writeCounter(out, "credential_cache_misses_total", "Logins that had to hash.", credentials.getMisses());
+
+        if (listBodyCache != null) {
+            Metrics.writeGauge(out, "list_body_cache_size", "Message lists kept encoded.", listBodyCache.size());
+            Metrics.writeCounter(out, "list_body_cache_hits_total", "List responses sent from the cache.",
+                    listBodyCache.getHits());
+            Metrics.writeCounter(out, "list_body_cache_misses_total", "List responses that had to be encoded.",
+                    listBodyCache.getMisses());
+            Metrics.writeCounter(out, "list_body_cache_encode_seconds_total", "Time spent reading and encoding lists.",
+                    listBodyCache.getEncodeNanos() / 1e9);
+            Metrics.writeCounter(out, "list_body_cache_compress_seconds_total", "Time spent gzipping lists.",
+                    listBodyCache.getCompressNanos() / 1e9);
+        }
 
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
+        MessageSearchIndex search = socialMediaService.getSearchIndex();
+        if (search != null) {
+            Metrics.writeGauge(out, "search_index_messages", "Messages in the search index.", search.size());
+            Metrics.writeGauge(out, "search_index_terms", "Distinct words in the search index.", search.getTermCount());
+        }
+
+        MessageFeed feed = socialMediaService.getMessageFeed();
+        Metrics.writeGauge(out, "feed_subscribers", "Clients connected to the live feed.", feed.getSubscriberCount());
+        Metrics.writeCounter(out, "feed_events_published_total", "Message changes published.", feed.getPublished());
+        Metrics.writeCounter(out, "feed_events_delivered_total", "Events written to subscribers.", feed.getDelivered());
+        Metrics.writeCounter(out, "feed_slow_disconnects_total", "Subscribers disconnected for falling behind.",
+                feed.getSlowDisconnects());
+
+        TimelineStore timelines = socialMediaService.getTimelineStore();
+        Metrics.writeGauge(out, "timeline_store_timelines", "Home timelines kept in memory.", timelines.size());
+        Metrics.writeGauge(out, "timeline_store_bytes", "Estimated memory used by home timelines.",
+                timelines.getMemoryBytes());
+        Metrics.writeGauge(out, "timeline_store_max_bytes", "Memory home timelines may use before eviction.",
+                timelines.getMaxBytes());
+        Metrics.writeGauge(out, "timeline_celebrity_accounts", "Accounts whose messages are merged in on read.",
+                socialMediaService.getCelebrityCount());
+        Metrics.writeCounter(out, "timeline_fanout_writes_total", "Message ids pushed to home timelines.",
+                timelines.getFanOutWrites());
+        Metrics.writeCounter(out, "timeline_builds_total", "Home timelines built from the database.",
+                timelines.getBuilds());
+        Metrics.writeCounter(out, "timeline_evictions_total", "Home timelines dropped to stay under the memory limit.",
+                timelines.getEvictions());
+        Metrics.writeCounter(out, "timeline_fallback_reads_total", "Timeline pages older than the kept timeline.",
+                socialMediaService.getFallbackTimelineReads());
+
+        UsernameIndex usernames = socialMediaService.getUsernameIndex();
+        if (usernames != null) {
+            Metrics.writeGauge(out, "username_index_size", "Usernames in the index.", usernames.size());
+            Metrics.writeCounter(out, "username_index_definite_total", "Username checks answered without a query.",
+                    usernames.getDefiniteAnswers());
+            Metrics.writeCounter(out, "username_index_uncertain_total", "Bloom checks that still needed a query.",
+                    usernames.getUncertainAnswers());
+        }
+
+        MessageWriteBehind writeBehind = socialMediaService.getMessageWriteBehind();
+        if (writeBehind != null) {
+            Metrics.writeGauge(out, "write_behind_queue_depth", "Messages waiting to be saved.", writeBehind.getQueueDepth());
+            Metrics.writeCounter(out, "write_behind_accepted_total", "Messages accepted.", writeBehind.getAccepted());
+            Metrics.writeCounter(out, "write_behind_rejected_total", "Messages rejected with a full queue.",
+                    writeBehind.getRejected());
+            Metrics.writeCounter(out, "write_behind_committed_total", "Messages saved.", writeBehind.getCommitted());
+            Metrics.writeCounter(out, "write_behind_failed_total", "Messages that could not be saved.",
+                    writeBehind.getFailed());
+            Metrics.writeCounter(out, "write_behind_batches_total", "Batches written.", writeBehind.getBatches());
+            Metrics.writeCounter(out, "write_behind_commit_seconds_total", "Time spent writing batches.",
+                    writeBehind.getCommitNanos() / 1e9);
+            Metrics.writeGauge(out, "write_behind_commit_seconds_max", "Slowest batch write so far.",
+                    writeBehind.getMaxCommitNanos() / 1e9);
+        }
+        context.contentType(Metrics.CONTENT_TYPE).result(out.toString());
+    }
+    /**
+     * Uses the shared json codec to stream the json request body into an account object
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     * @throws IOException
+     */
+    private void registerHandler(Context context) throws IOException {
 
         //Converts body json to account object
-        Account account = mapper.readValue(context.body(), Account.class);
+        Account account = codec.read(codec.body(context), Account.class);
 
         //Sends body json to service to register the account
         Account addedAccount = socialMediaService.register(account);
@@ -63,22 +308,18 @@ public class SocialMediaController {
         if (addedAccount == null) {
             context.status(400); //General Client Error
         } else {
-            context.json(mapper.writeValueAsString(addedAccount));
+            codec.write(context, addedAccount);
         }
     }
     /**
      * 
      * @param context
-     * @throws JsonMappingException
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void loginHandler(Context context) throws JsonMappingException, JsonProcessingException {
-
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
+    private void loginHandler(Context context) throws IOException {
 
         //Converts body json to account object
-        Account account = mapper.readValue(context.body(), Account.class);
+        Account account = codec.read(codec.body(context), Account.class);
         //Sends body json to service to validate the login
         Account addedAccount = socialMediaService.login(account);
 
@@ -86,22 +327,24 @@ public class SocialMediaController {
         if (addedAccount == null) {
             context.status(401); //Unauthorized: Request not valid
         } else {
-            context.json(mapper.writeValueAsString(addedAccount));
+            codec.write(context, addedAccount);
         }
     }
     /**
      * 
      * @param context
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void getMessageHandler(Context context) throws JsonProcessingException{
-
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
+    private void getMessageHandler(Context context) throws IOException{
 
         //Gets id value from endpoint url
         int message_id = Integer.parseInt(context.pathParam("message_id"));
 
+        //Client already has this version, nothing to read or encode
+        if (notModified(context, socialMediaService.getMessageVersions().getMessageVersion(message_id))) {
+            return;
+        }
+
         //Gets message object from service read message method
         Message message = socialMediaService.readMessage(message_id);
 
@@ -109,66 +352,478 @@ public class SocialMediaController {
         if (message == null) {
             context.status(200); //Default successful response
         } else {
-            context.json(mapper.writeValueAsString(message));
+            codec.write(context, message);
         }
     }
     /**
-     * 
+     * Searches message_text for messages containing every word of the q query param, best match first. Pages with
+     * limit and offset, sends the number of matches in the Search-Total-Hits header and the offset of the next
+     * page in Next-Offset when there are more.
      * @param context
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void getAllMessagesHandler(Context context) throws JsonProcessingException{
+    private void searchMessagesHandler(Context context) throws IOException{
+
+        //Reads query and paging params, a missing query or anything that isn't a number is a client error
+        String query = context.queryParam("q");
+        int limit;
+        int offset;
+        try {
+            limit = intQueryParam(context, "limit", DEFAULT_SEARCH_PAGE_SIZE);
+            offset = intQueryParam(context, "offset", 0);
+        } catch (NumberFormatException e) {
+            context.status(400); //General Client Error
+            return;
+        }
+        if (query == null || query.isBlank() || limit < 1 || offset < 0 || offset > MAX_SEARCH_OFFSET) {
+            context.status(400); //General Client Error
+            return;
+        }
+        if (notModified(context, socialMediaService.getMessageVersions().getAllMessagesVersion())) {
+            return;
+        }
+        int pageSize = Math.min(limit, MAX_SEARCH_PAGE_SIZE);
+
+        MessageSearchIndex.Result result = socialMediaService.searchMessages(query, offset, pageSize);
+        if (result == null) {
+            context.status(503); //Service Unavailable: search is off
+            return;
+        }
+        List<Message> messages = socialMediaService.readMessagesByIds(result.getMessage_ids());
+        if (messages == null) {
+            context.status(500); //Server Error
+            return;
+        }
+        context.header(SEARCH_TOTAL_HEADER, String.valueOf(result.getTotalHits()));
+        if (offset + pageSize < result.getTotalHits()) {
+            context.header(NEXT_OFFSET_HEADER, String.valueOf(offset + pageSize));
+        }
+        codec.write(context, messages, codec.messageListType);
+    }
+    /**
+     * Returns all messages. With a limit or after_message_id query param it returns one page ordered by id,
+     * and the id to pass as after_message_id for the next page is sent in the Next-After-Message-Id header.
+     * With stream=true the messages are written to the response as they are read from the database.
+     * With since or until it streams the messages posted in that window, newest first.
+     * @param context
+     * @throws IOException
+     */
+    private void getAllMessagesHandler(Context context) throws IOException{
+
+        //Reads optional paging params, anything that isn't a number is a client error
+        int limit;
+        int after_message_id;
+        try {
+            limit = intQueryParam(context, "limit", 0);
+            after_message_id = intQueryParam(context, "after_message_id", 0);
+        } catch (NumberFormatException e) {
+            context.status(400); //General Client Error
+            return;
+        }
+        if (limit < 0 || after_message_id < 0) {
+            context.status(400); //General Client Error
+            return;
+        }
+        long version = socialMediaService.getMessageVersions().getAllMessagesVersion();
+        if (notModified(context, version)) {
+            return;
+        }
 
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
+        //Time window mode streams just the messages posted in the window, newest first
+        if (context.queryParam("since") != null || context.queryParam("until") != null) {
+            streamTimeRange(context, MessageFeed.ALL_ACCOUNTS);
+            return;
+        }
+
+        //Streaming mode writes each row straight to the response without building a list
+        if ("true".equals(context.queryParam("stream"))) {
+            streamMessages(context, sink -> socialMediaService.streamMessages(after_message_id, limit, sink));
+            return;
+        }
 
-        //Returns List of Messages or null on error from service
-        List<Message> messages = socialMediaService.readAllMessages();
+        //Paged mode when the client asked for a page
+        if (context.queryParam("limit") != null || context.queryParam("after_message_id") != null) {
+            int pageSize = Math.min(limit == 0 ? DEFAULT_PAGE_SIZE : limit, MAX_PAGE_SIZE);
+            List<Message> page = socialMediaService.readMessagesPage(after_message_id, pageSize);
+            if (page == null) {
+                context.status(200); //Default successful response
+                return;
+            }
+            //A full page means there may be more, so tell the client where to continue from
+            if (page.size() == pageSize) {
+                context.header(NEXT_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getMessage_id()));
+            }
+            codec.write(context, page, codec.messageListType);
+            return;
+        }
 
+        //Returns all messages, null on error from service. Read as one batch, the whole table can be large
+        writeMessageList(context, "messages", version, socialMediaService::readAllMessagesBatch, MessageBatch.class);
+    }
+    /**
+     * Streams the messages posted between the since and until query params, newest first. since is inclusive
+     * and until exclusive, so a client polling for new messages can pass the until of its last poll as the
+     * next since. Either one may be left out.
+     * @param context
+     * @param account_id only stream this account's messages, or MessageFeed.ALL_ACCOUNTS
+     * @throws IOException
+     */
+    private void streamTimeRange(Context context, int account_id) throws IOException{
+
+        //Reads the window, anything that isn't a number or an empty window is a client error
+        long since;
+        long until;
+        try {
+            String value = context.queryParam("since");
+            since = value == null ? Long.MIN_VALUE : Long.parseLong(value);
+            value = context.queryParam("until");
+            until = value == null ? Long.MAX_VALUE : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            context.status(400); //General Client Error
+            return;
+        }
+        if (since >= until) {
+            context.status(400); //General Client Error
+            return;
+        }
+        streamMessages(context, sink -> socialMediaService.streamMessagesInTimeRange(account_id, since, until, sink));
+    }
+    /**
+     * Writes messages as a json array one element at a time while the service reads them from the database
+     * @param context
+     * @param reader hands each message to the sink, returns false if it couldn't read them all
+     * @throws IOException
+     */
+    private void streamMessages(Context context, Predicate<MessageSink> reader) throws IOException{
+        context.contentType(ContentType.APPLICATION_JSON);
+
+        //Generator writes to the response stream so nothing is buffered beyond jackson's small write buffer
+        ObjectWriter writer = codec.writerFor(Message.class);
+        JsonGenerator generator = codec.getFactory().createGenerator(context.outputStream());
+        generator.writeStartArray();
+        boolean complete = reader.test(message -> writer.writeValue(generator, message));
+        if (!complete) {
+            //Headers are already sent so the best we can do is end the array early
+            System.out.println("Message stream ended early");
+        }
+        generator.writeEndArray();
+        generator.close();
+    }
+    /**
+     * Writes a full message list, from the list body cache when it has this version. Bodies from the cache are
+     * written straight to the servlet stream, already gzipped if the client accepts gzip, so Javalin doesn't
+     * compress them again.
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     * @param key name of the list in the cache
+     * @param version version read before the list, see MessageVersions
+     * @param reader reads the list, returns null on errors
+     * @param type type of what the reader returns, a List of Message or a MessageBatch
+     * @throws IOException
+     */
+    private void writeMessageList(Context context, String key, long version, Supplier<?> reader, Type type)
+            throws IOException {
+        if (listBodyCache == null) {
+            Object messages = reader.get();
+            //If null return 200 without a response body
+            if (messages == null) {
+                context.status(200); //Default successful response
+            } else {
+                codec.write(context, messages, type);
+            }
+            return;
+        }
+
+        EncodedBodyCache.EncodedBody body = listBodyCache.get(key, version, () -> {
+            Object messages = reader.get();
+            try {
+                return messages == null ? null : codec.writerFor(type).writeValueAsBytes(messages);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
         //If null return 200 without a response body
-        if (messages == null) {
+        if (body == null) {
             context.status(200); //Default successful response
+            return;
+        }
+
+        byte[] bytes = body.getRaw();
+        String acceptEncoding = context.header(Header.ACCEPT_ENCODING);
+        if (body.getGzipped() != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            bytes = body.getGzipped();
+            context.header(Header.CONTENT_ENCODING, "gzip");
+        }
+        context.header(Header.VARY, Header.ACCEPT_ENCODING);
+        context.contentType(ContentType.APPLICATION_JSON);
+        context.res().setContentLength(bytes.length);
+        context.res().getOutputStream().write(bytes);
+    }
+    /**
+     * Adds ETag and Last-Modified headers for a response built from data at the given version, then answers
+     * 304 if the client already has that version. Checked before anything is read, so a 304 costs no query and
+     * no json. The query string is part of the ETag because it picks what the body holds. If-None-Match wins
+     * over If-Modified-Since.
+     *
+     * Last-Modified only has whole seconds while versions are milliseconds, so a second change in the same second
+     * could look unchanged. A version is only fresh when it is before the If-Modified-Since second starts, and
+     * Last-Modified is only moved past the version, to the end of its second, once that second is over and no
+     * later change can land in it. Until then Last-Modified is the start of the version's second, which never
+     * validates, and clients fall back to the ETag.
+     * @param context The Javalin Context object manages information about both the HTTP request and response.
+     * @param version version of the data the response is built from, see MessageVersions
+     * @return true if a 304 was sent and the handler should stop
+     */
+    private boolean notModified(Context context, long version) {
+        String query = context.queryString();
+        String etag = "\"" + Long.toString(version, 36)
+                + (query == null || query.isEmpty() ? "" : "-" + Integer.toHexString(query.hashCode())) + "\"";
+        context.header(Header.ETAG, etag);
+        //Versions never go backwards and are never before the clock, so a change after this one can't be in a
+        //second that is already over
+        long second = version / 1000 * 1000;
+        long lastModified = System.currentTimeMillis() >= second + 1000 ? second + 1000 : second;
+        context.header(Header.LAST_MODIFIED, DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)));
+        //Clients may keep the body but have to check back before using it
+        context.header(Header.CACHE_CONTROL, "no-cache");
+
+        boolean fresh;
+        String ifNoneMatch = context.header(Header.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            fresh = false;
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                //Weak comparison, W/ is ignored
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals(etag) || tag.equals("*")) {
+                    fresh = true;
+                    break;
+                }
+            }
         } else {
-            //return all messages
-            context.json(mapper.writeValueAsString(messages));
+            String ifModifiedSince = context.header(Header.IF_MODIFIED_SINCE);
+            try {
+                fresh = ifModifiedSince != null && version < ZonedDateTime.parse(ifModifiedSince,
+                        DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                //Invalid dates are ignored
+                fresh = false;
+            }
+        }
+        if (fresh) {
+            context.status(304); //Not Modified
         }
+        return fresh;
     }
     /**
-     * 
+     * Reads an integer query param
      * @param context
-     * @throws JsonProcessingException
+     * @param name query param name
+     * @param defaultValue value used when the param isn't sent
+     * @return the param value or the default
+     * @throws NumberFormatException if the param isn't a number
      */
-    private void getMessagesByIdHandler(Context context) throws JsonProcessingException{
-
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
+    private int intQueryParam(Context context, String name, int defaultValue) {
+        String value = context.queryParam(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+    /**
+     * Streams message create, update and delete events as server-sent events until the client disconnects.
+     * Each event is named created, updated or deleted, its data is the message json and its id counts up
+     * across the whole feed. Clients that fall too far behind are disconnected.
+     * @param client the SSE connection
+     * @param account_id only send events for this account's messages, or MessageFeed.ALL_ACCOUNTS
+     */
+    private void feedHandler(SseClient client, int account_id) {
+        //Holds the connection open after this returns
+        client.keepAlive();
+        //Frames are written straight to the response, SseClient's own send methods swallow write errors so a
+        //client that went away would never be noticed
+        OutputStream out;
+        try {
+            out = client.ctx.res().getOutputStream();
+        } catch (IOException e) {
+            client.close();
+            return;
+        }
+        MessageFeed.Subscription subscription = socialMediaService.getMessageFeed().subscribe(account_id,
+            new MessageFeed.Sink() {
+                @Override
+                public void send(MessageFeed.Event event) throws IOException {
+                    if (event.isHeartbeat()) {
+                        out.write(HEARTBEAT_FRAME);
+                    } else {
+                        out.write(("id: " + event.getId() + "\nevent: " + event.getType() + "\ndata: "
+                                + event.getData(feedEncoder) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    //Fails once the client is gone, which closes the subscription
+                    out.flush();
+                }
+
+                @Override
+                public void close() {
+                    client.close();
+                }
+            });
+        client.onClose(subscription::close);
+    }
+    /**
+     * Returns all messages for an account. With a limit or cursor query param it returns one page, newest first,
+     * and the cursor for the next page is sent in the Next-Cursor header as time_posted_epoch:message_id.
+     * With since or until it streams the account's messages posted in that window, newest first.
+     * @param context
+     * @throws IOException
+     */
+    private void getMessagesByIdHandler(Context context) throws IOException{
 
         //Gets account id from url path
         int account_id = Integer.parseInt(context.pathParam("account_id"));
 
+        //Covers the paged mode too, the query string is part of the ETag
+        long version = socialMediaService.getMessageVersions().getAccountVersion(account_id);
+        if (notModified(context, version)) {
+            return;
+        }
+
+        //Time window mode streams just the messages posted in the window, newest first
+        if (context.queryParam("since") != null || context.queryParam("until") != null) {
+            streamTimeRange(context, account_id);
+            return;
+        }
+
+        //Paged mode when the client asked for a page
+        if (context.queryParam("limit") != null || context.queryParam("cursor") != null) {
+            getMessagesPageByIdHandler(context, account_id);
+            return;
+        }
+
         //Creates a list of messages from service's read all messages or null on errors
-        List<Message> messages = socialMediaService.readAllMessagesById(account_id);
-        
-        //If null then an error occurred otherwise return object
-        if (messages == null) {
+        writeMessageList(context, "accounts/" + account_id + "/messages", version,
+                () -> socialMediaService.readAllMessagesById(account_id), codec.messageListType);
+    }
+    /**
+     * Returns one page of an account's messages, newest first
+     * @param context
+     * @param account_id id of the account from the url path
+     * @throws IOException
+     */
+    private void getMessagesPageByIdHandler(Context context, int account_id) throws IOException{
+
+        //Reads page size and cursor, anything malformed is a client error
+        int limit;
+        long before_epoch = Long.MAX_VALUE;
+        int after_message_id = 0;
+        try {
+            limit = intQueryParam(context, "limit", DEFAULT_PAGE_SIZE);
+            String cursor = context.queryParam("cursor");
+            if (cursor != null) {
+                int split = cursor.indexOf(':');
+                before_epoch = Long.parseLong(cursor.substring(0, split));
+                after_message_id = Integer.parseInt(cursor.substring(split + 1));
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            context.status(400); //General Client Error
+            return;
+        }
+        if (limit < 1) {
+            context.status(400); //General Client Error
+            return;
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+
+        List<Message> page = socialMediaService.readMessagesPageById(account_id, before_epoch, after_message_id, pageSize);
+        if (page == null) {
             context.status(200); //Deafult successful response
+            return;
+        }
+        //A full page means there may be more, so tell the client where to continue from
+        if (page.size() == pageSize) {
+            Message last = page.get(page.size() - 1);
+            context.header(NEXT_PAGE_CURSOR_HEADER, last.getTime_posted_epoch() + ":" + last.getMessage_id());
+        }
+        codec.write(context, page, codec.messageListType);
+    }
+    /**
+     * Returns one page of an account's home timeline, the messages posted by the accounts it follows, newest
+     * first. Pages with limit and before, a message id, and sends the before for the next page in the
+     * Next-Before-Message-Id header when the page is full.
+     * @param context
+     * @throws IOException
+     */
+    private void getTimelineHandler(Context context) throws IOException{
+
+        //Gets account id from url path
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+
+        //Reads page size and cursor, anything that isn't a number is a client error
+        int limit;
+        int before_message_id;
+        try {
+            limit = intQueryParam(context, "limit", DEFAULT_TIMELINE_PAGE_SIZE);
+            before_message_id = intQueryParam(context, "before", Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            context.status(400); //General Client Error
+            return;
+        }
+        if (limit < 1 || before_message_id < 1) {
+            context.status(400); //General Client Error
+            return;
+        }
+        int pageSize = Math.min(limit, MAX_TIMELINE_PAGE_SIZE);
+
+        List<Message> page = socialMediaService.readTimeline(account_id, before_message_id, pageSize);
+        if (page == null) {
+            context.status(500); //Server Error
+            return;
+        }
+        //A full page means there may be more, so tell the client where to continue from
+        if (page.size() == pageSize) {
+            context.header(NEXT_TIMELINE_CURSOR_HEADER, String.valueOf(page.get(page.size() - 1).getMessage_id()));
+        }
+        codec.write(context, page, codec.messageListType);
+    }
+    /**
+     * Makes the account in the path follow followee_id, following again is not an error
+     * @param context
+     */
+    private void followHandler(Context context) {
+
+        //Gets both account ids from url path
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+        int followee_id = Integer.parseInt(context.pathParam("followee_id"));
+
+        //Following yourself or an account that doesn't exist is a client error
+        if (!socialMediaService.followAccount(account_id, followee_id)) {
+            context.status(400); //General Client Error
         } else {
-            context.json(mapper.writeValueAsString(messages));
+            context.status(200); //Default successful response
         }
     }
+    /**
+     * Stops the account in the path following followee_id. Like deleting a message, unfollowing an account that
+     * wasn't followed still returns 200.
+     * @param context
+     */
+    private void unfollowHandler(Context context) {
+
+        //Gets both account ids from url path
+        int account_id = Integer.parseInt(context.pathParam("account_id"));
+        int followee_id = Integer.parseInt(context.pathParam("followee_id"));
+
+        socialMediaService.unfollowAccount(account_id, followee_id);
+        context.status(200); //Default successful response
+    }
     /**
      * 
      * @param context
-     * @throws JsonMappingException
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void postMessageHandler(Context context) throws JsonMappingException, JsonProcessingException{
+    private void postMessageHandler(Context context) throws IOException{
         
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
-
         //Converts body json to message object
-        Message message = mapper.readValue(context.body(), Message.class);
+        Message message = codec.read(codec.body(context), Message.class);
 
         //Set message to response from service which is the new value or null on error
         message = socialMediaService.createMessage(message);
@@ -177,24 +832,41 @@ public class SocialMediaController {
         if (message == null) {
             context.status(400); //General Client Error
         } else {
-            context.status(200).json(mapper.writeValueAsString(message));
+            codec.write(context.status(200), message);
         }
     }
     /**
-     * 
+     * Takes a json array of messages and saves the valid ones in one transaction.
+     * Responds with one result per element holding the saved message or why it was rejected.
      * @param context
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void patchMessageHandler(Context context) throws JsonProcessingException{
+    private void postMessagesBatchHandler(Context context) throws IOException{
 
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
+        //Converts body json array to a list of message objects, refusing bodies bigger than a full batch needs
+        List<Message> messages = codec.read(codec.body(context, JsonCodec.MAX_BATCH_BODY_BYTES), codec.messageListType);
+
+        //Empty and oversized batches are a client error
+        if (messages == null || messages.isEmpty() || messages.size() > MAX_BATCH_SIZE) {
+            context.status(400); //General Client Error
+            return;
+        }
+
+        List<BatchItemResult> results = socialMediaService.createMessages(messages);
+        codec.write(context, results, codec.batchResultListType);
+    }
+    /**
+     * 
+     * @param context
+     * @throws IOException
+     */
+    private void patchMessageHandler(Context context) throws IOException{
 
         //Gets id value from endpoint url
         int message_id = Integer.parseInt(context.pathParam("message_id"));
 
         //Converts body json to message object and sets the object to have the id from path
-        Message message = mapper.readValue(context.body(), Message.class);
+        Message message = codec.read(codec.body(context), Message.class);
         message.setMessage_id(message_id);
 
         //Returns message or null to new message object
@@ -204,32 +876,29 @@ public class SocialMediaController {
         if (message == null) {
             context.status(400); //General Client Error
         } else {
-            context.json(mapper.writeValueAsString(message));
+            codec.write(context, message);
         }
     }
 
     /**
      * 
      * @param context
-     * @throws JsonProcessingException
+     * @throws IOException
      */
-    private void deleteMessageHandler(Context context) throws JsonProcessingException{
-
-        //Uses Jackson object mapper to serialize objects
-        ObjectMapper mapper = new ObjectMapper();
+    private void deleteMessageHandler(Context context) throws IOException{
 
 
         //Get message id from url path
         int message_id = Integer.parseInt(context.pathParam("message_id"));
 
         //sets message object to deleted message or null on failure
-        Message message = socialMediaService.readMessage(message_id);
+        Message message = socialMediaService.deleteMessage(message_id);
 
         //If null return empty body with default response
         if (message == null) {
             context.status(200); //Deafult successful response
         } else {
-            context.json(mapper.writeValueAsString(message));
+            codec.write(context, message);
         }
     }
 }
\ No newline at end of file
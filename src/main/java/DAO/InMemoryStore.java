@@ -0,0 +1,1332 @@
+package DAO;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.function.ObjIntConsumer;
+
+import Model.*;
+import Util.IntHashMap;
+
+/**
+ * Keeps accounts, messages and follows in this process instead of the database, for nodes that can't wait on h2
+ * and for benchmarking the service without I/O. Messages live in an int keyed map with sorted indexes beside it:
+ * every message by id and by time, and each account's messages by id and by time, so every query the service
+ * makes is a map lookup or a walk along one index. Behaves like SocialMediaDAO, including refusing messages from
+ * accounts that don't exist and accounts that still have messages from being deleted.
+ *
+ * One read/write lock guards everything. Reads share it and writes take it alone for a few array operations.
+ * Streaming methods copy rows out a chunk at a time and hand them to the sink without the lock, so a slow client
+ * doesn't hold up writers. Messages and accounts are copied in and out, so callers can't change what is stored.
+ *
+ * With the storage.snapshotPath system property set, everything is written to that file every
+ * storage.snapshotIntervalSeconds (default 60, 0 for only on close) and when the store closes, and read back when
+ * the store is created. Every change is also appended to a StoreLog beside the snapshot before it is made, and
+ * replayed on top of the snapshot when the store is created, so changes since the last snapshot survive a crash.
+ * storage.logSync sets how durable a change is when its method returns: always (the default, fsynced), interval
+ * (fsynced within storage.logSyncIntervalMs, default 10), none (left to the operating system) or off (no log).
+ * Each snapshot starts a new log generation and deletes the ones it covers, so the log only holds the changes
+ * since the last snapshot.
+ *
+ * A change is applied under the write lock and synced after it is released, so readers can see a change before
+ * it is on disk. If the sync fails the change can't be taken back, the record may or may not have reached the
+ * disk, so the caller is told it failed and the store turns read-only: every later change and snapshot is refused
+ * until a restart recovers whatever the log actually holds. A caller interrupted while waiting for its sync is
+ * only told its own change failed, the log's writer thread still writes it.
+ */
+public class InMemoryStore implements SocialMediaStore {
+
+    //First int of a snapshot file, "SMS1" snapshots predate the log and have no log generation
+    private static final int SNAPSHOT_MAGIC_V1 = 0x534D5331;
+    private static final int SNAPSHOT_MAGIC = 0x534D5332;
+
+    //Rows copied out per lock hold while streaming
+    private static final int STREAM_CHUNK = 1000;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //Everything below is guarded by lock
+    private final IntHashMap<Account> accountsById = new IntHashMap<>();
+    private final Map<String, Account> accountsByUsername = new HashMap<>();
+    private final IntHashMap<Message> messages = new IntHashMap<>(1024);
+    private final IntList messageIds = new IntList();
+    private final TimeIndex messagesByTime = new TimeIndex();
+    private final IntHashMap<AccountMessages> messagesByAccount = new IntHashMap<>();
+    private final IntHashMap<IntList> followers = new IntHashMap<>();
+    private final IntHashMap<IntList> followees = new IntHashMap<>();
+    private int lastAccountId;
+    private int lastMessageId;
+
+    private final Path snapshotPath;
+    private final ScheduledExecutorService snapshotter;
+    //Null when there is no log
+    private final StoreLog log;
+    //Set once a logged change couldn't be synced, the store takes no more changes after that
+    private volatile boolean failed;
+
+    /**
+     * Creates a store set up by the storage.snapshotPath, storage.snapshotIntervalSeconds, storage.logSync and
+     * storage.logSyncIntervalMs system properties
+     * @return the store, recovered from the snapshot and log if there are any
+     */
+    public static InMemoryStore fromSystemProperties() {
+        String path = System.getProperty("storage.snapshotPath");
+        String logSync = System.getProperty("storage.logSync", "always");
+        return new InMemoryStore(path == null ? null : Paths.get(path),
+                Long.getLong("storage.snapshotIntervalSeconds", 60),
+                logSync.equals("off") ? null : StoreLog.SyncPolicy.valueOf(logSync.toUpperCase()),
+                Long.getLong("storage.logSyncIntervalMs", 10));
+    }
+
+    /**
+     * Creates an empty store that is never snapshotted
+     */
+    public InMemoryStore() {
+        this(null, 0, null, 0);
+    }
+
+    /**
+     * Recovers the store from the snapshot and the log generations after it, cutting off a record left half written
+     * by a crash. A snapshot or log that can't be read stops the store from being created, rather than starting
+     * without the data and overwriting it at the next snapshot.
+     * @param snapshotPath file to load from and snapshot to, the log files sit beside it. Null for an empty store
+     * with no snapshots or log
+     * @param snapshotIntervalSeconds seconds between snapshots, 0 to only snapshot on close
+     * @param logSync when logged changes are forced to disk, null for no log
+     * @param logSyncIntervalMillis how often the INTERVAL policy syncs
+     */
+    public InMemoryStore(Path snapshotPath, long snapshotIntervalSeconds, StoreLog.SyncPolicy logSync,
+                         long logSyncIntervalMillis) {
+        this.snapshotPath = snapshotPath;
+        long generation = 0;
+        if (snapshotPath != null && Files.exists(snapshotPath)) {
+            generation = load(snapshotPath);
+        }
+        if (snapshotPath != null && logSync != null) {
+            lock.writeLock().lock();
+            try {
+                long[] end = StoreLog.replay(snapshotPath, generation, new Replayer());
+                this.log = new StoreLog(snapshotPath, end[0], end[1], logSync, logSyncIntervalMillis);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not recover the store log", e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } else {
+            this.log = null;
+        }
+        if (snapshotPath != null && snapshotIntervalSeconds > 0) {
+            this.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "store-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.snapshotter.scheduleWithFixedDelay(this::snapshot, snapshotIntervalSeconds, snapshotIntervalSeconds,
+                    TimeUnit.SECONDS);
+        } else {
+            this.snapshotter = null;
+        }
+    }
+
+    //Accounts
+
+    @Override
+    public Account selectAccountByUsername(String username) {
+        lock.readLock().lock();
+        try {
+            return copy(accountsByUsername.get(username));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateAccountPassword(int account_id, String password) {
+        long logged;
+        lock.writeLock().lock();
+        try {
+            if (failed || accountsById.get(account_id) == null) {
+                return false;
+            }
+            logged = log == null ? 0 : log.passwordUpdated(account_id, password);
+            if (logged < 0) {
+                return false;
+            }
+            applyPasswordUpdated(account_id, password);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged);
+    }
+
+    @Override
+    public boolean streamAccountUsernames(ObjIntConsumer<String> sink) {
+        List<Account> accounts = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            accountsById.forEach((account, account_id) -> accounts.add(account));
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Account account : accounts) {
+            sink.accept(account.getUsername(), account.getAccount_id());
+        }
+        return true;
+    }
+
+    @Override
+    public Account insertAccount(Account account) {
+        long logged;
+        lock.writeLock().lock();
+        try {
+            //Usernames are unique, same as the column
+            if (failed || account.getUsername() == null || accountsByUsername.containsKey(account.getUsername())) {
+                return null;
+            }
+            int account_id = lastAccountId + 1;
+            logged = log == null ? 0 : log.accountInserted(account_id, account.getUsername(), account.getPassword());
+            if (logged < 0) {
+                return null;
+            }
+            applyAccountInserted(new Account(account_id, account.getUsername(), account.getPassword()));
+            account.setAccount_id(account_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged) ? account : null;
+    }
+
+    @Override
+    public Account deleteAccount(Account account) {
+        int account_id = account.getAccount_id();
+        Account stored;
+        long logged;
+        lock.writeLock().lock();
+        try {
+            stored = accountsById.get(account_id);
+            if (failed || stored == null) {
+                return null;
+            }
+            //Messages reference their poster, same as the foreign key
+            AccountMessages posted = messagesByAccount.get(account_id);
+            if (posted != null && posted.ids.size() > 0) {
+                System.out.println("Account " + account_id + " still has messages");
+                return null;
+            }
+            logged = log == null ? 0 : log.accountDeleted(account_id);
+            if (logged < 0) {
+                return null;
+            }
+            applyAccountDeleted(account_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged) ? new Account(account_id, stored.getUsername(), stored.getPassword()) : null;
+    }
+
+    @Override
+    public Set<Integer> selectExistingAccountIds(Collection<Integer> account_ids) {
+        Set<Integer> existing = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for (Integer account_id : account_ids) {
+                if (account_id != null && accountsById.get(account_id) != null) {
+                    existing.add(account_id);
+                }
+            }
+            return existing;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Messages
+
+    @Override
+    public Message insertMessage(Message message) {
+        List<Message> inserted = insertMessages(List.of(message));
+        return inserted == null ? null : message;
+    }
+
+    @Override
+    public List<Message> insertMessages(List<Message> batch) {
+        long logged;
+        lock.writeLock().lock();
+        try {
+            if (failed) {
+                return null;
+            }
+            //All or nothing, so check every poster before saving any
+            for (Message message : batch) {
+                if (accountsById.get(message.getPosted_by()) == null) {
+                    return null;
+                }
+            }
+            List<Message> stored = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Message message = copy(batch.get(i));
+                message.setMessage_id(lastMessageId + 1 + i);
+                stored.add(message);
+            }
+            logged = log == null ? 0 : log.messagesInserted(stored);
+            if (logged < 0) {
+                return null;
+            }
+            applyMessagesInserted(stored);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).setMessage_id(stored.get(i).getMessage_id());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged) ? batch : null;
+    }
+
+    @Override
+    public int[] reserveMessageIds(int count) {
+        lock.writeLock().lock();
+        try {
+            if (failed) {
+                return null;
+            }
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = lastMessageId + 1 + i;
+            }
+            //Not waited on: ids that are lost in a crash were never used, a message saved with one logs it again
+            if (log != null && log.idsReserved(lastMessageId + count) < 0) {
+                return null;
+            }
+            lastMessageId += count;
+            return ids;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean insertMessagesWithIds(List<Message> batch) {
+        long logged;
+        lock.writeLock().lock();
+        try {
+            if (failed) {
+                return false;
+            }
+            Set<Integer> ids = new HashSet<>();
+            List<Message> stored = new ArrayList<>(batch.size());
+            for (Message message : batch) {
+                if (accountsById.get(message.getPosted_by()) == null || messages.get(message.getMessage_id()) != null
+                        || !ids.add(message.getMessage_id())) {
+                    return false;
+                }
+                stored.add(copy(message));
+            }
+            logged = log == null ? 0 : log.messagesInserted(stored);
+            if (logged < 0) {
+                return false;
+            }
+            applyMessagesInserted(stored);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged);
+    }
+
+    @Override
+    public Message selectMessage(int message_id) {
+        lock.readLock().lock();
+        try {
+            return copy(messages.get(message_id));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> selectMessagesByIds(int[] message_ids) {
+        List<Message> found = new ArrayList<>(message_ids.length);
+        lock.readLock().lock();
+        try {
+            for (int message_id : message_ids) {
+                Message message = messages.get(message_id);
+                if (message != null) {
+                    found.add(copy(message));
+                }
+            }
+            return found;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> selectAllMessages() {
+        return selectMessagesPage(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> selectMessagesPage(int after_message_id, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> page = new ArrayList<>(Math.min(limit, messageIds.size()));
+            for (int i = messageIds.upperBound(after_message_id); i < messageIds.size() && page.size() < limit; i++) {
+                page.add(copy(messages.get(messageIds.get(i))));
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean streamMessages(int after_message_id, int limit, MessageSink sink) {
+        int remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+        int cursor = after_message_id;
+        try {
+            while (remaining > 0) {
+                List<Message> chunk = selectMessagesPage(cursor, Math.min(remaining, STREAM_CHUNK));
+                for (Message message : chunk) {
+                    sink.accept(message);
+                }
+                if (chunk.size() < Math.min(remaining, STREAM_CHUNK)) {
+                    break;
+                }
+                remaining -= chunk.size();
+                cursor = chunk.get(chunk.size() - 1).getMessage_id();
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Fills the batch from the stored messages a chunk at a time, without the copy the other reads make
+     */
+    @Override
+    public MessageBatch selectMessagesBatch(int after_message_id, int limit) {
+        int remaining = limit > 0 ? limit : Integer.MAX_VALUE;
+        MessageBatch batch = new MessageBatch(Math.min(remaining, 1024));
+        while (remaining > 0) {
+            lock.readLock().lock();
+            try {
+                //Ids can be removed between chunks, so each chunk finds its place from the last id again
+                int cursor = batch.size() == 0 ? after_message_id : batch.getMessage_id(batch.size() - 1);
+                int position = messageIds.upperBound(cursor);
+                int end = Math.min(messageIds.size(), position + Math.min(remaining, STREAM_CHUNK));
+                for (; position < end; position++) {
+                    batch.add(messages.get(messageIds.get(position)));
+                    remaining--;
+                }
+                if (position == messageIds.size()) {
+                    break;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return batch;
+    }
+
+    @Override
+    public boolean streamMessagesInTimeRange(long since, long until, MessageSink sink) {
+        return streamByTime(0, false, since, until, sink);
+    }
+
+    @Override
+    public boolean streamMessagesInTimeRangeFromAccountId(int account_id, long since, long until, MessageSink sink) {
+        return streamByTime(account_id, true, since, until, sink);
+    }
+
+    @Override
+    public List<Message> selectAllMessagesFromAccountId(int account_id) {
+        lock.readLock().lock();
+        try {
+            List<Message> posted = new ArrayList<>();
+            AccountMessages index = messagesByAccount.get(account_id);
+            for (int i = 0; index != null && i < index.ids.size(); i++) {
+                posted.add(copy(messages.get(index.ids.get(i))));
+            }
+            return posted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> selectMessagesPageFromAccountId(int account_id, long before_epoch, int after_message_id, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Message> page = new ArrayList<>();
+            AccountMessages index = messagesByAccount.get(account_id);
+            if (index == null) {
+                return page;
+            }
+            index.byTime.scan(before_epoch, after_message_id, Long.MIN_VALUE, limit,
+                    message_id -> page.add(copy(messages.get(message_id))));
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Message deleteMessage(int message_id) {
+        long logged;
+        Message deleted;
+        lock.writeLock().lock();
+        try {
+            if (failed || messages.get(message_id) == null) {
+                return null;
+            }
+            logged = log == null ? 0 : log.messageDeleted(message_id);
+            if (logged < 0) {
+                return null;
+            }
+            deleted = applyMessageDeleted(message_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged) ? copy(deleted) : null;
+    }
+
+    @Override
+    public Message updateMessage(int message_id, String message_text) {
+        long logged;
+        Message updated;
+        lock.writeLock().lock();
+        try {
+            if (failed || messages.get(message_id) == null) {
+                return null;
+            }
+            logged = log == null ? 0 : log.messageUpdated(message_id, message_text);
+            if (logged < 0) {
+                return null;
+            }
+            updated = applyMessageUpdated(message_id, message_text);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged) ? copy(updated) : null;
+    }
+
+    //Follows
+
+    @Override
+    public boolean insertFollow(int follower_id, int followee_id) {
+        long logged;
+        lock.writeLock().lock();
+        try {
+            if (failed || accountsById.get(follower_id) == null || accountsById.get(followee_id) == null) {
+                return false;
+            }
+            logged = log == null ? 0 : log.followed(follower_id, followee_id);
+            if (logged < 0) {
+                return false;
+            }
+            applyFollowed(follower_id, followee_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged);
+    }
+
+    @Override
+    public boolean deleteFollow(int follower_id, int followee_id) {
+        long logged;
+        lock.writeLock().lock();
+        try {
+            IntList following = followees.get(follower_id);
+            if (failed || following == null || following.indexOf(followee_id) < 0) {
+                return false;
+            }
+            logged = log == null ? 0 : log.unfollowed(follower_id, followee_id);
+            if (logged < 0) {
+                return false;
+            }
+            applyUnfollowed(follower_id, followee_id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return durable(logged);
+    }
+
+    @Override
+    public int[] selectFollowerIds(int followee_id, int limit) {
+        lock.readLock().lock();
+        try {
+            IntList list = followers.get(followee_id);
+            return list == null ? new int[0] : list.toArray(Math.min(limit, list.size()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int[] selectFolloweeIds(int follower_id) {
+        lock.readLock().lock();
+        try {
+            IntList list = followees.get(follower_id);
+            return list == null ? new int[0] : list.toArray(list.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int[] selectAccountIdsWithFollowers(int min_followers) {
+        IntList found = new IntList();
+        lock.readLock().lock();
+        try {
+            followers.forEach((list, followee_id) -> {
+                if (list.size() >= min_followers) {
+                    found.add(followee_id);
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found.toArray(found.size());
+    }
+
+    @Override
+    public int[] selectTimelineMessageIds(int follower_id, int[] excluded_ids, int before_message_id, int limit) {
+        lock.readLock().lock();
+        try {
+            IntList following = followees.get(follower_id);
+            if (following == null) {
+                return new int[0];
+            }
+            int[] account_ids = following.toArray(following.size());
+            for (int excluded : excluded_ids) {
+                int at = Arrays.binarySearch(account_ids, excluded);
+                if (at >= 0) {
+                    //Left out by marking, ids are never 0
+                    account_ids[at] = 0;
+                }
+            }
+            return recentMessageIdsLocked(account_ids, before_message_id, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int[] selectRecentMessageIds(int[] account_ids, int before_message_id, int limit) {
+        lock.readLock().lock();
+        try {
+            return recentMessageIdsLocked(account_ids, before_message_id, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops scheduled snapshots, writes a last one and closes the log
+     */
+    @Override
+    public void close() {
+        if (snapshotter != null) {
+            snapshotter.shutdown();
+        }
+        if (snapshotPath != null) {
+            snapshot();
+        }
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * @return the log, for its record and sync counts, null when there isn't one
+     */
+    public StoreLog getLog() {
+        return log;
+    }
+
+    /**
+     * Writes everything to the snapshot file. The state is copied under the read lock, so writers only wait
+     * for the copy, then written to a temporary file that replaces the snapshot once it is complete. The log moves
+     * to a new generation at the copy, and the generations before it are deleted once the snapshot is in place.
+     * @return true if the snapshot was written, false if there is no snapshot path, the store has failed or on
+     * failure
+     */
+    public synchronized boolean snapshot() {
+        //A failed store may hold changes that never reached the log, they must not reach the snapshot either
+        if (snapshotPath == null || failed) {
+            return false;
+        }
+        //Stored messages and accounts are never changed in place, so copying references is enough
+        List<Account> accounts = new ArrayList<>();
+        Message[] saved;
+        IntList follows = new IntList();
+        int accountSequence;
+        int messageSequence;
+        long generation = 0;
+        lock.readLock().lock();
+        try {
+            //Writers are held off by the read lock, so the copy has exactly the changes logged before the rotation
+            if (log != null) {
+                generation = log.rotate();
+                if (generation < 0) {
+                    return false;
+                }
+            }
+            accountsById.forEach((account, account_id) -> accounts.add(account));
+            saved = new Message[messageIds.size()];
+            for (int i = 0; i < saved.length; i++) {
+                saved[i] = messages.get(messageIds.get(i));
+            }
+            followees.forEach((list, follower_id) -> {
+                for (int i = 0; i < list.size(); i++) {
+                    follows.append(follower_id);
+                    follows.append(list.get(i));
+                }
+            });
+            accountSequence = lastAccountId;
+            messageSequence = lastMessageId;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path temporary = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary),
+                64 * 1024))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(generation);
+            out.writeInt(accountSequence);
+            out.writeInt(messageSequence);
+            out.writeInt(accounts.size());
+            for (Account account : accounts) {
+                out.writeInt(account.getAccount_id());
+                writeString(out, account.getUsername());
+                writeString(out, account.getPassword());
+            }
+            out.writeInt(saved.length);
+            for (Message message : saved) {
+                out.writeInt(message.getMessage_id());
+                out.writeInt(message.getPosted_by());
+                writeString(out, message.getMessage_text());
+                out.writeLong(message.getTime_posted_epoch());
+            }
+            out.writeInt(follows.size() / 2);
+            for (int i = 0; i < follows.size(); i++) {
+                out.writeInt(follows.get(i));
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+        try {
+            Files.move(temporary, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (log != null) {
+                log.deleteBefore(generation);
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Fills the empty store from a snapshot file
+     * @return the first log generation the snapshot doesn't cover
+     * @throws IllegalStateException if the file can't be read
+     */
+    private long load(Path path) {
+        lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024))) {
+            int magic = in.readInt();
+            if (magic != SNAPSHOT_MAGIC && magic != SNAPSHOT_MAGIC_V1) {
+                throw new IOException("Not a store snapshot: " + path);
+            }
+            long generation = magic == SNAPSHOT_MAGIC ? in.readLong() : 0;
+            lastAccountId = in.readInt();
+            lastMessageId = in.readInt();
+            for (int i = in.readInt(); i > 0; i--) {
+                putAccount(new Account(in.readInt(), readString(in), readString(in)));
+            }
+            //Written in id order, so the id indexes only ever append
+            int count = in.readInt();
+            long[] times = new long[count];
+            int[] ids = new int[count];
+            for (int i = 0; i < count; i++) {
+                Message message = new Message(in.readInt(), in.readInt(), readString(in), in.readLong());
+                messages.put(message.getMessage_id(), message);
+                messageIds.append(message.getMessage_id());
+                messagesFor(message.getPosted_by()).add(message);
+                times[i] = message.getTime_posted_epoch();
+                ids[i] = message.getMessage_id();
+            }
+            messagesByTime.addAll(times, ids, count);
+            for (int i = in.readInt(); i > 0; i--) {
+                int follower_id = in.readInt();
+                int followee_id = in.readInt();
+                applyFollowed(follower_id, followee_id);
+            }
+            return generation;
+        } catch (IOException e) {
+            //Starting empty would overwrite the snapshot with nothing at the next one
+            throw new IllegalStateException("Could not load snapshot " + path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Streams messages newest first from the time index of every message or of one account, a chunk at a time
+     */
+    private boolean streamByTime(int account_id, boolean oneAccount, long since, long until, MessageSink sink) {
+        //Cursor is the last row handed over, the next chunk starts just past it. No id is past MAX_VALUE, so the
+        //first chunk starts with the time before until
+        long cursorTime = until;
+        int cursorId = Integer.MAX_VALUE;
+        try {
+            while (true) {
+                List<Message> chunk = new ArrayList<>(STREAM_CHUNK);
+                lock.readLock().lock();
+                try {
+                    TimeIndex index = messagesByTime;
+                    if (oneAccount) {
+                        AccountMessages posted = messagesByAccount.get(account_id);
+                        index = posted == null ? null : posted.byTime;
+                    }
+                    if (index != null) {
+                        index.scan(cursorTime, cursorId, since, STREAM_CHUNK,
+                                message_id -> chunk.add(copy(messages.get(message_id))));
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+                for (Message message : chunk) {
+                    sink.accept(message);
+                }
+                if (chunk.size() < STREAM_CHUNK) {
+                    return true;
+                }
+                Message last = chunk.get(chunk.size() - 1);
+                cursorTime = last.getTime_posted_epoch();
+                cursorId = last.getMessage_id();
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Newest message ids posted by any of the accounts, read backwards along each account's id index
+     * @param account_ids accounts to read, 0 entries are skipped
+     */
+    private int[] recentMessageIdsLocked(int[] account_ids, int before_message_id, int limit) {
+        IntList candidates = new IntList();
+        for (int account_id : account_ids) {
+            AccountMessages posted = account_id == 0 ? null : messagesByAccount.get(account_id);
+            if (posted == null) {
+                continue;
+            }
+            //Each account can add at most limit ids to the page
+            int end = posted.ids.lowerBound(before_message_id);
+            for (int i = end - 1; i >= Math.max(0, end - limit); i--) {
+                candidates.append(posted.ids.get(i));
+            }
+        }
+        int[] ids = candidates.toArray(candidates.size());
+        Arrays.sort(ids);
+        int count = Math.min(limit, ids.length);
+        int[] newest = new int[count];
+        for (int i = 0; i < count; i++) {
+            newest[i] = ids[ids.length - 1 - i];
+        }
+        return newest;
+    }
+
+    /**
+     * @return true once a change couldn't be synced or the log has failed, the store is read-only from then on
+     */
+    public boolean isFailed() {
+        //A log that failed between changes refuses the next append before any sync could mark the store
+        return failed || (log != null && log.isFailed());
+    }
+
+    /**
+     * Waits for a logged change to be as durable as the sync policy makes it, after the write lock is released.
+     * If the log has failed, the store is marked failed so nothing more is built on a change that may not survive.
+     * If only this thread was interrupted while waiting, just this change is reported as failed: it is still
+     * written, and the store carries on.
+     * @param logged sequence number from the log, ignored without one
+     * @return false if the change may not survive a restart
+     */
+    private boolean durable(long logged) {
+        if (log == null || log.sync(logged)) {
+            return true;
+        }
+        if (logged >= 0 && !log.isFailed()) {
+            return false;
+        }
+        if (!failed) {
+            failed = true;
+            System.out.println("Store log sync failed, the store is read-only until it is restarted");
+        }
+        return false;
+    }
+
+    //Changes, made the same way by writes and by log replay. Callers hold the write lock
+
+    private void applyAccountInserted(Account account) {
+        lastAccountId = Math.max(lastAccountId, account.getAccount_id());
+        putAccount(account);
+    }
+
+    private void applyPasswordUpdated(int account_id, String password) {
+        Account account = accountsById.get(account_id);
+        putAccount(new Account(account_id, account.getUsername(), password));
+    }
+
+    private void applyAccountDeleted(int account_id) {
+        Account stored = accountsById.remove(account_id);
+        accountsByUsername.remove(stored.getUsername());
+        messagesByAccount.remove(account_id);
+        //Follows go with the account, same as on delete cascade
+        IntList followed = followees.remove(account_id);
+        for (int i = 0; followed != null && i < followed.size(); i++) {
+            followers.get(followed.get(i)).remove(account_id);
+        }
+        IntList following = followers.remove(account_id);
+        for (int i = 0; following != null && i < following.size(); i++) {
+            followees.get(following.get(i)).remove(account_id);
+        }
+    }
+
+    /**
+     * @param stored messages with their ids, kept as they are
+     */
+    private void applyMessagesInserted(List<Message> stored) {
+        for (Message message : stored) {
+            //Ids are normally handed out here, but never hand out one that was given by the caller
+            lastMessageId = Math.max(lastMessageId, message.getMessage_id());
+            putMessage(message);
+        }
+    }
+
+    private Message applyMessageUpdated(int message_id, String message_text) {
+        Message stored = messages.get(message_id);
+        //Only the text changes so the indexes stay as they are
+        Message updated = new Message(message_id, stored.getPosted_by(), message_text, stored.getTime_posted_epoch());
+        messages.put(message_id, updated);
+        return updated;
+    }
+
+    private Message applyMessageDeleted(int message_id) {
+        Message deleted = messages.remove(message_id);
+        messageIds.remove(message_id);
+        messagesByTime.remove(deleted.getTime_posted_epoch(), message_id);
+        AccountMessages index = messagesByAccount.get(deleted.getPosted_by());
+        index.ids.remove(message_id);
+        index.byTime.remove(deleted.getTime_posted_epoch(), message_id);
+        return deleted;
+    }
+
+    private void applyFollowed(int follower_id, int followee_id) {
+        listFor(followers, followee_id).add(follower_id);
+        listFor(followees, follower_id).add(followee_id);
+    }
+
+    private void applyUnfollowed(int follower_id, int followee_id) {
+        followees.get(follower_id).remove(followee_id);
+        followers.get(followee_id).remove(follower_id);
+    }
+
+    private void putAccount(Account account) {
+        accountsById.put(account.getAccount_id(), account);
+        accountsByUsername.put(account.getUsername(), account);
+    }
+
+    private void putMessage(Message message) {
+        messages.put(message.getMessage_id(), message);
+        messageIds.add(message.getMessage_id());
+        messagesByTime.add(message.getTime_posted_epoch(), message.getMessage_id());
+        messagesFor(message.getPosted_by()).add(message);
+    }
+
+    private AccountMessages messagesFor(int account_id) {
+        AccountMessages posted = messagesByAccount.get(account_id);
+        if (posted == null) {
+            posted = new AccountMessages();
+            messagesByAccount.put(account_id, posted);
+        }
+        return posted;
+    }
+
+    private static IntList listFor(IntHashMap<IntList> lists, int key) {
+        IntList list = lists.get(key);
+        if (list == null) {
+            list = new IntList();
+            lists.put(key, list);
+        }
+        return list;
+    }
+
+    private static Message copy(Message message) {
+        return message == null ? null : new Message(message.getMessage_id(), message.getPosted_by(),
+                message.getMessage_text(), message.getTime_posted_epoch());
+    }
+
+    private static Account copy(Account account) {
+        return account == null ? null : new Account(account.getAccount_id(), account.getUsername(), account.getPassword());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Applies replayed log records. Only used while recovering, with the write lock held.
+     */
+    private class Replayer implements StoreLog.Replay {
+
+        @Override
+        public void accountInserted(int account_id, String username, String password) {
+            applyAccountInserted(new Account(account_id, username, password));
+        }
+
+        @Override
+        public void passwordUpdated(int account_id, String password) {
+            applyPasswordUpdated(account_id, password);
+        }
+
+        @Override
+        public void accountDeleted(int account_id) {
+            applyAccountDeleted(account_id);
+        }
+
+        @Override
+        public void messagesInserted(List<Message> messages) {
+            applyMessagesInserted(messages);
+        }
+
+        @Override
+        public void messageUpdated(int message_id, String message_text) {
+            applyMessageUpdated(message_id, message_text);
+        }
+
+        @Override
+        public void messageDeleted(int message_id) {
+            applyMessageDeleted(message_id);
+        }
+
+        @Override
+        public void followed(int follower_id, int followee_id) {
+            applyFollowed(follower_id, followee_id);
+        }
+
+        @Override
+        public void unfollowed(int follower_id, int followee_id) {
+            applyUnfollowed(follower_id, followee_id);
+        }
+
+        @Override
+        public void idsReserved(int last_message_id) {
+            lastMessageId = Math.max(lastMessageId, last_message_id);
+        }
+    }
+
+    /**
+     * One account's messages by id and by time
+     */
+    private static class AccountMessages {
+        final IntList ids = new IntList();
+        final TimeIndex byTime = new TimeIndex();
+
+        void add(Message message) {
+            ids.add(message.getMessage_id());
+            byTime.add(message.getTime_posted_epoch(), message.getMessage_id());
+        }
+    }
+
+    /**
+     * Sorted set of ints in one array. Ids are handed out in order, so adds are nearly always appends. The values
+     * start at head rather than 0, so a remove or insert shifts whichever side of it is shorter, and deleting the
+     * oldest ids is as cheap as adding new ones.
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int head;
+        int size;
+
+        int size() {
+            return size;
+        }
+
+        int get(int i) {
+            return values[head + i];
+        }
+
+        /**
+         * @return false if the value was already there
+         */
+        boolean add(int value) {
+            int at = indexOf(value);
+            if (at >= 0) {
+                return false;
+            }
+            insert(-at - 1, value);
+            return true;
+        }
+
+        /**
+         * Adds to the end without keeping the order, for callers that add in order or don't need it
+         */
+        void append(int value) {
+            insert(size, value);
+        }
+
+        boolean remove(int value) {
+            int at = indexOf(value);
+            if (at < 0) {
+                return false;
+            }
+            if (at < size / 2) {
+                System.arraycopy(values, head, values, head + 1, at);
+                head++;
+            } else {
+                System.arraycopy(values, head + at + 1, values, head + at, size - at - 1);
+            }
+            size--;
+            return true;
+        }
+
+        /**
+         * @return position of the value, or -(insertion point) - 1 if it isn't there
+         */
+        int indexOf(int value) {
+            int at = Arrays.binarySearch(values, head, head + size, value);
+            return at >= 0 ? at - head : at + head;
+        }
+
+        /**
+         * @return position of the first value at or above the given one
+         */
+        int lowerBound(int value) {
+            int at = indexOf(value);
+            return at >= 0 ? at : -at - 1;
+        }
+
+        /**
+         * @return position of the first value above the given one
+         */
+        int upperBound(int value) {
+            int at = indexOf(value);
+            return at >= 0 ? at + 1 : -at - 1;
+        }
+
+        /**
+         * @return a copy of the first count values
+         */
+        int[] toArray(int count) {
+            return Arrays.copyOfRange(values, head, head + count);
+        }
+
+        private void insert(int at, int value) {
+            if (head > 0 && at < size / 2) {
+                System.arraycopy(values, head, values, head - 1, at);
+                head--;
+            } else {
+                if (head + size == values.length) {
+                    //Moves to the front, into a larger array unless that frees enough room
+                    int[] target = head > 0 && head >= size / 4 ? values : new int[Math.max(8, size * 2)];
+                    System.arraycopy(values, head, target, 0, size);
+                    values = target;
+                    head = 0;
+                }
+                System.arraycopy(values, head + at, values, head + at + 1, size - at);
+            }
+            values[head + at] = value;
+            size++;
+        }
+    }
+
+    /**
+     * Message ids sorted by time_posted_epoch then message_id, in two parallel arrays starting at head like IntList.
+     * Messages are mostly posted in time order and ids are handed out in order, so adds are nearly always appends
+     * and deletes of old messages shift little. Pages and time windows want newest first then by id, which scan
+     * gives by walking back one time at a time and forward within it.
+     */
+    private static class TimeIndex {
+        long[] times = new long[4];
+        int[] ids = new int[4];
+        int head;
+        int size;
+
+        void add(long time, int id) {
+            int at = lowerBound(time, id);
+            if (head > 0 && at < size / 2) {
+                System.arraycopy(times, head, times, head - 1, at);
+                System.arraycopy(ids, head, ids, head - 1, at);
+                head--;
+            } else {
+                if (head + size == ids.length) {
+                    moveToFront(head > 0 && head >= size / 4 ? ids.length : Math.max(8, size * 2));
+                }
+                System.arraycopy(times, head + at, times, head + at + 1, size - at);
+                System.arraycopy(ids, head + at, ids, head + at + 1, size - at);
+            }
+            times[head + at] = time;
+            ids[head + at] = id;
+            size++;
+        }
+
+        void remove(long time, int id) {
+            int at = lowerBound(time, id);
+            if (at == size || times[head + at] != time || ids[head + at] != id) {
+                return;
+            }
+            if (at < size / 2) {
+                System.arraycopy(times, head, times, head + 1, at);
+                System.arraycopy(ids, head, ids, head + 1, at);
+                head++;
+            } else {
+                System.arraycopy(times, head + at + 1, times, head + at, size - at - 1);
+                System.arraycopy(ids, head + at + 1, ids, head + at, size - at - 1);
+            }
+            size--;
+        }
+
+        /**
+         * Hands over ids newest first then by id, starting just past a cursor row
+         * @param beforeTime time of the cursor row, Long.MAX_VALUE to start from the newest
+         * @param afterId id of the cursor row, ids at the cursor's time after it come first
+         * @param since oldest time to hand over
+         * @param limit most ids to hand over
+         * @param consumer receives each id
+         */
+        void scan(long beforeTime, int afterId, long since, int limit, IntConsumer consumer) {
+            int count = 0;
+            //Rest of the cursor's own time
+            for (int i = lowerBound(beforeTime, (long) afterId + 1); i < size && times[head + i] == beforeTime
+                    && count < limit; i++) {
+                consumer.accept(ids[head + i]);
+                count++;
+            }
+            //Then each older time, its ids in order
+            int end = lowerBound(beforeTime, Long.MIN_VALUE);
+            while (end > 0 && count < limit && times[head + end - 1] >= since) {
+                int start = lowerBound(times[head + end - 1], Long.MIN_VALUE);
+                for (int i = start; i < end && count < limit; i++) {
+                    consumer.accept(ids[head + i]);
+                    count++;
+                }
+                end = start;
+            }
+        }
+
+        /**
+         * Adds many entries at once with one sort, instead of one insert each
+         */
+        void addAll(long[] newTimes, int[] newIds, int count) {
+            moveToFront(size + count);
+            System.arraycopy(newTimes, 0, times, size, count);
+            System.arraycopy(newIds, 0, ids, size, count);
+            size += count;
+            sort(0, size - 1);
+        }
+
+        /**
+         * @return position of the first entry at or after (time, id)
+         */
+        int lowerBound(long time, long id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(times[head + mid], ids[head + mid], time, id) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void moveToFront(int capacity) {
+            long[] movedTimes = capacity == times.length ? times : new long[capacity];
+            int[] movedIds = capacity == ids.length ? ids : new int[capacity];
+            System.arraycopy(times, head, movedTimes, 0, size);
+            System.arraycopy(ids, head, movedIds, 0, size);
+            times = movedTimes;
+            ids = movedIds;
+            head = 0;
+        }
+
+        private static int compare(long timeA, long idA, long timeB, long idB) {
+            int byTime = Long.compare(timeA, timeB);
+            return byTime != 0 ? byTime : Long.compare(idA, idB);
+        }
+        /**
+         * Quicksort of both arrays together
+         */
+        private void sort(int low, int high) {
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long pivotTime = times[mid];
+                int pivotId = ids[mid];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compare(times[i], ids[i], pivotTime, pivotId) < 0) {
+                        i++;
+                    }
+                    while (compare(times[j], ids[j], pivotTime, pivotId) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        long time = times[i];
+                        times[i] = times[j];
+                        times[j] = time;
+                        int id = ids[i];
+                        ids[i] = ids[j];
+                        ids[j] = id;
+                        i++;
+                        j--;
+                    }
+                }
+                //Recurses into the smaller side so the stack stays shallow
+                if (j - low < high - i) {
+                    sort(low, j);
+                    low = i;
+                } else {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,660 @@
+package DAO;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import Model.Message;
+
+/**
+ * Old messages kept in read-only column files instead of the message table. Each segment file holds a batch of
+ * messages sorted by message_id, one column after another:
+ *
+ * header | time_posted_epoch long[n] | message_id int[n] | posted_by int[n] | text offsets int[n + 1] |
+ * by account int[n] | by time int[n] | message_text utf-8 bytes
+ *
+ * "by account" lists the rows in (posted_by, time_posted_epoch desc, message_id) order and "by time" in
+ * (time_posted_epoch desc, message_id) order, the same orders as the message table's indexes. Files are memory
+ * mapped, so lookups and scans read the columns straight from the page cache with no copy onto the heap, only the
+ * text of a message that is actually returned is decoded.
+ *
+ * Segments never change once written. Deleted and edited messages are hidden with tombstones, which the caller
+ * keeps durable (TieredStore keeps them in the database) and marks here. All methods are safe to call from any
+ * thread.
+ */
+public class MessageArchive {
+
+    private static final int MAGIC = 0x534D4131;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".col";
+
+    private final Path directory;
+    //Published segments in id order, replaced whole when one is added so readers never lock
+    private volatile Segment[] segments = new Segment[0];
+
+    /**
+     * Maps the given segments of a directory and deletes any other segment files in it, which are left over from
+     * moves that never committed
+     * @param directory directory of the segment files, created if missing
+     * @param segment_ids ids of the segments to map
+     * @param tombstones segment_id and message_id pairs to hide
+     * @throws IOException if a segment file is missing, damaged or can't be read
+     */
+    public MessageArchive(Path directory, int[] segment_ids, List<int[]> tombstones) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        int[] sorted = segment_ids.clone();
+        Arrays.sort(sorted);
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                int segment_id = parseSegmentId(file);
+                if (segment_id >= 0 && Arrays.binarySearch(sorted, segment_id) < 0 || file.toString().endsWith(".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Segment[] mapped = new Segment[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            mapped[i] = Segment.map(sorted[i], path(sorted[i]));
+        }
+        this.segments = mapped;
+        for (int[] tombstone : tombstones) {
+            markDeleted(tombstone[0], tombstone[1]);
+        }
+    }
+
+    /**
+     * Writes messages to a new segment file and forces it to disk. The segment isn't read until it is published.
+     * @param segment_id id for the segment, larger than any existing one
+     * @param messages messages sorted by message_id
+     * @return the new segment
+     * @throws IOException if the file can't be written, or the messages don't fit in one file
+     */
+    public Segment write(int segment_id, List<Message> messages) throws IOException {
+        int count = messages.size();
+        byte[][] texts = new byte[count][];
+        long heapBytes = 0;
+        for (int i = 0; i < count; i++) {
+            texts[i] = messages.get(i).getMessage_text().getBytes(StandardCharsets.UTF_8);
+            heapBytes += texts[i].length;
+        }
+        Layout layout = new Layout(count);
+        long fileBytes = layout.heap + heapBytes;
+        if (fileBytes > Integer.MAX_VALUE) {
+            throw new IOException("Segment of " + count + " messages is too large: " + fileBytes + " bytes");
+        }
+
+        //Orders for the two indexes, as row numbers
+        Integer[] byAccount = new Integer[count];
+        Integer[] byTime = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            byAccount[i] = i;
+            byTime[i] = i;
+        }
+        //Rows are already in id order, so a stable sort keeps ids ascending within a time
+        Comparator<Integer> newestFirst = (a, b) -> Long.compare(messages.get(b).getTime_posted_epoch(),
+            messages.get(a).getTime_posted_epoch());
+        Arrays.sort(byTime, newestFirst);
+        Arrays.sort(byAccount, Comparator.<Integer>comparingInt(i -> messages.get(i).getPosted_by()).thenComparing(newestFirst));
+
+        Path target = path(segment_id);
+        Path temporary = Path.of(target + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, count);
+            buffer.putInt(12, (int) heapBytes);
+            int textOffset = 0;
+            for (int i = 0; i < count; i++) {
+                Message message = messages.get(i);
+                buffer.putLong((int) (layout.times + 8L * i), message.getTime_posted_epoch());
+                buffer.putInt((int) (layout.ids + 4L * i), message.getMessage_id());
+                buffer.putInt((int) (layout.postedBy + 4L * i), message.getPosted_by());
+                buffer.putInt((int) (layout.textOffsets + 4L * i), textOffset);
+                buffer.putInt((int) (layout.byAccount + 4L * i), byAccount[i]);
+                buffer.putInt((int) (layout.byTime + 4L * i), byTime[i]);
+                //Absolute bulk put is Java 13, the project targets 11
+                buffer.duplicate().position((int) (layout.heap + textOffset)).put(texts[i]);
+                textOffset += texts[i].length;
+            }
+            buffer.putInt((int) (layout.textOffsets + 4L * count), textOffset);
+            buffer.force();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+        return Segment.map(segment_id, target);
+    }
+
+    /**
+     * Makes a written segment visible to lookups and scans
+     * @param segment segment from write
+     */
+    public synchronized void publish(Segment segment) {
+        Segment[] published = Arrays.copyOf(segments, segments.length + 1);
+        published[published.length - 1] = segment;
+        segments = published;
+    }
+
+    /**
+     * Takes a published segment back out of lookups and scans and deletes its file, for a move that failed after
+     * the segment was published. Readers already holding the segment can finish with its mapping.
+     * @param segment segment from write that was published
+     */
+    public void unpublish(Segment segment) {
+        synchronized (this) {
+            Segment[] current = segments;
+            int at = Arrays.asList(current).indexOf(segment);
+            if (at < 0) {
+                return;
+            }
+            Segment[] remaining = new Segment[current.length - 1];
+            System.arraycopy(current, 0, remaining, 0, at);
+            System.arraycopy(current, at + 1, remaining, at, remaining.length - at);
+            segments = remaining;
+        }
+        discard(segment);
+    }
+
+    /**
+     * Deletes a written segment that was never published
+     * @param segment segment from write
+     */
+    public void discard(Segment segment) {
+        try {
+            Files.deleteIfExists(path(segment.getId()));
+        } catch (IOException e) {
+            System.out.println("Could not delete segment " + segment.getId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return one more than the largest published segment id
+     */
+    public int nextSegmentId() {
+        Segment[] current = segments;
+        return current.length == 0 ? 1 : current[current.length - 1].getId() + 1;
+    }
+
+    /**
+     * Hides one message, once its tombstone is durable
+     * @param segment_id segment holding the message
+     * @param message_id id of the message
+     */
+    public void markDeleted(int segment_id, int message_id) {
+        for (Segment segment : segments) {
+            if (segment.getId() == segment_id) {
+                int row = segment.find(message_id);
+                if (row >= 0) {
+                    segment.markDeleted(row);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param message_id id of the message
+     * @return id of the segment holding the message, -1 if it isn't archived or was deleted
+     */
+    public int segmentOf(int message_id) {
+        Segment[] current = segments;
+        //Segments hold increasing batches of ids, but a batch's range can overlap a later one, so check them all
+        for (int i = current.length - 1; i >= 0; i--) {
+            int row = current[i].find(message_id);
+            if (row >= 0 && !current[i].isDeleted(row)) {
+                return current[i].getId();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param message_id id of the message
+     * @return the archived message, null if it isn't archived or was deleted
+     */
+    public Message select(int message_id) {
+        Segment[] current = segments;
+        for (int i = current.length - 1; i >= 0; i--) {
+            int row = current[i].find(message_id);
+            if (row >= 0 && !current[i].isDeleted(row)) {
+                return current[i].message(row);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param account_id id of the account
+     * @return true if any message the account posted is archived
+     */
+    public boolean hasMessagesFrom(int account_id) {
+        Scan scan = scanAccount(account_id, Long.MAX_VALUE, 0, Long.MIN_VALUE);
+        return scan.next();
+    }
+
+    /**
+     * @param after_message_id only messages with a larger id are scanned
+     * @return archived messages ordered by message_id
+     */
+    public Scan scanById(int after_message_id) {
+        List<Cursor> cursors = new ArrayList<>();
+        for (Segment segment : segments) {
+            cursors.add(new Cursor(segment, -1, segment.upperBoundId(after_message_id), segment.count, Long.MIN_VALUE));
+        }
+        return new Scan(cursors, Comparator.comparingInt(Cursor::id));
+    }
+
+    /**
+     * Scans newest first, then by message_id, starting after a row like an account page
+     * @param before_epoch time of the row to start after, Long.MAX_VALUE to start at the newest
+     * @param after_message_id id of the row to start after, 0 to start at the newest
+     * @param since only messages with time_posted_epoch at or after this are scanned
+     * @return archived messages from every account
+     */
+    public Scan scanByTime(long before_epoch, int after_message_id, long since) {
+        List<Cursor> cursors = new ArrayList<>();
+        for (Segment segment : segments) {
+            int start = segment.firstAfter(segment.byTime, 0, segment.count, before_epoch, after_message_id);
+            cursors.add(new Cursor(segment, segment.byTime, start, segment.count, since));
+        }
+        return new Scan(cursors, NEWEST_FIRST);
+    }
+
+    /**
+     * Same as scanByTime for one account's messages
+     */
+    public Scan scanAccount(int account_id, long before_epoch, int after_message_id, long since) {
+        List<Cursor> cursors = new ArrayList<>();
+        for (Segment segment : segments) {
+            int from = segment.accountBound(account_id);
+            int to = segment.accountBound(account_id + 1);
+            int start = segment.firstAfter(segment.byAccount, from, to, before_epoch, after_message_id);
+            cursors.add(new Cursor(segment, segment.byAccount, start, to, since));
+        }
+        return new Scan(cursors, NEWEST_FIRST);
+    }
+
+    /**
+     * @return number of published segments
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * @return number of archived messages, including tombstoned ones
+     */
+    public long getMessageCount() {
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    /**
+     * @return the smallest archived id, including tombstoned ones, Integer.MAX_VALUE when the archive is empty
+     */
+    public int getMinMessageId() {
+        int min = Integer.MAX_VALUE;
+        for (Segment segment : segments) {
+            if (segment.count > 0) {
+                min = Math.min(min, segment.id(0));
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return the largest archived id, including tombstoned ones, Integer.MIN_VALUE when the archive is empty
+     */
+    public int getMaxMessageId() {
+        int max = Integer.MIN_VALUE;
+        for (Segment segment : segments) {
+            if (segment.count > 0) {
+                max = Math.max(max, segment.id(segment.count - 1));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return bytes of segment files mapped
+     */
+    public long getMappedBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Forces the directory entry of a new segment to disk, so the file is still there after a crash once the
+     * database records it. Not every platform can open a directory, and there the move is left to the OS.
+     */
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //Directories can't be opened as channels on this platform
+        }
+    }
+
+    private Path path(int segment_id) {
+        return directory.resolve(PREFIX + segment_id + SUFFIX);
+    }
+
+    /**
+     * @return the id in a segment file name, -1 for any other file
+     */
+    private static int parseSegmentId(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    //Newest first, then by id, the order of the message table's time indexes
+    private static final Comparator<Cursor> NEWEST_FIRST = (a, b) -> {
+        long timeA = a.time();
+        long timeB = b.time();
+        return timeA != timeB ? Long.compare(timeB, timeA) : Integer.compare(a.id(), b.id());
+    };
+
+    /**
+     * Byte offsets of each column for a segment of count messages
+     */
+    private static class Layout {
+        final long times;
+        final long ids;
+        final long postedBy;
+        final long textOffsets;
+        final long byAccount;
+        final long byTime;
+        final long heap;
+
+        Layout(int count) {
+            times = HEADER_BYTES;
+            ids = times + 8L * count;
+            postedBy = ids + 4L * count;
+            textOffsets = postedBy + 4L * count;
+            byAccount = textOffsets + 4L * (count + 1);
+            byTime = byAccount + 4L * count;
+            heap = byTime + 4L * count;
+        }
+    }
+
+    /**
+     * One mapped segment file. Rows are numbered in message_id order.
+     */
+    public static class Segment {
+        private final int id;
+        private final MappedByteBuffer buffer;
+        private final int count;
+        private final int times;
+        private final int ids;
+        private final int postedBy;
+        private final int textOffsets;
+        private final int byAccount;
+        private final int byTime;
+        private final int heap;
+        //One bit per row, set once the row is tombstoned
+        private final AtomicLongArray deleted;
+
+        private Segment(int id, MappedByteBuffer buffer, int count) {
+            this.id = id;
+            this.buffer = buffer;
+            this.count = count;
+            Layout layout = new Layout(count);
+            this.times = (int) layout.times;
+            this.ids = (int) layout.ids;
+            this.postedBy = (int) layout.postedBy;
+            this.textOffsets = (int) layout.textOffsets;
+            this.byAccount = (int) layout.byAccount;
+            this.byTime = (int) layout.byTime;
+            this.heap = (int) layout.heap;
+            this.deleted = new AtomicLongArray((count + 63) / 64);
+        }
+
+        /**
+         * Maps a segment file read-only and checks its header
+         */
+        private static Segment map(int id, Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size < HEADER_BYTES) {
+                    throw new IOException("Segment " + path + " is too short");
+                }
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                int count = buffer.getInt(8);
+                if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || count < 0
+                        || new Layout(count).heap + buffer.getInt(12) != size) {
+                    throw new IOException("Segment " + path + " is damaged");
+                }
+                return new Segment(id, buffer, count);
+            }
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        int id(int row) {
+            return buffer.getInt(ids + 4 * row);
+        }
+
+        long time(int row) {
+            return buffer.getLong(times + 8 * row);
+        }
+
+        int postedBy(int row) {
+            return buffer.getInt(postedBy + 4 * row);
+        }
+
+        /**
+         * Decodes one row into a message, the only copy a read makes
+         */
+        Message message(int row) {
+            int start = buffer.getInt(textOffsets + 4 * row);
+            byte[] text = new byte[buffer.getInt(textOffsets + 4 * row + 4) - start];
+            buffer.duplicate().position(heap + start).get(text);
+            return new Message(id(row), postedBy(row), new String(text, StandardCharsets.UTF_8), time(row));
+        }
+
+        boolean isDeleted(int row) {
+            return (deleted.get(row >>> 6) & (1L << row)) != 0;
+        }
+
+        void markDeleted(int row) {
+            long bit = 1L << row;
+            deleted.getAndAccumulate(row >>> 6, bit, (word, mask) -> word | mask);
+        }
+
+        /**
+         * @return the row holding the message, -1 if it isn't in this segment
+         */
+        int find(int message_id) {
+            int row = upperBoundId(message_id - 1);
+            return row < count && id(row) == message_id ? row : -1;
+        }
+
+        /**
+         * @return the first row with an id larger than message_id
+         */
+        int upperBoundId(int message_id) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (id(middle) <= message_id) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return the first position of the by account column with a posted_by of at least account_id
+         */
+        int accountBound(int account_id) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (postedBy(buffer.getInt(byAccount + 4 * middle)) < account_id) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Finds where a page starts in a newest first run of an order column
+         * @param column byAccount or byTime
+         * @return the first position in [from, to) that comes after the row (before_epoch, after_message_id)
+         */
+        int firstAfter(int column, int from, int to, long before_epoch, int after_message_id) {
+            int low = from;
+            int high = to;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int row = buffer.getInt(column + 4 * middle);
+                long time = time(row);
+                if (time > before_epoch || time == before_epoch && id(row) <= after_message_id) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * Walks one segment in id order, or along one of its order columns, skipping tombstoned rows
+     */
+    private static class Cursor {
+        private final Segment segment;
+        //Byte offset of the order column, -1 to walk rows in id order
+        private final int column;
+        private final int end;
+        private final long since;
+        private int position;
+        private int row;
+
+        Cursor(Segment segment, int column, int start, int end, long since) {
+            this.segment = segment;
+            this.column = column;
+            this.end = end;
+            this.since = since;
+            this.position = start - 1;
+            advance();
+        }
+
+        /**
+         * Moves to the next live row
+         * @return false once the cursor has passed its end
+         */
+        boolean advance() {
+            while (++position < end) {
+                row = column < 0 ? position : segment.buffer.getInt(column + 4 * position);
+                if (column >= 0 && segment.time(row) < since) {
+                    position = end;
+                    return false;
+                }
+                if (!segment.isDeleted(row)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean valid() {
+            return position < end;
+        }
+
+        int id() {
+            return segment.id(row);
+        }
+
+        long time() {
+            return segment.time(row);
+        }
+    }
+
+    /**
+     * Archived messages from every segment merged into one order. Call next before reading each row.
+     */
+    public static class Scan {
+        private final PriorityQueue<Cursor> queue;
+        private Cursor current;
+
+        private Scan(List<Cursor> cursors, Comparator<Cursor> order) {
+            this.queue = new PriorityQueue<>(Math.max(1, cursors.size()), order);
+            for (Cursor cursor : cursors) {
+                if (cursor.valid()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        /**
+         * @return true if there is another row
+         */
+        public boolean next() {
+            if (current != null && current.advance()) {
+                queue.add(current);
+            }
+            current = queue.poll();
+            return current != null;
+        }
+
+        public int id() {
+            return current.id();
+        }
+
+        public long time() {
+            return current.time();
+        }
+
+        public int postedBy() {
+            return current.segment.postedBy(current.row);
+        }
+
+        public Message message() {
+            return current.segment.message(current.row);
+        }
+    }
+}
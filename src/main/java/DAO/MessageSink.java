@@ -0,0 +1,19 @@
+package DAO;
+
+import java.io.IOException;
+
+import Model.Message;
+
+/**
+ * Receives messages one row at a time while the DAO is still reading the ResultSet,
+ * so large results can be written out without building a list first.
+ */
+@FunctionalInterface
+public interface MessageSink {
+
+    /**
+     * @param message message built from the current row
+     * @throws IOException if the message can't be written to wherever the sink sends it
+     */
+    void accept(Message message) throws IOException;
+}
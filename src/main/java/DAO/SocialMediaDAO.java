@@ -6,91 +6,171 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
 
 import Model.*;
-import Util.ConnectionUtil;
+import Util.ConnectionPool;
+import Util.Metrics;
+import Util.PooledConnection;
 
 /**
  * Database Access Object create sql statements and executes them to the database.
  * Methods have names based on the action being taken on the database (e.x select, drop, update, insert, etc.)
  * Turns strings into prepared statements. One reason to to this is to prevent sql injections by checking the input via prepared statement
  * The other is so it is easy to add variable with ?
+ * Prepared statements come from the borrowed connection's statement cache, so they are reused and never closed here.
+ * Result sets are always closed with try-with-resources so cursors don't pile up on long lived connections.
+ * Each statement's time is recorded by the pooled connection. The sql string is declared before borrowing so a
+ * failure can be counted against its statement in Metrics too.
  */
-public class SocialMediaDAO {
-    //put connection here so it doesn't declare it in each method scope.
-    private Connection connection = ConnectionUtil.getConnection();
+public class SocialMediaDAO implements SocialMediaStore {
+    //Shared pool, each method borrows a connection for the length of its operation and returns it when done
+    private ConnectionPool pool = ConnectionPool.getInstance();
+
+    @Override
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
 
     /**
-     * 
-     * @param account handles username and password parameters in the accout object
-     * @return returns account with account_id field on success, null on failure
+     * Looks up an account by username only. The password is checked by the caller against the stored hash,
+     * so login time doesn't depend on whether the database found a matching password.
+     *
+     * @param username username to look up
+     * @return returns the account with its stored password hash, null if it doesn't exist or on failure
      */
-    public Account selectAccount(Account account) {
-        //Catches unexpected errors and returns null
-        try {
-            //sql command string
-            String sql = "SELECT * FROM account WHERE username = ? AND password = ?";
+    @Override
+    public Account selectAccountByUsername(String username) {
+        //sql command string
+        String sql = "SELECT * FROM account WHERE username = ?";
 
-            //turns string into prepared statement
-            PreparedStatement ps = this.connection.prepareStatement(sql);
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statement for the string
+            PreparedStatement ps = pooled.prepareStatement(sql);
 
             //Adds values for ? fields
-            ps.setString(1, account.getUsername());
-            ps.setString(2, account.getPassword());
+            ps.setString(1, username);
 
             //Gets Result
-            ResultSet rs = ps.executeQuery();
-
-            //If there is a result then create object if it fails return null
-            while(rs.next()) {
-                Account returnAccount = new Account(rs.getInt("account_id"),
-                    rs.getString("username"),
-                    rs.getString("password"));
-                return returnAccount;
+            try (ResultSet rs = ps.executeQuery()) {
+                //If there is a result then create object if it fails return null
+                if(rs.next()) {
+                    Account returnAccount = new Account(rs.getInt("account_id"),
+                        rs.getString("username"),
+                        rs.getString("password"));
+                    return returnAccount;
+                }
             }
         }
         catch (SQLException e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         //if not returned in the try block then it failed or doesn't exist
         return null;
     }
+
+    /**
+     * Replaces an account's stored password, used to upgrade old hashes when the user logs in
+     *
+     * @param account_id id of the account
+     * @param password new stored form of the password
+     * @return true if the account was updated
+     */
+    @Override
+    public boolean updateAccountPassword(int account_id, String password) {
+        String sql = "UPDATE account SET password = ? WHERE account_id = ?";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Adds values for ? fields
+            ps.setString(1, password);
+            ps.setInt(2, account_id);
+
+            return ps.executeUpdate() == 1;
+        }
+        catch (SQLException e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Hands every username and its account_id to the sink as each row is read, used to fill the username index
+     * at startup without building a list of every account
+     *
+     * @param sink receives each username and account_id
+     * @return true if every row was handed to the sink, false on failure
+     */
+    @Override
+    public boolean streamAccountUsernames(ObjIntConsumer<String> sink) {
+        String sql = "SELECT account_id, username FROM account";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Hands over each row as it is read
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    sink.accept(rs.getString("username"), rs.getInt("account_id"));
+                }
+            }
+            return true;
+        }
+        catch (SQLException e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+
     /**
      * Adds an account to the database. Identical accounts are protected via the UNIQUE column constraint
-     * 
+     *
      * @param account takes an account model as parameter using
      * the overloaded constructor that doesn't take an account id
      * @return returns the account object with the assigned id now. Returns null on error
      * */
+    @Override
     public Account insertAccount(Account account) {
 
-        //Catches unexpected errors and returns null
-        try {
-            //Sql string
-            String sql = "INSERT INTO account (username, password) VALUES (?, ?);";
+        //Sql string
+        String sql = "INSERT INTO account (username, password) VALUES (?, ?);";
 
-            //Turns into prepared statement
-            PreparedStatement ps = this.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //Gets cached prepared statement that can return the generated key
+            PreparedStatement ps = pooled.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
             //Adds values for ? fields
             ps.setString(1, account.getUsername());
             ps.setString(2, account.getPassword());
 
-            //Inserts into accounts table 
+            //Inserts into accounts table
             ps.executeUpdate();
 
             //Gets generated id for object return
-            ResultSet rs = ps.getGeneratedKeys();
-
-            //If rs exists then set id to account and return otherwise return null
-            if(rs.next()){
-                int account_id = (int) rs.getLong(1);
-                account.setAccount_id(account_id);
-                return account;
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                //If rs exists then set id to account and return otherwise return null
+                if(rs.next()){
+                    int account_id = (int) rs.getLong(1);
+                    account.setAccount_id(account_id);
+                    return account;
+                }
             }
-            
+
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
@@ -98,37 +178,44 @@ public class SocialMediaDAO {
 
     /**
      * Deletes account record from database not in requirements
-     * TODO work on once initial project is submitted
-     * @param account
-     * @return
+     * @param account account to delete, found by its account_id
+     * @return the row as it was stored before the delete, null if it didn't exist or on failure
      */
+    @Override
     public Account deleteAccount(Account account) {
+        //Reads the deleted row back in the same statement, so a rename racing the delete can't be missed
+        String sql = "SELECT account_id, username, password FROM OLD TABLE (DELETE FROM account WHERE account_id = ?)";
+
         //Catches unexpected errors and returns null
-        try {
-            String sql = "DELETE FROM account WHERE account_id = ?";
-            PreparedStatement ps = this.connection.prepareStatement(sql);
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
             ps.setInt(1, account.getAccount_id());
-            int deleted = ps.executeUpdate();
-            if(deleted > 0){
-                System.out.println("Account Deleted");
-                return account;
+            try (ResultSet rs = ps.executeQuery()) {
+                if(rs.next()){
+                    System.out.println("Account Deleted");
+                    return new Account(rs.getInt("account_id"),
+                        rs.getString("username"),
+                        rs.getString("password"));
+                }
             }
 
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
     }
 
     //
+    @Override
     public Message insertMessage(Message message) {
-        //Catches unexpected errors and returns null
-        try {
-            //sql string
-            String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+        //sql string
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
 
-            //creates prepared statement that can return the generated key
-            PreparedStatement ps = this.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statement that can return the generated key
+            PreparedStatement ps = pooled.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
 
             //Add values to sql command
             ps.setInt(1, message.getPosted_by());
@@ -141,120 +228,532 @@ public class SocialMediaDAO {
             //If updated is greater than 0 then it was inserted
             if(updated > 0){
                 //sets id to message and returns it, null on fail or not inserted
-                ResultSet rs = ps.getGeneratedKeys();
-                if(rs.next()){
-                    int message_id = (int) rs.getLong(1);
-                    message.setMessage_id(message_id);
-                    return message;
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    if(rs.next()){
+                        int message_id = (int) rs.getLong(1);
+                        message.setMessage_id(message_id);
+                        return message;
+                    }
                 }
             }
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
     }
-    public Message selectMessage(int message_id) {
+    /**
+     * Inserts every message in one transaction using a jdbc batch, so the whole list costs one round of
+     * statement execution and one commit. Either all messages are saved or none are.
+     *
+     * @param messages messages to insert, each is given its generated id on success
+     * @return the same list with ids set, null on failure
+     */
+    @Override
+    public List<Message> insertMessages(List<Message> messages) {
+        //sql string, same as insertMessage so the cached statement is shared
+        String sql = "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)";
+
         //Catches unexpected errors and returns null
-        try {
-            //sql string
-            String sql = "SELECT * FROM message WHERE message_id = ?";
+        try (PooledConnection pooled = this.pool.borrow()) {
+            Connection connection = pooled.getConnection();
 
-            //turns it into a prepared statement
-            PreparedStatement ps = this.connection.prepareStatement(sql);
+            PreparedStatement ps = pooled.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+
+            //One transaction for the whole batch, the pool puts autocommit back when the connection is returned
+            connection.setAutoCommit(false);
+            try {
+                for (Message message : messages) {
+                    ps.setInt(1, message.getPosted_by());
+                    ps.setString(2, message.getMessage_text());
+                    ps.setLong(3, message.getTime_posted_epoch());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+
+                //Generated keys come back in the same order as the batch
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    for (Message message : messages) {
+                        if (!rs.next()) {
+                            throw new SQLException("Missing generated key for batch insert");
+                        }
+                        message.setMessage_id((int) rs.getLong(1));
+                    }
+                }
+                connection.commit();
+                return messages;
+            } catch (SQLException e) {
+                //Leave the cached statement and connection clean for the next borrower
+                ps.clearBatch();
+                connection.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Reserves a block of message ids from the message id sequence. The ids are never handed out again, so a
+     * message can be given its id before it is inserted.
+     *
+     * @param count number of ids to reserve
+     * @return the reserved ids in increasing order, null on failure
+     */
+    @Override
+    public int[] reserveMessageIds(int count) {
+        //sql string, one sequence value per generated row
+        String sql = "SELECT NEXT VALUE FOR message_id_seq FROM SYSTEM_RANGE(1, ?)";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, count);
+
+            int[] ids = new int[count];
+            try (ResultSet rs = ps.executeQuery()) {
+                for (int i = 0; i < count; i++) {
+                    if (!rs.next()) {
+                        throw new SQLException("Missing reserved message id");
+                    }
+                    ids[i] = rs.getInt(1);
+                }
+            }
+            return ids;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Inserts messages that already have their ids, from reserveMessageIds, in one transaction using a jdbc batch.
+     * Either all messages are saved or none are.
+     *
+     * @param messages messages to insert with message_id set
+     * @return true if every message was saved, false on failure
+     */
+    @Override
+    public boolean insertMessagesWithIds(List<Message> messages) {
+        //sql string
+        String sql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            Connection connection = pooled.getConnection();
+
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //One transaction for the whole batch, the pool puts autocommit back when the connection is returned
+            connection.setAutoCommit(false);
+            try {
+                for (Message message : messages) {
+                    ps.setInt(1, message.getMessage_id());
+                    ps.setInt(2, message.getPosted_by());
+                    ps.setString(3, message.getMessage_text());
+                    ps.setLong(4, message.getTime_posted_epoch());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                //Leave the cached statement and connection clean for the next borrower
+                ps.clearBatch();
+                connection.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * Returns the messages with any of the given ids, in no particular order. Ids that don't exist are skipped.
+     *
+     * @param message_ids ids to look up
+     * @return the messages found, null on failure
+     */
+    @Override
+    public List<Message> selectMessagesByIds(int[] message_ids) {
+        List<Message> messages = new ArrayList<>(message_ids.length);
+        //sql statement, the ids are passed as one array parameter so the statement can be cached
+        String sql = "SELECT * FROM message WHERE message_id = ANY(?)";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setArray(1, pooled.getConnection().createArrayOf("INTEGER", boxIds(message_ids)));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    messages.add(readMessage(rs));
+                }
+            }
+            return messages;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Returns which of the given account ids exist, in one query
+     * @param account_ids ids to check
+     * @return the ids that exist, null on failure
+     */
+    @Override
+    public Set<Integer> selectExistingAccountIds(Collection<Integer> account_ids) {
+        Set<Integer> existing = new HashSet<>();
+        //sql statement, the ids are passed as one array parameter so the statement can be cached
+        String sql = "SELECT account_id FROM account WHERE account_id = ANY(?)";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setArray(1, pooled.getConnection().createArrayOf("INTEGER", account_ids.toArray()));
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    existing.add(rs.getInt(1));
+                }
+            }
+            return existing;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    @Override
+    public Message selectMessage(int message_id) {
+        //sql string
+        String sql = "SELECT * FROM message WHERE message_id = ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statement
+            PreparedStatement ps = pooled.prepareStatement(sql);
 
             //Adds value for id
             ps.setInt(1, message_id);
 
             //gets result from select statement
-            ResultSet rs = ps.executeQuery();
-            //If there is a result, build and return object otherwise return null
-            while(rs.next()){
-                Message mesage = new Message(
-                    rs.getInt("message_id"),
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch"));
-                    return mesage;
+            try (ResultSet rs = ps.executeQuery()) {
+                //If there is a result, build and return object otherwise return null
+                if(rs.next()){
+                    return readMessage(rs);
+                }
             }
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
     }
+    @Override
     public List<Message> selectAllMessages() {
         List<Message> messages = new ArrayList<>();
+        //sql statement
+        String sql = "SELECT * FROM message";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Gets reuslts
+            try (ResultSet rs = ps.executeQuery()) {
+                //If results exist, itterate over all of them and build and return list of messages, null on failure
+                while(rs.next()){
+                    messages.add(readMessage(rs));
+                }
+            }
+            return messages;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Returns one page of messages ordered by message_id, starting after the given id (keyset pagination).
+     * Uses the primary key index so later pages cost the same as the first.
+     *
+     * @param after_message_id only messages with a larger id are returned, 0 for the first page
+     * @param limit most messages to return
+     * @return list of messages for the page, null on failure
+     */
+    @Override
+    public List<Message> selectMessagesPage(int after_message_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        //sql statement
+        String sql = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+
         //Catches unexpected errors and returns null
-        try {
-            //sql statement
-            String sql = "SELECT * FROM message";
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
 
-            //turns it into prepared statment
-            PreparedStatement ps = this.connection.prepareStatement(sql);
+            //Adds values for cursor and page size
+            ps.setInt(1, after_message_id);
+            ps.setInt(2, limit);
 
             //Gets reuslts
-            ResultSet rs = ps.executeQuery();
-
-            //If results exist, itterate over all of them and build and return list of messages, null on failure 
-            while(rs.next()){
-                Message mesage = new Message(
-                    rs.getInt("message_id"),
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch"));
-                messages.add(mesage);
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    messages.add(readMessage(rs));
+                }
             }
             return messages;
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
     }
+    /**
+     * Hands messages ordered by message_id to the sink as each row is read instead of building a list.
+     * The pooled connection is held until the last row is handed over.
+     *
+     * @param after_message_id only messages with a larger id are streamed, 0 for all of them
+     * @param limit most messages to stream, 0 for no limit
+     * @param sink receives each message
+     * @return true if every row was handed to the sink, false on failure
+     */
+    @Override
+    public boolean streamMessages(int after_message_id, int limit, MessageSink sink) {
+        //sql statement
+        String sql = "SELECT * FROM message WHERE message_id > ? ORDER BY message_id LIMIT ?";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Adds values for cursor and page size, no limit reads to the end of the table
+            ps.setInt(1, after_message_id);
+            ps.setInt(2, limit > 0 ? limit : Integer.MAX_VALUE);
+
+            //Hands over each row as it is read
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    sink.accept(readMessage(rs));
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * Reads messages ordered by id into a MessageBatch, straight from the result set columns by position, so no
+     * Message is built per row and the text h2 hands back is encoded into the batch and dropped.
+     *
+     * @param after_message_id cursor, only messages with a larger id are returned
+     * @param limit most messages to return, 0 for no limit
+     * @return the batch, null on failure
+     */
+    @Override
+    public MessageBatch selectMessagesBatch(int after_message_id, int limit) {
+        //sql statement, columns named so they can be read by position
+        String sql = "SELECT message_id, posted_by, message_text, time_posted_epoch FROM message "
+            + "WHERE message_id > ? ORDER BY message_id LIMIT ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Adds values for cursor and page size, no limit reads to the end of the table
+            ps.setInt(1, after_message_id);
+            ps.setInt(2, limit > 0 ? limit : Integer.MAX_VALUE);
+
+            MessageBatch batch = new MessageBatch(limit > 0 ? Math.min(limit, 1024) : 1024);
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    batch.add(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getLong(4));
+                }
+            }
+            return batch;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Hands the messages posted in a time window to the sink newest first, reading them off message_time_idx
+     * in index order so nothing is sorted or collected first. The window is half open so back to back windows
+     * never return the same message twice.
+     *
+     * @param since only messages with time_posted_epoch at or after this are streamed
+     * @param until only messages with time_posted_epoch before this are streamed
+     * @param sink receives each message
+     * @return true if every row was handed to the sink, false on failure
+     */
+    @Override
+    public boolean streamMessagesInTimeRange(long since, long until, MessageSink sink) {
+        //sql statement
+        String sql = "SELECT * FROM message WHERE time_posted_epoch >= ? AND time_posted_epoch < ? "
+            + "ORDER BY time_posted_epoch DESC, message_id";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Adds values for the window
+            ps.setLong(1, since);
+            ps.setLong(2, until);
+
+            //Hands over each row as it is read
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    sink.accept(readMessage(rs));
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * Hands the messages an account posted in a time window to the sink newest first, reading them off
+     * message_posted_by_time_idx in index order. The window is half open like streamMessagesInTimeRange.
+     *
+     * @param account_id id of the account that posted the messages
+     * @param since only messages with time_posted_epoch at or after this are streamed
+     * @param until only messages with time_posted_epoch before this are streamed
+     * @param sink receives each message
+     * @return true if every row was handed to the sink, false on failure
+     */
+    @Override
+    public boolean streamMessagesInTimeRangeFromAccountId(int account_id, long since, long until, MessageSink sink) {
+        //sql statement
+        //the posted_by term in ORDER BY matches the index so h2 walks it in order instead of sorting
+        String sql = "SELECT * FROM message WHERE posted_by = ? AND time_posted_epoch >= ? AND time_posted_epoch < ? "
+            + "ORDER BY posted_by, time_posted_epoch DESC, message_id";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Adds values for account and window
+            ps.setInt(1, account_id);
+            ps.setLong(2, since);
+            ps.setLong(3, until);
+
+            //Hands over each row as it is read
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    sink.accept(readMessage(rs));
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    @Override
     public List<Message> selectAllMessagesFromAccountId(int account_id) {
         List<Message> messages = new ArrayList<>();
-        //Catches unexpected errors and returns null
-        try {
-            //sql statement
-            String sql = "SELECT * FROM message WHERE posted_by = ?";
+        //sql statement
+        String sql = "SELECT * FROM message WHERE posted_by = ?";
 
-            //turns it into prepared statment
-            PreparedStatement ps = this.connection.prepareStatement(sql);
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
 
             //Adds value for id
             ps.setInt(1, account_id);
 
             //Gets reuslts
-            ResultSet rs = ps.executeQuery();
-
-            //If results exist, itterate over all of them and build and return list of messages, null on failure 
-            while(rs.next()){
-                Message mesage = new Message(
-                    rs.getInt("message_id"),
-                    rs.getInt("posted_by"),
-                    rs.getString("message_text"),
-                    rs.getLong("time_posted_epoch"));
-                messages.add(mesage);
+            try (ResultSet rs = ps.executeQuery()) {
+                //If results exist, itterate over all of them and build and return list of messages, null on failure
+                while(rs.next()){
+                    messages.add(readMessage(rs));
+                }
             }
-            System.out.println(messages.toString());
             return messages;
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
     }
-    public Message deleteMessage(int message_id){
+    /**
+     * Returns one page of an account's messages, newest first (keyset pagination).
+     * The page after a given row is every row with an older time, or the same time and a larger id,
+     * which matches the order of message_posted_by_time_idx so the page is read straight off the index.
+     *
+     * @param account_id id of the account that posted the messages
+     * @param before_epoch time_posted_epoch of the last row of the previous page, Long.MAX_VALUE for the first page
+     * @param after_message_id message_id of the last row of the previous page, 0 for the first page
+     * @param limit most messages to return
+     * @return list of messages for the page, null on failure
+     */
+    @Override
+    public List<Message> selectMessagesPageFromAccountId(int account_id, long before_epoch, int after_message_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        //sql statement
+        //the time <= ? range and the posted_by term in ORDER BY let h2 seek and walk the index in order
+        //instead of sorting every message the account has
+        String sql = "SELECT * FROM message WHERE posted_by = ? AND time_posted_epoch <= ? "
+            + "AND (time_posted_epoch < ? OR message_id > ?) "
+            + "ORDER BY posted_by, time_posted_epoch DESC, message_id LIMIT ?";
+
         //Catches unexpected errors and returns null
-        try {
-            //First checks if message exists from select message if it does we need this to return deleted message
-            Message message = selectMessage(message_id);
-            if(message == null) {
-                return null;
-            }
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
 
-            //sql statement
-            String sql = "DELETE FROM message WHERE message_id = ?;";
+            //Adds values for account, cursor and page size
+            ps.setInt(1, account_id);
+            ps.setLong(2, before_epoch);
+            ps.setLong(3, before_epoch);
+            ps.setInt(4, after_message_id);
+            ps.setInt(5, limit);
 
-            //turns it into prepared statment
-            PreparedStatement ps = this.connection.prepareStatement(sql);
+            //Gets reuslts
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    messages.add(readMessage(rs));
+                }
+            }
+            return messages;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    @Override
+    public Message deleteMessage(int message_id){
+        //First checks if message exists from select message if it does we need this to return deleted message
+        //Done before borrowing so this method never holds two pooled connections at once
+        Message message = selectMessage(message_id);
+        if(message == null) {
+            return null;
+        }
+        //sql statement
+        String sql = "DELETE FROM message WHERE message_id = ?;";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
 
             //sets field value
             ps.setInt(1, message_id);
@@ -269,6 +768,7 @@ public class SocialMediaDAO {
             }
 
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
@@ -277,19 +777,21 @@ public class SocialMediaDAO {
     //Helps deal with table reference if deleteing something referenced without using cascade
     //Auditing would also require a deleted messages table for admin use
     /**
-     * 
+     *
      * @param message_id id value of the message provided from the pathParam
      * @param message_text
      * @return
      */
+    @Override
     public Message updateMessage(int message_id, String message_text){
-        //Catches unexpected errors and returns null
-        try {
-            //sql statement
-            String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
+        boolean wasUpdated = false;
+        //sql statement
+        String sql = "UPDATE message SET message_text = ? WHERE message_id = ?";
 
-            //turns statement into prepared statement
-            PreparedStatement ps = this.connection.prepareStatement(sql);
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statement
+            PreparedStatement ps = pooled.prepareStatement(sql);
 
             //set field values
             ps.setString(1, message_text);
@@ -297,15 +799,456 @@ public class SocialMediaDAO {
 
             //gets returned int on update
             int updated = ps.executeUpdate();
-            //If updated is more than 0, then  return message otherwise return null
-            if(updated > 0){
-                return selectMessage(message_id);
+            //If updated is more than 0, then the message is read back once the connection is returned
+            wasUpdated = updated > 0;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        //return message otherwise return null
+        if(wasUpdated){
+            return selectMessage(message_id);
+        }
+        return null;
+    }
+    /**
+     * One page of the messages posted before a time, for moving old messages to the archive
+     *
+     * @param before_epoch only messages with an older time_posted_epoch are returned
+     * @param after_message_id only messages with a larger id are returned, 0 for the first page
+     * @param limit most messages to return
+     * @return the page ordered by message_id, null on failure
+     */
+    public List<Message> selectMessagesPostedBefore(long before_epoch, int after_message_id, int limit) {
+        List<Message> messages = new ArrayList<>();
+        //sql statement
+        String sql = "SELECT * FROM message WHERE time_posted_epoch < ? AND message_id > ? ORDER BY message_id LIMIT ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            //gets cached prepared statment
+            PreparedStatement ps = pooled.prepareStatement(sql);
+
+            //Adds values for the cutoff, cursor and page size
+            ps.setLong(1, before_epoch);
+            ps.setInt(2, after_message_id);
+            ps.setInt(3, limit);
+
+            //Gets results
+            try (ResultSet rs = ps.executeQuery()) {
+                while(rs.next()){
+                    messages.add(readMessage(rs));
+                }
+            }
+            return messages;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Finishes moving messages to an archive segment, in one transaction: deletes their rows, records the segment
+     * and records a tombstone for each message whose row was edited or deleted while it was copied, so the copy in
+     * the segment is never read. A crash before the commit leaves the rows here and the segment unrecorded.
+     *
+     * @param segment_id id of the segment the messages were copied to
+     * @param messages messages as they were copied
+     * @return for each message, true if its row was deleted and false if it was tombstoned. Null on failure, when
+     * nothing is changed
+     */
+    public boolean[] archiveMessages(int segment_id, List<Message> messages) {
+        //sql strings
+        String deleteSql = "DELETE FROM message WHERE message_id = ? AND message_text = ?";
+        String tombstoneSql = "INSERT INTO archive_tombstone (segment_id, message_id) VALUES (?, ?)";
+        String segmentSql = "INSERT INTO archive_segment (segment_id) VALUES (?)";
+        String sql = deleteSql;
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            Connection connection = pooled.getConnection();
+
+            //One transaction for all three, the pool puts autocommit back when the connection is returned
+            connection.setAutoCommit(false);
+            try {
+                //A row is only deleted if its text is still what was copied
+                PreparedStatement ps = pooled.prepareStatement(deleteSql);
+                for (Message message : messages) {
+                    ps.setInt(1, message.getMessage_id());
+                    ps.setString(2, message.getMessage_text());
+                    ps.addBatch();
+                }
+                int[] counts = ps.executeBatch();
+                boolean[] deleted = new boolean[counts.length];
+
+                sql = tombstoneSql;
+                ps = pooled.prepareStatement(tombstoneSql);
+                for (int i = 0; i < counts.length; i++) {
+                    deleted[i] = counts[i] > 0;
+                    if (!deleted[i]) {
+                        ps.setInt(1, segment_id);
+                        ps.setInt(2, messages.get(i).getMessage_id());
+                        ps.addBatch();
+                    }
+                }
+                ps.executeBatch();
+
+                sql = segmentSql;
+                ps = pooled.prepareStatement(segmentSql);
+                ps.setInt(1, segment_id);
+                ps.executeUpdate();
+                connection.commit();
+                return deleted;
+            } catch (SQLException e) {
+                //Leave the cached statements and connection clean for the next borrower
+                pooled.prepareStatement(deleteSql).clearBatch();
+                pooled.prepareStatement(tombstoneSql).clearBatch();
+                connection.rollback();
+                throw e;
             }
         } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
             System.out.println(e.getMessage());
         }
         return null;
     }
-    
-    
-}
\ No newline at end of file
+    /**
+     * Hides a message in an archive segment, after it was deleted or edited
+     *
+     * @param segment_id id of the segment holding the message
+     * @param message_id id of the message
+     * @return true if the tombstone is saved
+     */
+    public boolean insertArchiveTombstone(int segment_id, int message_id) {
+        //sql string, a second tombstone for the same message is not an error
+        String sql = "MERGE INTO archive_tombstone (segment_id, message_id) VALUES (?, ?)";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, segment_id);
+            ps.setInt(2, message_id);
+            ps.executeUpdate();
+            return true;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * Brings an edited message back from an archive segment, in one transaction: inserts it with its id and
+     * tombstones the archived copy
+     *
+     * @param segment_id id of the segment holding the message
+     * @param message the message with its new text
+     * @return true if the message is saved
+     */
+    public boolean restoreArchivedMessage(int segment_id, Message message) {
+        //sql strings
+        String insertSql = "INSERT INTO message (message_id, posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?, ?)";
+        String tombstoneSql = "MERGE INTO archive_tombstone (segment_id, message_id) VALUES (?, ?)";
+        String sql = insertSql;
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            Connection connection = pooled.getConnection();
+
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement ps = pooled.prepareStatement(insertSql);
+                ps.setInt(1, message.getMessage_id());
+                ps.setInt(2, message.getPosted_by());
+                ps.setString(3, message.getMessage_text());
+                ps.setLong(4, message.getTime_posted_epoch());
+                ps.executeUpdate();
+
+                sql = tombstoneSql;
+                ps = pooled.prepareStatement(tombstoneSql);
+                ps.setInt(1, segment_id);
+                ps.setInt(2, message.getMessage_id());
+                ps.executeUpdate();
+                connection.commit();
+                return true;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * @return ids of the archive segments whose messages were moved out of the message table, ascending, null on
+     * failure
+     */
+    public int[] selectArchivedSegmentIds() {
+        //sql string
+        String sql = "SELECT segment_id FROM archive_segment ORDER BY segment_id";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            try (ResultSet rs = ps.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * @return every archive tombstone as a segment_id and message_id pair, null on failure
+     */
+    public List<int[]> selectArchiveTombstones() {
+        List<int[]> tombstones = new ArrayList<>();
+        //sql string
+        String sql = "SELECT segment_id, message_id FROM archive_tombstone";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    tombstones.add(new int[] {rs.getInt(1), rs.getInt(2)});
+                }
+            }
+            return tombstones;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Makes one account follow another. Following an account twice is not an error.
+     *
+     * @param follower_id account that follows
+     * @param followee_id account being followed
+     * @return true if the follow is saved, false if either account doesn't exist or on failure
+     */
+    @Override
+    public boolean insertFollow(int follower_id, int followee_id) {
+        //sql statement, merge leaves an existing follow as it is
+        String sql = "MERGE INTO follow (follower_id, followee_id) KEY (follower_id, followee_id) VALUES (?, ?)";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, follower_id);
+            ps.setInt(2, followee_id);
+            ps.executeUpdate();
+            return true;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * Stops one account following another
+     *
+     * @param follower_id account that follows
+     * @param followee_id account being followed
+     * @return true if there was a follow to remove, false if there wasn't or on failure
+     */
+    @Override
+    public boolean deleteFollow(int follower_id, int followee_id) {
+        String sql = "DELETE FROM follow WHERE follower_id = ? AND followee_id = ?";
+
+        //Catches unexpected errors and returns false
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, follower_id);
+            ps.setInt(2, followee_id);
+            return ps.executeUpdate() > 0;
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return false;
+    }
+    /**
+     * Returns the accounts that follow an account, read off follow_followee_idx
+     *
+     * @param followee_id account being followed
+     * @param limit most ids to return, so a caller that only needs to know if there are many doesn't read them all
+     * @return ids of the followers, null on failure
+     */
+    @Override
+    public int[] selectFollowerIds(int followee_id, int limit) {
+        String sql = "SELECT follower_id FROM follow WHERE followee_id = ? LIMIT ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, followee_id);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Returns the accounts an account follows, read off the follow primary key
+     *
+     * @param follower_id account that follows
+     * @return ids of the followed accounts, null on failure
+     */
+    @Override
+    public int[] selectFolloweeIds(int follower_id) {
+        String sql = "SELECT followee_id FROM follow WHERE follower_id = ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, follower_id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Returns the accounts with at least a given number of followers
+     *
+     * @param min_followers fewest followers an account can have to be returned
+     * @return ids of the accounts, null on failure
+     */
+    @Override
+    public int[] selectAccountIdsWithFollowers(int min_followers) {
+        String sql = "SELECT followee_id FROM follow GROUP BY followee_id HAVING COUNT(*) >= ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, min_followers);
+            try (ResultSet rs = ps.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Returns the ids of the newest messages posted by the accounts an account follows, newest first. This is
+     * the timeline worked out on read, used to fill a precomputed timeline and for pages older than it holds.
+     *
+     * @param follower_id account whose timeline is read
+     * @param excluded_ids followed accounts to leave out, may be empty
+     * @param before_message_id only messages with a smaller id are returned, Integer.MAX_VALUE for the newest
+     * @param limit most ids to return
+     * @return message ids newest first, null on failure
+     */
+    @Override
+    public int[] selectTimelineMessageIds(int follower_id, int[] excluded_ids, int before_message_id, int limit) {
+        //sql statement, joins through the follow primary key to each followee's messages
+        String sql = "SELECT m.message_id FROM follow f JOIN message m ON m.posted_by = f.followee_id "
+            + "WHERE f.follower_id = ? AND m.message_id < ? AND NOT ARRAY_CONTAINS(?, m.posted_by) "
+            + "ORDER BY m.message_id DESC LIMIT ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setInt(1, follower_id);
+            ps.setInt(2, before_message_id);
+            ps.setArray(3, pooled.getConnection().createArrayOf("INTEGER", boxIds(excluded_ids)));
+            ps.setInt(4, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Returns the ids of the newest messages posted by any of the given accounts, newest first
+     *
+     * @param account_ids accounts that posted the messages
+     * @param before_message_id only messages with a smaller id are returned, Integer.MAX_VALUE for the newest
+     * @param limit most ids to return
+     * @return message ids newest first, null on failure
+     */
+    @Override
+    public int[] selectRecentMessageIds(int[] account_ids, int before_message_id, int limit) {
+        //sql statement, the ids are passed as one array parameter so the statement can be cached
+        String sql = "SELECT message_id FROM message WHERE posted_by = ANY(?) AND message_id < ? "
+            + "ORDER BY message_id DESC LIMIT ?";
+
+        //Catches unexpected errors and returns null
+        try (PooledConnection pooled = this.pool.borrow()) {
+            PreparedStatement ps = pooled.prepareStatement(sql);
+            ps.setArray(1, pooled.getConnection().createArrayOf("INTEGER", boxIds(account_ids)));
+            ps.setInt(2, before_message_id);
+            ps.setInt(3, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                return readIds(rs);
+            }
+        } catch (Exception e) {
+            Metrics.getInstance().statement(sql).recordError();
+            System.out.println(e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Reads the first column of every row as an id
+     * @param rs result set of one int column
+     * @return the ids in row order
+     * @throws SQLException if the column isn't there
+     */
+    private int[] readIds(ResultSet rs) throws SQLException {
+        int[] ids = new int[16];
+        int count = 0;
+        while (rs.next()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = rs.getInt(1);
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @param ids ids to pass as an array parameter
+     * @return the same ids boxed, as createArrayOf needs
+     */
+    private Integer[] boxIds(int[] ids) {
+        Integer[] boxed = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            boxed[i] = ids[i];
+        }
+        return boxed;
+    }
+
+    /**
+     * Builds a message from the current row of a result set
+     * @param rs result set positioned on a message row
+     * @return message object for the row
+     * @throws SQLException if a column is missing
+     */
+    private Message readMessage(ResultSet rs) throws SQLException {
+        return new Message(
+            rs.getInt("message_id"),
+            rs.getInt("posted_by"),
+            rs.getString("message_text"),
+            rs.getLong("time_posted_epoch"));
+    }
+
+
+}
@@ -0,0 +1,265 @@
+package DAO;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+import Model.*;
+import Util.ConnectionPool;
+
+/**
+ * Storage for accounts, messages and follows, behind the service. SocialMediaDAO keeps them in the h2 database,
+ * InMemoryStore keeps them in this process. The storage.engine system property picks one, h2 (the default) or
+ * memory. With the archive.path system property set, h2 is wrapped in a TieredStore that moves old messages to
+ * column files in that directory.
+ *
+ * Implementations don't throw for storage failures, they print them and return null or false, so the service
+ * can treat a failed read the same way whichever store it has.
+ */
+public interface SocialMediaStore {
+
+    /**
+     * Creates the store set up by the storage.engine system property
+     * @return a new store
+     */
+    static SocialMediaStore fromSystemProperties() {
+        String engine = System.getProperty("storage.engine", "h2");
+        if (engine.equals("memory")) {
+            return InMemoryStore.fromSystemProperties();
+        }
+        if (!engine.equals("h2")) {
+            throw new IllegalArgumentException("Unknown storage.engine " + engine);
+        }
+        if (System.getProperty("archive.path") != null) {
+            return TieredStore.fromSystemProperties();
+        }
+        return new SocialMediaDAO();
+    }
+
+    //Accounts
+
+    /**
+     * @param username username to look up
+     * @return the account with its stored password hash, null if it doesn't exist or on failure
+     */
+    Account selectAccountByUsername(String username);
+
+    /**
+     * @param account_id id of the account
+     * @param password new stored form of the password
+     * @return true if the account was updated
+     */
+    boolean updateAccountPassword(int account_id, String password);
+
+    /**
+     * Hands every username and its account_id to the sink
+     * @param sink receives each username and account_id
+     * @return true if every account was handed to the sink, false on failure
+     */
+    boolean streamAccountUsernames(ObjIntConsumer<String> sink);
+
+    /**
+     * @param account account without an id
+     * @return the same account with its new id set, null if the username is taken or on failure
+     */
+    Account insertAccount(Account account);
+
+    /**
+     * @param account account to delete, found by its account_id
+     * @return the account as it was stored, null if it didn't exist, still has messages, or on failure
+     */
+    Account deleteAccount(Account account);
+
+    /**
+     * @param account_ids ids to check
+     * @return the ids that exist, null on failure
+     */
+    Set<Integer> selectExistingAccountIds(Collection<Integer> account_ids);
+
+    //Messages
+
+    /**
+     * @param message message without an id
+     * @return the same message with its new id set, null if the poster doesn't exist or on failure
+     */
+    Message insertMessage(Message message);
+
+    /**
+     * Inserts every message or none of them
+     * @param messages messages without ids, each is given its id on success
+     * @return the same list with ids set, null on failure
+     */
+    List<Message> insertMessages(List<Message> messages);
+
+    /**
+     * Reserves message ids that are never handed out again, so a message can be given its id before it is saved
+     * @param count number of ids to reserve
+     * @return the ids in increasing order, null on failure
+     */
+    int[] reserveMessageIds(int count);
+
+    /**
+     * Inserts every message or none of them
+     * @param messages messages with ids from reserveMessageIds
+     * @return true if every message was saved
+     */
+    boolean insertMessagesWithIds(List<Message> messages);
+
+    /**
+     * @param message_id id of the message
+     * @return the message, null if it doesn't exist or on failure
+     */
+    Message selectMessage(int message_id);
+
+    /**
+     * @param message_ids ids to look up
+     * @return the messages found in no particular order, null on failure
+     */
+    List<Message> selectMessagesByIds(int[] message_ids);
+
+    /**
+     * @return every message, null on failure
+     */
+    List<Message> selectAllMessages();
+
+    /**
+     * @param after_message_id only messages with a larger id are returned, 0 for the first page
+     * @param limit most messages to return
+     * @return one page of messages ordered by message_id, null on failure
+     */
+    List<Message> selectMessagesPage(int after_message_id, int limit);
+
+    /**
+     * @param after_message_id only messages with a larger id are streamed, 0 for all of them
+     * @param limit most messages to stream, 0 for no limit
+     * @param sink receives each message ordered by message_id
+     * @return true if every message was handed to the sink, false on failure
+     */
+    boolean streamMessages(int after_message_id, int limit, MessageSink sink);
+
+    /**
+     * Same rows as streamMessages, collected into one MessageBatch instead of a Message per row. Stores that can
+     * fill the batch from their own rows without building Messages override it.
+     * @param after_message_id only messages with a larger id are returned, 0 for all of them
+     * @param limit most messages to return, 0 for no limit
+     * @return the messages ordered by message_id, null on failure
+     */
+    default MessageBatch selectMessagesBatch(int after_message_id, int limit) {
+        MessageBatch batch = new MessageBatch();
+        return streamMessages(after_message_id, limit, batch::add) ? batch : null;
+    }
+
+    /**
+     * @param since only messages with time_posted_epoch at or after this are streamed
+     * @param until only messages with time_posted_epoch before this are streamed
+     * @param sink receives each message, newest first
+     * @return true if every message was handed to the sink, false on failure
+     */
+    boolean streamMessagesInTimeRange(long since, long until, MessageSink sink);
+
+    /**
+     * @param account_id id of the account that posted the messages
+     * @param since only messages with time_posted_epoch at or after this are streamed
+     * @param until only messages with time_posted_epoch before this are streamed
+     * @param sink receives each message, newest first
+     * @return true if every message was handed to the sink, false on failure
+     */
+    boolean streamMessagesInTimeRangeFromAccountId(int account_id, long since, long until, MessageSink sink);
+
+    /**
+     * @param account_id id of the account that posted the messages
+     * @return every message the account posted, null on failure
+     */
+    List<Message> selectAllMessagesFromAccountId(int account_id);
+
+    /**
+     * One page of an account's messages ordered by time_posted_epoch newest first, then message_id. The page
+     * after a row is every row with an older time, or the same time and a larger id.
+     * @param account_id id of the account that posted the messages
+     * @param before_epoch time_posted_epoch of the last row of the previous page, Long.MAX_VALUE for the first page
+     * @param after_message_id message_id of the last row of the previous page, 0 for the first page
+     * @param limit most messages to return
+     * @return the page, null on failure
+     */
+    List<Message> selectMessagesPageFromAccountId(int account_id, long before_epoch, int after_message_id, int limit);
+
+    /**
+     * @param message_id id of the message
+     * @return the deleted message, null if it didn't exist or on failure
+     */
+    Message deleteMessage(int message_id);
+
+    /**
+     * @param message_id id of the message
+     * @param message_text new text
+     * @return the updated message, null if it didn't exist or on failure
+     */
+    Message updateMessage(int message_id, String message_text);
+
+    //Follows
+
+    /**
+     * Following an account twice is not an error
+     * @param follower_id account that follows
+     * @param followee_id account being followed
+     * @return true if the follow is saved, false if either account doesn't exist or on failure
+     */
+    boolean insertFollow(int follower_id, int followee_id);
+
+    /**
+     * @param follower_id account that follows
+     * @param followee_id account being followed
+     * @return true if there was a follow to remove
+     */
+    boolean deleteFollow(int follower_id, int followee_id);
+
+    /**
+     * @param followee_id account being followed
+     * @param limit most ids to return
+     * @return ids of the accounts following it, null on failure
+     */
+    int[] selectFollowerIds(int followee_id, int limit);
+
+    /**
+     * @param follower_id account that follows
+     * @return ids of the accounts it follows, null on failure
+     */
+    int[] selectFolloweeIds(int follower_id);
+
+    /**
+     * @param min_followers fewest followers an account can have to be returned
+     * @return ids of the accounts with at least that many followers, null on failure
+     */
+    int[] selectAccountIdsWithFollowers(int min_followers);
+
+    /**
+     * @param follower_id account whose timeline is read
+     * @param excluded_ids followed accounts to leave out, may be empty
+     * @param before_message_id only messages with a smaller id are returned
+     * @param limit most ids to return
+     * @return ids of the newest messages posted by the accounts it follows, newest first, null on failure
+     */
+    int[] selectTimelineMessageIds(int follower_id, int[] excluded_ids, int before_message_id, int limit);
+
+    /**
+     * @param account_ids accounts that posted the messages
+     * @param before_message_id only messages with a smaller id are returned
+     * @param limit most ids to return
+     * @return ids of the newest messages posted by any of the accounts, newest first, null on failure
+     */
+    int[] selectRecentMessageIds(int[] account_ids, int before_message_id, int limit);
+
+    /**
+     * @return the connection pool the store borrows from, null if it doesn't use one
+     */
+    default ConnectionPool getConnectionPool() {
+        return null;
+    }
+
+    /**
+     * Releases anything the store holds, such as writing a last snapshot. Called when the service closes.
+     */
+    default void close() {
+    }
+}
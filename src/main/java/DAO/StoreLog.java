@@ -0,0 +1,633 @@
+package DAO;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+import Model.Message;
+
+/**
+ * Append-only log of every change made to an InMemoryStore, so changes made since its last snapshot survive a
+ * restart. Records are length prefixed and checksummed: [payload length][crc32c of payload][payload], the payload
+ * starting with a one byte record type. A record cut off by a crash fails its length or checksum and is where
+ * replay stops.
+ *
+ * The log is split into generations, one file each, named after the snapshot with .log.N on the end. A snapshot
+ * starts a new generation and records its number, so once the snapshot is written every older generation is
+ * covered by it and deleted. Recovery loads the snapshot and replays the generations from its number on.
+ *
+ * Records are appended to a buffer while the store's write lock is held, so the log is in the same order the
+ * changes were made. Only the log's own writer thread touches the file: callers hand it records and wait for
+ * sequence numbers, so a caller that is interrupted while waiting fails just its own request and never closes the
+ * channel out from under everyone else. How records reach the disk depends on the sync policy:
+ * ALWAYS waits for an fsync before a change returns, and one fsync covers every record appended while the last
+ * one ran, so concurrent writers share them (group commit).
+ * INTERVAL writes and fsyncs every syncIntervalMillis, changes in the last interval can be lost.
+ * NONE writes when the buffer fills and leaves fsync to the operating system.
+ *
+ * Once a write or fsync fails the log stops taking records, since what reached the disk is unknown.
+ */
+public class StoreLog implements AutoCloseable {
+
+    public enum SyncPolicy { ALWAYS, INTERVAL, NONE }
+
+    //Record types
+    private static final byte ACCOUNT_INSERTED = 1;
+    private static final byte PASSWORD_UPDATED = 2;
+    private static final byte ACCOUNT_DELETED = 3;
+    private static final byte MESSAGES_INSERTED = 4;
+    private static final byte MESSAGE_UPDATED = 5;
+    private static final byte MESSAGE_DELETED = 6;
+    private static final byte FOLLOWED = 7;
+    private static final byte UNFOLLOWED = 8;
+    private static final byte IDS_RESERVED = 9;
+
+    //Length and checksum before each payload
+    private static final int HEADER_BYTES = 8;
+    //Larger lengths can only come from a damaged file
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    /**
+     * Receives the records of a log as they are replayed
+     */
+    public interface Replay {
+        void accountInserted(int account_id, String username, String password);
+        void passwordUpdated(int account_id, String password);
+        void accountDeleted(int account_id);
+        void messagesInserted(List<Message> messages);
+        void messageUpdated(int message_id, String message_text);
+        void messageDeleted(int message_id);
+        void followed(int follower_id, int followee_id);
+        void unfollowed(int follower_id, int followee_id);
+        void idsReserved(int last_message_id);
+    }
+
+    private final Path basePath;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalMillis;
+    private final Thread writer;
+
+    //Only used by the writer thread once it has started
+    private FileChannel channel;
+    private ByteBuffer writing = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+    //Everything below is guarded by this
+    private long generation;
+    //Records not yet taken by the writer, swapped with writing when it takes them
+    private ByteBuffer pending = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private final CRC32C crc = new CRC32C();
+    //Sequence numbers of the last record appended and fsynced
+    private long appended;
+    private long synced;
+    //Highest sequence number a caller is waiting to have fsynced
+    private long syncRequested;
+    //Set by an appender waiting for the writer to empty pending, and by rotate until the writer has rotated
+    private boolean roomWanted;
+    private boolean rotateRequested;
+    private boolean failed;
+    private boolean closed;
+
+    //Stats
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Opens generation for appending, cutting off anything after lastGoodOffset such as a torn record
+     * @param basePath log files are this path with .log.N on the end
+     * @param generation generation to append to
+     * @param lastGoodOffset length of the valid records already in that generation, 0 for a new one
+     * @param syncPolicy when appended records are forced to disk
+     * @param syncIntervalMillis how often INTERVAL syncs
+     */
+    public StoreLog(Path basePath, long generation, long lastGoodOffset, SyncPolicy syncPolicy, long syncIntervalMillis)
+            throws IOException {
+        if (syncPolicy == SyncPolicy.INTERVAL && syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("Invalid log sync interval");
+        }
+        this.basePath = basePath;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.generation = generation;
+        this.channel = open(generation);
+        this.channel.truncate(lastGoodOffset);
+        this.channel.position(lastGoodOffset);
+        this.writer = new Thread(this::writeLoop, "store-log " + basePath);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Replays generations from the given one on, in order, stopping at the first record that is cut off or
+     * damaged. Anything after that point in the same generation is dropped when the log is opened.
+     * @param basePath log files are this path with .log.N on the end
+     * @param fromGeneration first generation to replay, the one the snapshot recorded
+     * @param replay receives each record
+     * @return the last generation found and the length of its valid records, to open the log with
+     */
+    public static long[] replay(Path basePath, long fromGeneration, Replay replay) throws IOException {
+        long generation = fromGeneration;
+        long offset = 0;
+        for (long next = fromGeneration; Files.exists(path(basePath, next)); next++) {
+            generation = next;
+            offset = replayFile(path(basePath, next), replay);
+        }
+        return new long[] {generation, offset};
+    }
+
+    /**
+     * @return the path of one generation's file
+     */
+    public static Path path(Path basePath, long generation) {
+        return basePath.resolveSibling(basePath.getFileName() + ".log." + generation);
+    }
+
+    //Appends, each returns the record's sequence number to pass to sync, or -1 if the log has failed
+
+    public synchronized long accountInserted(int account_id, String username, String password) {
+        begin(ACCOUNT_INSERTED);
+        record.putInt(account_id);
+        putString(username);
+        putString(password);
+        return end();
+    }
+
+    public synchronized long passwordUpdated(int account_id, String password) {
+        begin(PASSWORD_UPDATED);
+        record.putInt(account_id);
+        putString(password);
+        return end();
+    }
+
+    public synchronized long accountDeleted(int account_id) {
+        begin(ACCOUNT_DELETED);
+        record.putInt(account_id);
+        return end();
+    }
+
+    /**
+     * Logs a batch as one record, so replay gets all of it or none of it
+     */
+    public synchronized long messagesInserted(List<Message> messages) {
+        begin(MESSAGES_INSERTED);
+        record.putInt(messages.size());
+        for (Message message : messages) {
+            ensure(16);
+            record.putInt(message.getMessage_id());
+            record.putInt(message.getPosted_by());
+            record.putLong(message.getTime_posted_epoch());
+            putString(message.getMessage_text());
+        }
+        return end();
+    }
+
+    public synchronized long messageUpdated(int message_id, String message_text) {
+        begin(MESSAGE_UPDATED);
+        record.putInt(message_id);
+        putString(message_text);
+        return end();
+    }
+
+    public synchronized long messageDeleted(int message_id) {
+        begin(MESSAGE_DELETED);
+        record.putInt(message_id);
+        return end();
+    }
+
+    public synchronized long followed(int follower_id, int followee_id) {
+        begin(FOLLOWED);
+        record.putInt(follower_id);
+        record.putInt(followee_id);
+        return end();
+    }
+
+    public synchronized long unfollowed(int follower_id, int followee_id) {
+        begin(UNFOLLOWED);
+        record.putInt(follower_id);
+        record.putInt(followee_id);
+        return end();
+    }
+
+    public synchronized long idsReserved(int last_message_id) {
+        begin(IDS_RESERVED);
+        record.putInt(last_message_id);
+        return end();
+    }
+
+    /**
+     * Waits until a record is as durable as the sync policy makes it. Under ALWAYS that means fsynced: the writer
+     * fsyncs everything appended so far whenever a caller is waiting, so callers that arrive during one fsync share
+     * the next. Call without holding the store's lock, so other writers can append while this waits.
+     * @param sequence sequence number from an append
+     * @return false if the log has failed, or if the calling thread was interrupted while waiting, in which case
+     * its interrupt flag is set again and the record is still written
+     */
+    public synchronized boolean sync(long sequence) {
+        if (sequence < 0) {
+            return false;
+        }
+        if (syncPolicy != SyncPolicy.ALWAYS) {
+            return !failed;
+        }
+        if (synced < sequence && sequence > syncRequested) {
+            syncRequested = sequence;
+            notifyAll();
+        }
+        while (synced < sequence && !failed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return synced >= sequence;
+    }
+
+    /**
+     * Starts a new generation, for a snapshot about to be taken. Everything appended so far is written and
+     * fsynced to the old generation first. Call while no records can be appended, so the snapshot holds exactly
+     * the changes in the generations before the new one.
+     * @return the new generation, -1 if the log has failed
+     */
+    public synchronized long rotate() {
+        if (failed || closed) {
+            return -1;
+        }
+        rotateRequested = true;
+        notifyAll();
+        //The writer rotates whether or not this thread is interrupted, so wait it out either way
+        boolean interrupted = false;
+        while (rotateRequested && !failed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return failed ? -1 : generation;
+    }
+
+    /**
+     * Deletes the generations before the given one, once a snapshot covering them is written
+     * @param generation first generation still needed
+     */
+    public void deleteBefore(long generation) {
+        for (long old = generation - 1; old >= 0 && Files.exists(path(basePath, old)); old--) {
+            try {
+                Files.delete(path(basePath, old));
+            } catch (IOException e) {
+                System.out.println("Could not delete old log " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes and fsyncs everything appended, then closes the file
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return records appended
+     */
+    public long getRecords() {
+        return records.get();
+    }
+
+    /**
+     * @return fsyncs done, fewer than records when writers shared them
+     */
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    /**
+     * @return bytes written to the log files
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return true once a write or fsync has failed, the log takes no more records from then on
+     */
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * The writer thread: takes whatever has been appended each time there is something to do, writes it, and
+     * fsyncs, rotates or closes as asked. Appenders keep filling the other buffer meanwhile.
+     */
+    private void writeLoop() {
+        long nextSync = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        while (true) {
+            long target;
+            boolean force;
+            boolean rotate;
+            long nextGeneration;
+            boolean closing;
+            synchronized (this) {
+                boolean due;
+                try {
+                    while (!closed && !rotateRequested && !roomWanted && syncRequested <= synced
+                            && pending.position() < BUFFER_BYTES / 2) {
+                        if (syncPolicy != SyncPolicy.INTERVAL) {
+                            wait();
+                        } else if (System.nanoTime() - nextSync < 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, nextSync - System.nanoTime());
+                        } else if (appended > synced) {
+                            break;
+                        } else {
+                            nextSync += TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    //Nothing interrupts the writer on purpose, and its channel is already closed if anything did
+                    fail(new IOException("Store log writer interrupted"));
+                    notifyAll();
+                    closeQuietly();
+                    return;
+                }
+                due = syncPolicy == SyncPolicy.INTERVAL && System.nanoTime() - nextSync >= 0;
+                if (due) {
+                    nextSync = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+                }
+                ByteBuffer taken = pending;
+                pending = writing;
+                writing = taken;
+                roomWanted = false;
+                target = appended;
+                rotate = rotateRequested;
+                nextGeneration = generation + 1;
+                closing = closed;
+                force = due || rotate || closing || syncRequested > synced;
+                notifyAll();
+            }
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    bytes.addAndGet(channel.write(writing));
+                }
+                if (force) {
+                    channel.force(false);
+                    syncs.incrementAndGet();
+                }
+                if (rotate) {
+                    channel.close();
+                    channel = open(nextGeneration);
+                    channel.truncate(0);
+                }
+                if (closing) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    fail(e);
+                    notifyAll();
+                }
+                closeQuietly();
+                return;
+            }
+            //Back to the usual size after a record bigger than it
+            if (writing.capacity() > BUFFER_BYTES) {
+                writing = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            }
+            writing.clear();
+            synchronized (this) {
+                if (force) {
+                    synced = target;
+                }
+                if (rotate) {
+                    generation = nextGeneration;
+                    rotateRequested = false;
+                }
+                notifyAll();
+            }
+            if (closing) {
+                return;
+            }
+        }
+    }
+
+    private void begin(byte type) {
+        record.clear();
+        record.put(type);
+    }
+
+    /**
+     * Checksums the record and copies it into pending, waiting for the writer to take what is there first if it
+     * is full
+     */
+    private long end() {
+        if (failed || closed) {
+            return -1;
+        }
+        record.flip();
+        int length = record.remaining();
+        crc.reset();
+        crc.update(record.array(), 0, length);
+        //The record is appended whether or not this thread is interrupted, so the wait can't be cut short
+        boolean interrupted = false;
+        while (pending.position() > 0 && pending.remaining() < HEADER_BYTES + length && !failed) {
+            roomWanted = true;
+            notifyAll();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failed) {
+            return -1;
+        }
+        if (pending.remaining() < HEADER_BYTES + length) {
+            //Bigger than the buffer, the writer puts its own back afterwards
+            pending = ByteBuffer.allocate(HEADER_BYTES + length);
+        }
+        boolean wasBelowHalf = pending.position() < BUFFER_BYTES / 2;
+        pending.putInt(length).putInt((int) crc.getValue()).put(record);
+        if (wasBelowHalf && pending.position() >= BUFFER_BYTES / 2) {
+            //Enough to start writing while appenders fill the other buffer
+            notifyAll();
+        }
+        records.incrementAndGet();
+        return ++appended;
+    }
+
+    private void fail(IOException e) {
+        System.out.println("Store log failed, no more changes will be accepted: " + e.getMessage());
+        failed = true;
+    }
+
+    private void closeQuietly() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            ensure(4);
+            record.putInt(-1);
+            return;
+        }
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4 + encoded.length);
+        record.putInt(encoded.length);
+        record.put(encoded);
+    }
+
+    private void ensure(int more) {
+        if (record.remaining() < more) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + more));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+    }
+
+    private FileChannel open(long generation) throws IOException {
+        return FileChannel.open(path(basePath, generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @return the length of the valid records at the start of the file
+     */
+    private static long replayFile(Path path, Replay replay) throws IOException {
+        long offset = 0;
+        CRC32C crc = new CRC32C();
+        byte[] payload = new byte[1024];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1024 * 1024))) {
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 1 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.readFully(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(ByteBuffer.wrap(payload, 0, length), replay);
+                offset += HEADER_BYTES + length;
+            }
+        } catch (EOFException e) {
+            //Ends cleanly or in a partial record, either way offset is where the valid records stop
+        }
+        if (offset < Files.size(path)) {
+            System.out.println("Log " + path + " ends in a partial record at " + offset + ", dropping the rest");
+        }
+        return offset;
+    }
+
+    private static void apply(ByteBuffer payload, Replay replay) throws IOException {
+        byte type = payload.get();
+        switch (type) {
+            case ACCOUNT_INSERTED:
+                replay.accountInserted(payload.getInt(), getString(payload), getString(payload));
+                break;
+            case PASSWORD_UPDATED:
+                replay.passwordUpdated(payload.getInt(), getString(payload));
+                break;
+            case ACCOUNT_DELETED:
+                replay.accountDeleted(payload.getInt());
+                break;
+            case MESSAGES_INSERTED:
+                int count = payload.getInt();
+                List<Message> messages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int message_id = payload.getInt();
+                    int posted_by = payload.getInt();
+                    long time_posted_epoch = payload.getLong();
+                    messages.add(new Message(message_id, posted_by, getString(payload), time_posted_epoch));
+                }
+                replay.messagesInserted(messages);
+                break;
+            case MESSAGE_UPDATED:
+                replay.messageUpdated(payload.getInt(), getString(payload));
+                break;
+            case MESSAGE_DELETED:
+                replay.messageDeleted(payload.getInt());
+                break;
+            case FOLLOWED:
+                replay.followed(payload.getInt(), payload.getInt());
+                break;
+            case UNFOLLOWED:
+                replay.unfollowed(payload.getInt(), payload.getInt());
+                break;
+            case IDS_RESERVED:
+                replay.idsReserved(payload.getInt());
+                break;
+            default:
+                //Checksum passed, so this is a record from a newer version
+                throw new IOException("Unknown log record type " + type);
+        }
+    }
+
+    private static String getString(ByteBuffer payload) throws IOException {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > payload.remaining()) {
+            //Not EOFException, which replay takes for the end of the file
+            throw new IOException("String runs past its record");
+        }
+        String value = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+}
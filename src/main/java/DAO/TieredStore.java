@@ -0,0 +1,579 @@
+package DAO;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
+
+import Model.*;
+import Util.ConnectionPool;
+
+/**
+ * Keeps recent messages in the h2 database and moves old ones to a MessageArchive of column files, so the message
+ * table and its indexes only hold the messages that still change often. Accounts and follows stay in the
+ * database. Reads merge both tiers in the same orders SocialMediaDAO returns, and a message found in both, which
+ * happens while a move is finishing, is read from the database.
+ *
+ * Every archive.intervalSeconds (default 3600, 0 for only when archive() is called) messages posted more than
+ * archive.maxAgeSeconds ago (default 30 days) are copied to segments of up to archive.segmentMessages (default
+ * 100000) in the archive.path directory. The rows are deleted in the same transaction that records the segment,
+ * so after a crash a segment is either fully moved or its file is deleted and the rows are still in the table.
+ * Archived messages never change: deleting one records a tombstone, and editing one moves it back to the table
+ * with its new text.
+ *
+ * Message deletes and edits share a lock that a move takes alone while it deletes its rows, so none of them
+ * lands between the move reading a row and deleting it. Reads don't take it.
+ */
+public class TieredStore implements SocialMediaStore {
+
+    //Rows read from the table per query while filling a segment
+    private static final int MOVE_PAGE = 10_000;
+
+    private final SocialMediaDAO hot;
+    private final MessageArchive archive;
+    private final long maxAgeSeconds;
+    private final int segmentMessages;
+    private final ReentrantReadWriteLock moveLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService archiver;
+    //Guarded by this, the next move's segment id
+    private int nextSegmentId;
+
+    /**
+     * Creates a store set up by the archive.path, archive.maxAgeSeconds, archive.intervalSeconds and
+     * archive.segmentMessages system properties, over the h2 database
+     * @return the store
+     */
+    public static TieredStore fromSystemProperties() {
+        return new TieredStore(new SocialMediaDAO(), Paths.get(System.getProperty("archive.path")),
+                Long.getLong("archive.maxAgeSeconds", 30L * 24 * 60 * 60),
+                Long.getLong("archive.intervalSeconds", 3600),
+                Integer.getInteger("archive.segmentMessages", 100_000));
+    }
+
+    /**
+     * Maps the segments the database has recorded and deletes segment files from moves that never committed.
+     * A recorded segment that can't be read stops the store from being created, rather than serving without it.
+     * @param hot database holding recent messages, accounts and follows
+     * @param directory directory of the segment files
+     * @param maxAgeSeconds messages posted longer ago than this are moved
+     * @param intervalSeconds seconds between moves, 0 to only move when archive() is called
+     * @param segmentMessages most messages per segment file
+     */
+    public TieredStore(SocialMediaDAO hot, Path directory, long maxAgeSeconds, long intervalSeconds,
+                       int segmentMessages) {
+        this.hot = hot;
+        this.maxAgeSeconds = maxAgeSeconds;
+        this.segmentMessages = segmentMessages;
+        int[] segment_ids = hot.selectArchivedSegmentIds();
+        List<int[]> tombstones = hot.selectArchiveTombstones();
+        if (segment_ids == null || tombstones == null) {
+            throw new IllegalStateException("Could not read the archive's segments from the database");
+        }
+        try {
+            this.archive = new MessageArchive(directory, segment_ids, tombstones);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the message archive", e);
+        }
+        this.nextSegmentId = archive.nextSegmentId();
+        if (intervalSeconds > 0) {
+            this.archiver = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "message-archiver");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.archiver.scheduleWithFixedDelay(
+                    () -> archive(System.currentTimeMillis() / 1000 - this.maxAgeSeconds),
+                    intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.archiver = null;
+        }
+    }
+
+    /**
+     * Moves every message posted before a time from the database to new segments
+     * @param before_epoch messages with an older time_posted_epoch are moved
+     * @return number of messages moved, -1 on failure
+     */
+    public synchronized int archive(long before_epoch) {
+        int moved = 0;
+        int after_message_id = 0;
+        while (true) {
+            List<Message> batch = new ArrayList<>();
+            while (batch.size() < segmentMessages) {
+                List<Message> page = hot.selectMessagesPostedBefore(before_epoch, after_message_id,
+                        Math.min(MOVE_PAGE, segmentMessages - batch.size()));
+                if (page == null) {
+                    return -1;
+                }
+                if (page.isEmpty()) {
+                    break;
+                }
+                batch.addAll(page);
+                after_message_id = page.get(page.size() - 1).getMessage_id();
+            }
+            if (batch.isEmpty()) {
+                return moved;
+            }
+
+            //Written and forced to disk before the rows are touched
+            int segment_id = nextSegmentId++;
+            MessageArchive.Segment segment;
+            try {
+                segment = archive.write(segment_id, batch);
+            } catch (IOException e) {
+                System.out.println("Could not write segment " + segment_id + ": " + e.getMessage());
+                return -1;
+            }
+
+            moveLock.writeLock().lock();
+            try {
+                //Published first, so a read between the commit and here finds the messages in one tier or both
+                archive.publish(segment);
+                boolean[] deleted = hot.archiveMessages(segment_id, batch);
+                if (deleted == null) {
+                    //Nothing was moved and the segment isn't recorded, every row is still in the database
+                    archive.unpublish(segment);
+                    return -1;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    //Rows edited or deleted since they were read
+                    if (!deleted[i]) {
+                        archive.markDeleted(segment_id, batch.get(i).getMessage_id());
+                    } else {
+                        moved++;
+                    }
+                }
+            } finally {
+                moveLock.writeLock().unlock();
+            }
+            if (batch.size() < segmentMessages) {
+                return moved;
+            }
+        }
+    }
+
+    /**
+     * @return the archive, for its segment and message counts
+     */
+    public MessageArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    public ConnectionPool getConnectionPool() {
+        return hot.getConnectionPool();
+    }
+
+    //Accounts, all in the database
+
+    @Override
+    public Account selectAccountByUsername(String username) {
+        return hot.selectAccountByUsername(username);
+    }
+
+    @Override
+    public boolean updateAccountPassword(int account_id, String password) {
+        return hot.updateAccountPassword(account_id, password);
+    }
+
+    @Override
+    public boolean streamAccountUsernames(ObjIntConsumer<String> sink) {
+        return hot.streamAccountUsernames(sink);
+    }
+
+    @Override
+    public Account insertAccount(Account account) {
+        return hot.insertAccount(account);
+    }
+
+    /**
+     * Refuses to delete an account with archived messages, as the database does for an account with messages
+     */
+    @Override
+    public Account deleteAccount(Account account) {
+        moveLock.readLock().lock();
+        try {
+            if (archive.hasMessagesFrom(account.getAccount_id())) {
+                System.out.println("Account " + account.getAccount_id() + " still has archived messages");
+                return null;
+            }
+            return hot.deleteAccount(account);
+        } finally {
+            moveLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<Integer> selectExistingAccountIds(Collection<Integer> account_ids) {
+        return hot.selectExistingAccountIds(account_ids);
+    }
+
+    //Messages, new ones always go to the database
+
+    @Override
+    public Message insertMessage(Message message) {
+        return hot.insertMessage(message);
+    }
+
+    @Override
+    public List<Message> insertMessages(List<Message> messages) {
+        return hot.insertMessages(messages);
+    }
+
+    @Override
+    public int[] reserveMessageIds(int count) {
+        return hot.reserveMessageIds(count);
+    }
+
+    @Override
+    public boolean insertMessagesWithIds(List<Message> messages) {
+        return hot.insertMessagesWithIds(messages);
+    }
+
+    @Override
+    public Message selectMessage(int message_id) {
+        Message message = hot.selectMessage(message_id);
+        return message != null ? message : archive.select(message_id);
+    }
+
+    @Override
+    public List<Message> selectMessagesByIds(int[] message_ids) {
+        List<Message> messages = hot.selectMessagesByIds(message_ids);
+        if (messages == null || messages.size() == message_ids.length) {
+            return messages;
+        }
+        Set<Integer> found = new HashSet<>();
+        for (Message message : messages) {
+            found.add(message.getMessage_id());
+        }
+        for (int message_id : message_ids) {
+            if (!found.contains(message_id)) {
+                Message archived = archive.select(message_id);
+                if (archived != null) {
+                    messages.add(archived);
+                    found.add(message_id);
+                }
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public List<Message> selectAllMessages() {
+        return selectMessagesPage(0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> selectMessagesPage(int after_message_id, int limit) {
+        List<Message> page = new ArrayList<>();
+        return streamMessages(after_message_id, limit, page::add) ? page : null;
+    }
+
+    @Override
+    public boolean streamMessages(int after_message_id, int limit, MessageSink sink) {
+        Merge merge = new Merge(archive.scanById(after_message_id), false, limit, sink);
+        try {
+            return hot.streamMessages(after_message_id, limit, merge) && merge.drain();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean streamMessagesInTimeRange(long since, long until, MessageSink sink) {
+        //Starting after (until, max id) skips every row at until, which is excluded
+        Merge merge = new Merge(archive.scanByTime(until, Integer.MAX_VALUE, since), true, 0, sink);
+        try {
+            return hot.streamMessagesInTimeRange(since, until, merge) && merge.drain();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean streamMessagesInTimeRangeFromAccountId(int account_id, long since, long until, MessageSink sink) {
+        Merge merge = new Merge(archive.scanAccount(account_id, until, Integer.MAX_VALUE, since), true, 0, sink);
+        try {
+            return hot.streamMessagesInTimeRangeFromAccountId(account_id, since, until, merge) && merge.drain();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public List<Message> selectAllMessagesFromAccountId(int account_id) {
+        List<Message> messages = hot.selectAllMessagesFromAccountId(account_id);
+        if (messages == null) {
+            return null;
+        }
+        Set<Integer> found = new HashSet<>();
+        for (Message message : messages) {
+            found.add(message.getMessage_id());
+        }
+        MessageArchive.Scan scan = archive.scanAccount(account_id, Long.MAX_VALUE, 0, Long.MIN_VALUE);
+        while (scan.next()) {
+            if (!found.contains(scan.id())) {
+                messages.add(scan.message());
+            }
+        }
+        messages.sort(Comparator.comparingInt(Message::getMessage_id));
+        return messages;
+    }
+
+    @Override
+    public List<Message> selectMessagesPageFromAccountId(int account_id, long before_epoch, int after_message_id, int limit) {
+        List<Message> recent = hot.selectMessagesPageFromAccountId(account_id, before_epoch, after_message_id, limit);
+        if (recent == null) {
+            return null;
+        }
+        List<Message> page = new ArrayList<>(recent.size());
+        Merge merge = new Merge(archive.scanAccount(account_id, before_epoch, after_message_id, Long.MIN_VALUE), true,
+                limit, page::add);
+        try {
+            for (Message message : recent) {
+                merge.accept(message);
+            }
+            merge.drain();
+        } catch (IOException e) {
+            //A list can't fail to take a message
+        }
+        return page;
+    }
+
+    @Override
+    public Message deleteMessage(int message_id) {
+        moveLock.readLock().lock();
+        try {
+            Message message = hot.deleteMessage(message_id);
+            if (message != null) {
+                return message;
+            }
+            synchronized (archive) {
+                int segment_id = archive.segmentOf(message_id);
+                if (segment_id < 0) {
+                    return null;
+                }
+                message = archive.select(message_id);
+                if (!hot.insertArchiveTombstone(segment_id, message_id)) {
+                    return null;
+                }
+                archive.markDeleted(segment_id, message_id);
+                return message;
+            }
+        } finally {
+            moveLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Edits a message in the database, or moves an archived one back to the database with its new text
+     */
+    @Override
+    public Message updateMessage(int message_id, String message_text) {
+        moveLock.readLock().lock();
+        try {
+            Message message = hot.updateMessage(message_id, message_text);
+            if (message != null) {
+                return message;
+            }
+            synchronized (archive) {
+                int segment_id = archive.segmentOf(message_id);
+                if (segment_id < 0) {
+                    return null;
+                }
+                Message archived = archive.select(message_id);
+                Message restored = new Message(message_id, archived.getPosted_by(), message_text,
+                        archived.getTime_posted_epoch());
+                if (!hot.restoreArchivedMessage(segment_id, restored)) {
+                    return null;
+                }
+                archive.markDeleted(segment_id, message_id);
+                return restored;
+            }
+        } finally {
+            moveLock.readLock().unlock();
+        }
+    }
+
+    //Follows, all in the database
+
+    @Override
+    public boolean insertFollow(int follower_id, int followee_id) {
+        return hot.insertFollow(follower_id, followee_id);
+    }
+
+    @Override
+    public boolean deleteFollow(int follower_id, int followee_id) {
+        return hot.deleteFollow(follower_id, followee_id);
+    }
+
+    @Override
+    public int[] selectFollowerIds(int followee_id, int limit) {
+        return hot.selectFollowerIds(followee_id, limit);
+    }
+
+    @Override
+    public int[] selectFolloweeIds(int follower_id) {
+        return hot.selectFolloweeIds(follower_id);
+    }
+
+    @Override
+    public int[] selectAccountIdsWithFollowers(int min_followers) {
+        return hot.selectAccountIdsWithFollowers(min_followers);
+    }
+
+    @Override
+    public int[] selectTimelineMessageIds(int follower_id, int[] excluded_ids, int before_message_id, int limit) {
+        int[] recent = hot.selectTimelineMessageIds(follower_id, excluded_ids, before_message_id, limit);
+        if (recent == null || !reachesArchive(recent, before_message_id, limit)) {
+            return recent;
+        }
+        int[] followee_ids = hot.selectFolloweeIds(follower_id);
+        if (followee_ids == null) {
+            return null;
+        }
+        Set<Integer> excluded = new HashSet<>();
+        for (int excluded_id : excluded_ids) {
+            excluded.add(excluded_id);
+        }
+        int[] included = Arrays.stream(followee_ids).filter(id -> !excluded.contains(id)).toArray();
+        return withArchivedIds(recent, included, before_message_id, limit);
+    }
+
+    @Override
+    public int[] selectRecentMessageIds(int[] account_ids, int before_message_id, int limit) {
+        int[] recent = hot.selectRecentMessageIds(account_ids, before_message_id, limit);
+        if (recent == null || !reachesArchive(recent, before_message_id, limit)) {
+            return recent;
+        }
+        return withArchivedIds(recent, account_ids, before_message_id, limit);
+    }
+
+    /**
+     * Stops scheduled moves and closes the database store
+     */
+    @Override
+    public void close() {
+        if (archiver != null) {
+            archiver.shutdown();
+        }
+        hot.close();
+    }
+
+    /**
+     * Archived ids are older than nearly every id in the database, so a full page of newer ids usually means the
+     * archive has nothing to add
+     * @param recent ids from the database, newest first
+     * @return true if archived ids could belong in the page
+     */
+    private boolean reachesArchive(int[] recent, int before_message_id, int limit) {
+        if (recent.length == limit) {
+            return recent.length > 0 && archive.getMaxMessageId() > recent[recent.length - 1];
+        }
+        return archive.getMinMessageId() < before_message_id;
+    }
+
+    /**
+     * Merges the archived ids of some accounts into a page of ids from the database
+     * @param recent ids from the database, newest first
+     * @return the newest limit ids of both, newest first
+     */
+    private int[] withArchivedIds(int[] recent, int[] account_ids, int before_message_id, int limit) {
+        Set<Integer> ids = new HashSet<>();
+        for (int id : recent) {
+            ids.add(id);
+        }
+        for (int account_id : account_ids) {
+            MessageArchive.Scan scan = archive.scanAccount(account_id, Long.MAX_VALUE, 0, Long.MIN_VALUE);
+            while (scan.next()) {
+                if (scan.id() < before_message_id) {
+                    ids.add(scan.id());
+                }
+            }
+        }
+        return ids.stream().mapToInt(Integer::intValue).map(id -> -id).sorted().limit(limit).map(id -> -id).toArray();
+    }
+
+    /**
+     * Hands the sink messages from the database, as they arrive in order, interleaved with the archived messages
+     * that come before each of them. A message in both tiers is taken from the database.
+     */
+    private static class Merge implements MessageSink {
+        private final MessageArchive.Scan archived;
+        //True for newest first then by id, false for by id
+        private final boolean byTime;
+        //0 for no limit
+        private final int limit;
+        private final MessageSink sink;
+        private boolean more;
+        private int sent;
+
+        Merge(MessageArchive.Scan archived, boolean byTime, int limit, MessageSink sink) {
+            this.archived = archived;
+            this.byTime = byTime;
+            this.limit = limit;
+            this.sink = sink;
+            this.more = archived.next();
+        }
+
+        @Override
+        public void accept(Message message) throws IOException {
+            if (limit != 0 && sent >= limit) {
+                return;
+            }
+            while (more && before(message)) {
+                send(archived.message());
+                more = archived.next();
+            }
+            if (more && archived.id() == message.getMessage_id()) {
+                more = archived.next();
+            }
+            send(message);
+        }
+
+        /**
+         * Hands over the archived messages after the last one from the database
+         * @return true
+         */
+        boolean drain() throws IOException {
+            while (more && (limit == 0 || sent < limit)) {
+                send(archived.message());
+                more = archived.next();
+            }
+            return true;
+        }
+
+        /**
+         * @return true if the current archived message comes before the message from the database
+         */
+        private boolean before(Message message) {
+            if (!byTime) {
+                return archived.id() < message.getMessage_id();
+            }
+            long time = archived.time();
+            return time > message.getTime_posted_epoch()
+                    || time == message.getTime_posted_epoch() && archived.id() < message.getMessage_id();
+        }
+
+        private void send(Message message) throws IOException {
+            if (limit == 0 || sent < limit) {
+                sink.accept(message);
+                sent++;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package Model;
+
+/**
+ * This is a class that models the outcome of one element of a batch request, such as POST /messages/batch.
+ * Results are returned in the same order as the request elements.
+ */
+public class BatchItemResult {
+    /**
+     * Position of the element in the request array
+     */
+    public int index;
+    /**
+     * Http style status for this element, 200 when it was saved, 400 when it failed validation,
+     * 500 when the database rejected it
+     */
+    public int status;
+    /**
+     * The saved message including its generated message_id, null if it wasn't saved
+     */
+    public Message message;
+    /**
+     * Why the element wasn't saved, null when it was
+     */
+    public String error;
+    /**
+     * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
+     * Jackson Objectmapper to work.
+     */
+    public BatchItemResult(){
+    }
+    /**
+     * @param index
+     * @param status
+     * @param message
+     * @param error
+     */
+    public BatchItemResult(int index, int status, Message message, String error) {
+        this.index = index;
+        this.status = status;
+        this.message = message;
+        this.error = error;
+    }
+    public int getIndex() {
+        return index;
+    }
+    public void setIndex(int index) {
+        this.index = index;
+    }
+    public int getStatus() {
+        return status;
+    }
+    public void setStatus(int status) {
+        this.status = status;
+    }
+    public Message getMessage() {
+        return message;
+    }
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+    public String getError() {
+        return error;
+    }
+    public void setError(String error) {
+        this.error = error;
+    }
+    @Override
+    public String toString() {
+        return "BatchItemResult{" +
+                "index=" + index +
+                ", status=" + status +
+                ", message=" + message +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,255 @@
+package Model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Many messages stored as one array per field instead of one Message object per row, for large results such as
+ * every message. A row costs 24 bytes of arrays plus its text as UTF-8, with no Message, String or list entry
+ * behind it, and the text is already in the encoding the json writer sends, so it is written out without being
+ * decoded. Message ids, posters and times are read back by row number.
+ *
+ * The arrays grow by adding fixed size blocks rather than copying into bigger ones, so filling a batch of unknown
+ * size allocates little more than the rows themselves. A row's text is never split across text blocks.
+ *
+ * Not thread safe, a batch is filled by one reader and then only read.
+ */
+public class MessageBatch {
+
+    //Rows per column block, only the first block starts smaller and grows up to this
+    private static final int ROW_BLOCK_BITS = 10;
+    private static final int ROW_BLOCK = 1 << ROW_BLOCK_BITS;
+    //Bytes per text block. Text positions are numbered across blocks, block = position >>> TEXT_BLOCK_BITS
+    private static final int TEXT_BLOCK_BITS = 16;
+    private static final int TEXT_BLOCK = 1 << TEXT_BLOCK_BITS;
+
+    private int size;
+    private int[][] ids;
+    private int[][] postedBy;
+    private long[][] epochs;
+    private int[][] textStarts;
+    private int[][] textLengths;
+    //A row longer than a block gets one array filling as many block slots as it needs
+    private byte[][] text;
+    //Position the next row's text can start at
+    private int textEnd;
+    //Block and offset the row being added writes its text to
+    private byte[] writeBlock;
+    private int writeOffset;
+
+    /**
+     * Creates an empty batch sized for a few rows
+     */
+    public MessageBatch() {
+        this(16);
+    }
+
+    /**
+     * @param capacity rows to make room for up front, more are added as needed
+     */
+    public MessageBatch(int capacity) {
+        int rows = Math.max(1, Math.min(capacity, ROW_BLOCK));
+        this.ids = new int[][] {new int[rows]};
+        this.postedBy = new int[][] {new int[rows]};
+        this.epochs = new long[][] {new long[rows]};
+        this.textStarts = new int[][] {new int[rows]};
+        this.textLengths = new int[][] {new int[rows]};
+        //Most messages are short and ascii
+        this.text = new byte[][] {new byte[Math.min(rows * 32, TEXT_BLOCK)]};
+    }
+
+    /**
+     * Adds a copy of the message's fields. A null text is stored as empty.
+     * @param message message to add
+     */
+    public void add(Message message) {
+        add(message.getMessage_id(), message.getPosted_by(), message.getMessage_text(), message.getTime_posted_epoch());
+    }
+
+    /**
+     * Adds a row, encoding its text to UTF-8 straight into the batch
+     * @param message_id id of the message
+     * @param posted_by id of the account that posted it
+     * @param message_text text, null is stored as empty
+     * @param time_posted_epoch time it was posted
+     */
+    public void add(int message_id, int posted_by, String message_text, long time_posted_epoch) {
+        int length = message_text == null ? 0 : message_text.length();
+        //A char is at most three bytes, a surrogate pair four bytes for two chars
+        ensureRow(length * 3);
+        byte[] bytes = writeBlock;
+        int position = writeOffset;
+        for (int i = 0; i < length; i++) {
+            char c = message_text.charAt(i);
+            if (c < 0x80) {
+                bytes[position++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[position++] = (byte) (0xC0 | c >> 6);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(message_text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, message_text.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                //An unpaired surrogate, replaced the same way String.getBytes does
+                bytes[position++] = '?';
+            } else {
+                bytes[position++] = (byte) (0xE0 | c >> 12);
+                bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        finishRow(message_id, posted_by, time_posted_epoch, position - writeOffset);
+    }
+
+    /**
+     * Adds a row whose text is already UTF-8, copying the bytes without decoding them
+     * @param message_id id of the message
+     * @param posted_by id of the account that posted it
+     * @param utf8 array holding the text
+     * @param offset where the text starts in the array
+     * @param length length of the text in bytes
+     * @param time_posted_epoch time it was posted
+     */
+    public void addUtf8(int message_id, int posted_by, byte[] utf8, int offset, int length, long time_posted_epoch) {
+        ensureRow(length);
+        System.arraycopy(utf8, offset, writeBlock, writeOffset, length);
+        finishRow(message_id, posted_by, time_posted_epoch, length);
+    }
+
+    /**
+     * @return number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getMessage_id(int row) {
+        return ids[row >>> ROW_BLOCK_BITS][row & ROW_BLOCK - 1];
+    }
+
+    public int getPosted_by(int row) {
+        return postedBy[row >>> ROW_BLOCK_BITS][row & ROW_BLOCK - 1];
+    }
+
+    public long getTime_posted_epoch(int row) {
+        return epochs[row >>> ROW_BLOCK_BITS][row & ROW_BLOCK - 1];
+    }
+
+    /**
+     * @return the row's text, decoded into a new String
+     */
+    public String getMessage_text(int row) {
+        return new String(getTextBytes(row), getTextOffset(row), getTextLength(row), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the array holding the row's UTF-8 text, read with getTextOffset and getTextLength. Not a copy, so
+     * it must not be changed.
+     */
+    public byte[] getTextBytes(int row) {
+        return text[textStarts[row >>> ROW_BLOCK_BITS][row & ROW_BLOCK - 1] >>> TEXT_BLOCK_BITS];
+    }
+
+    public int getTextOffset(int row) {
+        return textStarts[row >>> ROW_BLOCK_BITS][row & ROW_BLOCK - 1] & TEXT_BLOCK - 1;
+    }
+
+    public int getTextLength(int row) {
+        return textLengths[row >>> ROW_BLOCK_BITS][row & ROW_BLOCK - 1];
+    }
+
+    /**
+     * @return the row as a new Message
+     */
+    public Message get(int row) {
+        return new Message(getMessage_id(row), getPosted_by(row), getMessage_text(row), getTime_posted_epoch(row));
+    }
+
+    /**
+     * @return every row as a new Message, for callers that need a list
+     */
+    public List<Message> toList() {
+        List<Message> messages = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            messages.add(get(row));
+        }
+        return messages;
+    }
+
+    /**
+     * Makes room for one more row, and sets writeBlock and writeOffset to where its text goes
+     * @param maxTextBytes most bytes the row's text can take
+     */
+    private void ensureRow(int maxTextBytes) {
+        int block = size >>> ROW_BLOCK_BITS;
+        if (block == ids.length) {
+            int blocks = block * 2;
+            ids = Arrays.copyOf(ids, blocks);
+            postedBy = Arrays.copyOf(postedBy, blocks);
+            epochs = Arrays.copyOf(epochs, blocks);
+            textStarts = Arrays.copyOf(textStarts, blocks);
+            textLengths = Arrays.copyOf(textLengths, blocks);
+        }
+        if (ids[block] == null) {
+            ids[block] = new int[ROW_BLOCK];
+            postedBy[block] = new int[ROW_BLOCK];
+            epochs[block] = new long[ROW_BLOCK];
+            textStarts[block] = new int[ROW_BLOCK];
+            textLengths[block] = new int[ROW_BLOCK];
+        } else if ((size & ROW_BLOCK - 1) == ids[block].length) {
+            //Only the first block is ever short
+            int rows = Math.min(ROW_BLOCK, size * 2);
+            ids[0] = Arrays.copyOf(ids[0], rows);
+            postedBy[0] = Arrays.copyOf(postedBy[0], rows);
+            epochs[0] = Arrays.copyOf(epochs[0], rows);
+            textStarts[0] = Arrays.copyOf(textStarts[0], rows);
+            textLengths[0] = Arrays.copyOf(textLengths[0], rows);
+        }
+
+        int textBlock = textEnd >>> TEXT_BLOCK_BITS;
+        int offset = textEnd & TEXT_BLOCK - 1;
+        if (offset + maxTextBytes > TEXT_BLOCK && offset > 0) {
+            //Doesn't fit in what is left of this block, start the next one
+            textEnd = ++textBlock << TEXT_BLOCK_BITS;
+            offset = 0;
+        }
+        int slots = Math.max(1, (maxTextBytes + TEXT_BLOCK - 1) >>> TEXT_BLOCK_BITS);
+        if (textBlock + slots > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textBlock + slots));
+        }
+        if (text[textBlock] == null || maxTextBytes > TEXT_BLOCK) {
+            //Only rows with empty text can be in the block when a long row replaces it, and they read no bytes
+            byte[] bytes = new byte[Math.max(TEXT_BLOCK, maxTextBytes)];
+            Arrays.fill(text, textBlock, textBlock + slots, bytes);
+        } else if (offset + maxTextBytes > text[textBlock].length) {
+            //Only the first block is ever short
+            text[0] = Arrays.copyOf(text[0], Math.min(TEXT_BLOCK, Math.max(text[0].length * 2, offset + maxTextBytes)));
+        }
+        writeBlock = text[textBlock];
+        writeOffset = offset;
+    }
+
+    private void finishRow(int message_id, int posted_by, long time_posted_epoch, int textLength) {
+        int block = size >>> ROW_BLOCK_BITS;
+        int index = size & ROW_BLOCK - 1;
+        ids[block][index] = message_id;
+        postedBy[block][index] = posted_by;
+        epochs[block][index] = time_posted_epoch;
+        textStarts[block][index] = textEnd;
+        textLengths[block][index] = textLength;
+        if (writeBlock.length > TEXT_BLOCK) {
+            //A row given an array longer than a block has it to itself, the next row starts after its slots
+            textEnd = (textEnd >>> TEXT_BLOCK_BITS) + (writeBlock.length + TEXT_BLOCK - 1 >>> TEXT_BLOCK_BITS)
+                    << TEXT_BLOCK_BITS;
+        } else {
+            textEnd += textLength;
+        }
+        size++;
+    }
+}
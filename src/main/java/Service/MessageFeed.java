@@ -0,0 +1,322 @@
+package Service;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import Model.Message;
+
+/**
+ * Live feed of message changes. The service publishes every create, update and delete, and each subscriber gets
+ * the events for all messages or for one account's messages, so clients stop polling the message lists.
+ *
+ * Publishing never waits on a subscriber. Each subscriber has its own bounded buffer, and events are written out
+ * by a sender task that only runs while the subscriber has something buffered. A subscriber whose buffer fills
+ * up is too slow to keep up and is disconnected, it can reconnect and reload the lists to catch up.
+ *
+ * A heartbeat comment is sent to every subscriber on a fixed interval so dead connections are noticed even when
+ * no messages change, the failed write closes the subscription, and proxies don't time out idle ones.
+ *
+ * Settings are system properties:
+ *  feed.bufferSize         events buffered per subscriber before it is disconnected, default 256
+ *  feed.heartbeatSeconds   seconds between heartbeats, default 15
+ */
+public class MessageFeed implements AutoCloseable {
+
+    public static final String CREATED = "created";
+    public static final String UPDATED = "updated";
+    public static final String DELETED = "deleted";
+
+    //Subscribers that want every message use this instead of an account_id
+    public static final int ALL_ACCOUNTS = 0;
+
+    private final int bufferSize;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService heartbeat;
+
+    //Numbers events so clients can tell if they missed any
+    private final AtomicLong nextEventId = new AtomicLong();
+
+    //Stats
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong slowDisconnects = new AtomicLong();
+
+    /**
+     * @return a feed set up from system properties
+     */
+    public static MessageFeed fromSystemProperties() {
+        return new MessageFeed(Integer.getInteger("feed.bufferSize", 256), Integer.getInteger("feed.heartbeatSeconds", 15));
+    }
+
+    /**
+     * Creates the feed and starts its heartbeat
+     * @param bufferSize events buffered per subscriber before it is disconnected
+     * @param heartbeatSeconds seconds between heartbeats, 0 for none
+     */
+    public MessageFeed(int bufferSize, int heartbeatSeconds) {
+        if (bufferSize < 1 || heartbeatSeconds < 0) {
+            throw new IllegalArgumentException("Invalid feed settings");
+        }
+        this.bufferSize = bufferSize;
+
+        //Senders can block on a slow socket, so they get their own threads instead of sharing a fixed few
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "message-feed-sender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "message-feed-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (heartbeatSeconds > 0) {
+            this.heartbeat.scheduleAtFixedRate(this::sendHeartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Starts sending events to a new subscriber
+     * @param account_id only send events for this account's messages, or ALL_ACCOUNTS
+     * @param sink where the subscriber's events are written
+     * @return the subscription, close it when the client goes away
+     */
+    public Subscription subscribe(int account_id, Sink sink) {
+        Subscription subscription = new Subscription(account_id, sink);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Sends an event to every subscriber that wants it. Never blocks.
+     * @param type CREATED, UPDATED or DELETED
+     * @param message message after the change, or the message that was deleted
+     */
+    public void publish(String type, Message message) {
+        if (message == null) {
+            return;
+        }
+        published.incrementAndGet();
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        Event event = new Event(nextEventId.incrementAndGet(), type, message);
+        for (Subscription subscription : subscriptions) {
+            if (subscription.account_id == ALL_ACCOUNTS || subscription.account_id == message.getPosted_by()) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    /**
+     * @return subscribers connected right now
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getSlowDisconnects() {
+        return slowDisconnects.get();
+    }
+
+    /**
+     * Disconnects every subscriber and stops the feed's threads
+     */
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        senders.shutdown();
+    }
+
+    private void sendHeartbeat() {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(Event.HEARTBEAT);
+        }
+    }
+
+    /**
+     * Where a subscriber's events are written, such as an SSE connection
+     */
+    public interface Sink {
+        /**
+         * @param event the event, its data is encoded once and shared by every subscriber
+         * @throws IOException if the client can't be written to, the subscription is then closed. A sink has to
+         * throw here rather than swallow the error, or a client that went away is never removed
+         */
+        void send(Event event) throws IOException;
+
+        /**
+         * Ends the connection, called when the subscriber is disconnected by the feed
+         */
+        void close();
+    }
+
+    /**
+     * One change to a message
+     */
+    public static class Event {
+        //Comment only, keeps the connection alive
+        static final Event HEARTBEAT = new Event(0, null, null);
+
+        private final long id;
+        private final String type;
+        private final Message message;
+        //Encoded the first time a subscriber asks, then shared
+        private volatile String data;
+
+        Event(long id, String type, Message message) {
+            this.id = id;
+            this.type = type;
+            this.message = message;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return CREATED, UPDATED or DELETED, null for a heartbeat
+         */
+        public String getType() {
+            return type;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * @return true for a heartbeat, which has no message and should be sent as a comment
+         */
+        public boolean isHeartbeat() {
+            return type == null;
+        }
+
+        /**
+         * @param encoder turns the message into the text sent to clients
+         * @return the encoded message, only encoded once for all subscribers
+         */
+        public String getData(Function<Message, String> encoder) {
+            String encoded = data;
+            if (encoded == null) {
+                encoded = encoder.apply(message);
+                data = encoded;
+            }
+            return encoded;
+        }
+    }
+
+    /**
+     * One connected subscriber with its buffer of events not sent yet
+     */
+    public class Subscription implements AutoCloseable {
+        private final int account_id;
+        private final Sink sink;
+        private final BlockingQueue<Event> buffer = new ArrayBlockingQueue<>(bufferSize);
+        //True while a sender task is writing this subscriber's buffer
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Subscription(int account_id, Sink sink) {
+            this.account_id = account_id;
+            this.sink = sink;
+        }
+
+        /**
+         * Buffers an event and makes sure a sender is running, disconnects the subscriber if the buffer is full
+         */
+        void offer(Event event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                slowDisconnects.incrementAndGet();
+                close();
+                return;
+            }
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    senders.execute(this::drain);
+                } catch (RuntimeException e) {
+                    //Feed is closing
+                    sending.set(false);
+                }
+            }
+        }
+
+        /**
+         * Writes buffered events until the buffer is empty
+         */
+        private void drain() {
+            try {
+                while (true) {
+                    Event event;
+                    while ((event = buffer.poll()) != null) {
+                        if (closed.get()) {
+                            return;
+                        }
+                        sink.send(event);
+                        if (!event.isHeartbeat()) {
+                            delivered.incrementAndGet();
+                        }
+                    }
+                    sending.set(false);
+                    //An event may have arrived after the last poll but before sending was cleared
+                    if (buffer.isEmpty() || !sending.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                sending.set(false);
+                close();
+            }
+        }
+
+        /**
+         * @return events buffered and not sent yet
+         */
+        public int getBuffered() {
+            return buffer.size();
+        }
+
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        /**
+         * Stops sending and ends the connection, safe to call more than once
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                subscriptions.remove(this);
+                buffer.clear();
+                sink.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import Model.Message;
+
+/**
+ * In-process inverted index over message_text. Each lowercase word maps to the ids of the messages that contain it,
+ * sorted by id, with a weight for how much of the message the word makes up. Searches match messages that contain
+ * every word of the query and rank them by BM25 style idf times weight, newest first on ties.
+ *
+ * Writes take a lock on the index, searches don't lock at all: a posting list is published as a view of its
+ * arrays, appends write past the end of what earlier views can see, and no change copies a whole list. A removed
+ * entry is marked with a negative weight where it is, and brought back the same way if an edit keeps the word.
+ * Message ids are handed out in order, so appending is the usual case, the rest go in a small sorted list of late
+ * entries beside the main one. A list is compacted, dropping removed entries and merging the late ones in, when
+ * it has to grow, once removed entries outnumber live ones, or once there are more late entries than the square
+ * root of its length, so each change costs about that much copying on average.
+ */
+public class MessageSearchIndex {
+
+    //Longer words are cut to this length, they are rarely searched for whole
+    private static final int MAX_TERM_LENGTH = 32;
+
+    //Weight of a removed entry, real weights are positive
+    private static final float REMOVED = -1;
+    //Late or removed entries a list can always have before it is compacted
+    private static final int MIN_UNCOMPACTED = 16;
+
+    private final ConcurrentHashMap<String, Postings> postings = new ConcurrentHashMap<>();
+    //Posting lists each message is in, by message id, so updates and deletes know what to take out. Guarded by this
+    private Postings[][] termsByMessage = new Postings[1024][];
+    private volatile int documentCount;
+
+    /**
+     * Adds a message, or replaces what was indexed for its id
+     * @param message message to index
+     */
+    public synchronized void index(Message message) {
+        int message_id = message.getMessage_id();
+        removeLocked(message_id);
+
+        List<String> tokens = tokenize(message.getMessage_text());
+        if (tokens.isEmpty()) {
+            return;
+        }
+        //Term frequencies in first seen order
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        float norm = (float) Math.sqrt(tokens.size());
+        Postings[] terms = new Postings[frequencies.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+            Postings list = postings.computeIfAbsent(frequency.getKey(), key -> new Postings());
+            list.add(message_id, frequency.getValue() / norm);
+            terms[i++] = list;
+        }
+        if (message_id >= termsByMessage.length) {
+            termsByMessage = Arrays.copyOf(termsByMessage, Math.max(message_id + 1, termsByMessage.length * 2));
+        }
+        termsByMessage[message_id] = terms;
+        documentCount++;
+    }
+
+    /**
+     * Takes a deleted message out of the index
+     * @param message_id id of the message
+     */
+    public synchronized void remove(int message_id) {
+        removeLocked(message_id);
+    }
+
+    /**
+     * Finds messages containing every word of the query
+     * @param query words to search for, anything that isn't a letter or digit separates words
+     * @param offset ranked results to skip
+     * @param limit most results to return
+     * @return ids of one page of results, best match first, and the number of matches in total
+     */
+    public Result search(String query, int offset, int limit) {
+        //Each word counts once however often it is repeated
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (terms.isEmpty() || limit < 1) {
+            return new Result(new int[0], 0);
+        }
+
+        //A word no message has means nothing matches
+        View[] views = new View[terms.size()];
+        for (int i = 0; i < views.length; i++) {
+            Postings list = postings.get(terms.get(i));
+            views[i] = list == null ? null : list.view;
+            if (views[i] == null || views[i].live == 0) {
+                return new Result(new int[0], 0);
+            }
+        }
+        //Walks the shortest list and looks the ids up in the others
+        Arrays.sort(views, Comparator.comparingInt(view -> view.live));
+        int documents = Math.max(documentCount, 1);
+        float[] idf = new float[views.length];
+        for (int i = 0; i < views.length; i++) {
+            int df = views[i].live;
+            idf[i] = (float) Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+        }
+
+        //Keeps the best offset + limit, the worst of them on top so it is the one replaced
+        int keep = offset + limit;
+        PriorityQueue<long[]> best = new PriorityQueue<>(Math.min(keep, 1024) + 1, MessageSearchIndex::compareWorstFirst);
+        int total = 0;
+        View first = views[0];
+        int[] cursors = new int[views.length];
+        //Steps through the main and late entries of the first list together, in id order
+        int p = 0;
+        int q = 0;
+        while (p < first.size || q < first.lateIds.length) {
+            int message_id;
+            float weight;
+            if (q == first.lateIds.length || (p < first.size && first.ids[p] < first.lateIds[q])) {
+                message_id = first.ids[p];
+                weight = first.weights[p++];
+            } else {
+                message_id = first.lateIds[q];
+                weight = first.lateWeights[q++];
+            }
+            if (weight == REMOVED) {
+                continue;
+            }
+            float score = idf[0] * weight;
+            boolean all = true;
+            for (int v = 1; v < views.length && all; v++) {
+                View view = views[v];
+                int found = view.find(message_id, cursors[v]);
+                if (found < 0) {
+                    //Ids are sorted, so the next lookup can start where this one stopped
+                    cursors[v] = -found - 1;
+                    weight = view.lateWeight(message_id);
+                } else {
+                    cursors[v] = found + 1;
+                    weight = view.weights[found];
+                }
+                if (weight == REMOVED) {
+                    all = false;
+                } else {
+                    score += idf[v] * weight;
+                }
+            }
+            if (!all) {
+                continue;
+            }
+            total++;
+            if (best.size() < keep) {
+                best.add(new long[] {Float.floatToIntBits(score), message_id});
+                continue;
+            }
+            //Most hits of a common word don't make the page, so check before allocating
+            long[] worst = best.peek();
+            float worstScore = Float.intBitsToFloat((int) worst[0]);
+            if (score > worstScore || (score == worstScore && message_id > worst[1])) {
+                best.poll();
+                best.add(new long[] {Float.floatToIntBits(score), message_id});
+            }
+        }
+
+        //Drains worst first, so fill the page from the back
+        int pageSize = Math.max(0, Math.min(limit, best.size() - offset));
+        int[] page = new int[pageSize];
+        while (best.size() > offset + pageSize) {
+            best.poll();
+        }
+        for (int i = pageSize - 1; i >= 0; i--) {
+            page[i] = (int) best.poll()[1];
+        }
+        return new Result(page, total);
+    }
+
+    /**
+     * @return messages indexed
+     */
+    public int size() {
+        return documentCount;
+    }
+
+    /**
+     * @return distinct words indexed
+     */
+    public int getTermCount() {
+        return postings.size();
+    }
+
+    /**
+     * Splits text into lowercase words of letters and digits
+     * @param text text to split, may be null
+     * @return the words in order, with repeats
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (token.length() < MAX_TERM_LENGTH) {
+                    token.append(Character.toLowerCase(c));
+                }
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private void removeLocked(int message_id) {
+        if (message_id < 0 || message_id >= termsByMessage.length || termsByMessage[message_id] == null) {
+            return;
+        }
+        for (Postings list : termsByMessage[message_id]) {
+            list.remove(message_id);
+        }
+        termsByMessage[message_id] = null;
+        documentCount--;
+    }
+
+    /**
+     * Orders [score bits, message_id] pairs from worst to best: lower score, then older message
+     */
+    private static int compareWorstFirst(long[] a, long[] b) {
+        int byScore = Float.compare(Float.intBitsToFloat((int) a[0]), Float.intBitsToFloat((int) b[0]));
+        return byScore != 0 ? byScore : Long.compare(a[1], b[1]);
+    }
+
+    /**
+     * One page of search results
+     */
+    public static class Result {
+        private final int[] message_ids;
+        private final int totalHits;
+
+        Result(int[] message_ids, int totalHits) {
+            this.message_ids = message_ids;
+            this.totalHits = totalHits;
+        }
+
+        /**
+         * @return ids of the page's messages, best match first
+         */
+        public int[] getMessage_ids() {
+            return message_ids;
+        }
+
+        /**
+         * @return messages that matched in total, across all pages
+         */
+        public int getTotalHits() {
+            return totalHits;
+        }
+    }
+
+    /**
+     * Messages containing one word. Only changed while holding the index lock.
+     */
+    private static class Postings {
+        volatile View view = new View(new int[4], new float[4], 0, new int[0], new float[0], 0);
+
+        void add(int message_id, float weight) {
+            View current = view;
+            int size = current.size;
+            if (size > 0 && current.ids[size - 1] >= message_id) {
+                //Removed earlier, by an edit that kept the word, so brought back where it is
+                int at = current.find(message_id, 0);
+                if (at >= 0) {
+                    view = current.revive(current.weights, at, weight);
+                    return;
+                }
+                at = Arrays.binarySearch(current.lateIds, message_id);
+                if (at >= 0) {
+                    view = current.revive(current.lateWeights, at, weight);
+                    return;
+                }
+                //Out of order, copying the small late list so readers of the current view aren't disturbed
+                if (current.lateIds.length >= Math.max(MIN_UNCOMPACTED, (int) Math.sqrt(size))) {
+                    current = compact(current, 0);
+                    //Everything in order again, maybe even this id if it was only before removed entries
+                    if (current.size == 0 || current.ids[current.size - 1] < message_id) {
+                        view = current;
+                        add(message_id, weight);
+                        return;
+                    }
+                }
+                at = -Arrays.binarySearch(current.lateIds, message_id) - 1;
+                int late = current.lateIds.length;
+                int[] lateIds = new int[late + 1];
+                float[] lateWeights = new float[late + 1];
+                System.arraycopy(current.lateIds, 0, lateIds, 0, at);
+                System.arraycopy(current.lateWeights, 0, lateWeights, 0, at);
+                lateIds[at] = message_id;
+                lateWeights[at] = weight;
+                System.arraycopy(current.lateIds, at, lateIds, at + 1, late - at);
+                System.arraycopy(current.lateWeights, at, lateWeights, at + 1, late - at);
+                view = new View(current.ids, current.weights, current.size, lateIds, lateWeights, current.live + 1);
+                return;
+            }
+            if (size == current.ids.length) {
+                current = compact(current, 1);
+                size = current.size;
+            }
+            //Writes past the end of every published view, then publishes a longer one
+            current.ids[size] = message_id;
+            current.weights[size] = weight;
+            view = new View(current.ids, current.weights, size + 1, current.lateIds, current.lateWeights,
+                    current.live + 1);
+        }
+
+        void remove(int message_id) {
+            View current = view;
+            float[] weights = current.weights;
+            int at = current.find(message_id, 0);
+            if (at < 0) {
+                weights = current.lateWeights;
+                at = Arrays.binarySearch(current.lateIds, message_id);
+            }
+            if (at < 0 || weights[at] == REMOVED) {
+                return;
+            }
+            //Readers of the current view see it either way, as if they had run just before or after
+            weights[at] = REMOVED;
+            View next = new View(current.ids, current.weights, current.size, current.lateIds, current.lateWeights,
+                    current.live - 1);
+            int removed = next.size + next.lateIds.length - next.live;
+            if (removed > Math.max(MIN_UNCOMPACTED, next.live)) {
+                next = compact(next, 0);
+            }
+            view = next;
+        }
+
+        /**
+         * Copies the live entries, main and late, into new arrays in id order
+         * @param room free space to leave at the end for appends
+         */
+        private static View compact(View current, int room) {
+            int capacity = Math.max(4, (current.live + room) * 2);
+            int[] ids = new int[capacity];
+            float[] weights = new float[capacity];
+            int size = 0;
+            int p = 0;
+            int q = 0;
+            while (p < current.size || q < current.lateIds.length) {
+                boolean main = q == current.lateIds.length || (p < current.size && current.ids[p] < current.lateIds[q]);
+                float weight = main ? current.weights[p] : current.lateWeights[q];
+                if (weight != REMOVED) {
+                    ids[size] = main ? current.ids[p] : current.lateIds[q];
+                    weights[size++] = weight;
+                }
+                if (main) {
+                    p++;
+                } else {
+                    q++;
+                }
+            }
+            return new View(ids, weights, size, new int[0], new float[0], size);
+        }
+    }
+
+    /**
+     * Snapshot of a posting list. The first size ids never change, and nor do the late arrays' ids; weights only
+     * change between REMOVED and a real weight.
+     */
+    private static class View {
+        final int[] ids;
+        final float[] weights;
+        final int size;
+        //Entries added out of order, sorted by id
+        final int[] lateIds;
+        final float[] lateWeights;
+        //Entries that aren't removed, the word's document frequency
+        final int live;
+
+        View(int[] ids, float[] weights, int size, int[] lateIds, float[] lateWeights, int live) {
+            this.ids = ids;
+            this.weights = weights;
+            this.size = size;
+            this.lateIds = lateIds;
+            this.lateWeights = lateWeights;
+            this.live = live;
+        }
+
+        /**
+         * Gallops forward from a position then binary searches, so stepping through a list in id order costs
+         * about the log of the gap between lookups rather than the log of the list. Only looks at the main entries.
+         * @return the position of the id, or -(insertion point) - 1 if it isn't there
+         */
+        int find(int message_id, int from) {
+            int low = Math.min(from, size);
+            int step = 1;
+            int high = low;
+            while (high < size && ids[high] < message_id) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            return Arrays.binarySearch(ids, low, Math.min(high + 1, size), message_id);
+        }
+
+        /**
+         * @return the weight of a late entry, REMOVED if there isn't one for the id
+         */
+        float lateWeight(int message_id) {
+            if (lateIds.length == 0) {
+                return REMOVED;
+            }
+            int at = Arrays.binarySearch(lateIds, message_id);
+            return at < 0 ? REMOVED : lateWeights[at];
+        }
+
+        /**
+         * Sets the weight of an entry that is already in the list
+         * @return the view to publish
+         */
+        View revive(float[] in, int at, float weight) {
+            boolean wasRemoved = in[at] == REMOVED;
+            in[at] = weight;
+            return new View(ids, weights, size, lateIds, lateWeights, wasRemoved ? live + 1 : live);
+        }
+    }
+}
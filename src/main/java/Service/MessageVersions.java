@@ -0,0 +1,82 @@
+package Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import Model.Message;
+
+/**
+ * Change counters for messages, used to answer conditional GETs without reading the messages. There is one
+ * version for all messages, one per account and one per message id, and each is bumped after a create, update
+ * or delete is saved.
+ *
+ * A version is the time of the change in epoch milliseconds, forced to go up by at least one on every change,
+ * so the same number works as an ETag and as Last-Modified. Everything starts at the time the service started,
+ * which also keeps ETags from a previous run from matching.
+ *
+ * Message ids share a fixed number of slots so memory doesn't grow with the table. A change to one message also
+ * changes the version of the other ids in its slot, which only costs those clients a full response.
+ */
+public class MessageVersions {
+
+    //Power of two so the slot is a mask of the id
+    private static final int MESSAGE_SLOTS = 1 << 16;
+
+    private final long startVersion;
+    //Last version handed out, every new one is larger
+    private final AtomicLong clock;
+    private final AtomicLong allMessages;
+    private final ConcurrentHashMap<Integer, AtomicLong> byAccount = new ConcurrentHashMap<>();
+    private final AtomicLongArray byMessageSlot = new AtomicLongArray(MESSAGE_SLOTS);
+
+    public MessageVersions() {
+        this.startVersion = System.currentTimeMillis();
+        this.clock = new AtomicLong(startVersion);
+        this.allMessages = new AtomicLong(startVersion);
+        for (int i = 0; i < MESSAGE_SLOTS; i++) {
+            byMessageSlot.set(i, startVersion);
+        }
+    }
+
+    /**
+     * Bumps the versions a saved change touches. Call after the change is saved, so a version is never newer
+     * than the data it describes.
+     * @param message message that was created, updated or deleted
+     */
+    public void changed(Message message) {
+        long version = clock.accumulateAndGet(System.currentTimeMillis(), (last, now) -> Math.max(last + 1, now));
+        //Max instead of set, a change that got its version first may finish last
+        byMessageSlot.accumulateAndGet(message.getMessage_id() & (MESSAGE_SLOTS - 1), version, Math::max);
+        AtomicLong account = byAccount.get(message.getPosted_by());
+        if (account == null) {
+            account = byAccount.computeIfAbsent(message.getPosted_by(), key -> new AtomicLong(startVersion));
+        }
+        account.accumulateAndGet(version, Math::max);
+        allMessages.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * @return version of the list of all messages
+     */
+    public long getAllMessagesVersion() {
+        return allMessages.get();
+    }
+
+    /**
+     * @param account_id id of the account
+     * @return version of the account's list of messages
+     */
+    public long getAccountVersion(int account_id) {
+        AtomicLong account = byAccount.get(account_id);
+        return account == null ? startVersion : account.get();
+    }
+
+    /**
+     * @param message_id id of the message
+     * @return version of the message, shared with the other ids in its slot
+     */
+    public long getMessageVersion(int message_id) {
+        return byMessageSlot.get(message_id & (MESSAGE_SLOTS - 1));
+    }
+}
@@ -0,0 +1,304 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import DAO.SocialMediaStore;
+import Model.Message;
+
+/**
+ * Write-behind pipeline for new messages. Accepted messages are given an id straight away from a reserved block of
+ * ids and put on a bounded queue. One writer thread takes them off the queue and saves them in micro-batches, so
+ * many posts share one transaction and one commit instead of each request waiting on its own.
+ *
+ * A batch is written as soon as it reaches maxBatchSize or maxLingerMillis after its first message arrived,
+ * whichever comes first. When the queue is full submit throws QueueFullException instead of waiting.
+ *
+ * Messages that are accepted but not yet saved can be read back with getPending.
+ */
+public class MessageWriteBehind implements AutoCloseable {
+
+    //How long the writer waits for a first message before checking if it was closed
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final SocialMediaStore socialMediaDAO;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final int idBlockSize;
+    //Called with each message once it is saved
+    private final Consumer<Message> onCommit;
+
+    private final BlockingQueue<Message> queue;
+    //Accepted messages by id until they are saved or have failed
+    private final ConcurrentHashMap<Integer, Message> pending = new ConcurrentHashMap<>();
+
+    //Reserved ids not handed out yet, guarded by this
+    private int[] idBlock = new int[0];
+    private int idBlockNext;
+
+    private volatile boolean running = true;
+    //Submits hold the read lock from the running check until the message is queued, close takes the write lock to
+    //stop them, so the writer never exits with an accepted message still on its way to the queue
+    private final ReentrantReadWriteLock gate = new ReentrantReadWriteLock();
+    private final Thread writer;
+
+    //Stats
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    /**
+     * Creates the pipeline and starts its writer thread
+     * @param socialMediaDAO store used to reserve ids and save messages
+     * @param queueCapacity most messages waiting to be saved before submit starts rejecting
+     * @param maxBatchSize most messages saved in one transaction
+     * @param maxLingerMillis longest a batch waits for more messages before it is saved
+     * @param idBlockSize number of ids reserved from the database at a time
+     * @param onCommit called with each message once it is saved, may be null
+     */
+    public MessageWriteBehind(SocialMediaStore socialMediaDAO, int queueCapacity, int maxBatchSize, long maxLingerMillis,
+                              int idBlockSize, Consumer<Message> onCommit) {
+        if (queueCapacity < 1 || maxBatchSize < 1 || maxLingerMillis < 0 || idBlockSize < 1) {
+            throw new IllegalArgumentException("Invalid write-behind settings");
+        }
+        this.socialMediaDAO = socialMediaDAO;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+        this.idBlockSize = idBlockSize;
+        this.onCommit = onCommit;
+
+        this.writer = new Thread(this::writeLoop, "message-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Creates the pipeline with settings from system properties: writeBehind.queueCapacity, writeBehind.maxBatchSize,
+     * writeBehind.maxLingerMs and writeBehind.idBlockSize
+     * @param socialMediaDAO store used to reserve ids and save messages
+     * @param onCommit called with each message once it is saved, may be null
+     * @return the started pipeline
+     */
+    public static MessageWriteBehind fromSystemProperties(SocialMediaStore socialMediaDAO, Consumer<Message> onCommit) {
+        return new MessageWriteBehind(socialMediaDAO,
+                Integer.getInteger("writeBehind.queueCapacity", 10_000),
+                Integer.getInteger("writeBehind.maxBatchSize", 500),
+                Long.getLong("writeBehind.maxLingerMs", 5),
+                Integer.getInteger("writeBehind.idBlockSize", 1000),
+                onCommit);
+    }
+
+    /**
+     * Gives the message its id and queues it to be saved. Returns without waiting for the database.
+     * The message must already be valid, the writer doesn't check it again.
+     * @param message message to save, its message_id is set
+     * @return the message with its id, null if no id could be reserved
+     * @throws QueueFullException if the queue is full or the pipeline is closed
+     */
+    public Message submit(Message message) {
+        gate.readLock().lock();
+        try {
+            if (!running) {
+                rejected.incrementAndGet();
+                throw new QueueFullException("Message write-behind queue is closed");
+            }
+            int id = nextId();
+            if (id < 0) {
+                return null;
+            }
+            message.setMessage_id(id);
+
+            //Pending before queued, so the writer can never finish with it before it is readable
+            pending.put(id, message);
+            if (!queue.offer(message)) {
+                pending.remove(id);
+                rejected.incrementAndGet();
+                throw new QueueFullException("Message write-behind queue is full");
+            }
+            accepted.incrementAndGet();
+            return message;
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param message_id id of a message
+     * @return the message if it was accepted and is not saved yet, otherwise null
+     */
+    public Message getPending(int message_id) {
+        return pending.get(message_id);
+    }
+
+    /**
+     * Stops accepting messages, saves everything already queued and waits for the writer to finish
+     */
+    @Override
+    public void close() {
+        //Waits for submits already past the running check to queue their message
+        gate.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            gate.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands out the next reserved id, reserving a new block when the current one runs out
+     * @return the id, -1 if a block couldn't be reserved
+     */
+    private synchronized int nextId() {
+        if (idBlockNext == idBlock.length) {
+            int[] block = this.socialMediaDAO.reserveMessageIds(idBlockSize);
+            if (block == null) {
+                return -1;
+            }
+            idBlock = block;
+            idBlockNext = 0;
+        }
+        return idBlock[idBlockNext++];
+    }
+
+    /**
+     * Writer thread, collects batches off the queue and saves them until closed and the queue is empty
+     */
+    private void writeLoop() {
+        List<Message> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Message first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                //Take whatever is already waiting, then linger for more until the batch is full or time is up
+                long deadline = System.nanoTime() + maxLingerNanos;
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                while (batch.size() < maxBatchSize && running) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Message next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                //Nothing interrupts the writer on purpose, keep going so queued messages aren't lost
+            } catch (Exception e) {
+                System.out.println(e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Saves one batch in a single transaction. If the batch fails, each message is tried on its own so one bad
+     * message doesn't lose the rest.
+     * @param batch messages to save
+     */
+    private void flush(List<Message> batch) {
+        long start = System.nanoTime();
+        boolean saved = this.socialMediaDAO.insertMessagesWithIds(batch);
+        long took = System.nanoTime() - start;
+        batches.incrementAndGet();
+        commitNanos.addAndGet(took);
+        maxCommitNanos.accumulateAndGet(took, Math::max);
+
+        for (Message message : batch) {
+            if (!saved && !this.socialMediaDAO.insertMessagesWithIds(Collections.singletonList(message))) {
+                System.out.println("Write-behind could not save message " + message);
+                failed.incrementAndGet();
+            } else {
+                committed.incrementAndGet();
+                if (onCommit != null) {
+                    onCommit.accept(message);
+                }
+            }
+            pending.remove(message.getMessage_id());
+        }
+    }
+
+    /**
+     * @return messages waiting on the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return messages accepted or saved but not finished yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getCommitted() {
+        return committed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getCommitNanos() {
+        return commitNanos.get();
+    }
+
+    public long getMaxCommitNanos() {
+        return maxCommitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        long batchCount = getBatches();
+        return "MessageWriteBehind{" +
+                "queueDepth=" + getQueueDepth() +
+                ", pending=" + getPendingCount() +
+                ", accepted=" + getAccepted() +
+                ", rejected=" + getRejected() +
+                ", committed=" + getCommitted() +
+                ", failed=" + getFailed() +
+                ", batches=" + batchCount +
+                ", avgBatchSize=" + (batchCount == 0 ? 0 : (getCommitted() + getFailed()) / batchCount) +
+                ", avgCommitMicros=" + (batchCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getCommitNanos() / batchCount)) +
+                ", maxCommitMicros=" + TimeUnit.NANOSECONDS.toMicros(getMaxCommitNanos()) +
+                '}';
+    }
+}
@@ -0,0 +1,17 @@
+package Service;
+
+/**
+ * Thrown when work can't be accepted because its queue is full, either the write-behind queue or the
+ * password hashing queue.
+ * The controller turns it into a 429 so clients back off and retry.
+ */
+public class QueueFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message description of the queue that was full
+     */
+    public QueueFullException(String message) {
+        super(message);
+    }
+}
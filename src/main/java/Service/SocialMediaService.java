@@ -1,8 +1,24 @@
 package Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import DAO.SocialMediaDAO;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import DAO.MessageSink;
+import DAO.SocialMediaStore;
 import Model.*;
+import Util.ConnectionPool;
+import Util.CredentialCache;
+import Util.PasswordHasher;
+import Util.ReadThroughCache;
+import Util.UsernameIndex;
 
 /**
  * Service that connects controller endpoints to data access objects
@@ -12,18 +28,104 @@ import Model.*;
  * Could also implement a role base relational table for a list of users that can: view, edit, and delete based on role.
  */
 public class SocialMediaService {
-    //class field for the data access object 
-    SocialMediaDAO socialMediaDAO;
+    //class field for the data access object, h2 or in memory depending on the storage.engine system property
+    SocialMediaStore socialMediaDAO;
+
+    //Messages by id, read far more than they are edited. Every write to a message invalidates its entry.
+    //Size can be changed with the cache.messages.maxSize system property
+    ReadThroughCache<Integer, Message> messageCache;
+
+    //Saves new messages in the background when the writeBehind.enabled system property is true, otherwise null
+    //and createMessage inserts before returning
+    MessageWriteBehind messageWriteBehind;
+
+    //Hashes passwords on its own bounded set of threads, shared by every service
+    PasswordHasher passwordHasher;
+
+    //Logins verified in the last password.cacheTtlMs milliseconds (default 60000, 0 turns it off), so clients that
+    //log in again soon skip the hash. Holds at most password.cacheMaxSize logins
+    CredentialCache credentialCache;
+
+    //Every username in the account table, filled here and kept up to date by register and deleteAccount so taken
+    //and unknown usernames are turned away without a query. Exact or bloom, see UsernameIndex
+    UsernameIndex usernameIndex;
+
+    //Pushes every message create, update and delete to subscribed clients
+    MessageFeed messageFeed;
+
+    //Versions of the message lists and messages, bumped on every change so GETs can answer 304 without a query
+    MessageVersions messageVersions;
+
+    //Word index over message_text for searches, filled here and kept up to date on every change. Null when the
+    //search.enabled system property is false
+    MessageSearchIndex searchIndex;
+
+    //Home timelines of recently read accounts, filled as their followees post. See TimelineStore
+    TimelineStore timelineStore;
+
+    //Accounts with at least celebrityFollowers followers. Their messages aren't pushed to every follower's
+    //timeline, they are read and merged in when a follower reads theirs
+    Set<Integer> celebrities = ConcurrentHashMap.newKeySet();
+    int celebrityFollowers;
+    AtomicLong fallbackTimelineReads = new AtomicLong();
     
     public SocialMediaService(){
-        this.socialMediaDAO = new SocialMediaDAO();
+        this(SocialMediaStore.fromSystemProperties());
     }
 
     /**
-     * Used to add account record to database
+     * @param socialMediaDAO store for accounts, messages and follows, closed when the service closes
+     */
+    public SocialMediaService(SocialMediaStore socialMediaDAO){
+        this.socialMediaDAO = socialMediaDAO;
+        this.passwordHasher = PasswordHasher.getInstance();
+        this.credentialCache = new CredentialCache(Long.getLong("password.cacheTtlMs", 60_000),
+                Integer.getInteger("password.cacheMaxSize", 10_000));
+        this.usernameIndex = UsernameIndex.fromSystemProperties();
+        if (!this.socialMediaDAO.streamAccountUsernames(this.usernameIndex::add)) {
+            //Half filled, an index that is missing usernames would turn real users away
+            System.out.println("Could not load usernames, the username index is off");
+            this.usernameIndex = null;
+        }
+        this.messageCache = new ReadThroughCache<>(Integer.getInteger("cache.messages.maxSize", 10_000));
+        this.messageFeed = MessageFeed.fromSystemProperties();
+        this.messageVersions = new MessageVersions();
+        if (Boolean.parseBoolean(System.getProperty("search.enabled", "true"))) {
+            this.searchIndex = new MessageSearchIndex();
+            if (!this.socialMediaDAO.streamMessages(0, 0, this.searchIndex::index)) {
+                //Searches would silently miss messages
+                System.out.println("Could not load messages, search is off");
+                this.searchIndex = null;
+            }
+        }
+        this.timelineStore = TimelineStore.fromSystemProperties();
+        //Set with timeline.celebrityFollowers, default 10000
+        this.celebrityFollowers = Integer.getInteger("timeline.celebrityFollowers", 10_000);
+        int[] celebrityIds = this.socialMediaDAO.selectAccountIdsWithFollowers(this.celebrityFollowers);
+        if (celebrityIds == null) {
+            //Their messages are fanned out like anyone else's until one of them posts
+            System.out.println("Could not load follower counts");
+        } else {
+            for (int account_id : celebrityIds) {
+                this.celebrities.add(account_id);
+            }
+        }
+        if (Boolean.getBoolean("writeBehind.enabled")) {
+            //Ids can be looked up before the message is saved, so drop any cached miss once it is. Subscribers
+            //hear about the message once it is saved, same as the lists
+            this.messageWriteBehind = MessageWriteBehind.fromSystemProperties(this.socialMediaDAO, saved -> {
+                this.messageCache.invalidate(saved.getMessage_id());
+                messageChanged(MessageFeed.CREATED, saved);
+            });
+        }
+    }
+
+    /**
+     * Used to add account record to database. Only the hash of the password is saved.
      * 
      * @param account account object using the constructor without the id as a parameter
      * @return returns account with id value or null if there was an error
+     * @throws QueueFullException when too many passwords are already waiting to be hashed
      */
     public Account register(Account account) {
 
@@ -34,10 +136,25 @@ public class SocialMediaService {
             if(account.getUsername().equals("") || account.getPassword().length() < 4) {
                 return null;
             }
+            //Taken usernames are turned away before hashing and without a failed insert
+            else if (this.usernameIndex != null && this.usernameIndex.definitelyContains(account.getUsername())) {
+                return null;
+            }
             //Otherwise return registered account
             else {
-                return this.socialMediaDAO.insertAccount(account);
+                String hash = this.passwordHasher.hash(account.getPassword());
+                Account added = this.socialMediaDAO.insertAccount(new Account(account.getUsername(), hash));
+                if (added == null) {
+                    return null;
+                }
+                if (this.usernameIndex != null) {
+                    this.usernameIndex.add(added.getUsername(), added.getAccount_id());
+                }
+                //The client gets back what it sent, not the hash
+                return new Account(added.getAccount_id(), account.getUsername(), account.getPassword());
             }
+        } catch (RejectedExecutionException e) {
+            throw new QueueFullException("Too many passwords waiting to be hashed");
         } catch (Exception e) {
             System.out.println(e);
         }
@@ -46,30 +163,182 @@ public class SocialMediaService {
         
     }
     /**
-     * Used to add account record to database
+     * Checks a username and password. Unknown usernames take as long as wrong passwords, and passwords saved
+     * with an older work factor (or before hashing) are hashed again once they are known to be right.
      * @param account account object using the constructor without the id as a parameter
      * @return returns account with id value or null if there was an error or account doesn't exist
+     * @throws QueueFullException when too many passwords are already waiting to be hashed
      */
     public Account login(Account account) {
-        return this.socialMediaDAO.selectAccount(account);
+        String username = account.getUsername();
+        String password = account.getPassword();
+        if (username == null || password == null) {
+            return null;
+        }
+
+        //Checks recently verified logins first so repeat logins skip the hash
+        int cachedId = this.credentialCache.get(username, password);
+        if (cachedId != -1) {
+            return new Account(cachedId, username, password);
+        }
+
+        try {
+            //Unknown usernames skip the query, but still pay for a hash so they take as long as a wrong password
+            if (this.usernameIndex != null && this.usernameIndex.definitelyAbsent(username)) {
+                this.passwordHasher.verifyDummy(password);
+                return null;
+            }
+            Account stored = this.socialMediaDAO.selectAccountByUsername(username);
+            if (stored == null) {
+                //Spends the same time as a real check so response times don't show which usernames exist
+                this.passwordHasher.verifyDummy(password);
+                return null;
+            }
+            if (!this.passwordHasher.verify(password, stored.getPassword())) {
+                return null;
+            }
+            if (this.passwordHasher.needsRehash(stored.getPassword())) {
+                this.socialMediaDAO.updateAccountPassword(stored.getAccount_id(), this.passwordHasher.hash(password));
+            }
+            this.credentialCache.put(username, password, stored.getAccount_id());
+            return new Account(stored.getAccount_id(), username, password);
+        } catch (RejectedExecutionException e) {
+            throw new QueueFullException("Too many passwords waiting to be hashed");
+        }
+    }
+    /**
+     * Deletes an account and forgets its username and cached logins
+     * @param account account to delete, found by its account_id
+     * @return the deleted account as it was stored or null if it didn't exist or there was an error
+     */
+    public Account deleteAccount(Account account) {
+        //The store hands back the row it deleted, so the username forgotten is the stored one whatever the caller sent
+        Account deleted = this.socialMediaDAO.deleteAccount(account);
+        if (deleted != null) {
+            if (this.usernameIndex != null) {
+                this.usernameIndex.remove(deleted.getUsername());
+            }
+            this.credentialCache.invalidate(deleted.getUsername());
+            //Its follows went with it
+            this.timelineStore.clear();
+            this.celebrities.remove(deleted.getAccount_id());
+        }
+        return deleted;
+    }
+    /**
+     * Makes one account follow another. The follower's timeline is built again on its next read so it has the
+     * new followee's older messages too.
+     * @param follower_id account that follows
+     * @param followee_id account to follow
+     * @return true if the follow is saved, false if it is the same account, either doesn't exist or on error
+     */
+    public boolean followAccount(int follower_id, int followee_id) {
+        if (follower_id == followee_id || !this.socialMediaDAO.insertFollow(follower_id, followee_id)) {
+            return false;
+        }
+        this.timelineStore.invalidate(follower_id);
+        updateCelebrity(followee_id);
+        return true;
+    }
+    /**
+     * Stops one account following another
+     * @param follower_id account that follows
+     * @param followee_id account to stop following
+     * @return true if the follow was removed, false if there wasn't one or on error
+     */
+    public boolean unfollowAccount(int follower_id, int followee_id) {
+        if (!this.socialMediaDAO.deleteFollow(follower_id, followee_id)) {
+            return false;
+        }
+        this.timelineStore.invalidate(follower_id);
+        updateCelebrity(followee_id);
+        return true;
     }
     /**
-     * Method for adding a message record
+     * Returns one page of an account's home timeline: messages posted by the accounts it follows, newest first.
+     * Comes from the account's precomputed timeline, merged with the newest messages of any celebrities it
+     * follows. Pages older than the precomputed timeline holds are read from the database.
+     * @param account_id account whose timeline is read
+     * @param before_message_id only messages with a smaller id are returned, Integer.MAX_VALUE for the newest
+     * @param limit page size
+     * @return List<Message> - page of the timeline, null on fail
+     */
+    public List<Message> readTimeline(int account_id, int before_message_id, int limit) {
+        try {
+            //Celebrities this account follows, left out of its precomputed timeline
+            int[] followedCelebrities = new int[0];
+            if (!this.celebrities.isEmpty()) {
+                int[] followees = this.socialMediaDAO.selectFolloweeIds(account_id);
+                if (followees == null) {
+                    return null;
+                }
+                followedCelebrities = Arrays.stream(followees).filter(this.celebrities::contains).toArray();
+            }
+            int[] excluded = followedCelebrities;
+            TimelineStore.Page page = this.timelineStore.read(account_id, before_message_id, limit,
+                (id, max) -> this.socialMediaDAO.selectTimelineMessageIds(id, excluded, Integer.MAX_VALUE, max));
+            if (page == null) {
+                return null;
+            }
+
+            int[] message_ids = page.getMessage_ids();
+            if (!page.isComplete()) {
+                //Older than the precomputed timeline goes back, work the whole page out from the database
+                this.fallbackTimelineReads.incrementAndGet();
+                message_ids = this.socialMediaDAO.selectTimelineMessageIds(account_id, new int[0], before_message_id, limit);
+            } else if (followedCelebrities.length > 0) {
+                int[] celebrityIds = this.socialMediaDAO.selectRecentMessageIds(followedCelebrities, before_message_id, limit);
+                message_ids = celebrityIds == null ? null : mergeNewestFirst(message_ids, celebrityIds, limit);
+            }
+            if (message_ids == null) {
+                return null;
+            }
+            return readMessagesByIds(message_ids);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return null;
+    }
+    /**
+     * Method for adding a message record. In write-behind mode the message is given its id and queued, and is
+     * saved shortly after this returns. It shows up in lists of messages once it is saved.
      * 
      * @param message message object to be posted
      * @return null or message if it was inserted
+     * @throws QueueFullException in write-behind mode when too many messages are waiting to be saved
      */
     public Message createMessage(Message message) {
 
         //Try catch block for catching unexpected errors and returning null
         try {
             //Checks message requirements and if it fails returns null
-            if(message.getMessage_text().length() > 254 || message.getMessage_text().equals("")) {
+            if(!isValidMessageText(message.getMessage_text())) {
                 return null;
             }
+            else if (this.messageWriteBehind != null) {
+                //The foreign key isn't checked until the batch is saved, so check the poster exists up front
+                Set<Integer> existing = this.socialMediaDAO.selectExistingAccountIds(
+                        Collections.singleton(message.getPosted_by()));
+                if (existing == null || existing.isEmpty()) {
+                    return null;
+                }
+                Message accepted = this.messageWriteBehind.submit(message);
+                //Readable from now on, so a client that got the id as missing must not get a 304 for it
+                this.messageVersions.changed(accepted);
+                return accepted;
+            }
             else {
-                return this.socialMediaDAO.insertMessage(message);
+                Message created = this.socialMediaDAO.insertMessage(message);
+                //The new id may have been cached as missing
+                if (created != null) {
+                    this.messageCache.invalidate(created.getMessage_id());
+                    messageChanged(MessageFeed.CREATED, created);
+                }
+                return created;
             }
+        } catch (QueueFullException e) {
+            //Passed on so the client can be told to back off
+            throw e;
         } catch (Exception e) {
             System.out.println(e);
         }
@@ -78,15 +347,81 @@ public class SocialMediaService {
     }
 
     /**
-     * Returns message from a given message id
-     * @param account_id integer - id value of an account
+     * Adds many messages at once. Every element is checked with the same rules as createMessage, then all the
+     * valid ones are inserted in one transaction.
+     *
+     * @param messages messages to be posted
+     * @return one result per message in the same order, with the saved message or the reason it wasn't saved
+     */
+    public List<BatchItemResult> createMessages(List<Message> messages) {
+        List<BatchItemResult> results = new ArrayList<>(messages.size());
+        List<Message> valid = new ArrayList<>();
+        List<BatchItemResult> validResults = new ArrayList<>();
+
+        //Checks text first, then looks up every poster in one query instead of one per message
+        Set<Integer> posters = new HashSet<>();
+        for (Message message : messages) {
+            if (message != null && isValidMessageText(message.getMessage_text())) {
+                posters.add(message.getPosted_by());
+            }
+        }
+        Set<Integer> existingPosters = posters.isEmpty() ? posters : this.socialMediaDAO.selectExistingAccountIds(posters);
+        if (existingPosters == null) {
+            existingPosters = new HashSet<>();
+        }
+
+        for (int i = 0; i < messages.size(); i++) {
+            Message message = messages.get(i);
+            BatchItemResult result;
+            if (message == null || !isValidMessageText(message.getMessage_text())) {
+                result = new BatchItemResult(i, 400, null, "message_text must be 1 to 254 characters");
+            } else if (!existingPosters.contains(message.getPosted_by())) {
+                result = new BatchItemResult(i, 400, null, "posted_by is not an existing account");
+            } else {
+                result = new BatchItemResult(i, 200, message, null);
+                valid.add(message);
+                validResults.add(result);
+            }
+            results.add(result);
+        }
+
+        if (!valid.isEmpty()) {
+            //All or nothing, if the insert fails none of the valid messages were saved
+            if (this.socialMediaDAO.insertMessages(valid) == null) {
+                for (BatchItemResult result : validResults) {
+                    result.setStatus(500);
+                    result.setMessage(null);
+                    result.setError("message could not be saved");
+                }
+            } else {
+                //New ids may have been cached as missing
+                for (Message message : valid) {
+                    this.messageCache.invalidate(message.getMessage_id());
+                    messageChanged(MessageFeed.CREATED, message);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns message from a given message id, served from the message cache when possible.
+     * Ids that don't exist are cached as missing too.
+     * @param message_id integer - id value of a message
      * @return Message object null on fail or none
      */
     public Message readMessage(int message_id){
 
         //Try catch block for catching unexpected errors and returning null
         try {
-            return this.socialMediaDAO.selectMessage(message_id);
+            //Accepted but not saved yet
+            if (this.messageWriteBehind != null) {
+                Message pending = this.messageWriteBehind.getPending(message_id);
+                if (pending != null) {
+                    return pending;
+                }
+            }
+            return this.messageCache.get(message_id, this.socialMediaDAO::selectMessage);
         } catch (Exception e) {
             System.out.println(e);
         }
@@ -104,6 +439,106 @@ public class SocialMediaService {
         }
         return null;
     }
+    /**
+     * Returns all Messages in one MessageBatch, for writing out the whole list without a Message object per row
+     * @return MessageBatch - every message ordered by id, null on fail
+     */
+    public MessageBatch readAllMessagesBatch(){
+        try {
+            return this.socialMediaDAO.selectMessagesBatch(0, 0);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return null;
+    }
+    /**
+     * Returns one page of messages ordered by id
+     * @param after_message_id cursor, only messages with a larger id are returned
+     * @param limit page size
+     * @return List<Message> - page of messages, null on fail
+     */
+    public List<Message> readMessagesPage(int after_message_id, int limit){
+        try {
+            return this.socialMediaDAO.selectMessagesPage(after_message_id, limit);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return null;
+    }
+    /**
+     * Streams messages ordered by id to the sink without building a list
+     * @param after_message_id cursor, only messages with a larger id are streamed
+     * @param limit most messages to stream, 0 for all of them
+     * @param sink receives each message
+     * @return true if every message was streamed, false on error
+     */
+    public boolean streamMessages(int after_message_id, int limit, MessageSink sink){
+        try {
+            return this.socialMediaDAO.streamMessages(after_message_id, limit, sink);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return false;
+    }
+    /**
+     * Streams the messages posted in a time window newest first without building a list
+     * @param account_id only stream this account's messages, or MessageFeed.ALL_ACCOUNTS
+     * @param since only messages with time_posted_epoch at or after this are streamed
+     * @param until only messages with time_posted_epoch before this are streamed
+     * @param sink receives each message
+     * @return true if every message was streamed, false on error
+     */
+    public boolean streamMessagesInTimeRange(int account_id, long since, long until, MessageSink sink){
+        try {
+            if (account_id == MessageFeed.ALL_ACCOUNTS) {
+                return this.socialMediaDAO.streamMessagesInTimeRange(since, until, sink);
+            }
+            return this.socialMediaDAO.streamMessagesInTimeRangeFromAccountId(account_id, since, until, sink);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return false;
+    }
+    /**
+     * Finds messages containing every word of the query, best match first
+     * @param query words to search for
+     * @param offset ranked results to skip
+     * @param limit most results to return
+     * @return one page of results with the total number of matches, null if search is off
+     */
+    public MessageSearchIndex.Result searchMessages(String query, int offset, int limit){
+        if (this.searchIndex == null) {
+            return null;
+        }
+        return this.searchIndex.search(query, offset, limit);
+    }
+    /**
+     * Reads messages by id in one query, keeping the order of the ids
+     * @param message_ids ids to read, such as a page of search results
+     * @return the messages that still exist in the same order, null on error
+     */
+    public List<Message> readMessagesByIds(int[] message_ids){
+        if (message_ids.length == 0) {
+            return new ArrayList<>();
+        }
+        List<Message> found = this.socialMediaDAO.selectMessagesByIds(message_ids);
+        if (found == null) {
+            return null;
+        }
+        Map<Integer, Message> byId = new HashMap<>();
+        for (Message message : found) {
+            byId.put(message.getMessage_id(), message);
+        }
+        List<Message> ordered = new ArrayList<>(message_ids.length);
+        for (int message_id : message_ids) {
+            //A message deleted since the search is left out
+            Message message = byId.get(message_id);
+            if (message != null) {
+                ordered.add(message);
+            }
+        }
+        return ordered;
+    }
     /**
      * Returns all Messages from a given account id
      * @param account_id integer - id value of an account
@@ -117,6 +552,22 @@ public class SocialMediaService {
         }
         return null;
     }
+    /**
+     * Returns one page of an account's messages, newest first
+     * @param account_id integer - id value of an account
+     * @param before_epoch time of the last message on the previous page, Long.MAX_VALUE for the first page
+     * @param after_message_id id of the last message on the previous page, 0 for the first page
+     * @param limit page size
+     * @return List<Message> - page of messages for that account, null on fail
+     */
+    public List<Message> readMessagesPageById(int account_id, long before_epoch, int after_message_id, int limit){
+        try {
+            return this.socialMediaDAO.selectMessagesPageFromAccountId(account_id, before_epoch, after_message_id, limit);
+        } catch (Exception e) {
+            System.out.println(e);
+        }
+        return null;
+    }
     /**
      * Updates message given a message. Id value was added to the method in the controller
      * @param message message object to be updated
@@ -125,11 +576,14 @@ public class SocialMediaService {
     public Message updateMessage(Message message){
         try {
             //Checks message requirements and if it fails returns null
-            if(message.getMessage_text().length() > 254 || message.getMessage_text().equals("")) {
+            if(!isValidMessageText(message.getMessage_text())) {
                 return null;
             }
             else {
-                return this.socialMediaDAO.updateMessage(message.getMessage_id(), message.getMessage_text());
+                Message updated = this.socialMediaDAO.updateMessage(message.getMessage_id(), message.getMessage_text());
+                this.messageCache.invalidate(message.getMessage_id());
+                messageChanged(MessageFeed.UPDATED, updated);
+                return updated;
             }
         } catch (Exception e) {
             System.out.println(e);
@@ -143,10 +597,184 @@ public class SocialMediaService {
      */
     public Message deleteMessage(int message_id){
         try {
-            return this.socialMediaDAO.deleteMessage(message_id);
+            Message deleted = this.socialMediaDAO.deleteMessage(message_id);
+            this.messageCache.invalidate(message_id);
+            messageChanged(MessageFeed.DELETED, deleted);
+            return deleted;
         } catch (Exception e) {
             System.out.println(e);
         }
         return null;
     }
+    /**
+     * @return the store's connection pool, for its metrics, null if the store doesn't use one
+     */
+    public ConnectionPool getConnectionPool(){
+        return this.socialMediaDAO.getConnectionPool();
+    }
+    /**
+     * @return the message cache, for reading its hit rate, eviction and load time stats
+     */
+    public ReadThroughCache<Integer, Message> getMessageCache(){
+        return this.messageCache;
+    }
+    /**
+     * @return the verified login cache, for reading its hit rate
+     */
+    public CredentialCache getCredentialCache(){
+        return this.credentialCache;
+    }
+    /**
+     * @return the username index for its size and saved queries, null if it couldn't be loaded
+     */
+    public UsernameIndex getUsernameIndex(){
+        return this.usernameIndex;
+    }
+    /**
+     * @return the live message feed, for subscribing clients
+     */
+    public MessageFeed getMessageFeed(){
+        return this.messageFeed;
+    }
+    /**
+     * @return versions of the message lists and messages, for ETags and Last-Modified
+     */
+    public MessageVersions getMessageVersions(){
+        return this.messageVersions;
+    }
+    /**
+     * @return the search index for its size, null when search is off
+     */
+    public MessageSearchIndex getSearchIndex(){
+        return this.searchIndex;
+    }
+    /**
+     * @return the precomputed timelines for their memory use and fan-out stats
+     */
+    public TimelineStore getTimelineStore(){
+        return this.timelineStore;
+    }
+    /**
+     * @return accounts treated as celebrities, whose messages are merged into timelines on read
+     */
+    public int getCelebrityCount(){
+        return this.celebrities.size();
+    }
+    /**
+     * @return timeline pages read from the database because they were older than the precomputed timeline
+     */
+    public long getFallbackTimelineReads(){
+        return this.fallbackTimelineReads.get();
+    }
+    /**
+     * @return the write-behind pipeline for its queue depth and commit latency stats, null when it isn't enabled
+     */
+    public MessageWriteBehind getMessageWriteBehind(){
+        return this.messageWriteBehind;
+    }
+    /**
+     * Saves any messages still waiting in write-behind mode, disconnects feed subscribers and closes the store.
+     * Call when the server stops.
+     */
+    public void close(){
+        if (this.messageWriteBehind != null) {
+            this.messageWriteBehind.close();
+        }
+        this.messageFeed.close();
+        this.socialMediaDAO.close();
+    }
+    /**
+     * Pushes a new message to, or takes a deleted one out of, the precomputed timelines of its poster's
+     * followers. Celebrities' messages are skipped since their followers read them on their own.
+     * @param message message that was created or deleted
+     * @param created true for a new message
+     */
+    private void fanOut(Message message, boolean created){
+        int posted_by = message.getPosted_by();
+        //No timelines in memory means nothing to update
+        if (this.celebrities.contains(posted_by) || this.timelineStore.size() == 0) {
+            return;
+        }
+        //Reads at most celebrityFollowers ids, getting that many makes the poster a celebrity
+        int[] followers = this.socialMediaDAO.selectFollowerIds(posted_by, this.celebrityFollowers);
+        if (followers == null) {
+            //Some timelines may now be missing the message, build them all again
+            this.timelineStore.clear();
+        } else if (followers.length >= this.celebrityFollowers) {
+            this.celebrities.add(posted_by);
+            this.timelineStore.clear();
+        } else if (created) {
+            this.timelineStore.add(followers, message.getMessage_id());
+        } else {
+            this.timelineStore.remove(followers, message.getMessage_id());
+        }
+    }
+    /**
+     * Checks whether an account's follower count moved it over or under celebrityFollowers after a follow
+     * or unfollow. Timelines are built again when it did, since celebrities' messages are left out of them.
+     * @param account_id followed or unfollowed account
+     */
+    private void updateCelebrity(int account_id){
+        int[] followers = this.socialMediaDAO.selectFollowerIds(account_id, this.celebrityFollowers);
+        if (followers == null) {
+            return;
+        }
+        boolean celebrity = followers.length >= this.celebrityFollowers;
+        boolean changed = celebrity ? this.celebrities.add(account_id) : this.celebrities.remove(account_id);
+        if (changed) {
+            this.timelineStore.clear();
+        }
+    }
+    /**
+     * Merges two lists of message ids sorted newest first
+     * @return the newest limit ids of both, without repeats
+     */
+    private static int[] mergeNewestFirst(int[] a, int[] b, int limit){
+        int[] merged = new int[Math.min(limit, a.length + b.length)];
+        int i = 0;
+        int j = 0;
+        int count = 0;
+        while (count < merged.length && (i < a.length || j < b.length)) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] >= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (count == 0 || merged[count - 1] != next) {
+                merged[count++] = next;
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+    /**
+     * Updates the search index, bumps the message's versions and tells feed subscribers, called once a change
+     * is saved
+     * @param type MessageFeed.CREATED, UPDATED or DELETED
+     * @param message message after the change, null when nothing changed
+     */
+    private void messageChanged(String type, Message message){
+        if (message != null) {
+            if (this.searchIndex != null) {
+                if (MessageFeed.DELETED.equals(type)) {
+                    this.searchIndex.remove(message.getMessage_id());
+                } else {
+                    this.searchIndex.index(message);
+                }
+            }
+            this.messageVersions.changed(message);
+            if (!MessageFeed.UPDATED.equals(type)) {
+                fanOut(message, MessageFeed.CREATED.equals(type));
+            }
+            this.messageFeed.publish(type, message);
+        }
+    }
+    /**
+     * Message text must not be blank and must be under 255 characters
+     * @param message_text text to check
+     * @return true if the text can be saved
+     */
+    private boolean isValidMessageText(String message_text){
+        return message_text != null && !message_text.equals("") && message_text.length() <= 254;
+    }
 }
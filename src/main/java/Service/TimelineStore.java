@@ -0,0 +1,355 @@
+package Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed home timelines: for each account, the ids of the newest messages posted by the accounts it follows.
+ * New messages are pushed to their poster's followers as they are saved (fan-out on write), so reading a timeline
+ * is a copy out of memory instead of a join.
+ *
+ * Only timelines that have been read are kept. The first read builds one from the database, fan-out only goes to
+ * timelines already in memory, and the least recently read ones are dropped once their estimated size passes
+ * maxBytes, to be built again on their next read. Each holds at most maxLength ids, pages older than that are read
+ * from the database by the caller.
+ */
+public class TimelineStore {
+
+    //Rough bytes for a timeline besides its id array: the object, its map entry and boxed key
+    private static final int TIMELINE_OVERHEAD = 96;
+    private static final int ARRAY_HEADER = 16;
+
+    private final int maxLength;
+    private final long maxBytes;
+
+    //Guarded by this
+    private final Map<Integer, Timeline> timelines = new HashMap<>();
+    private long memoryBytes;
+    private long clock;
+
+    //Stats, guarded by this
+    private long fanOutWrites;
+    private long builds;
+    private long evictions;
+
+    /**
+     * Reads the ids of the newest messages in an account's timeline from the database
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * @param account_id account whose timeline is read
+         * @param limit most ids to return
+         * @return message ids newest first, null if they couldn't be read
+         */
+        int[] load(int account_id, int limit);
+    }
+
+    /**
+     * Creates a store set up with timeline.maxLength (default 800) ids per timeline and timeline.maxBytes
+     * (default 32 MB) for all of them
+     * @return the store
+     */
+    public static TimelineStore fromSystemProperties() {
+        return new TimelineStore(Integer.getInteger("timeline.maxLength", 800),
+                Long.getLong("timeline.maxBytes", 32L * 1024 * 1024));
+    }
+
+    /**
+     * @param maxLength most message ids kept per timeline
+     * @param maxBytes estimated bytes all timelines may use before the least recently read are dropped
+     */
+    public TimelineStore(int maxLength, long maxBytes) {
+        if (maxLength < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Invalid timeline store settings");
+        }
+        this.maxLength = maxLength;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Reads one page of an account's timeline, building it first if it isn't in memory. The database read for a
+     * build happens without holding the store's lock. Messages fanned out while it runs are kept, and messages
+     * removed while it runs stay removed even if the read saw them.
+     * @param account_id account whose timeline is read
+     * @param before_message_id only ids smaller than this are returned, Integer.MAX_VALUE for the newest
+     * @param limit most ids to return
+     * @param loader reads the timeline from the database when it has to be built
+     * @return the page, null if the timeline had to be built and the loader failed
+     */
+    public Page read(int account_id, int before_message_id, int limit, Loader loader) {
+        Timeline timeline;
+        synchronized (this) {
+            timeline = timelines.get(account_id);
+            if (timeline == null) {
+                timeline = new Timeline();
+                timelines.put(account_id, timeline);
+                memoryBytes += timeline.bytes();
+            }
+            timeline.lastRead = ++clock;
+            if (timeline.loaded) {
+                return timeline.page(before_message_id, limit);
+            }
+        }
+
+        //Not loaded yet, either new or another read is still loading it. Loading twice is harmless
+        int[] loaded = loader.load(account_id, maxLength);
+        synchronized (this) {
+            if (loaded == null) {
+                //Left for the next read to try again, unless it was dropped meanwhile
+                return null;
+            }
+            if (timeline.loaded) {
+                //Another read built it first and removes since then aren't remembered, so this read may be stale
+                return timeline.page(before_message_id, limit);
+            }
+            builds++;
+            long before = timeline.bytes();
+            timeline.merge(loaded, loaded.length < maxLength);
+            //Dropped or invalidated while loading means it isn't counted any more
+            if (timelines.get(account_id) == timeline) {
+                memoryBytes += timeline.bytes() - before;
+                evictLocked();
+            }
+            return timeline.page(before_message_id, limit);
+        }
+    }
+
+    /**
+     * Pushes a new message to the timelines of its poster's followers that are in memory
+     * @param account_ids followers of the poster
+     * @param message_id id of the new message
+     */
+    public synchronized void add(int[] account_ids, int message_id) {
+        for (int account_id : account_ids) {
+            Timeline timeline = timelines.get(account_id);
+            if (timeline != null) {
+                long before = timeline.bytes();
+                timeline.add(message_id);
+                memoryBytes += timeline.bytes() - before;
+                fanOutWrites++;
+            }
+        }
+        evictLocked();
+    }
+
+    /**
+     * Takes a deleted message out of the timelines of its poster's followers
+     * @param account_ids followers of the poster
+     * @param message_id id of the deleted message
+     */
+    public synchronized void remove(int[] account_ids, int message_id) {
+        for (int account_id : account_ids) {
+            Timeline timeline = timelines.get(account_id);
+            if (timeline != null) {
+                timeline.remove(message_id);
+            }
+        }
+    }
+
+    /**
+     * Drops an account's timeline so it is built again on its next read, such as after it follows someone new
+     * @param account_id account whose timeline changed
+     */
+    public synchronized void invalidate(int account_id) {
+        Timeline timeline = timelines.remove(account_id);
+        if (timeline != null) {
+            memoryBytes -= timeline.bytes();
+        }
+    }
+
+    /**
+     * Drops every timeline, such as when an account stops or starts being fanned out
+     */
+    public synchronized void clear() {
+        timelines.clear();
+        memoryBytes = 0;
+    }
+
+    /**
+     * @return timelines in memory
+     */
+    public synchronized int size() {
+        return timelines.size();
+    }
+
+    /**
+     * @return estimated bytes used by the timelines in memory
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return message ids pushed to timelines in memory
+     */
+    public synchronized long getFanOutWrites() {
+        return fanOutWrites;
+    }
+
+    /**
+     * @return timelines built from the database
+     */
+    public synchronized long getBuilds() {
+        return builds;
+    }
+
+    /**
+     * @return timelines dropped to stay under maxBytes
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Drops the least recently read timelines until the rest fit in 90% of maxBytes, so the next few pushes
+     * don't each have to evict again. The timeline read last is always kept.
+     */
+    private void evictLocked() {
+        if (memoryBytes <= maxBytes || timelines.size() < 2) {
+            return;
+        }
+        List<Map.Entry<Integer, Timeline>> oldestFirst = new ArrayList<>(timelines.entrySet());
+        oldestFirst.sort(Comparator.comparingLong(entry -> entry.getValue().lastRead));
+        long target = maxBytes - maxBytes / 10;
+        for (int i = 0; i < oldestFirst.size() - 1 && memoryBytes > target; i++) {
+            timelines.remove(oldestFirst.get(i).getKey());
+            memoryBytes -= oldestFirst.get(i).getValue().bytes();
+            evictions++;
+        }
+    }
+
+    /**
+     * One page of a timeline
+     */
+    public static class Page {
+        private final int[] message_ids;
+        private final boolean complete;
+
+        Page(int[] message_ids, boolean complete) {
+            this.message_ids = message_ids;
+            this.complete = complete;
+        }
+
+        /**
+         * @return message ids newest first
+         */
+        public int[] getMessage_ids() {
+            return message_ids;
+        }
+
+        /**
+         * @return false if the page is short because the timeline dropped older ids, so the rest of it has to be
+         * read from the database
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    /**
+     * Message ids of one account's timeline sorted oldest first, so new messages append. Only used while holding
+     * the store's lock.
+     */
+    private class Timeline {
+        int[] ids = new int[0];
+        int size;
+        //Set once the ids have been read from the database
+        boolean loaded;
+        //True while nothing older than ids[0] has been dropped
+        boolean complete = true;
+        long lastRead;
+        //Ids removed before the timeline was loaded, which the load may still have read. Null when there are none
+        HashSet<Integer> removedWhileLoading;
+
+        long bytes() {
+            return TIMELINE_OVERHEAD + ARRAY_HEADER + 4L * ids.length;
+        }
+
+        /**
+         * Adds an id in order. Ids are handed out in order so this is nearly always an append.
+         */
+        void add(int message_id) {
+            int at = Arrays.binarySearch(ids, 0, size, message_id);
+            if (at >= 0) {
+                return;
+            }
+            at = -at - 1;
+            if (size == maxLength) {
+                complete = false;
+                if (at == 0) {
+                    //Older than everything kept
+                    return;
+                }
+                //Drops the oldest to make room
+                System.arraycopy(ids, 1, ids, 0, at - 1);
+                ids[at - 1] = message_id;
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, Math.min(maxLength, Math.max(8, size * 2)));
+            }
+            System.arraycopy(ids, at, ids, at + 1, size - at);
+            ids[at] = message_id;
+            size++;
+        }
+
+        void remove(int message_id) {
+            if (!loaded) {
+                if (removedWhileLoading == null) {
+                    removedWhileLoading = new HashSet<>();
+                }
+                removedWhileLoading.add(message_id);
+            }
+            int at = Arrays.binarySearch(ids, 0, size, message_id);
+            if (at >= 0) {
+                System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+                size--;
+            }
+        }
+
+        /**
+         * Merges ids read from the database with any pushed while they were read, leaving out any removed while
+         * they were read
+         * @param newestFirst ids from the loader
+         * @param all true if the loader returned every id the timeline has
+         */
+        void merge(int[] newestFirst, boolean all) {
+            for (int i = newestFirst.length - 1; i >= 0; i--) {
+                if (removedWhileLoading == null || !removedWhileLoading.contains(newestFirst[i])) {
+                    add(newestFirst[i]);
+                }
+            }
+            complete = complete && all;
+            loaded = true;
+            removedWhileLoading = null;
+        }
+
+        Page page(int before_message_id, int limit) {
+            //Last position with an id smaller than the cursor
+            int end = Arrays.binarySearch(ids, 0, size, before_message_id);
+            end = end >= 0 ? end : -end - 1;
+            int count = Math.min(limit, end);
+            int[] page = new int[count];
+            for (int i = 0; i < count; i++) {
+                page[i] = ids[end - 1 - i];
+            }
+            //Short because it ran out of ids, and older ones were dropped
+            return new Page(page, count == limit || complete);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of jdbc connections to the same h2 database that ConnectionUtil sets up.
+ * DAO methods borrow a connection per operation and hand it back when they are done, so request threads
+ * no longer line up behind the one static connection in ConnectionUtil.
+ *
+ * Sizes and timeouts can be changed with system properties:
+ * pool.minSize, pool.maxSize, pool.idleTimeoutMs, pool.acquireTimeoutMs and pool.statementCacheSize
+ */
+public class ConnectionPool {
+
+    //Same connection string and credentials as ConnectionUtil
+    private static final String URL = "jdbc:h2:./h2/db";
+    private static final String USERNAME = "sa";
+    private static final String PASSWORD = "sa";
+
+    //Shared instance so every DAO borrows from the same pool
+    private static ConnectionPool instance = null;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final long acquireTimeoutMillis;
+    private final int statementCacheSize;
+
+    //Idle connections, most recently returned first so the oldest ones sit at the tail for eviction
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+
+    //One permit per connection that may be handed out
+    private final Semaphore permits;
+
+    //Connections currently open, idle or borrowed
+    private final AtomicInteger openCount = new AtomicInteger();
+
+    //Metrics
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong acquireTimeouts = new AtomicLong();
+    private final AtomicLong acquireWaitNanos = new AtomicLong();
+    private final AtomicLong maxAcquireWaitNanos = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * @param minSize number of connections kept open even when idle
+     * @param maxSize most connections that can be borrowed at once
+     * @param idleTimeoutMillis how long a connection above minSize may sit idle before it is closed
+     * @param acquireTimeoutMillis how long borrow waits for a free connection before giving up
+     * @param statementCacheSize most prepared statements each connection keeps open, at least 1
+     */
+    public ConnectionPool(int minSize, int maxSize, long idleTimeoutMillis, long acquireTimeoutMillis,
+            int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size min=" + minSize + " max=" + maxSize);
+        }
+        //The cache closes whatever it evicts, a size below 1 would close each statement as soon as it is prepared
+        if (statementCacheSize < 1) {
+            throw new IllegalArgumentException("Invalid statement cache size " + statementCacheSize);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        //Warm up the minimum number of connections
+        for (int i = 0; i < minSize; i++) {
+            try {
+                idle.addLast(create());
+            } catch (SQLException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        //Background thread that closes connections that have been idle too long
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConnectionPool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the shared pool, created on first use from the pool.* system properties
+     */
+    public static synchronized ConnectionPool getInstance() {
+        if (instance == null) {
+            //Makes sure ConnectionUtil has created the tables before any pooled connection uses them
+            ConnectionUtil.getConnection();
+            instance = new ConnectionPool(
+                Integer.getInteger("pool.minSize", 2),
+                Integer.getInteger("pool.maxSize", Math.max(4, Runtime.getRuntime().availableProcessors() * 2)),
+                Long.getLong("pool.idleTimeoutMs", 60_000L),
+                Long.getLong("pool.acquireTimeoutMs", 5_000L),
+                Integer.getInteger("pool.statementCacheSize", 32));
+        }
+        return instance;
+    }
+
+    /**
+     * Borrows a connection, waiting up to the acquire timeout if all of them are in use.
+     * Close the returned object to give the connection back.
+     *
+     * @return a connection for the caller to use
+     * @throws SQLException if no connection frees up in time or a new one can't be opened
+     */
+    public PooledConnection borrow() throws SQLException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        acquireCount.incrementAndGet();
+        acquireWaitNanos.addAndGet(waited);
+        maxAcquireWaitNanos.accumulateAndGet(waited, Math::max);
+
+        if (!acquired) {
+            acquireTimeouts.incrementAndGet();
+            throw new SQLException("Timed out after " + acquireTimeoutMillis + "ms waiting for a connection");
+        }
+
+        //Holding a permit, so either reuse an idle connection or open a new one
+        try {
+            PooledConnection pooled = idle.pollFirst();
+            if (pooled == null) {
+                pooled = create();
+            }
+            pooled.markBorrowed();
+            return pooled;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a borrowed connection back. Broken connections are closed instead of being reused.
+     * @param pooled connection returned by borrow
+     */
+    void release(PooledConnection pooled) {
+        try {
+            Connection connection = pooled.getConnection();
+            if (connection.isClosed()) {
+                discard(pooled);
+            } else {
+                //Undo anything a caller left behind so the next borrower gets a clean session
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                pooled.markReturned();
+                idle.addFirst(pooled);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            discard(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        Connection connection = DriverManager.getConnection(URL, USERNAME, PASSWORD);
+        openCount.incrementAndGet();
+        createdCount.incrementAndGet();
+        return new PooledConnection(connection, this, statementCacheSize);
+    }
+
+    private void discard(PooledConnection pooled) {
+        openCount.decrementAndGet();
+        pooled.closePhysical();
+    }
+
+    /**
+     * Closes connections that have been idle longer than the idle timeout, keeping at least minSize open
+     */
+    void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext() && openCount.get() > minSize) {
+            PooledConnection pooled = oldestFirst.next();
+            if (now - pooled.getLastReturnedNanos() < idleTimeoutNanos) {
+                //Everything closer to the head was returned more recently
+                break;
+            }
+            //Only evict if no borrower grabbed it in the meantime
+            if (idle.removeLastOccurrence(pooled)) {
+                evictedCount.incrementAndGet();
+                discard(pooled);
+            }
+        }
+    }
+
+    void recordStatementHit() {
+        statementHits.incrementAndGet();
+    }
+
+    void recordStatementMiss() {
+        statementMisses.incrementAndGet();
+    }
+
+    void recordStatementEviction() {
+        statementEvictions.incrementAndGet();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getOpenCount() {
+        return openCount.get();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getBorrowedCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    public long getAcquireTimeouts() {
+        return acquireTimeouts.get();
+    }
+
+    public long getAcquireWaitNanos() {
+        return acquireWaitNanos.get();
+    }
+
+    public long getMaxAcquireWaitNanos() {
+        return maxAcquireWaitNanos.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    public long getStatementHits() {
+        return statementHits.get();
+    }
+
+    public long getStatementMisses() {
+        return statementMisses.get();
+    }
+
+    public long getStatementEvictions() {
+        return statementEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "open=" + getOpenCount() +
+                ", idle=" + getIdleCount() +
+                ", borrowed=" + getBorrowedCount() +
+                ", acquires=" + getAcquireCount() +
+                ", acquireTimeouts=" + getAcquireTimeouts() +
+                ", maxAcquireWaitMs=" + TimeUnit.NANOSECONDS.toMillis(getMaxAcquireWaitNanos()) +
+                ", created=" + getCreatedCount() +
+                ", evicted=" + getEvictedCount() +
+                ", statementHits=" + getStatementHits() +
+                ", statementMisses=" + getStatementMisses() +
+                ", statementEvictions=" + getStatementEvictions() +
+                '}';
+    }
+}
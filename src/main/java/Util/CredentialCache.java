@@ -0,0 +1,137 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers username and password pairs that were verified recently so a client that logs in again within the
+ * time to live skips the slow password hash. Passwords are never kept, only a salted SHA-256 of the pair with a
+ * salt that is made fresh for each cache and never leaves memory.
+ *
+ * Entries expire after the time to live, and the cache stops taking new entries once it is full until expired
+ * ones are swept out. A time to live of 0 turns the cache off.
+ */
+public class CredentialCache {
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final byte[] salt = new byte[16];
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    //Stats
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param ttlMillis how long a verified login is remembered, 0 to turn the cache off
+     * @param maxSize most logins remembered at once
+     */
+    public CredentialCache(long ttlMillis, int maxSize) {
+        if (ttlMillis < 0 || maxSize < 1) {
+            throw new IllegalArgumentException("Invalid credential cache settings");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxSize = maxSize;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * @param username username from the login
+     * @param password password from the login
+     * @return the account_id if this pair was verified within the time to live, otherwise -1
+     */
+    public int get(String username, String password) {
+        if (ttlNanos == 0) {
+            return -1;
+        }
+        Entry entry = entries.get(username);
+        if (entry != null && System.nanoTime() - entry.verifiedNanos < ttlNanos
+                && MessageDigest.isEqual(entry.digest, digest(username, password))) {
+            hits.incrementAndGet();
+            return entry.account_id;
+        }
+        misses.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * Remembers a pair that was just verified
+     * @param username username from the login
+     * @param password password that was verified
+     * @param account_id id of the account it belongs to
+     */
+    public void put(String username, String password, int account_id) {
+        if (ttlNanos == 0) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            sweep();
+            if (entries.size() >= maxSize) {
+                return;
+            }
+        }
+        entries.put(username, new Entry(account_id, digest(username, password), System.nanoTime()));
+    }
+
+    /**
+     * Forgets the username, call when its password changes or the account is deleted
+     * @param username username to forget
+     */
+    public void invalidate(String username) {
+        entries.remove(username);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes expired entries
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> now - entry.verifiedNanos >= ttlNanos);
+    }
+
+    private byte[] digest(String username, String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(salt);
+            sha.update(username.getBytes(StandardCharsets.UTF_8));
+            //Separator so "ab"+"c" and "a"+"bc" don't collide
+            sha.update((byte) 0);
+            sha.update(password.getBytes(StandardCharsets.UTF_8));
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * One verified login
+     */
+    private static class Entry {
+        final int account_id;
+        final byte[] digest;
+        final long verifiedNanos;
+
+        Entry(int account_id, byte[] digest, long verifiedNanos) {
+            this.account_id = account_id;
+            this.digest = digest;
+            this.verifiedNanos = verifiedNanos;
+        }
+    }
+}
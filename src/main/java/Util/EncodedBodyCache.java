@@ -0,0 +1,152 @@
+package Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of response bodies that are already encoded, and gzipped when they are big enough, for lists that are
+ * read far more often than they change. Each entry is tagged with the version of the data it was built from, so
+ * a list is encoded and compressed once per change instead of once per request. Only the newest version of each
+ * list is kept, and the least recently used lists are evicted once there are maxEntries of them.
+ */
+public class EncodedBodyCache {
+
+    private final ReadThroughCache<String, EncodedBody> bodies;
+    private final int gzipLevel;
+    private final int minGzipSize;
+
+    //Stats
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+
+    /**
+     * @param maxEntries most lists kept at once
+     * @param gzipLevel deflate level, 1 is fastest and 9 is smallest
+     * @param minGzipSize bodies smaller than this many bytes aren't compressed
+     */
+    public EncodedBodyCache(int maxEntries, int gzipLevel, int minGzipSize) {
+        if (gzipLevel < 1 || gzipLevel > 9 || minGzipSize < 0) {
+            throw new IllegalArgumentException("Invalid encoded body cache settings");
+        }
+        this.bodies = new ReadThroughCache<>(maxEntries);
+        this.gzipLevel = gzipLevel;
+        this.minGzipSize = minGzipSize;
+    }
+
+    /**
+     * Returns the list's body for a version, encoding and compressing it if the cached one is older or missing
+     * @param key name of the list, such as messages or accounts/1/messages
+     * @param version version the caller read before the data, see Service.MessageVersions
+     * @param encoder reads and encodes the list, returns null if it couldn't be read
+     * @return the body, null if the encoder returned null
+     */
+    public EncodedBody get(String key, long version, Supplier<byte[]> encoder) {
+        //Set when this call built the body, so its own miss isn't also counted as a hit
+        boolean[] built = new boolean[1];
+        EncodedBody body = bodies.get(key, k -> {
+            built[0] = true;
+            return encode(version, encoder);
+        });
+        if (body != null && body.version >= version) {
+            if (!built[0]) {
+                hits.incrementAndGet();
+            }
+            return body;
+        }
+        if (built[0]) {
+            //Just tried and the encoder failed
+            bodies.invalidate(key);
+            return null;
+        }
+        //Older version, or a failed read that got cached as missing
+        bodies.invalidate(key);
+        return bodies.get(key, k -> encode(version, encoder));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos.get();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    public int size() {
+        return bodies.size();
+    }
+
+    private EncodedBody encode(long version, Supplier<byte[]> encoder) {
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        byte[] raw = encoder.get();
+        long encoded = System.nanoTime();
+        encodeNanos.addAndGet(encoded - start);
+        if (raw == null) {
+            return null;
+        }
+        byte[] gzipped = raw.length >= minGzipSize ? gzip(raw) : null;
+        compressNanos.addAndGet(System.nanoTime() - encoded);
+        return new EncodedBody(version, raw, gzipped);
+    }
+
+    private byte[] gzip(byte[] raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(gzipLevel);
+            }
+        }) {
+            gzip.write(raw);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * One encoded list at one version
+     */
+    public static class EncodedBody {
+        private final long version;
+        private final byte[] raw;
+        private final byte[] gzipped;
+
+        EncodedBody(long version, byte[] raw, byte[] gzipped) {
+            this.version = version;
+            this.raw = raw;
+            this.gzipped = gzipped;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the encoded body without compression
+         */
+        public byte[] getRaw() {
+            return raw;
+        }
+
+        /**
+         * @return the body gzipped, null if it was too small to be worth compressing
+         */
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+    }
+}
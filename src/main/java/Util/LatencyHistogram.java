@@ -0,0 +1,82 @@
+package Util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe latency histogram with fixed buckets, plus an error count. Recording only does a short scan of the
+ * bucket bounds and a couple of atomic adds, nothing is allocated, so it can sit on every request and every sql
+ * statement.
+ *
+ * Bucket bounds are the same for every histogram so they line up in Prometheus queries.
+ */
+public class LatencyHistogram {
+
+    //Upper bound of each bucket in seconds, as written to the le label. Anything slower goes in the +Inf bucket.
+    static final double[] BUCKET_SECONDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    //Same bounds in nanoseconds for recording
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    //Count per bucket, not cumulative, the last slot is +Inf
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NANOS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * @param nanos how long the operation took
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Counts a failed operation. Its time is recorded separately with record.
+     */
+    public void recordError() {
+        errors.increment();
+    }
+
+    /**
+     * @return operations recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @return count per bucket, not cumulative, with +Inf last
+     */
+    long[] snapshotBuckets() {
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,266 @@
+package Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process wide request and sql statement metrics, written out in the Prometheus text format.
+ *
+ * Requests are kept per method and route pattern (like /messages/{message_id}, not the actual path) so the
+ * number of series stays fixed. Statements are kept per sql text, which is always a constant in the DAO.
+ * After the first request to a route or the first run of a statement, recording finds its entry without
+ * allocating anything.
+ */
+public class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    //method -> route -> metrics, two levels so the lookup key never has to be built per request
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, RouteMetrics>> routes = new ConcurrentHashMap<>();
+    //sql text -> metrics
+    private final ConcurrentHashMap<String, LatencyHistogram> statements = new ConcurrentHashMap<>();
+
+    /**
+     * @return the shared metrics
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records one finished http request
+     * @param method http method
+     * @param route route pattern that handled the request
+     * @param status response status
+     * @param nanos time from the request arriving to the response being ready
+     */
+    public void recordRequest(String method, String route, int status, long nanos) {
+        ConcurrentHashMap<String, RouteMetrics> byRoute = routes.get(method);
+        if (byRoute == null) {
+            byRoute = routes.computeIfAbsent(method, key -> new ConcurrentHashMap<>());
+        }
+        RouteMetrics metrics = byRoute.get(route);
+        if (metrics == null) {
+            metrics = byRoute.computeIfAbsent(route, key -> new RouteMetrics());
+        }
+        metrics.record(status, nanos);
+    }
+
+    /**
+     * @param sql sql text of the statement
+     * @return the histogram for the statement, created the first time it is asked for
+     */
+    public LatencyHistogram statement(String sql) {
+        LatencyHistogram histogram = statements.get(sql);
+        if (histogram == null) {
+            histogram = statements.computeIfAbsent(sql, key -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    /**
+     * @param method http method
+     * @param route route pattern
+     * @return metrics for the route, null if it hasn't had a request yet
+     */
+    public RouteMetrics getRoute(String method, String route) {
+        ConcurrentHashMap<String, RouteMetrics> byRoute = routes.get(method);
+        return byRoute == null ? null : byRoute.get(route);
+    }
+
+    /**
+     * Writes every request and statement metric in the Prometheus text format
+     * @param out where the text is appended
+     */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# HELP http_requests_total Finished http requests by route and status class.\n");
+        out.append("# TYPE http_requests_total counter\n");
+        for (Map.Entry<String, ConcurrentHashMap<String, RouteMetrics>> byMethod : routes.entrySet()) {
+            for (Map.Entry<String, RouteMetrics> byRoute : byMethod.getValue().entrySet()) {
+                String labels = "method=\"" + escape(byMethod.getKey()) + "\",route=\"" + escape(byRoute.getKey()) + "\"";
+                AtomicLongArray statusClasses = byRoute.getValue().statusClasses;
+                for (int i = 0; i < statusClasses.length(); i++) {
+                    long count = statusClasses.get(i);
+                    if (count > 0) {
+                        out.append("http_requests_total{").append(labels).append(",status=\"").append(i + 1)
+                            .append("xx\"} ").append(count).append('\n');
+                    }
+                }
+            }
+        }
+
+        out.append("# HELP http_request_errors_total Http requests answered with a 5xx or an unhandled exception.\n");
+        out.append("# TYPE http_request_errors_total counter\n");
+        for (Map.Entry<String, ConcurrentHashMap<String, RouteMetrics>> byMethod : routes.entrySet()) {
+            for (Map.Entry<String, RouteMetrics> byRoute : byMethod.getValue().entrySet()) {
+                out.append("http_request_errors_total{method=\"").append(escape(byMethod.getKey()))
+                    .append("\",route=\"").append(escape(byRoute.getKey())).append("\"} ")
+                    .append(byRoute.getValue().latency.getErrors()).append('\n');
+            }
+        }
+
+        out.append("# HELP http_request_duration_seconds Time to handle an http request by route.\n");
+        out.append("# TYPE http_request_duration_seconds histogram\n");
+        for (Map.Entry<String, ConcurrentHashMap<String, RouteMetrics>> byMethod : routes.entrySet()) {
+            for (Map.Entry<String, RouteMetrics> byRoute : byMethod.getValue().entrySet()) {
+                writeHistogram(out, "http_request_duration_seconds",
+                    "method=\"" + escape(byMethod.getKey()) + "\",route=\"" + escape(byRoute.getKey()) + "\"",
+                    byRoute.getValue().latency);
+            }
+        }
+
+        out.append("# HELP sql_statement_errors_total Sql statements that failed.\n");
+        out.append("# TYPE sql_statement_errors_total counter\n");
+        for (Map.Entry<String, LatencyHistogram> statement : statements.entrySet()) {
+            out.append("sql_statement_errors_total{statement=\"").append(escape(statement.getKey())).append("\"} ")
+                .append(statement.getValue().getErrors()).append('\n');
+        }
+
+        out.append("# HELP sql_statement_duration_seconds Time from preparing a sql statement to returning its connection.\n");
+        out.append("# TYPE sql_statement_duration_seconds histogram\n");
+        for (Map.Entry<String, LatencyHistogram> statement : statements.entrySet()) {
+            writeHistogram(out, "sql_statement_duration_seconds",
+                "statement=\"" + escape(statement.getKey()) + "\"", statement.getValue());
+        }
+    }
+
+    /**
+     * Writes a single gauge with its help and type lines
+     * @param out where the text is appended
+     * @param name metric name
+     * @param help one line description
+     * @param value current value
+     */
+    public static void writeGauge(StringBuilder out, String name, String help, double value) {
+        writeSingle(out, name, help, "gauge", value);
+    }
+
+    /**
+     * Writes a single counter with its help and type lines
+     * @param out where the text is appended
+     * @param name metric name, ending in _total
+     * @param help one line description
+     * @param value count so far
+     */
+    public static void writeCounter(StringBuilder out, String name, String help, double value) {
+        writeSingle(out, name, help, "counter", value);
+    }
+
+    /**
+     * Writes the connection pool's state and counters
+     * @param out where the text is appended
+     * @param pool pool to describe
+     */
+    public static void writePool(StringBuilder out, ConnectionPool pool) {
+        writeGauge(out, "db_pool_connections_open", "Connections the pool has open.", pool.getOpenCount());
+        writeGauge(out, "db_pool_connections_idle", "Open connections waiting to be borrowed.", pool.getIdleCount());
+        writeGauge(out, "db_pool_connections_borrowed", "Connections borrowed right now.", pool.getBorrowedCount());
+        writeCounter(out, "db_pool_acquire_total", "Connections borrowed.", pool.getAcquireCount());
+        writeCounter(out, "db_pool_acquire_timeouts_total", "Borrows that gave up waiting.", pool.getAcquireTimeouts());
+        writeCounter(out, "db_pool_acquire_wait_seconds_total", "Time spent waiting to borrow.",
+            pool.getAcquireWaitNanos() / 1e9);
+        writeCounter(out, "db_pool_statement_cache_hits_total", "Prepared statements reused from a connection's cache.",
+            pool.getStatementHits());
+        writeCounter(out, "db_pool_statement_cache_misses_total", "Prepared statements that had to be prepared.",
+            pool.getStatementMisses());
+    }
+
+    /**
+     * Writes a read-through cache's size and counters
+     * @param out where the text is appended
+     * @param name cache name used as the metric prefix, such as message_cache
+     * @param cache cache to describe
+     */
+    public static void writeCache(StringBuilder out, String name, ReadThroughCache<?, ?> cache) {
+        writeGauge(out, name + "_size", "Entries in the cache.", cache.size());
+        writeCounter(out, name + "_hits_total", "Lookups answered from the cache.", cache.getHits());
+        writeCounter(out, name + "_misses_total", "Lookups that had to load.", cache.getMisses());
+        writeCounter(out, name + "_evictions_total", "Entries evicted to stay under the max size.", cache.getEvictions());
+        writeCounter(out, name + "_load_seconds_total", "Time spent loading on misses.", cache.getLoadNanos() / 1e9);
+    }
+
+    private static void writeSingle(StringBuilder out, String name, String help, String type, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ');
+        //Whole numbers without a trailing .0, Prometheus reads both
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Writes the cumulative buckets, sum and count of a histogram
+     */
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] buckets = histogram.snapshotBuckets();
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKET_SECONDS.length; i++) {
+            cumulative += buckets[i];
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                .append(LatencyHistogram.BUCKET_SECONDS[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[buckets.length - 1];
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ")
+            .append(histogram.getSumNanos() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+    /**
+     * Escapes a label value, sql text can hold quotes and line breaks
+     */
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Latency and status counts for one route
+     */
+    public static class RouteMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        //Count per status class, 1xx to 5xx
+        final AtomicLongArray statusClasses = new AtomicLongArray(5);
+
+        void record(int status, long nanos) {
+            latency.record(nanos);
+            int statusClass = status / 100;
+            if (statusClass >= 1 && statusClass <= 5) {
+                statusClasses.incrementAndGet(statusClass - 1);
+            }
+            if (status >= 500) {
+                latency.recordError();
+            }
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @param statusClass 1 to 5 for 1xx to 5xx
+         * @return requests answered with a status in that class
+         */
+        public long getStatusClassCount(int statusClass) {
+            return statusClasses.get(statusClass - 1);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package Util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Hashes and checks passwords with PBKDF2-HMAC-SHA256. The work factor is the log2 of the iteration count,
+ * so each step up doubles the cost of a hash, and it is stored with every hash so it can be raised later
+ * without breaking existing accounts.
+ *
+ * Stored format: pbkdf2$workFactor$salt$hash with salt and hash in base64.
+ *
+ * Hashing runs on a small dedicated pool of threads with a bounded queue, so a burst of logins can only use that
+ * many cores and request threads never end up doing the hashing themselves. When the queue is full the call is
+ * rejected with a RejectedExecutionException instead of waiting.
+ *
+ * Settings are system properties:
+ *  password.workFactor     log2 of the iteration count, default 16
+ *  password.threads        hashing threads, default the number of cpus
+ *  password.queueCapacity  hashes waiting for a thread before new ones are rejected, default 1000
+ */
+public class PasswordHasher {
+
+    private static PasswordHasher instance;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int workFactor;
+    private final ThreadPoolExecutor executor;
+    private final SecureRandom random = new SecureRandom();
+    //Checked against when the username doesn't exist, so unknown and known users cost the same
+    private final String dummyHash;
+
+    //Stats
+    private final AtomicLong hashes = new AtomicLong();
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong hashNanos = new AtomicLong();
+
+    /**
+     * @return the shared hasher, built from system properties the first time it is asked for
+     */
+    public static synchronized PasswordHasher getInstance() {
+        if (instance == null) {
+            instance = new PasswordHasher(
+                Integer.getInteger("password.workFactor", 16),
+                Integer.getInteger("password.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("password.queueCapacity", 1000));
+        }
+        return instance;
+    }
+
+    /**
+     * @param workFactor log2 of the PBKDF2 iteration count, 4 to 30
+     * @param threads threads that do the hashing
+     * @param queueCapacity hashes that can wait for a thread before new ones are rejected
+     */
+    public PasswordHasher(int workFactor, int threads, int queueCapacity) {
+        if (workFactor < 4 || workFactor > 30 || threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid password hasher settings");
+        }
+        this.workFactor = workFactor;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), task -> {
+                Thread thread = new Thread(task, "password-hasher-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        //Threads go away when nobody is logging in
+        this.executor.allowCoreThreadTimeOut(true);
+
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        this.dummyHash = format(workFactor, salt, pbkdf2("dummy password".toCharArray(), salt, workFactor));
+    }
+
+    /**
+     * Hashes a password with a new random salt
+     * @param password plaintext password
+     * @return the stored form of the hash
+     * @throws RejectedExecutionException if too many hashes are already waiting
+     */
+    public String hash(String password) {
+        return run(() -> {
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            return format(workFactor, salt, pbkdf2(password.toCharArray(), salt, workFactor));
+        });
+    }
+
+    /**
+     * Checks a password against its stored form. Stored values that aren't hashes are compared as plaintext,
+     * they come from accounts made before passwords were hashed.
+     * @param password plaintext password to check
+     * @param stored stored form of the password
+     * @return true if the password matches, false if it doesn't or the stored hash is malformed
+     * @throws RejectedExecutionException if too many hashes are already waiting
+     */
+    public boolean verify(String password, String stored) {
+        verifications.incrementAndGet();
+        if (!stored.startsWith(PREFIX + "$")) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        int storedWorkFactor;
+        byte[] salt;
+        byte[] expected;
+        try {
+            storedWorkFactor = Integer.parseInt(parts[1]);
+            salt = Base64.getDecoder().decode(parts[2]);
+            expected = Base64.getDecoder().decode(parts[3]);
+        } catch (IllegalArgumentException e) {
+            //Covers NumberFormatException too, a damaged hash is a failed login rather than an error
+            System.out.println("Malformed password hash: " + e.getMessage());
+            return false;
+        }
+        //Same range the constructor allows, and 1 << 31 or more would overflow the iteration count
+        if (storedWorkFactor < 4 || storedWorkFactor > 30 || salt.length == 0 || expected.length == 0) {
+            System.out.println("Malformed password hash");
+            return false;
+        }
+        byte[] actual = run(() -> pbkdf2(password.toCharArray(), salt, storedWorkFactor));
+        //Compares every byte so the time taken doesn't show how much matched
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    /**
+     * Spends the same time as checking a real password, for logins with a username that doesn't exist
+     * @param password plaintext password from the login
+     * @throws RejectedExecutionException if too many hashes are already waiting
+     */
+    public void verifyDummy(String password) {
+        verify(password, dummyHash);
+    }
+
+    /**
+     * @param stored stored form of a password
+     * @return true if it is plaintext or was hashed with a different work factor, so it should be hashed again
+     * the next time the password is known
+     */
+    public boolean needsRehash(String stored) {
+        return !stored.startsWith(PREFIX + "$" + workFactor + "$");
+    }
+
+    public int getWorkFactor() {
+        return workFactor;
+    }
+
+    public long getHashes() {
+        return hashes.get();
+    }
+
+    public long getVerifications() {
+        return verifications.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getHashNanos() {
+        return hashNanos.get();
+    }
+
+    /**
+     * @return hashes waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Runs hashing work on the hashing threads and waits for it
+     */
+    private <T> T run(Callable<T> work) {
+        try {
+            return executor.submit(work).get();
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Hashing failed", e.getCause());
+        }
+    }
+
+    private byte[] pbkdf2(char[] password, byte[] salt, int workFactor) {
+        long start = System.nanoTime();
+        try {
+            KeySpec spec = new PBEKeySpec(password, salt, 1 << workFactor, HASH_BITS);
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            hashes.incrementAndGet();
+            hashNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private static String format(int workFactor, byte[] salt, byte[] hash) {
+        return PREFIX + "$" + workFactor + "$" + Base64.getEncoder().encodeToString(salt) + "$"
+            + Base64.getEncoder().encodeToString(hash);
+    }
+}
@@ -0,0 +1,135 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection that was borrowed from the ConnectionPool. Closing it hands the connection back to the pool
+ * instead of closing the jdbc session, so DAO methods can borrow with a try-with-resources block.
+ */
+public class PooledConnection implements AutoCloseable {
+
+    //The real jdbc connection this wraps
+    private final Connection connection;
+
+    //Pool the connection goes back to on close
+    private final ConnectionPool pool;
+
+    //Prepared statements kept open on this connection
+    private final StatementCache statementCache;
+
+    //Last time this connection was handed back, used for idle eviction
+    private volatile long lastReturnedNanos;
+
+    //True once the borrower has closed it, so closing it again doesn't hand it back twice
+    private final AtomicBoolean returned = new AtomicBoolean();
+
+    //Timing of the statement prepared last, recorded when the next one is prepared or the connection is returned.
+    //Only the borrower touches these.
+    private LatencyHistogram statementLatency;
+    private long statementStartNanos;
+
+    PooledConnection(Connection connection, ConnectionPool pool, int statementCacheSize) {
+        this.connection = connection;
+        this.pool = pool;
+        this.statementCache = new StatementCache(connection, pool, statementCacheSize);
+        this.lastReturnedNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the underlying jdbc connection. Do not close it directly, close this object instead.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Gets a prepared statement for the sql from this connection's statement cache.
+     * Do not close the statement, it stays open for the next caller. Close the ResultSet instead.
+     *
+     * @param sql sql text with ? placeholders
+     * @return a cached or newly prepared statement
+     * @throws SQLException if the sql can't be prepared
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        startTiming(sql);
+        return statementCache.prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    /**
+     * Same as prepareStatement(String) for statements that need to return generated keys
+     *
+     * @param sql sql text with ? placeholders
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     * @return a cached or newly prepared statement
+     * @throws SQLException if the sql can't be prepared
+     */
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        startTiming(sql);
+        return statementCache.prepare(sql, autoGeneratedKeys);
+    }
+
+    /**
+     * Statement time runs from prepare until the next prepare or the connection is returned, which covers
+     * executing it and reading its results
+     */
+    private void startTiming(String sql) {
+        finishTiming();
+        statementLatency = Metrics.getInstance().statement(sql);
+        statementStartNanos = System.nanoTime();
+    }
+
+    private void finishTiming() {
+        if (statementLatency != null) {
+            statementLatency.record(System.nanoTime() - statementStartNanos);
+            statementLatency = null;
+        }
+    }
+
+    public int getCachedStatementCount() {
+        return statementCache.size();
+    }
+
+    long getLastReturnedNanos() {
+        return lastReturnedNanos;
+    }
+
+    void markReturned() {
+        this.lastReturnedNanos = System.nanoTime();
+    }
+
+    /**
+     * Called by the pool each time the connection is handed out, so the new borrower's close returns it
+     */
+    void markBorrowed() {
+        returned.set(false);
+    }
+
+    /**
+     * Closes the real jdbc connection. Only the pool calls this when it evicts or discards a connection.
+     */
+    void closePhysical() {
+        statementCache.closeAll();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the connection to the pool it was borrowed from. Closing it again does nothing, same as
+     * Connection.close.
+     */
+    @Override
+    public void close() {
+        if (!returned.compareAndSet(false, true)) {
+            return;
+        }
+        finishTiming();
+        pool.release(this);
+    }
+}
@@ -0,0 +1,203 @@
+package Util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread safe read-through cache. Values are loaded on a miss and the least recently used entry is evicted
+ * once the cache is full. Missing values (loader returns null) are cached too so repeated lookups of ids that don't
+ * exist stay off the database.
+ *
+ * The cache is split into segments, each an access ordered LinkedHashMap behind its own lock, so threads
+ * reading different keys rarely wait on each other.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ReadThroughCache<K, V> {
+
+    //Stored in place of null so a cached miss can be told apart from a key that isn't cached
+    private static final Object NULL_VALUE = new Object();
+
+    private final Segment<K>[] segments;
+
+    //Stats
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong maxLoadNanos = new AtomicLong();
+
+    /**
+     * @param maxSize most entries kept across all segments
+     */
+    @SuppressWarnings("unchecked")
+    public ReadThroughCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid cache size " + maxSize);
+        }
+        //Power of two segment count so the hash can be masked, small caches get a single segment
+        int segmentCount = Integer.highestOneBit(Math.max(1, Math.min(16, maxSize / 64)));
+        this.segments = (Segment<K>[]) new Segment<?>[segmentCount];
+        int perSegment = Math.max(1, maxSize / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(perSegment, evictions);
+        }
+    }
+
+    /**
+     * Returns the cached value for the key, or loads, caches and returns it on a miss
+     * @param key key to look up
+     * @param loader loads the value on a miss, may return null when the value doesn't exist
+     * @return the value or null if it doesn't exist
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key, Function<K, V> loader) {
+        Segment<K> segment = segmentFor(key);
+
+        long generation;
+        synchronized (segment) {
+            Object cached = segment.map.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached == NULL_VALUE ? null : (V) cached;
+            }
+            generation = segment.generation;
+        }
+
+        //Load outside the lock so a slow database read doesn't block the whole segment
+        misses.incrementAndGet();
+        long start = System.nanoTime();
+        V value = loader.apply(key);
+        long took = System.nanoTime() - start;
+        loads.incrementAndGet();
+        loadNanos.addAndGet(took);
+        maxLoadNanos.accumulateAndGet(took, Math::max);
+
+        synchronized (segment) {
+            //If something was invalidated while loading, the loaded value may already be stale so don't keep it
+            if (segment.generation == generation) {
+                segment.map.put(key, value == null ? NULL_VALUE : value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Removes the key so the next get reloads it. Call after any write to the value behind the key.
+     * @param key key to drop
+     */
+    public void invalidate(K key) {
+        Segment<K> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.generation++;
+            segment.map.remove(key);
+        }
+    }
+
+    /**
+     * Removes every entry
+     */
+    public void invalidateAll() {
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                segment.generation++;
+                segment.map.clear();
+            }
+        }
+    }
+
+    /**
+     * @return number of entries cached, including cached misses
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K> segmentFor(K key) {
+        int hash = key.hashCode();
+        //Spread the bits so keys like sequential ids don't all land in one segment
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public long getLoadNanos() {
+        return loadNanos.get();
+    }
+
+    public long getMaxLoadNanos() {
+        return maxLoadNanos.get();
+    }
+
+    /**
+     * @return share of lookups answered from the cache, 0 before the first lookup
+     */
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        long loadCount = getLoads();
+        return "ReadThroughCache{" +
+                "size=" + size() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                ", evictions=" + getEvictions() +
+                ", avgLoadMicros=" + (loadCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(getLoadNanos() / loadCount)) +
+                ", maxLoadMicros=" + TimeUnit.NANOSECONDS.toMicros(getMaxLoadNanos()) +
+                '}';
+    }
+
+    /**
+     * One lock's worth of the cache
+     */
+    private static class Segment<K> {
+        //Bumped on every invalidate so loads that started before it don't store stale values
+        long generation;
+
+        final LinkedHashMap<K, Object> map;
+
+        Segment(int maxSize, AtomicLong evictions) {
+            this.map = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, Object> eldest) {
+                    if (size() > maxSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package Util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of prepared statements for one connection, keyed by sql text.
+ * Reusing a statement skips parsing and planning the sql again. Statements pushed out of the cache are closed.
+ * Not thread safe, a pooled connection is only used by one thread at a time.
+ */
+public class StatementCache {
+
+    //Connection the statements belong to
+    private final Connection connection;
+
+    //Pool that keeps the hit, miss and eviction counts for all connections
+    private final ConnectionPool pool;
+
+    //Access ordered map so the eldest entry is the least recently used statement
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    /**
+     * @param connection connection to prepare statements on
+     * @param pool pool to report hits and misses to
+     * @param maxSize most statements to keep open at once
+     */
+    StatementCache(Connection connection, ConnectionPool pool, int maxSize) {
+        this.connection = connection;
+        this.pool = pool;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxSize) {
+                    pool.recordStatementEviction();
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for the sql or prepares and caches a new one.
+     * The caller must not close the statement, only the result sets it produces.
+     *
+     * @param sql sql text with ? placeholders
+     * @param autoGeneratedKeys Statement.RETURN_GENERATED_KEYS or Statement.NO_GENERATED_KEYS
+     * @return a prepared statement ready to have its parameters set
+     * @throws SQLException if the sql can't be prepared
+     */
+    PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        //Statements that return keys are prepared differently so they get their own entry
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+
+        PreparedStatement ps = statements.get(key);
+        if (ps != null && !ps.isClosed()) {
+            pool.recordStatementHit();
+            return ps;
+        }
+        pool.recordStatementMiss();
+        ps = connection.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, ps);
+        return ps;
+    }
+
+    /**
+     * @return number of statements currently cached
+     */
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes every cached statement, used when the connection itself is closed
+     */
+    void closeAll() {
+        for (PreparedStatement ps : statements.values()) {
+            closeQuietly(ps);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package Util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In memory index of the usernames in the account table, so registering a taken username or logging in with one
+ * that doesn't exist can be turned away without a query. It is filled once at startup and then updated by every
+ * insert and delete that goes through the service. The database stays the authority: anything the index isn't
+ * sure of is still checked there.
+ *
+ * Two modes, picked with the usernameIndex.mode system property:
+ *  exact  username to account_id map, answers both "taken" and "not there" for certain (default)
+ *  bloom  Bloom filter sized by usernameIndex.expectedAccounts (default 1000000) and
+ *         usernameIndex.falsePositiveRate (default 0.01). Uses about 10 bits per username at 1%, but can only
+ *         answer "not there" for certain, and deleted usernames stay "maybe" until restart.
+ */
+public class UsernameIndex {
+
+    //Exact mode, null in bloom mode
+    private final ConcurrentHashMap<String, Integer> accountIds;
+    //Bloom mode, null in exact mode
+    private final BloomFilter filter;
+
+    //Stats
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong definiteAnswers = new AtomicLong();
+    private final AtomicLong uncertainAnswers = new AtomicLong();
+
+    /**
+     * @return an empty index set up from system properties
+     */
+    public static UsernameIndex fromSystemProperties() {
+        if ("bloom".equalsIgnoreCase(System.getProperty("usernameIndex.mode", "exact"))) {
+            double rate = Double.parseDouble(System.getProperty("usernameIndex.falsePositiveRate", "0.01"));
+            return new UsernameIndex(new BloomFilter(Integer.getInteger("usernameIndex.expectedAccounts", 1_000_000), rate));
+        }
+        return new UsernameIndex();
+    }
+
+    /**
+     * Creates an exact index
+     */
+    public UsernameIndex() {
+        this.accountIds = new ConcurrentHashMap<>();
+        this.filter = null;
+    }
+
+    /**
+     * Creates a bloom index
+     * @param filter empty filter to hold the usernames
+     */
+    public UsernameIndex(BloomFilter filter) {
+        this.accountIds = null;
+        this.filter = filter;
+    }
+
+    /**
+     * Records a username that was just inserted or read at startup
+     * @param username username of the account
+     * @param account_id id of the account
+     */
+    public void add(String username, int account_id) {
+        if (accountIds != null) {
+            if (accountIds.put(username, account_id) == null) {
+                size.incrementAndGet();
+            }
+        } else {
+            filter.add(username);
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets a deleted username. A bloom index can't forget, so the username is still checked in the database.
+     * @param username username of the deleted account
+     */
+    public void remove(String username) {
+        if (accountIds != null && accountIds.remove(username) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param username username to check
+     * @return true only if the username is known to be taken
+     */
+    public boolean definitelyContains(String username) {
+        if (accountIds != null) {
+            boolean contains = accountIds.containsKey(username);
+            //A miss in exact mode is also certain, counted by definitelyAbsent
+            if (contains) {
+                definiteAnswers.incrementAndGet();
+            }
+            return contains;
+        }
+        return false;
+    }
+
+    /**
+     * @param username username to check
+     * @return true only if the username is known not to exist
+     */
+    public boolean definitelyAbsent(String username) {
+        boolean absent = accountIds != null ? !accountIds.containsKey(username) : !filter.mightContain(username);
+        if (absent) {
+            definiteAnswers.incrementAndGet();
+        } else if (filter != null) {
+            uncertainAnswers.incrementAndGet();
+        }
+        return absent;
+    }
+
+    /**
+     * @param username username to look up
+     * @return the account_id, or -1 if it isn't there or this is a bloom index
+     */
+    public int getAccountId(String username) {
+        if (accountIds == null) {
+            return -1;
+        }
+        Integer account_id = accountIds.get(username);
+        return account_id == null ? -1 : account_id;
+    }
+
+    /**
+     * @return true for a bloom index
+     */
+    public boolean isBloom() {
+        return filter != null;
+    }
+
+    /**
+     * @return usernames added, for a bloom index this counts every add since nothing can be removed
+     */
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return checks answered for certain, each one saved a query
+     */
+    public long getDefiniteAnswers() {
+        return definiteAnswers.get();
+    }
+
+    /**
+     * @return bloom checks that said "maybe" and had to go to the database
+     */
+    public long getUncertainAnswers() {
+        return uncertainAnswers.get();
+    }
+}
@@ -1,17 +1,47 @@
+drop table if exists archive_tombstone;
+drop table if exists archive_segment;
+drop table if exists follow;
 drop table if exists message;
 drop table if exists account;
+drop sequence if exists message_id_seq;
 create table account (
     account_id int primary key auto_increment,
     username varchar(255) unique,
     password varchar(255)
 );
+-- message ids come from a named sequence so blocks of ids can be reserved ahead of the insert
+create sequence message_id_seq;
 create table message (
-    message_id int primary key auto_increment,
+    message_id int default next value for message_id_seq primary key,
     posted_by int,
     message_text varchar(255),
     time_posted_epoch bigint,
     foreign key (posted_by) references  account(account_id)
 );
+-- serves messages by account newest first, and the cursor for the next page, straight from the index
+create index if not exists message_posted_by_time_idx on message (posted_by, time_posted_epoch desc, message_id);
+-- serves since/until time windows over all messages newest first, same order as the index above
+create index if not exists message_time_idx on message (time_posted_epoch desc, message_id);
+-- who follows whom, the primary key finds an account's followees and the index its followers for fan-out
+create table follow (
+    follower_id int,
+    followee_id int,
+    primary key (follower_id, followee_id),
+    foreign key (follower_id) references account(account_id) on delete cascade,
+    foreign key (followee_id) references account(account_id) on delete cascade
+);
+create index if not exists follow_followee_idx on follow (followee_id, follower_id);
+-- archive segments whose messages have been moved out of the message table, recorded in the same transaction
+-- that deletes the rows so a segment is either fully moved or ignored
+create table archive_segment (
+    segment_id int primary key
+);
+-- archived messages deleted or edited since they were moved, the archive skips them
+create table archive_tombstone (
+    segment_id int,
+    message_id int,
+    primary key (segment_id, message_id)
+);
 
 insert into account (username, password) values ('testuser1', 'password');
 insert into message (posted_by, message_text, time_posted_epoch) values (1,'test message 1',1669947792);
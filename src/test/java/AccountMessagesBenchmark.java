@@ -0,0 +1,138 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.PooledConnection;
+
+/**
+ * Measures GET /accounts/{account_id}/messages at the DAO level for accounts with 10k, 100k and 1M messages.
+ * Compares reading the whole list, the first page and a page deep into the account, with and without
+ * message_posted_by_time_idx. Not a unit test, run it by hand:
+ *
+ * mvn test-compile exec:java -Dexec.mainClass=AccountMessagesBenchmark -Dexec.classpathScope=test -Dexec.args="10000 100000 1000000"
+ *
+ * This wipes the h2 database in ./h2 the same way the tests do.
+ */
+public class AccountMessagesBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final int PAGE_RUNS = 200;
+    //Without the index every page sorts the whole account, so fewer runs keep the 1M case in minutes
+    private static final int UNINDEXED_PAGE_RUNS = 20;
+    private static final int FULL_LIST_RUNS = 5;
+
+    public static void main(String[] args) throws SQLException {
+        int[] sizes = args.length == 0
+            ? new int[] {10_000, 100_000, 1_000_000}
+            : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        System.out.printf("%10s %6s %14s %14s %14s %14s%n",
+            "messages", "index", "full list ms", "first page ms", "deep page ms", "deep p99 ms");
+        for (int size : sizes) {
+            ConnectionUtil.resetTestDatabase();
+            seed(size);
+            run(size, "yes", PAGE_RUNS);
+            execute("DROP INDEX message_posted_by_time_idx");
+            run(size, "no", UNINDEXED_PAGE_RUNS);
+        }
+    }
+
+    /**
+     * Times each query shape against the current schema and prints one row
+     */
+    private static void run(int size, String index, int pageRuns) {
+        SocialMediaDAO dao = new SocialMediaDAO();
+
+        //Warm up the statement cache and jit
+        for (int i = 0; i < 5; i++) {
+            dao.selectMessagesPageFromAccountId(1, Long.MAX_VALUE, i, PAGE_SIZE);
+        }
+
+        long[] full = new long[FULL_LIST_RUNS];
+        for (int i = 0; i < full.length; i++) {
+            long start = System.nanoTime();
+            List<Message> messages = dao.selectAllMessagesFromAccountId(1);
+            full[i] = System.nanoTime() - start;
+            if (messages.size() != size) {
+                throw new IllegalStateException("Expected " + size + " messages, got " + messages.size());
+            }
+        }
+
+        //h2 hands back its last result when a query is re-run with the same params and no writes in between,
+        //so every run changes a param to make sure the query is really executed
+        long[] first = new long[pageRuns];
+        for (int i = 0; i < first.length; i++) {
+            long start = System.nanoTime();
+            dao.selectMessagesPageFromAccountId(1, Long.MAX_VALUE, 0, PAGE_SIZE + i % 2);
+            first[i] = System.nanoTime() - start;
+        }
+
+        //Cursor halfway through the account, epochs are seeded one second apart starting at 1
+        long middleEpoch = size / 2;
+        long[] deep = new long[pageRuns];
+        for (int i = 0; i < deep.length; i++) {
+            long start = System.nanoTime();
+            dao.selectMessagesPageFromAccountId(1, middleEpoch - i, 0, PAGE_SIZE);
+            deep[i] = System.nanoTime() - start;
+        }
+
+        System.out.printf("%10d %6s %14.2f %14.3f %14.3f %14.3f%n",
+            size, index, percentile(full, 50), percentile(first, 50), percentile(deep, 50), percentile(deep, 99));
+    }
+
+    /**
+     * Inserts messages for account 1 in batches, plus the same number spread over other accounts
+     * so the index has to skip rows that belong to someone else
+     */
+    private static void seed(int size) throws SQLException {
+        try (PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            PreparedStatement account = connection.prepareStatement("INSERT INTO account (username, password) VALUES (?, 'password')");
+            for (int i = 2; i <= 10; i++) {
+                account.setString(1, "benchuser" + i);
+                account.executeUpdate();
+            }
+            //Seed data from SocialMedia.sql is replaced so account 1 has exactly size messages
+            connection.createStatement().executeUpdate("DELETE FROM message");
+            PreparedStatement ps = connection.prepareStatement(
+                "INSERT INTO message (posted_by, message_text, time_posted_epoch) VALUES (?, ?, ?)");
+            for (int i = 1; i <= size; i++) {
+                for (int posted_by : new int[] {1, 2 + i % 9}) {
+                    ps.setInt(1, posted_by);
+                    ps.setString(2, "benchmark message " + i);
+                    ps.setLong(3, i);
+                    ps.addBatch();
+                }
+                if (i % 5_000 == 0) {
+                    ps.executeBatch();
+                    connection.commit();
+                }
+            }
+            ps.executeBatch();
+            connection.commit();
+        }
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            pooled.getConnection().createStatement().execute(sql);
+        }
+    }
+
+    /**
+     * @return the given percentile of the samples in milliseconds
+     */
+    private static double percentile(long[] samples, int percentile) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
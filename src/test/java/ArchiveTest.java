@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.SocialMediaDAO;
+import DAO.TieredStore;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+
+public class ArchiveTest {
+    SocialMediaDAO dao;
+    Path directory;
+
+    /**
+     * Before every test, reset the database and add a second account following the first, with messages at
+     * times 100 to 500 spread over both
+     */
+    @Before
+    public void setUp() throws IOException {
+        ConnectionUtil.resetTestDatabase();
+        directory = Files.createTempDirectory("archive-test");
+        dao = new SocialMediaDAO();
+        dao.insertAccount(new Account("testuser2", "password"));
+        dao.insertFollow(2, 1);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            //Two messages share each time, to check ties are ordered by id
+            messages.add(new Message(1 + i % 2, "message " + i, 100 * ((i + 1) / 2)));
+        }
+        dao.insertMessages(messages);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Every read should return the same messages in the same order once the old ones are moved to the archive
+     */
+    @Test
+    public void archivedMessagesReadTheSame() throws IOException {
+        TieredStore store = open();
+        List<List<?>> before = reads(store);
+        //Moves the messages at times 100 to 300
+        Assert.assertEquals(6, store.archive(400));
+        Assert.assertEquals(5, dao.selectAllMessages().size());
+        Assert.assertEquals(6, store.getArchive().getMessageCount());
+        Assert.assertEquals(before, reads(store));
+        //Only the messages at 400 and 500 are old enough now, the rest are already moved
+        Assert.assertEquals(4, store.archive(600));
+        Assert.assertEquals(before, reads(store));
+        Assert.assertEquals(3, store.getArchive().getSegmentCount());
+        Assert.assertEquals(0, store.archive(600));
+
+        //The segments are found again by a new store
+        Assert.assertEquals(before, reads(open()));
+    }
+
+    /**
+     * Archived messages should be deleted and edited like any other, and keep their account from being deleted
+     */
+    @Test
+    public void archivedMessagesChange() {
+        TieredStore store = open();
+        store.archive(400);
+        Assert.assertEquals("message 3", store.deleteMessage(4).getMessage_text());
+        Assert.assertNull(store.selectMessage(4));
+        Assert.assertNull(store.deleteMessage(4));
+
+        Message edited = store.updateMessage(5, "edited");
+        Assert.assertEquals(new Message(5, 1, "edited", 200), edited);
+        //Back in the database, read once
+        Assert.assertEquals(edited, dao.selectMessage(5));
+        Assert.assertEquals(List.of(11, 9, 7, 5, 3), ids(store.selectMessagesPageFromAccountId(1, 500, 8, 10)));
+
+        Account account = new Account(2, "testuser2", "password");
+        for (Message message : store.selectAllMessagesFromAccountId(2)) {
+            store.deleteMessage(message.getMessage_id());
+        }
+        //Its last message is archived
+        store.insertMessage(new Message(2, "old", 1));
+        store.archive(400);
+        store.deleteMessage(store.selectAllMessagesFromAccountId(2).get(0).getMessage_id());
+        Assert.assertEquals(0, store.selectAllMessagesFromAccountId(2).size());
+        Assert.assertEquals(account, store.deleteAccount(account));
+
+        //Tombstones are kept in the database, so a new store hides the same messages
+        TieredStore reopened = open();
+        Assert.assertNull(reopened.selectMessage(4));
+        Assert.assertEquals(edited, reopened.selectMessage(5));
+        Assert.assertEquals(ids(store.selectAllMessages()), ids(reopened.selectAllMessages()));
+    }
+
+    /**
+     * An account with archived messages shouldn't be deleted, as the database refuses one with messages
+     */
+    @Test
+    public void accountWithArchivedMessagesIsKept() {
+        TieredStore store = open();
+        Assert.assertEquals(4, store.archive(300));
+        for (Message message : dao.selectAllMessagesFromAccountId(2)) {
+            store.deleteMessage(message.getMessage_id());
+        }
+        Assert.assertNull(store.deleteAccount(new Account(2, "testuser2", "password")));
+        Assert.assertEquals(List.of(2, 4), ids(store.selectAllMessagesFromAccountId(2)));
+    }
+
+    /**
+     * A segment file the database never recorded is from a move that didn't commit, so it should be deleted and
+     * its messages read from the database alone
+     */
+    @Test
+    public void uncommittedSegmentIsDeleted() throws IOException {
+        TieredStore store = open();
+        store.getArchive().write(7, dao.selectMessagesPostedBefore(400, 0, 100));
+        Path file = directory.resolve("segment-7.col");
+        Assert.assertTrue(Files.exists(file));
+
+        TieredStore reopened = open();
+        Assert.assertFalse(Files.exists(file));
+        Assert.assertEquals(11, reopened.selectAllMessages().size());
+        Assert.assertEquals(0, reopened.getArchive().getSegmentCount());
+    }
+
+    /**
+     * A move whose database side fails should take its published segment back out, so every message is read
+     * once from the database and the segment file is gone
+     */
+    @Test
+    public void failedMoveUnpublishesSegment() throws IOException {
+        SocialMediaDAO failing = new SocialMediaDAO() {
+            @Override
+            public boolean[] archiveMessages(int segment_id, List<Message> messages) {
+                return null;
+            }
+        };
+        TieredStore store = new TieredStore(failing, directory, 0, 0, 4);
+        List<List<?>> before = reads(store);
+        Assert.assertEquals(-1, store.archive(400));
+        Assert.assertEquals(0, store.getArchive().getSegmentCount());
+        Assert.assertEquals(0, store.getArchive().getMessageCount());
+        Assert.assertFalse(Files.exists(directory.resolve("segment-1.col")));
+        Assert.assertEquals(before, reads(store));
+
+        //The next move can still use the store
+        Assert.assertEquals(6, open().archive(400));
+    }
+
+    private TieredStore open() {
+        return new TieredStore(dao, directory, 0, 0, 4);
+    }
+
+    /**
+     * Runs every message read the service makes
+     */
+    private static List<List<?>> reads(TieredStore store) throws IOException {
+        List<List<?>> results = new ArrayList<>();
+        results.add(store.selectAllMessages());
+        results.add(store.selectMessagesPage(3, 4));
+        results.add(store.selectAllMessagesFromAccountId(1));
+        results.add(store.selectMessagesPageFromAccountId(1, Long.MAX_VALUE, 0, 3));
+        results.add(store.selectMessagesPageFromAccountId(2, 400, 8, 3));
+        List<Message> window = new ArrayList<>();
+        store.streamMessagesInTimeRange(200, 500, window::add);
+        results.add(window);
+        List<Message> accountWindow = new ArrayList<>();
+        store.streamMessagesInTimeRangeFromAccountId(2, 0, 400, accountWindow::add);
+        results.add(accountWindow);
+        results.add(List.of(store.selectMessage(2), store.selectMessage(9)));
+        results.add(sorted(store.selectMessagesByIds(new int[] {2, 4, 9, 99})));
+        results.add(ids(store.selectRecentMessageIds(new int[] {1, 2}, 9, 5)));
+        results.add(ids(store.selectTimelineMessageIds(2, new int[0], Integer.MAX_VALUE, 3)));
+        return results;
+    }
+
+    private static List<Message> sorted(List<Message> messages) {
+        messages.sort((a, b) -> a.getMessage_id() - b.getMessage_id());
+        return messages;
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        List<Integer> ids = new ArrayList<>();
+        for (Message message : messages) {
+            ids.add(message.getMessage_id());
+        }
+        return ids;
+    }
+
+    private static List<Integer> ids(int[] array) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id : array) {
+            ids.add(id);
+        }
+        return ids;
+    }
+}
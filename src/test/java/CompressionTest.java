@@ -0,0 +1,107 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CompressionTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending GET localhost:8080/messages with Accept-Encoding: gzip for a list big enough to compress
+     *
+     * Expected Response:
+     *  Status Code: 200, gzipped body that unzips to the same json a client without gzip gets, and that
+     *  includes messages posted after an earlier cached response
+     */
+    @Test
+    public void messageListIsGzipped() throws IOException, InterruptedException {
+        postBatch(50);
+
+        HttpResponse<byte[]> plain = get("/messages", null);
+        HttpResponse<byte[]> gzipped = get("/messages", "gzip, deflate");
+        Assert.assertEquals(200, gzipped.statusCode());
+        Assert.assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        Assert.assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(""));
+        Assert.assertTrue(gzipped.body().length < plain.body().length / 2);
+        Assert.assertEquals(new String(plain.body(), StandardCharsets.UTF_8), gunzip(gzipped.body()));
+
+        postBatch(1);
+        String after = gunzip(get("/messages", "gzip").body());
+        Assert.assertTrue(after.length() > plain.body().length);
+        Assert.assertEquals(new String(get("/messages", null).body(), StandardCharsets.UTF_8), after);
+    }
+
+    /**
+     * Small responses stay uncompressed even when the client accepts gzip
+     */
+    @Test
+    public void smallResponseNotCompressed() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = get("/messages/1", "gzip");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertFalse(response.headers().firstValue("Content-Encoding").isPresent());
+    }
+
+    private void postBatch(int count) throws IOException, InterruptedException {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"posted_by\":1,\"message_text\":\"repetitive message text ")
+                .append(i).append("\",\"time_posted_epoch\":1669947792}");
+        }
+        body.append(']');
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
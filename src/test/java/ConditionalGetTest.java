@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class ConditionalGetTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/1 again with its ETag in If-None-Match
+     *
+     * Expected Response:
+     *  Status Code: 304 with no body until the message is changed, then 200 with a new ETag
+     */
+    @Test
+    public void messageNotModifiedUntilChanged() throws IOException, InterruptedException {
+        HttpResponse<String> first = get("/messages/1", null);
+        Assert.assertEquals(200, first.statusCode());
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        Assert.assertTrue(first.headers().firstValue("Last-Modified").isPresent());
+
+        HttpResponse<String> second = get("/messages/1", etag);
+        Assert.assertEquals(304, second.statusCode());
+        Assert.assertEquals("", second.body());
+
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"changed\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpResponse<String> third = get("/messages/1", etag);
+        Assert.assertEquals(200, third.statusCode());
+        Assert.assertTrue(third.body().contains("changed"));
+        Assert.assertNotEquals(etag, third.headers().firstValue("ETag").orElseThrow());
+    }
+
+    /**
+     * Lists should answer 304 without running their query, and a new message from the account should change
+     * both the account's list and the list of all messages. Different query strings get different ETags.
+     */
+    @Test
+    public void listsNotModifiedWithoutQuery() throws IOException, InterruptedException {
+        String allTag = get("/messages", null).headers().firstValue("ETag").orElseThrow();
+        String accountTag = get("/accounts/1/messages", null).headers().firstValue("ETag").orElseThrow();
+        Assert.assertNotEquals(allTag, get("/messages?limit=10", null).headers().firstValue("ETag").orElseThrow());
+
+        long queries = Metrics.getInstance().statement("SELECT * FROM message").getCount();
+        Assert.assertEquals(304, get("/messages", allTag).statusCode());
+        Assert.assertEquals(304, get("/accounts/1/messages", accountTag).statusCode());
+        Assert.assertEquals(queries, Metrics.getInstance().statement("SELECT * FROM message").getCount());
+
+        HttpRequest post = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(
+                        "{\"posted_by\":1, \"message_text\": \"new\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        Assert.assertEquals(200, get("/messages", allTag).statusCode());
+        Assert.assertEquals(200, get("/accounts/1/messages", accountTag).statusCode());
+    }
+
+    /**
+     * A message changed twice within one second should not be answered 304 for the Last-Modified of the first
+     * change, and once its second is over its Last-Modified should validate
+     */
+    @Test
+    public void ifModifiedSinceSeesChangesInTheSameSecond() throws IOException, InterruptedException {
+        //Start near the beginning of a second so both changes land in it
+        while (System.currentTimeMillis() % 1000 > 200) {
+            Thread.sleep(10);
+        }
+        patchMessage("first change");
+        String lastModified = get("/messages/1", null).headers().firstValue("Last-Modified").orElseThrow();
+        patchMessage("second change");
+
+        HttpResponse<String> changed = getSince("/messages/1", lastModified);
+        Assert.assertEquals(200, changed.statusCode());
+        Assert.assertTrue(changed.body().contains("second change"));
+
+        Thread.sleep(1100);
+        String settled = get("/messages/1", null).headers().firstValue("Last-Modified").orElseThrow();
+        Assert.assertEquals(304, getSince("/messages/1", settled).statusCode());
+    }
+
+    private void patchMessage(String text) throws IOException, InterruptedException {
+        HttpRequest patch = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"message_text\": \"" + text + "\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(patch, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> getSince(String path, String ifModifiedSince) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path))
+                .header("If-Modified-Since", ifModifiedSince).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
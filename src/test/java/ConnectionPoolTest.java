@@ -0,0 +1,137 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ConnectionPool;
+import Util.ConnectionUtil;
+import Util.PooledConnection;
+
+public class ConnectionPoolTest {
+    ConnectionPool pool;
+
+    /**
+     * Before every test, reset the database and create a small pool that times out quickly
+     */
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        pool = new ConnectionPool(0, 2, 60_000, 100, 4);
+    }
+
+    /**
+     * Closing a connection twice should hand it back once, so it isn't given to two borrowers and the pool
+     * doesn't end up with more permits than maxSize
+     */
+    @Test
+    public void closingTwiceReturnsOnce() throws SQLException {
+        PooledConnection first = pool.borrow();
+        first.close();
+        first.close();
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertEquals(0, pool.getBorrowedCount());
+
+        PooledConnection second = pool.borrow();
+        PooledConnection third = pool.borrow();
+        Assert.assertNotSame(second, third);
+        Assert.assertEquals(2, pool.getBorrowedCount());
+        try {
+            pool.borrow();
+            Assert.fail("Borrowed past maxSize");
+        } catch (SQLException expected) {
+        }
+        second.close();
+        third.close();
+        third.close();
+        Assert.assertEquals(0, pool.getBorrowedCount());
+        Assert.assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * A statement cache that can't hold a statement would hand out statements it already closed
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void statementCacheSizeBelowOneIsRejected() {
+        new ConnectionPool(0, 2, 60_000, 100, 0);
+    }
+
+    /**
+     * A returned connection should be handed out again instead of opening a new one
+     */
+    @Test
+    public void returnedConnectionIsReused() throws SQLException {
+        PooledConnection first = pool.borrow();
+        first.close();
+        PooledConnection second = pool.borrow();
+        second.close();
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(1, pool.getIdleCount());
+        Assert.assertEquals(0, pool.getBorrowedCount());
+    }
+
+    /**
+     * Borrowing past the max size should wait for the acquire timeout, then fail and count the timeout
+     */
+    @Test
+    public void borrowPastMaxSizeTimesOut() throws SQLException {
+        PooledConnection first = pool.borrow();
+        PooledConnection second = pool.borrow();
+        try {
+            pool.borrow();
+            Assert.fail("Expected the third borrow to time out");
+        } catch (SQLException e) {
+            Assert.assertEquals(1, pool.getAcquireTimeouts());
+        } finally {
+            first.close();
+            second.close();
+        }
+        Assert.assertEquals(2, pool.getOpenCount());
+    }
+
+    /**
+     * A borrowed connection should see the tables ConnectionUtil set up
+     */
+    @Test
+    public void borrowedConnectionSeesSchema() throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            Assert.assertTrue(pooled.getConnection().createStatement()
+                    .executeQuery("SELECT * FROM account WHERE username = 'testuser1'").next());
+        }
+    }
+
+    /**
+     * Preparing the same sql twice on a connection should reuse the cached statement
+     */
+    @Test
+    public void samePreparedStatementIsReused() throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement first = pooled.prepareStatement("SELECT * FROM message WHERE message_id = ?");
+            PreparedStatement second = pooled.prepareStatement("SELECT * FROM message WHERE message_id = ?");
+            Assert.assertSame(first, second);
+        }
+        Assert.assertEquals(1, pool.getStatementHits());
+        Assert.assertEquals(1, pool.getStatementMisses());
+    }
+
+    /**
+     * Going over the cache size should close the least recently used statement
+     */
+    @Test
+    public void leastRecentlyUsedStatementIsClosedOnEvict() throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement oldest = pooled.prepareStatement("SELECT 1");
+            pooled.prepareStatement("SELECT 2");
+            pooled.prepareStatement("SELECT 3");
+            pooled.prepareStatement("SELECT 4");
+            pooled.prepareStatement("SELECT 5");
+
+            Assert.assertTrue(oldest.isClosed());
+            Assert.assertEquals(4, pooled.getCachedStatementCount());
+        }
+        Assert.assertEquals(1, pool.getStatementEvictions());
+    }
+}
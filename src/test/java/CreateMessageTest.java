@@ -1,8 +1,10 @@
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -11,6 +13,7 @@ import org.junit.Test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import Controller.JsonCodec;
 import Controller.SocialMediaController;
 import Model.Message;
 import Util.ConnectionUtil;
@@ -149,4 +152,35 @@ public class CreateMessageTest {
     }
 
 
+    /**
+     * Sending an http request to POST localhost:8080/messages with a body over request.maxBodyBytes, once with a
+     * Content-Length and once chunked so the limit is hit while the body is being parsed
+     * 
+     * Expected Response:
+     *  Status Code: 413
+     *  Response Body: 
+     */
+    @Test
+    public void createMessageBodyTooLarge() throws IOException, InterruptedException {
+        String body = "{\"posted_by\":1, \"message_text\": \"" + "a".repeat(JsonCodec.MAX_BODY_BYTES) + "\", "
+                + "\"time_posted_epoch\": 1669947792}";
+        HttpRequest sizedRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(sizedRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(413, response.statusCode());
+        Assert.assertEquals("", response.body());
+
+        HttpRequest chunkedRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofInputStream(
+                        () -> new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))))
+                .header("Content-Type", "application/json")
+                .build();
+        response = webClient.send(chunkedRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(413, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
 }
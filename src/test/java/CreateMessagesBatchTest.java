@@ -0,0 +1,145 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.JsonCodec;
+import Controller.SocialMediaController;
+import Model.BatchItemResult;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class CreateMessagesBatchTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with two valid messages, one blank message
+     * and one message from a user that doesn't exist
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: one result per element, the valid messages saved with new ids in order
+     */
+    @Test
+    public void createMessagesBatchMixed() throws IOException, InterruptedException {
+        HttpResponse<String> response = post("[" +
+                "{\"posted_by\":1, \"message_text\": \"batch message 1\", \"time_posted_epoch\": 1669947793}," +
+                "{\"posted_by\":1, \"message_text\": \"\", \"time_posted_epoch\": 1669947794}," +
+                "{\"posted_by\":3, \"message_text\": \"no such user\", \"time_posted_epoch\": 1669947795}," +
+                "{\"posted_by\":1, \"message_text\": \"batch message 2\", \"time_posted_epoch\": 1669947796}]");
+
+        Assert.assertEquals(200, response.statusCode());
+
+        List<BatchItemResult> results = objectMapper.readValue(response.body(), new TypeReference<List<BatchItemResult>>(){});
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals(200, results.get(0).getStatus());
+        Assert.assertEquals(new Message(2, 1, "batch message 1", 1669947793), results.get(0).getMessage());
+        Assert.assertEquals(400, results.get(1).getStatus());
+        Assert.assertNull(results.get(1).getMessage());
+        Assert.assertEquals(400, results.get(2).getStatus());
+        Assert.assertEquals(200, results.get(3).getStatus());
+        Assert.assertEquals(new Message(3, 1, "batch message 2", 1669947796), results.get(3).getMessage());
+
+        //The saved messages can be read back
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/3"))
+                .build();
+        HttpResponse<String> getResponse = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(new Message(3, 1, "batch message 2", 1669947796),
+                objectMapper.readValue(getResponse.body(), Message.class));
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with an empty array
+     *
+     * Expected Response:
+     *  Status Code: 400
+     *  Response Body:
+     */
+    @Test
+    public void createMessagesBatchEmpty() throws IOException, InterruptedException {
+        HttpResponse<String> response = post("[]");
+
+        Assert.assertEquals(400, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/batch with a body over the batch size limit
+     *
+     * Expected Response:
+     *  Status Code: 413
+     *  Response Body:
+     */
+    @Test
+    public void createMessagesBatchBodyTooLarge() throws IOException, InterruptedException {
+        String element = "{\"posted_by\":1, \"message_text\": \"" + "a".repeat(200) + "\", \"time_posted_epoch\": 1},";
+        StringBuilder body = new StringBuilder("[");
+        while (body.length() <= JsonCodec.MAX_BATCH_BODY_BYTES) {
+            body.append(element);
+        }
+        body.setLength(body.length() - 1);
+        body.append(']');
+        HttpResponse<String> response = post(body.toString());
+
+        Assert.assertEquals(413, response.statusCode());
+        Assert.assertEquals("", response.body());
+
+        //Without a Content-Length the limit is hit while reading
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        HttpRequest chunkedRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(bytes)))
+                .header("Content-Type", "application/json")
+                .build();
+        response = webClient.send(chunkedRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(413, response.statusCode());
+        Assert.assertEquals("", response.body());
+    }
+
+    private HttpResponse<String> post(String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
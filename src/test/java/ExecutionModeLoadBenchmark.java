@@ -0,0 +1,161 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Controller.ExecutionMode;
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Compares throughput and latency of the server on a platform thread pool and on virtual threads with many
+ * concurrent clients. Each client sends a request, waits for the answer and sends the next one, mixing
+ * reads of an account's messages with new posts so handlers spend their time blocked on jdbc.
+ * Not a unit test, run it by hand on a JDK with virtual threads:
+ *
+ * mvn test-compile exec:java -Dexec.mainClass=ExecutionModeLoadBenchmark -Dexec.classpathScope=test -Dexec.args="1000 20"
+ *
+ * Args are the number of clients and the seconds each mode is measured for, after a warm up of half as long.
+ * This wipes the h2 database in ./h2 the same way the tests do.
+ */
+public class ExecutionModeLoadBenchmark {
+
+    //One in this many requests is a post, the rest read a page of account 1's messages
+    private static final int POST_EVERY = 10;
+    private static final int PAGE_SIZE = 20;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.printf("%9s %8s %10s %10s %10s %10s %8s%n",
+            "mode", "clients", "req/s", "p50 ms", "p99 ms", "max ms", "errors");
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            if (!mode.isAvailable()) {
+                System.out.printf("%9s skipped, needs JDK 21+%n", mode);
+                continue;
+            }
+            ConnectionUtil.resetTestDatabase();
+            Javalin app = new SocialMediaController().startAPI(mode);
+            app.start(0);
+            try {
+                String base = "http://localhost:" + app.port();
+                run(base, clients, seconds / 2, null);
+                run(base, clients, seconds, mode);
+            } finally {
+                app.stop();
+            }
+        }
+    }
+
+    /**
+     * Runs the clients for the given time and prints one row, or nothing when mode is null for the warm up
+     */
+    private static void run(String base, int clients, int seconds, ExecutionMode mode) throws InterruptedException {
+        //Enough connections for every client, the default executor would be the bottleneck otherwise
+        HttpClient webClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+        long end = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        CountDownLatch done = new CountDownLatch(clients);
+        AtomicLong errors = new AtomicLong();
+        Client[] running = new Client[clients];
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            running[i] = new Client(webClient, base, i, end, done, errors);
+            running[i].next();
+        }
+        done.await();
+        long took = System.nanoTime() - start;
+        if (mode == null) {
+            return;
+        }
+
+        int total = 0;
+        for (Client client : running) {
+            total += client.count;
+        }
+        long[] latencies = new long[total];
+        int at = 0;
+        for (Client client : running) {
+            System.arraycopy(client.latencies, 0, latencies, at, client.count);
+            at += client.count;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%9s %8d %10.0f %10.2f %10.2f %10.2f %8d%n",
+            mode, clients, total / (took / 1e9), percentile(latencies, 50), percentile(latencies, 99),
+            total == 0 ? 0 : latencies[total - 1] / 1e6, errors.get());
+    }
+
+    /**
+     * One closed loop client, sends its next request when the last one is answered. Callbacks for one client
+     * never overlap so its latencies need no locking.
+     */
+    private static class Client {
+        final HttpClient webClient;
+        final String base;
+        final int id;
+        final long end;
+        final CountDownLatch done;
+        final AtomicLong errors;
+        long[] latencies = new long[1024];
+        int count;
+
+        Client(HttpClient webClient, String base, int id, long end, CountDownLatch done, AtomicLong errors) {
+            this.webClient = webClient;
+            this.base = base;
+            this.id = id;
+            this.end = end;
+            this.done = done;
+            this.errors = errors;
+        }
+
+        void next() {
+            long start = System.nanoTime();
+            if (start >= end) {
+                done.countDown();
+                return;
+            }
+            HttpRequest request;
+            if ((count + id) % POST_EVERY == 0) {
+                request = HttpRequest.newBuilder()
+                    .uri(URI.create(base + "/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, \"message_text\": \"load client "
+                        + id + "\", \"time_posted_epoch\": " + (1669947793L + count) + "}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            } else {
+                request = HttpRequest.newBuilder()
+                    .uri(URI.create(base + "/accounts/1/messages?limit=" + PAGE_SIZE))
+                    .build();
+            }
+            webClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error != null || response.statusCode() != 200) {
+                    errors.incrementAndGet();
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - start;
+                next();
+            });
+        }
+    }
+
+    /**
+     * @return the given percentile of the sorted samples in milliseconds
+     */
+    private static double percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.ExecutionMode;
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class ExecutionModeTest {
+    Javalin app;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        if (app != null) {
+            app.stop();
+        }
+        System.clearProperty("server.executionMode");
+    }
+
+    /**
+     * The mode is read from the server.executionMode system property ignoring case, anything unknown is PLATFORM
+     */
+    @Test
+    public void modeFromSystemProperty() {
+        Assert.assertEquals(ExecutionMode.PLATFORM, ExecutionMode.fromSystemProperty());
+        System.setProperty("server.executionMode", "Virtual");
+        Assert.assertEquals(ExecutionMode.VIRTUAL, ExecutionMode.fromSystemProperty());
+        System.setProperty("server.executionMode", "fibers");
+        Assert.assertEquals(ExecutionMode.PLATFORM, ExecutionMode.fromSystemProperty());
+    }
+
+    /**
+     * Started in VIRTUAL mode, GET localhost:8080/messages/1 should answer the same as the default server.
+     * On a JDK without virtual threads this runs on the platform pool instead.
+     */
+    @Test
+    public void getMessageVirtualMode() throws IOException, InterruptedException {
+        app = new SocialMediaController().startAPI(ExecutionMode.VIRTUAL);
+        app.start(8080);
+        Thread.sleep(1000);
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/1"))
+                .build();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertEquals(new Message(1, 1, "test message 1", 1669947792),
+                new ObjectMapper().readValue(response.body(), Message.class));
+    }
+}
@@ -0,0 +1,391 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import Controller.JsonCodec;
+import Controller.SocialMediaController;
+import Model.Account;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+/**
+ * Open loop load generator for the whole api. Boots SocialMediaController.startAPI() on an ephemeral port, seeds
+ * accounts and messages over http, then sends requests at a fixed arrival rate whether or not earlier requests
+ * have been answered, so a slow server shows up as growing latency instead of fewer requests.
+ *
+ * Latency is measured from when a request was due to be sent, not when it actually was, so time a request spent
+ * waiting behind a stalled sender is counted too. Each endpoint gets its own histogram.
+ *
+ * Not a unit test, run it by hand:
+ *
+ * mvn test-compile exec:java -Dexec.mainClass=HttpLoadHarness -Dexec.classpathScope=test -Dload.rate=1000
+ *
+ * Settings are system properties:
+ *  load.rate           requests per second across all endpoints, default 500
+ *  load.seconds        measured run length, default 30
+ *  load.warmupSeconds  run length before measuring starts, default 5
+ *  load.mix            weight per endpoint, default register=5,login=10,post=20,read=50,patch=10,delete=5
+ *  load.accounts       accounts registered before the run, default 100
+ *  load.messages       messages posted before the run, default 1000
+ * plus any server setting such as server.executionMode or writeBehind.enabled.
+ *
+ * This wipes the h2 database in ./h2 the same way the tests do.
+ */
+public class HttpLoadHarness {
+
+    private static final String DEFAULT_MIX = "register=5,login=10,post=20,read=50,patch=10,delete=5";
+    //Messages per POST /messages/batch while seeding
+    private static final int SEED_BATCH_SIZE = 1000;
+    //Longest the run waits for requests still in flight once sending stops
+    private static final long DRAIN_SECONDS = 30;
+
+    private final int rate;
+    private final int seconds;
+    private final int warmupSeconds;
+    private final int accountCount;
+    private final int messageCount;
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+    private final int totalWeight;
+
+    private final JsonCodec codec = JsonCodec.INSTANCE;
+    private HttpClient webClient;
+    private String base;
+
+    //Seeded accounts for login and post
+    private final List<Account> accounts = new ArrayList<>();
+    //Highest message id seen, reads and patches pick ids up to it
+    private final AtomicInteger maxMessageId = new AtomicInteger();
+    //Ids posted during the run, deletes take from here so they mostly hit real messages
+    private final ConcurrentLinkedDeque<Integer> deletable = new ConcurrentLinkedDeque<>();
+    private final AtomicLong registered = new AtomicLong();
+
+    /**
+     * @param rate requests per second across all endpoints
+     * @param seconds measured run length
+     * @param warmupSeconds run length before measuring starts
+     * @param mix weight per endpoint as name=weight pairs separated by commas
+     * @param accountCount accounts registered before the run
+     * @param messageCount messages posted before the run
+     */
+    public HttpLoadHarness(int rate, int seconds, int warmupSeconds, String mix, int accountCount, int messageCount) {
+        if (rate < 1 || seconds < 1 || warmupSeconds < 0 || accountCount < 1) {
+            throw new IllegalArgumentException("Invalid load settings");
+        }
+        this.rate = rate;
+        this.seconds = seconds;
+        this.warmupSeconds = warmupSeconds;
+        this.accountCount = accountCount;
+        this.messageCount = messageCount;
+
+        int weights = 0;
+        for (String pair : mix.split(",")) {
+            String[] parts = pair.trim().split("=");
+            Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight > 0) {
+                endpoints.put(operation.name().toLowerCase(), new Endpoint(operation, weight));
+                weights += weight;
+            }
+        }
+        if (weights == 0) {
+            throw new IllegalArgumentException("Load mix has no endpoints: " + mix);
+        }
+        this.totalWeight = weights;
+    }
+
+    public static void main(String[] args) throws Exception {
+        HttpLoadHarness harness = new HttpLoadHarness(
+            Integer.getInteger("load.rate", 500),
+            Integer.getInteger("load.seconds", 30),
+            Integer.getInteger("load.warmupSeconds", 5),
+            System.getProperty("load.mix", DEFAULT_MIX),
+            Integer.getInteger("load.accounts", 100),
+            Integer.getInteger("load.messages", 1000));
+        harness.run();
+        harness.printReport();
+    }
+
+    /**
+     * Starts the server, seeds it, runs the warm up and the measured run, then stops the server
+     */
+    public void run() throws IOException, InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        Javalin app = new SocialMediaController().startAPI();
+        app.start(0);
+        try {
+            base = "http://localhost:" + app.port();
+            webClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+            seed();
+            if (warmupSeconds > 0) {
+                send(warmupSeconds);
+                for (Endpoint endpoint : endpoints.values()) {
+                    endpoint.reset();
+                }
+            }
+            send(seconds);
+        } finally {
+            app.stop();
+        }
+    }
+
+    /**
+     * Registers the accounts and posts the messages every run starts from
+     */
+    private void seed() throws IOException, InterruptedException {
+        for (int i = 0; i < accountCount; i++) {
+            HttpResponse<byte[]> response = webClient.send(post("/register",
+                "{\"username\":\"loaduser" + i + "\",\"password\":\"password\"}"), HttpResponse.BodyHandlers.ofByteArray());
+            accounts.add(codec.read(response.body(), Account.class));
+        }
+        //Message 1 comes from SocialMedia.sql
+        maxMessageId.set(1);
+        for (int posted = 0; posted < messageCount; posted += SEED_BATCH_SIZE) {
+            StringBuilder body = new StringBuilder("[");
+            int size = Math.min(SEED_BATCH_SIZE, messageCount - posted);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append(messageJson(randomAccount().getAccount_id(), "seed message " + (posted + i)));
+            }
+            body.append(']');
+            HttpResponse<Void> response = webClient.send(post("/messages/batch", body.toString()),
+                HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                throw new IOException("Seeding messages failed with status " + response.statusCode());
+            }
+            maxMessageId.addAndGet(size);
+        }
+    }
+
+    /**
+     * Sends requests at the arrival rate for the given time, then waits for the ones still in flight
+     */
+    private void send(int runSeconds) throws InterruptedException {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * runSeconds;
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            inFlight.add(issue(pickEndpoint(), due));
+            //Forget finished requests now and then so the list stays small
+            if (inFlight.size() > 10_000) {
+                inFlight.removeIf(CompletableFuture::isDone);
+            }
+        }
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).get(DRAIN_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            System.out.println("Requests still in flight after " + DRAIN_SECONDS + "s: " + e);
+        }
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoint.elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    private Endpoint pickEndpoint() {
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Endpoint endpoint : endpoints.values()) {
+            pick -= endpoint.weight;
+            if (pick < 0) {
+                return endpoint;
+            }
+        }
+        throw new IllegalStateException("Weights changed during the run");
+    }
+
+    /**
+     * Sends one request for the endpoint and records its latency from when it was due
+     */
+    private CompletableFuture<?> issue(Endpoint endpoint, long due) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        HttpRequest request;
+        switch (endpoint.operation) {
+            case REGISTER:
+                request = post("/register", "{\"username\":\"loadnew" + registered.incrementAndGet()
+                    + "\",\"password\":\"password\"}");
+                break;
+            case LOGIN:
+                Account account = randomAccount();
+                request = post("/login", "{\"username\":\"" + account.getUsername()
+                    + "\",\"password\":\"password\"}");
+                break;
+            case POST:
+                request = post("/messages", messageJson(randomAccount().getAccount_id(), "load message"));
+                break;
+            case READ:
+                request = HttpRequest.newBuilder(URI.create(base + "/messages/" + randomMessageId())).build();
+                break;
+            case PATCH:
+                request = HttpRequest.newBuilder(URI.create(base + "/messages/" + randomMessageId()))
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString(
+                        "{\"message_text\":\"patched " + random.nextInt() + "\"}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+                break;
+            case DELETE:
+                Integer id = deletable.pollFirst();
+                request = HttpRequest.newBuilder(URI.create(base + "/messages/" + (id == null ? randomMessageId() : id)))
+                    .DELETE()
+                    .build();
+                break;
+            default:
+                throw new IllegalStateException("Unknown operation " + endpoint.operation);
+        }
+
+        return webClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((response, error) -> {
+            endpoint.histogram.recordValue(Math.max(0, System.nanoTime() - due));
+            if (error != null || response.statusCode() >= 500) {
+                endpoint.errors.incrementAndGet();
+            } else if (response.statusCode() != 200) {
+                endpoint.rejected.incrementAndGet();
+            } else if (endpoint.operation == Operation.POST) {
+                rememberPosted(response.body());
+            }
+        });
+    }
+
+    private void rememberPosted(byte[] body) {
+        try {
+            int id = codec.read(body, Message.class).getMessage_id();
+            maxMessageId.accumulateAndGet(id, Math::max);
+            deletable.addLast(id);
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    private Account randomAccount() {
+        return accounts.get(ThreadLocalRandom.current().nextInt(accounts.size()));
+    }
+
+    private int randomMessageId() {
+        return 1 + ThreadLocalRandom.current().nextInt(maxMessageId.get());
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(URI.create(base + path))
+            .POST(HttpRequest.BodyPublishers.ofString(json))
+            .header("Content-Type", "application/json")
+            .build();
+    }
+
+    private static String messageJson(int posted_by, String text) {
+        return "{\"posted_by\":" + posted_by + ",\"message_text\":\"" + text + "\",\"time_posted_epoch\":"
+            + (System.currentTimeMillis() / 1000) + "}";
+    }
+
+    /**
+     * Prints throughput, errors and latency percentiles for each endpoint and for all of them together
+     */
+    public void printReport() {
+        System.out.printf("rate %d/s for %ds after %ds warm up%n", rate, seconds, warmupSeconds);
+        System.out.printf("%-9s %9s %9s %8s %8s %9s %9s %9s %9s%n",
+            "endpoint", "count", "req/s", "4xx", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        Histogram all = new Histogram(3);
+        long allRejected = 0;
+        long allErrors = 0;
+        long elapsed = 0;
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            Histogram histogram = endpoint.histogram.copy();
+            all.add(histogram);
+            allRejected += endpoint.rejected.get();
+            allErrors += endpoint.errors.get();
+            elapsed = endpoint.elapsedNanos;
+            printRow(entry.getKey(), histogram, endpoint.elapsedNanos, endpoint.rejected.get(), endpoint.errors.get());
+        }
+        printRow("all", all, elapsed, allRejected, allErrors);
+    }
+
+    private static void printRow(String name, Histogram histogram, long elapsedNanos, long rejected, long errors) {
+        System.out.printf("%-9s %9d %9.0f %8d %8d %9.2f %9.2f %9.2f %9.2f%n",
+            name, histogram.getTotalCount(), histogram.getTotalCount() / (elapsedNanos / 1e9), rejected, errors,
+            histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+            histogram.getValueAtPercentile(99.9) / 1e6, histogram.getMaxValue() / 1e6);
+    }
+
+    /**
+     * @return stats per endpoint name, in mix order
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Requests the harness knows how to send
+     */
+    public enum Operation {
+        REGISTER,
+        LOGIN,
+        POST,
+        READ,
+        PATCH,
+        DELETE
+    }
+
+    /**
+     * One endpoint in the mix with its latency histogram in nanoseconds and failure counts
+     */
+    public static class Endpoint {
+        final Operation operation;
+        final int weight;
+        final ConcurrentHistogram histogram = new ConcurrentHistogram(3);
+        //Answered with a 4xx, such as patching a message that was just deleted
+        final AtomicLong rejected = new AtomicLong();
+        //No answer or a 5xx
+        final AtomicLong errors = new AtomicLong();
+        //Length of the measured run, written by the sending thread only
+        long elapsedNanos;
+
+        Endpoint(Operation operation, int weight) {
+            this.operation = operation;
+            this.weight = weight;
+        }
+
+        void reset() {
+            histogram.reset();
+            rejected.set(0);
+            errors.set(0);
+            elapsedNanos = 0;
+        }
+
+        public long getCount() {
+            return histogram.getTotalCount();
+        }
+
+        public long getRejected() {
+            return rejected.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpLoadHarnessTest {
+
+    /**
+     * A short run of the load harness should send every endpoint in the mix and get no errors back
+     */
+    @Test
+    public void shortRunHitsEveryEndpoint() throws IOException, InterruptedException {
+        HttpLoadHarness harness = new HttpLoadHarness(100, 2, 0,
+                "register=1,login=1,post=1,read=1,patch=1,delete=1", 10, 100);
+
+        harness.run();
+
+        Assert.assertEquals(6, harness.getEndpoints().size());
+        long total = 0;
+        for (HttpLoadHarness.Endpoint endpoint : harness.getEndpoints().values()) {
+            Assert.assertTrue(endpoint.getCount() > 0);
+            Assert.assertEquals(0, endpoint.getErrors());
+            total += endpoint.getCount();
+        }
+        Assert.assertEquals(200, total);
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import DAO.InMemoryStore;
+import Model.Account;
+import Model.Message;
+import io.javalin.Javalin;
+
+public class InMemoryStoreTest {
+    InMemoryStore store;
+    Path snapshotDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new InMemoryStore();
+        snapshotDirectory = Files.createTempDirectory("store-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        System.clearProperty("storage.engine");
+        try (var files = Files.list(snapshotDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(snapshotDirectory);
+    }
+
+    /**
+     * Messages should come back in the same orders the h2 queries use: by id for the lists, newest first then by
+     * id for account pages and time windows
+     */
+    @Test
+    public void messagesAreOrderedLikeTheDatabase() throws IOException {
+        int account_id = store.insertAccount(new Account("user1", "password")).getAccount_id();
+        store.insertMessage(new Message(account_id, "one", 100));
+        store.insertMessage(new Message(account_id, "two", 300));
+        store.insertMessage(new Message(account_id, "three", 200));
+        store.insertMessage(new Message(account_id, "four", 300));
+
+        Assert.assertEquals(List.of("one", "two", "three", "four"), texts(store.selectAllMessages()));
+        Assert.assertEquals(List.of("three", "four"), texts(store.selectMessagesPage(2, 5)));
+        Assert.assertEquals(List.of("two", "four", "three"),
+                texts(store.selectMessagesPageFromAccountId(account_id, Long.MAX_VALUE, 0, 3)));
+        Assert.assertEquals(List.of("four", "three", "one"),
+                texts(store.selectMessagesPageFromAccountId(account_id, 300, 2, 5)));
+
+        List<Message> window = new ArrayList<>();
+        Assert.assertTrue(store.streamMessagesInTimeRange(100, 300, window::add));
+        Assert.assertEquals(List.of("three", "one"), texts(window));
+
+        Assert.assertEquals("changed", store.updateMessage(3, "changed").getMessage_text());
+        Assert.assertEquals("changed", store.selectMessage(3).getMessage_text());
+        Assert.assertEquals("two", store.deleteMessage(2).getMessage_text());
+        Assert.assertNull(store.selectMessage(2));
+        Assert.assertArrayEquals(new int[] {4, 3}, store.selectRecentMessageIds(new int[] {account_id}, 10, 2));
+    }
+
+    /**
+     * The store should turn away the same writes the database constraints do
+     */
+    @Test
+    public void constraintsMatchTheDatabase() {
+        Account account = store.insertAccount(new Account("user1", "password"));
+        Assert.assertNull(store.insertAccount(new Account("user1", "other")));
+        Assert.assertNull(store.insertMessage(new Message(99, "no such poster", 1)));
+        Assert.assertNull(store.insertMessages(List.of(new Message(1, "ok", 1), new Message(99, "bad", 1))));
+        Assert.assertEquals(0, store.selectAllMessages().size());
+
+        Message message = store.insertMessage(new Message(1, "mine", 1));
+        //Still has a message
+        Assert.assertNull(store.deleteAccount(account));
+        store.deleteMessage(message.getMessage_id());
+
+        Account follower = store.insertAccount(new Account("user2", "password"));
+        Assert.assertTrue(store.insertFollow(follower.getAccount_id(), 1));
+        Assert.assertFalse(store.insertFollow(follower.getAccount_id(), 99));
+        Assert.assertArrayEquals(new int[] {2}, store.selectFollowerIds(1, 10));
+        //Found by id alone, the stored row comes back
+        Account deleted = store.deleteAccount(new Account(account.getAccount_id(), null, null));
+        Assert.assertEquals(account, deleted);
+        Assert.assertEquals("user1", deleted.getUsername());
+        //Follows go with the account
+        Assert.assertArrayEquals(new int[0], store.selectFolloweeIds(follower.getAccount_id()));
+    }
+
+    /**
+     * A store created from a snapshot should have everything the closed store had, and carry on its ids
+     */
+    @Test
+    public void snapshotRoundTrip() {
+        Path path = snapshotDirectory.resolve("store.snapshot");
+        InMemoryStore first = new InMemoryStore(path, 0, null, 0);
+        first.insertAccount(new Account("user1", "password"));
+        first.insertAccount(new Account("user2", "password"));
+        first.insertMessage(new Message(1, "first", 10));
+        first.insertMessage(new Message(2, "second", 5));
+        first.insertFollow(2, 1);
+        first.close();
+
+        InMemoryStore second = new InMemoryStore(path, 0, null, 0);
+        Assert.assertEquals("password", second.selectAccountByUsername("user2").getPassword());
+        Assert.assertEquals(List.of("first", "second"), texts(second.selectAllMessages()));
+        Assert.assertArrayEquals(new int[] {1}, second.selectFolloweeIds(2));
+        Assert.assertArrayEquals(new int[] {1}, second.selectTimelineMessageIds(2, new int[0], Integer.MAX_VALUE, 10));
+        Assert.assertEquals(3, second.insertMessage(new Message(1, "third", 1)).getMessage_id());
+        Assert.assertEquals(3, second.insertAccount(new Account("user3", "password")).getAccount_id());
+    }
+
+    /**
+     * The API should work the same with storage.engine=memory, without the database
+     */
+    @Test
+    public void serverRunsOnMemoryStore() throws IOException, InterruptedException {
+        System.setProperty("storage.engine", "memory");
+        SocialMediaController socialMediaController = new SocialMediaController();
+        Javalin app = socialMediaController.startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+        try {
+            HttpClient webClient = HttpClient.newHttpClient();
+            Assert.assertEquals(200, send(webClient, "POST", "/register",
+                    "{\"username\": \"memory\", \"password\": \"password\"}").statusCode());
+            Assert.assertEquals(200, send(webClient, "POST", "/messages",
+                    "{\"posted_by\": 1, \"message_text\": \"kept in memory\", \"time_posted_epoch\": 1}").statusCode());
+            HttpResponse<String> response = send(webClient, "GET", "/accounts/1/messages", null);
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertTrue(response.body().contains("kept in memory"));
+            //No pool metrics, the memory store never opens the database
+            response = send(webClient, "GET", "/metrics", null);
+            Assert.assertEquals(200, response.statusCode());
+            Assert.assertFalse(response.body().contains("db_pool_"));
+        } finally {
+            app.stop();
+        }
+    }
+
+    private static HttpResponse<String> send(HttpClient webClient, String method, String path, String body)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        List<String> texts = new ArrayList<>();
+        for (Message message : messages) {
+            texts.add(message.getMessage_text());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,101 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import Controller.JsonCodec;
+import Model.Account;
+import Model.Message;
+
+public class JsonCodecTest {
+    JsonCodec codec = JsonCodec.INSTANCE;
+
+    /**
+     * Asking for the writer or reader of a type twice should hand back the same cached object
+     */
+    @Test
+    public void readersAndWritersAreCached() {
+        Assert.assertSame(codec.writerFor(Message.class), codec.writerFor(Message.class));
+        Assert.assertSame(codec.readerFor(Account.class), codec.readerFor(Account.class));
+        Assert.assertSame(codec.writerFor(codec.messageListType), codec.writerFor(codec.messageListType));
+    }
+
+    /**
+     * A message written by the codec should read back as an equal message
+     */
+    @Test
+    public void messageRoundTrip() throws IOException {
+        Message message = new Message(1, 1, "test message 1", 1669947792);
+
+        byte[] json = codec.writerFor(Message.class).writeValueAsBytes(message);
+
+        Assert.assertEquals(message, codec.read(json, Message.class));
+    }
+
+    /**
+     * A list of messages should serialize the same way Javalin's json() would
+     */
+    @Test
+    public void messageListToJsonString() {
+        List<Message> messages = new ArrayList<>();
+        messages.add(new Message(1, 1, "test message 1", 1669947792));
+
+        String json = codec.toJsonString(messages, codec.messageListType);
+
+        Assert.assertEquals("[{\"message_id\":1,\"posted_by\":1,\"message_text\":\"test message 1\","
+                + "\"time_posted_epoch\":1669947792}]", json);
+    }
+
+    /**
+     * An account body given as bytes should parse without going through a String
+     */
+    @Test
+    public void accountFromBytes() throws IOException {
+        byte[] body = "{\"username\":\"user\",\"password\":\"password\"}".getBytes(StandardCharsets.UTF_8);
+
+        Assert.assertEquals(new Account(0, "user", "password"), codec.read(body, Account.class));
+    }
+
+    /**
+     * A body read from a stream, as handlers read the request, should give the same objects as one read from bytes,
+     * including nulls, numbers given as strings, escapes and fields in any order
+     */
+    @Test
+    public void streamReadMatchesBytes() throws IOException {
+        String[] messages = {
+            "{\"posted_by\":1,\"message_text\":\"hello\",\"time_posted_epoch\":1669947792}",
+            "{\"time_posted_epoch\":\"5\",\"message_text\":\"caf\\u00e9 \\\"quoted\\\"\",\"message_id\":3,\"posted_by\":null}",
+            "{\"message_text\":null}",
+            "{}",
+            "null"};
+        for (String json : messages) {
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            Message message = codec.read(new ByteArrayInputStream(body), Message.class);
+            //equals can't take a null String field, toString can
+            Assert.assertEquals(json, String.valueOf(codec.read(body, Message.class)), String.valueOf(message));
+        }
+        byte[] body = "{\"password\":\"p\\u00e4ss\",\"account_id\":7}".getBytes(StandardCharsets.UTF_8);
+        Account account = codec.read(new ByteArrayInputStream(body), Account.class);
+        Assert.assertEquals(new Account(7, null, "p\u00e4ss").toString(), account.toString());
+    }
+
+    /**
+     * Bodies that aren't a valid message should be refused when read from a stream
+     */
+    @Test
+    public void streamReadRejectsBadBodies() {
+        String[] bodies = {"", "[]", "{\"unknown\":1}", "{\"posted_by\":\"one\"}", "{\"posted_by\":{}}",
+            "{\"message_text\":[\"a\"]}", "{\"message_id\":99999999999}", "{\"posted_by\":1"};
+        for (String json : bodies) {
+            try {
+                codec.read(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), Message.class);
+                Assert.fail("Accepted " + json);
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
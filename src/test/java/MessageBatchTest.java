@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.JsonCodec;
+import DAO.InMemoryStore;
+import DAO.SocialMediaDAO;
+import Model.Account;
+import Model.Message;
+import Model.MessageBatch;
+import Util.ConnectionUtil;
+
+public class MessageBatchTest {
+    JsonCodec codec = JsonCodec.INSTANCE;
+
+    //Text that needs escaping, two and three byte characters, a surrogate pair and an unpaired surrogate
+    List<Message> messages = List.of(
+        new Message(1, 1, "plain", 1669947792L),
+        new Message(2, 7, "quote \" backslash \\ newline \n tab \t", -1),
+        new Message(3, 2, "caf\u00e9 \u20ac \ud83d\ude00 \ud800 end", Long.MAX_VALUE),
+        new Message(4, 3, "", 0));
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+    }
+
+    /**
+     * A batch should be written as exactly the json a list of the same messages is, as bytes and as a String.
+     * Characters outside the BMP are the exception: the list writer escapes them and the batch passes their
+     * UTF-8 through, which reads back the same.
+     */
+    @Test
+    public void batchJsonMatchesList() throws IOException {
+        MessageBatch batch = batchOf(messages);
+        //The unpaired surrogate can't survive UTF-8
+        List<Message> decoded = batch.toList();
+        Assert.assertEquals("caf\u00e9 \u20ac \ud83d\ude00 ? end", decoded.get(2).getMessage_text());
+        byte[] json = codec.writerFor(MessageBatch.class).writeValueAsBytes(batch);
+        Assert.assertEquals(decoded, codec.readerFor(codec.messageListType).readValue(json));
+
+        List<Message> bmp = List.of(messages.get(0), messages.get(1), new Message(3, 2, "caf\u00e9 \u20ac", 5));
+        Assert.assertArrayEquals(codec.writerFor(codec.messageListType).writeValueAsBytes(bmp),
+            codec.writerFor(MessageBatch.class).writeValueAsBytes(batchOf(bmp)));
+        Assert.assertEquals(codec.writerFor(codec.messageListType).writeValueAsString(bmp),
+            codec.writerFor(MessageBatch.class).writeValueAsString(batchOf(bmp)));
+    }
+
+    /**
+     * Bytes added as UTF-8 should come back as the same text
+     */
+    @Test
+    public void utf8RowsAreCopied() {
+        byte[] utf8 = "xx caf\u00e9 yy".getBytes(StandardCharsets.UTF_8);
+        MessageBatch batch = new MessageBatch();
+        batch.addUtf8(5, 6, utf8, 3, 5, 7);
+        Assert.assertEquals(new Message(5, 6, "caf\u00e9", 7), batch.get(0));
+    }
+
+    /**
+     * Rows should read back the same across row and text blocks, including text longer than a block and rows
+     * with no text around it
+     */
+    @Test
+    public void rowsSpanBlocks() {
+        List<Message> expected = new java.util.ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            String text = i % 1000 == 7 ? "x".repeat(100_000 + i) : i % 500 == 3 ? "" : "message " + "y".repeat(i % 300);
+            expected.add(new Message(i, i % 13, text, i * 3L));
+        }
+        MessageBatch batch = batchOf(expected);
+        Assert.assertEquals(expected.size(), batch.size());
+        Assert.assertEquals(expected, batch.toList());
+    }
+
+    /**
+     * Both stores should fill a batch with the rows their message list has
+     */
+    @Test
+    public void storesFillBatches() {
+        SocialMediaDAO dao = new SocialMediaDAO();
+        dao.insertMessage(new Message(1, "second", 2));
+        dao.insertMessage(new Message(1, "third", 3));
+        Assert.assertEquals(dao.selectAllMessages(), dao.selectMessagesBatch(0, 0).toList());
+        Assert.assertEquals(dao.selectMessagesPage(1, 1), dao.selectMessagesBatch(1, 1).toList());
+
+        InMemoryStore store = new InMemoryStore();
+        store.insertAccount(new Account("user1", "password"));
+        for (int i = 0; i < 2500; i++) {
+            store.insertMessage(new Message(1, "message " + i, i));
+        }
+        Assert.assertEquals(store.selectAllMessages(), store.selectMessagesBatch(0, 0).toList());
+        Assert.assertEquals(store.selectMessagesPage(1200, 1500), store.selectMessagesBatch(1200, 1500).toList());
+    }
+
+    private static MessageBatch batchOf(List<Message> messages) {
+        //Starts at one row so adding grows every array
+        MessageBatch batch = new MessageBatch(1);
+        for (Message message : messages) {
+            batch.add(message);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageFeed;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageFeedTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * A client subscribed to GET localhost:8080/accounts/1/feed should get the create, update and delete of a
+     * message posted by account 1 as server-sent events, in order
+     */
+    @Test
+    public void feedStreamsChanges() throws IOException, InterruptedException {
+        HttpRequest feedRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/feed"))
+                .header("Accept", "text/event-stream")
+                .build();
+        HttpResponse<Stream<String>> feed = webClient.send(feedRequest, HttpResponse.BodyHandlers.ofLines());
+        Assert.assertEquals(200, feed.statusCode());
+        Iterator<String> lines = feed.body().iterator();
+
+        //Headers are sent before the handler subscribes, so wait for the subscription before changing anything
+        HttpRequest metrics = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/metrics")).build();
+        for (int i = 0; i < 50 && !webClient.send(metrics, HttpResponse.BodyHandlers.ofString()).body()
+                .contains("feed_subscribers 1"); i++) {
+            Thread.sleep(100);
+        }
+
+        send("POST", "/messages", "{\"posted_by\":1, \"message_text\": \"live\", \"time_posted_epoch\": 1669947792}");
+        send("PATCH", "/messages/2", "{\"message_text\": \"live edit\"}");
+        send("DELETE", "/messages/2", null);
+
+        List<String> events = new ArrayList<>();
+        List<String> data = new ArrayList<>();
+        while (events.size() < 3 && lines.hasNext()) {
+            String line = lines.next();
+            if (line.startsWith("event: ")) {
+                events.add(line.substring(7));
+            } else if (line.startsWith("data: ")) {
+                data.add(line.substring(6));
+            }
+        }
+        feed.body().close();
+
+        Assert.assertEquals(List.of("created", "updated", "deleted"), events);
+        Assert.assertTrue(data.get(0).contains("\"message_text\":\"live\""));
+        Assert.assertTrue(data.get(1).contains("\"message_text\":\"live edit\""));
+    }
+
+    /**
+     * A client that drops its feed connection should be unsubscribed once a write to it fails, and
+     * feed_subscribers should go back to 0
+     */
+    @Test
+    public void droppedClientIsUnsubscribed() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", 8080)) {
+            socket.getOutputStream().write(("GET /feed HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            Assert.assertTrue(reader.readLine().contains("200"));
+            Assert.assertTrue(waitForSubscribers(1));
+        }
+
+        //The first writes after the socket closes can still land in the kernel buffers, keep changing messages
+        //until one fails
+        send("POST", "/messages", "{\"posted_by\":1, \"message_text\": \"live\", \"time_posted_epoch\": 1669947792}");
+        boolean unsubscribed = false;
+        for (int i = 0; i < 50 && !unsubscribed; i++) {
+            send("PATCH", "/messages/2", "{\"message_text\": \"edit " + i + "\"}");
+            unsubscribed = waitForSubscribers(0);
+        }
+        Assert.assertTrue(unsubscribed);
+    }
+
+    /**
+     * A subscriber that stops reading should be disconnected once its buffer fills, without holding up
+     * publishing or other subscribers, and account subscribers should only get their account's messages
+     */
+    @Test
+    public void slowSubscriberIsDisconnected() throws InterruptedException {
+        MessageFeed feed = new MessageFeed(2, 0);
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        List<Long> received = new CopyOnWriteArrayList<>();
+
+        MessageFeed.Subscription slow = feed.subscribe(MessageFeed.ALL_ACCOUNTS, new MessageFeed.Sink() {
+            public void send(MessageFeed.Event event) {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            public void close() {
+                closed.countDown();
+            }
+        });
+        feed.subscribe(2, new MessageFeed.Sink() {
+            public void send(MessageFeed.Event event) {
+                received.add(event.getId());
+            }
+
+            public void close() {
+            }
+        });
+
+        //One event is stuck in the slow sink, two fill its buffer and the next one overflows it
+        for (int i = 0; i < 5; i++) {
+            feed.publish(MessageFeed.CREATED, new Message(i + 2, i % 2 == 0 ? 1 : 2, "text", 0));
+            Thread.sleep(20);
+        }
+
+        Assert.assertTrue(closed.await(1, TimeUnit.SECONDS));
+        Assert.assertTrue(slow.isClosed());
+        Assert.assertEquals(1, feed.getSlowDisconnects());
+        Assert.assertEquals(1, feed.getSubscriberCount());
+        stuck.countDown();
+        Thread.sleep(100);
+        Assert.assertEquals(List.of(2L, 4L), received);
+        feed.close();
+    }
+
+    /**
+     * Polls /metrics for a while until feed_subscribers is the given count
+     * @return true if it got there
+     */
+    private boolean waitForSubscribers(int count) throws IOException, InterruptedException {
+        HttpRequest metrics = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/metrics")).build();
+        for (int i = 0; i < 10; i++) {
+            if (webClient.send(metrics, HttpResponse.BodyHandlers.ofString()).body().contains("feed_subscribers " + count + "\n")) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    private void send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import DAO.SocialMediaDAO;
+import Model.Message;
+import Service.MessageWriteBehind;
+import Service.QueueFullException;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class MessageWriteBehindTest {
+    SocialMediaDAO socialMediaDAO;
+    MessageWriteBehind writeBehind;
+    Javalin app;
+
+    @Before
+    public void setUp() {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaDAO = new SocialMediaDAO();
+    }
+
+    @After
+    public void tearDown() {
+        if (writeBehind != null) {
+            writeBehind.close();
+        }
+        if (app != null) {
+            app.stop();
+        }
+        System.clearProperty("writeBehind.enabled");
+    }
+
+    /**
+     * Every submitted message should be saved with the id it was given, sharing batches
+     */
+    @Test
+    public void submittedMessagesAreSaved() {
+        writeBehind = new MessageWriteBehind(socialMediaDAO, 100, 10, 5, 16, null);
+
+        for (int i = 0; i < 50; i++) {
+            Message message = writeBehind.submit(new Message(1, "write behind " + i, 1669947793 + i));
+            Assert.assertEquals(i + 2, message.getMessage_id());
+        }
+        writeBehind.close();
+
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(new Message(i + 2, 1, "write behind " + i, 1669947793 + i),
+                    socialMediaDAO.selectMessage(i + 2));
+        }
+        Assert.assertEquals(50, writeBehind.getCommitted());
+        Assert.assertEquals(0, writeBehind.getPendingCount());
+        Assert.assertTrue(writeBehind.getBatches() <= 50);
+    }
+
+    /**
+     * When the writer is stuck and the queue is full, submit should be rejected instead of waiting,
+     * while accepted messages stay readable
+     */
+    /**
+     * Closing while other threads are submitting should save every message that was accepted, none may be left
+     * pending once close returns
+     */
+    @Test
+    public void closeSavesEveryAcceptedMessage() throws InterruptedException {
+        writeBehind = new MessageWriteBehind(socialMediaDAO, 10_000, 50, 5, 100, null);
+        CountDownLatch started = new CountDownLatch(4);
+        Thread[] submitters = new Thread[4];
+        for (int t = 0; t < submitters.length; t++) {
+            submitters[t] = new Thread(() -> {
+                started.countDown();
+                try {
+                    while (true) {
+                        writeBehind.submit(new Message(1, "racing close", 1669947793));
+                    }
+                } catch (QueueFullException closed) {
+                }
+            });
+            submitters[t].start();
+        }
+        started.await();
+        Thread.sleep(50);
+        writeBehind.close();
+        for (Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        Assert.assertEquals(0, writeBehind.getPendingCount());
+        Assert.assertEquals(writeBehind.getAccepted(), writeBehind.getCommitted());
+        Assert.assertEquals(writeBehind.getAccepted() + 1, socialMediaDAO.selectAllMessages().size());
+    }
+
+    @Test
+    public void fullQueueRejects() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SocialMediaDAO slowDAO = new SocialMediaDAO() {
+            @Override
+            public boolean insertMessagesWithIds(List<Message> messages) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.insertMessagesWithIds(messages);
+            }
+        };
+        writeBehind = new MessageWriteBehind(slowDAO, 1, 1, 0, 16, null);
+
+        Message first = writeBehind.submit(new Message(1, "first", 1669947793));
+        Assert.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        writeBehind.submit(new Message(1, "second", 1669947794));
+        try {
+            writeBehind.submit(new Message(1, "third", 1669947795));
+            Assert.fail("Expected the full queue to reject");
+        } catch (QueueFullException e) {
+            Assert.assertEquals(1, writeBehind.getRejected());
+        }
+        Assert.assertEquals(first, writeBehind.getPending(first.getMessage_id()));
+
+        release.countDown();
+        writeBehind.close();
+        Assert.assertEquals(2, writeBehind.getCommitted());
+        Assert.assertNull(writeBehind.getPending(first.getMessage_id()));
+    }
+
+    /**
+     * With write-behind enabled, POST localhost:8080/messages should answer with the new id and the message
+     * should be readable straight away
+     */
+    @Test
+    public void postMessageWriteBehind() throws IOException, InterruptedException {
+        System.setProperty("writeBehind.enabled", "true");
+        app = new SocialMediaController().startAPI();
+        app.start(8080);
+        Thread.sleep(1000);
+        HttpClient webClient = HttpClient.newHttpClient();
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":1, " +
+                        "\"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(200, response.statusCode());
+        Message expected = new Message(2, 1, "hello message", 1669947792);
+        Assert.assertEquals(expected, objectMapper.readValue(response.body(), Message.class));
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/2"))
+                .build();
+        HttpResponse<String> getResponse = webClient.send(getRequest, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(expected, objectMapper.readValue(getResponse.body(), Message.class));
+
+        //A poster that doesn't exist is still rejected up front
+        HttpRequest badRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"posted_by\":3, " +
+                        "\"message_text\": \"hello message\", \"time_posted_epoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(400, webClient.send(badRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        //Stopping the server saves what is still queued
+        app.stop();
+        app = null;
+        Assert.assertEquals(expected, socialMediaDAO.selectMessage(2));
+    }
+}
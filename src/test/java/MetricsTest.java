@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Controller.SocialMediaController;
+import Util.ConnectionUtil;
+import Util.LatencyHistogram;
+import Util.Metrics;
+import io.javalin.Javalin;
+
+public class MetricsTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Requests should be counted against their route pattern, not the path that was asked for, and their sql
+     * statements should show up on GET localhost:8080/metrics
+     */
+    @Test
+    public void requestsAndStatementsAreExposed() throws IOException, InterruptedException {
+        //Metrics are process wide, so compare against what other tests already recorded
+        Metrics.RouteMetrics before = Metrics.getInstance().getRoute("GET", "/messages/{message_id}");
+        long okBefore = before == null ? 0 : before.getStatusClassCount(2);
+
+        Assert.assertEquals(200, get("/messages/1").statusCode());
+        Assert.assertEquals(200, get("/messages/2").statusCode());
+        Assert.assertEquals(404, get("/no/such/route").statusCode());
+
+        Metrics.RouteMetrics after = Metrics.getInstance().getRoute("GET", "/messages/{message_id}");
+        Assert.assertEquals(okBefore + 2, after.getStatusClassCount(2));
+        Assert.assertNull(Metrics.getInstance().getRoute("GET", "/messages/1"));
+
+        HttpResponse<String> response = get("/metrics");
+        Assert.assertEquals(200, response.statusCode());
+        Assert.assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        String body = response.body();
+        Assert.assertTrue(body.contains("http_requests_total{method=\"GET\",route=\"/messages/{message_id}\",status=\"2xx\"} "
+                + after.getStatusClassCount(2)));
+        Assert.assertTrue(body.contains("route=\"unmatched\",status=\"4xx\"}"));
+        Assert.assertTrue(body.contains("# TYPE http_request_duration_seconds histogram"));
+        Assert.assertTrue(body.contains(
+                "sql_statement_duration_seconds_count{statement=\"SELECT * FROM message WHERE message_id = ?\"}"));
+        Assert.assertTrue(body.contains("db_pool_connections_open "));
+        Assert.assertTrue(body.contains("message_cache_hits_total "));
+    }
+
+    /**
+     * Recorded times, including ones slower than the last bucket, should all count towards the count and sum,
+     * with errors counted apart. Single values are written as plain Prometheus lines.
+     */
+    @Test
+    public void histogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(50_000);
+        histogram.record(100_000);
+        histogram.record(3_000_000);
+        histogram.record(60_000_000_000L);
+        histogram.recordError();
+
+        Assert.assertEquals(4, histogram.getCount());
+        Assert.assertEquals(1, histogram.getErrors());
+        Assert.assertEquals(60_003_150_000L, histogram.getSumNanos());
+
+        StringBuilder out = new StringBuilder();
+        Metrics.writeGauge(out, "test_gauge", "A gauge.", 2.5);
+        Assert.assertEquals("# HELP test_gauge A gauge.\n# TYPE test_gauge gauge\ntest_gauge 2.5\n", out.toString());
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
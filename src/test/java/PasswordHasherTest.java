@@ -0,0 +1,125 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import DAO.SocialMediaDAO;
+import Model.Account;
+import Service.SocialMediaService;
+import Util.ConnectionUtil;
+import Util.CredentialCache;
+import Util.PasswordHasher;
+
+public class PasswordHasherTest {
+
+    /**
+     * Hashes should carry their work factor and salt, match only the right password, and never repeat for the
+     * same password. Old plaintext values still verify but need a rehash.
+     */
+    @Test
+    public void hashAndVerify() {
+        PasswordHasher hasher = new PasswordHasher(6, 1, 10);
+        String first = hasher.hash("password");
+        String second = hasher.hash("password");
+
+        Assert.assertTrue(first.startsWith("pbkdf2$6$"));
+        Assert.assertNotEquals(first, second);
+        Assert.assertTrue(hasher.verify("password", first));
+        Assert.assertFalse(hasher.verify("passwore", first));
+        Assert.assertFalse(hasher.needsRehash(first));
+
+        Assert.assertTrue(hasher.verify("password", "password"));
+        Assert.assertTrue(hasher.needsRehash("password"));
+        Assert.assertTrue(new PasswordHasher(7, 1, 10).needsRehash(first));
+    }
+
+    /**
+     * With its one thread busy and its queue full, the hasher should reject more work instead of waiting
+     */
+    /**
+     * A stored value that looks like a hash but is damaged should fail the login instead of throwing
+     */
+    @Test
+    public void malformedHashFailsVerify() {
+        PasswordHasher hasher = new PasswordHasher(6, 1, 10);
+        String[] parts = hasher.hash("password").split("\\$");
+        String[] malformed = {
+            "pbkdf2$six$" + parts[2] + "$" + parts[3],
+            "pbkdf2$31$" + parts[2] + "$" + parts[3],
+            "pbkdf2$-1$" + parts[2] + "$" + parts[3],
+            "pbkdf2$6$not base64!$" + parts[3],
+            "pbkdf2$6$$" + parts[3],
+            "pbkdf2$6$" + parts[2] + "$"};
+        for (String stored : malformed) {
+            Assert.assertFalse(stored, hasher.verify("password", stored));
+        }
+    }
+
+    @Test
+    public void fullQueueRejects() throws InterruptedException {
+        PasswordHasher hasher = new PasswordHasher(20, 1, 1);
+        CountDownLatch started = new CountDownLatch(2);
+        Runnable hash = () -> {
+            started.countDown();
+            try {
+                hasher.hash("password");
+            } catch (RejectedExecutionException e) {
+                //Only the call below is checked
+            }
+        };
+        Thread running = new Thread(hash);
+        Thread queued = new Thread(hash);
+        running.setDaemon(true);
+        queued.setDaemon(true);
+        running.start();
+        queued.start();
+        started.await();
+        Thread.sleep(200);
+
+        try {
+            hasher.hash("password");
+            Assert.fail("expected the hash to be rejected");
+        } catch (RejectedExecutionException e) {
+            Assert.assertTrue(hasher.getRejected() >= 1);
+        }
+    }
+
+    /**
+     * A cached login should only match the same password and should stop matching once it expires
+     */
+    @Test
+    public void credentialCacheExpires() throws InterruptedException {
+        CredentialCache cache = new CredentialCache(100, 10);
+        cache.put("user", "password", 7);
+
+        Assert.assertEquals(7, cache.get("user", "password"));
+        Assert.assertEquals(-1, cache.get("user", "passwore"));
+        Thread.sleep(150);
+        Assert.assertEquals(-1, cache.get("user", "password"));
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Registering should store a hash, not the password, and logging in to the plaintext seed account should
+     * replace its password with a hash
+     */
+    @Test
+    public void passwordsAreStoredHashed() {
+        ConnectionUtil.resetTestDatabase();
+        SocialMediaService service = new SocialMediaService();
+        SocialMediaDAO dao = new SocialMediaDAO();
+
+        Account registered = service.register(new Account("hashed", "secret"));
+        Assert.assertEquals("secret", registered.getPassword());
+        Assert.assertTrue(dao.selectAccountByUsername("hashed").getPassword().startsWith("pbkdf2$"));
+        Assert.assertEquals(registered, service.login(new Account("hashed", "secret")));
+        Assert.assertNull(service.login(new Account("hashed", "wrong")));
+        Assert.assertNull(service.login(new Account("nobody", "secret")));
+
+        Assert.assertEquals("password", dao.selectAccountByUsername("testuser1").getPassword());
+        Assert.assertNotNull(service.login(new Account("testuser1", "password")));
+        Assert.assertTrue(dao.selectAccountByUsername("testuser1").getPassword().startsWith("pbkdf2$"));
+        Assert.assertNotNull(service.login(new Account("testuser1", "password")));
+    }
+}
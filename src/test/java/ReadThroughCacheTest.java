@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import Util.ReadThroughCache;
+
+public class ReadThroughCacheTest {
+    ReadThroughCache<Integer, String> cache;
+    AtomicInteger loads;
+
+    @Before
+    public void setUp() {
+        cache = new ReadThroughCache<>(2);
+        loads = new AtomicInteger();
+    }
+
+    /**
+     * Loads the key as its string, or null for negative keys to act like a missing row
+     */
+    private String load(Integer key) {
+        loads.incrementAndGet();
+        return key < 0 ? null : String.valueOf(key);
+    }
+
+    /**
+     * The second lookup of a key should come from the cache
+     */
+    @Test
+    public void secondLookupIsHit() {
+        Assert.assertEquals("1", cache.get(1, this::load));
+        Assert.assertEquals("1", cache.get(1, this::load));
+
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0.5, cache.getHitRate(), 0.0001);
+    }
+
+    /**
+     * A key that loads as null should be cached as missing instead of loading again
+     */
+    @Test
+    public void missingValueIsCached() {
+        Assert.assertNull(cache.get(-1, this::load));
+        Assert.assertNull(cache.get(-1, this::load));
+
+        Assert.assertEquals(1, loads.get());
+    }
+
+    /**
+     * An invalidated key should be loaded again on the next lookup
+     */
+    @Test
+    public void invalidatedKeyIsReloaded() {
+        cache.get(1, this::load);
+        cache.invalidate(1);
+        cache.get(1, this::load);
+
+        Assert.assertEquals(2, loads.get());
+    }
+
+    /**
+     * Going over the max size should evict the least recently used key
+     */
+    @Test
+    public void leastRecentlyUsedKeyIsEvicted() {
+        cache.get(1, this::load);
+        cache.get(2, this::load);
+        //Touch 1 so 2 is the least recently used
+        cache.get(1, this::load);
+        cache.get(3, this::load);
+
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(2, cache.size());
+
+        cache.get(1, this::load);
+        Assert.assertEquals(3, loads.get());
+        cache.get(2, this::load);
+        Assert.assertEquals(4, loads.get());
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.MessageSearchIndex;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class SearchMessagesTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/search?q=... should find the seeded message and messages posted since,
+     * pick up edits and deletes, and page through the matches
+     *
+     * Expected Response:
+     *  Status Code: 200, matching messages best first with the total in Search-Total-Hits
+     */
+    @Test
+    public void searchFollowsChanges() throws IOException, InterruptedException {
+        //Seeded by SocialMedia.sql as "test message 1"
+        List<Message> seeded = search("/messages/search?q=TEST", 200);
+        Assert.assertEquals(1, seeded.size());
+        Assert.assertEquals(1, seeded.get(0).getMessage_id());
+
+        send("POST", "/messages/batch", "[{\"posted_by\":1,\"message_text\":\"coffee time\",\"time_posted_epoch\":1},"
+                + "{\"posted_by\":1,\"message_text\":\"coffee coffee coffee\",\"time_posted_epoch\":2},"
+                + "{\"posted_by\":1,\"message_text\":\"tea time\",\"time_posted_epoch\":3}]");
+
+        //Both words have to match
+        List<Message> both = search("/messages/search?q=coffee%20time", 200);
+        Assert.assertEquals(1, both.size());
+        Assert.assertEquals("coffee time", both.get(0).getMessage_text());
+
+        //Message made up of the word ranks first
+        HttpResponse<String> page = get("/messages/search?q=coffee&limit=1");
+        Assert.assertEquals("2", page.headers().firstValue("Search-Total-Hits").orElse(""));
+        Assert.assertEquals("1", page.headers().firstValue("Next-Offset").orElse(""));
+        Assert.assertEquals("coffee coffee coffee", read(page.body()).get(0).getMessage_text());
+        Assert.assertEquals("coffee time", search("/messages/search?q=coffee&limit=1&offset=1", 200).get(0).getMessage_text());
+
+        send("PATCH", "/messages/4", "{\"message_text\": \"green tea\"}");
+        Assert.assertEquals(1, search("/messages/search?q=green%20tea", 200).size());
+        Assert.assertEquals(0, search("/messages/search?q=tea%20time", 200).size());
+        send("DELETE", "/messages/4", null);
+        Assert.assertEquals(0, search("/messages/search?q=tea", 200).size());
+
+        Assert.assertEquals(400, get("/messages/search").statusCode());
+        Assert.assertEquals(400, get("/messages/search?q=tea&limit=x").statusCode());
+    }
+
+    /**
+     * Words are split on anything that isn't a letter or digit and compared without case
+     */
+    @Test
+    public void indexTokenizesAndRanks() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.index(new Message(1, 1, "Hello, World!", 0));
+        index.index(new Message(2, 1, "hello hello", 0));
+        index.index(new Message(3, 1, "world-wide web", 0));
+
+        MessageSearchIndex.Result hello = index.search("HELLO", 0, 10);
+        Assert.assertEquals(2, hello.getTotalHits());
+        Assert.assertArrayEquals(new int[] {2, 1}, hello.getMessage_ids());
+        Assert.assertArrayEquals(new int[] {1}, index.search("world hello", 0, 10).getMessage_ids());
+        Assert.assertArrayEquals(new int[] {3}, index.search("wide", 0, 10).getMessage_ids());
+        Assert.assertEquals(0, index.search("missing", 0, 10).getTotalHits());
+
+        index.remove(2);
+        Assert.assertArrayEquals(new int[] {1}, index.search("hello", 0, 10).getMessage_ids());
+        Assert.assertEquals(2, index.size());
+    }
+
+    /**
+     * Edits, deletes and ids indexed out of order should leave the index matching exactly the messages that
+     * hold each word, through however many compactions that takes
+     */
+    @Test
+    public void indexFollowsEditsAndDeletes() {
+        MessageSearchIndex index = new MessageSearchIndex();
+        Map<Integer, String> texts = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            int operation = random.nextInt(4);
+            if (operation == 0 && !texts.isEmpty()) {
+                int message_id = 1 + random.nextInt(texts.size() * 2);
+                index.remove(message_id);
+                texts.remove(message_id);
+            } else {
+                //Mostly new ids, some earlier ones again as edits or out of order inserts
+                int message_id = operation == 1 ? 1 + random.nextInt(i + 1) : i + 1;
+                String text = "w" + random.nextInt(5) + " w" + random.nextInt(20) + " w" + random.nextInt(200);
+                index.index(new Message(message_id, 1, text, 0));
+                texts.put(message_id, text);
+            }
+        }
+
+        Assert.assertEquals(texts.size(), index.size());
+        for (int word = 0; word < 200; word++) {
+            assertMatches(index, texts, "w" + word);
+        }
+        //Two lists walked together, late entries on either side
+        for (int first = 0; first < 5; first++) {
+            for (int second = 0; second < 20; second++) {
+                assertMatches(index, texts, "w" + first + " w" + second);
+            }
+        }
+    }
+
+    /**
+     * Checks a search finds exactly the messages whose text has every word of the query
+     */
+    private static void assertMatches(MessageSearchIndex index, Map<Integer, String> texts, String query) {
+        Set<Integer> expected = new HashSet<>();
+        for (Map.Entry<Integer, String> text : texts.entrySet()) {
+            if (Arrays.asList(text.getValue().split(" ")).containsAll(Arrays.asList(query.split(" ")))) {
+                expected.add(text.getKey());
+            }
+        }
+        MessageSearchIndex.Result result = index.search(query, 0, texts.size() + 1);
+        Assert.assertEquals(query, expected.size(), result.getTotalHits());
+        Set<Integer> found = new HashSet<>();
+        for (int message_id : result.getMessage_ids()) {
+            found.add(message_id);
+        }
+        Assert.assertEquals(query, expected, found);
+    }
+
+    private List<Message> search(String path, int status) throws IOException, InterruptedException {
+        HttpResponse<String> response = get(path);
+        Assert.assertEquals(status, response.statusCode());
+        return read(response.body());
+    }
+
+    private List<Message> read(String body) throws IOException {
+        return objectMapper.readValue(body, new TypeReference<List<Message>>() {});
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import DAO.InMemoryStore;
+import DAO.StoreLog;
+import Model.Account;
+import Model.Message;
+
+public class StoreLogTest {
+    Path directory;
+    Path snapshotPath;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("store-log-test");
+        snapshotPath = directory.resolve("store.snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * A store that is never closed or snapshotted should be rebuilt from its log alone, with every kind of change
+     */
+    @Test
+    public void recoversFromLogAfterCrash() {
+        InMemoryStore crashed = open();
+        crashed.insertAccount(new Account("user1", "password"));
+        crashed.insertAccount(new Account("user2", "password"));
+        crashed.insertAccount(new Account("gone", "password"));
+        crashed.deleteAccount(new Account(3, "gone", "password"));
+        crashed.updateAccountPassword(2, "changed");
+        crashed.insertMessages(List.of(new Message(1, "first", 10), new Message(2, "second", 20)));
+        crashed.insertMessage(new Message(1, "deleted", 30));
+        crashed.updateMessage(1, "first edited");
+        crashed.deleteMessage(3);
+        crashed.insertFollow(2, 1);
+        crashed.insertFollow(1, 2);
+        //Reservations aren't synced on their own, the next change takes them to disk
+        int[] reserved = crashed.reserveMessageIds(5);
+        crashed.deleteFollow(1, 2);
+
+        InMemoryStore recovered = open();
+        Assert.assertNull(recovered.selectAccountByUsername("gone"));
+        Assert.assertEquals("changed", recovered.selectAccountByUsername("user2").getPassword());
+        Assert.assertEquals(List.of("first edited", "second"), texts(recovered.selectAllMessages()));
+        Assert.assertArrayEquals(new int[] {2}, recovered.selectFollowerIds(1, 10));
+        Assert.assertArrayEquals(new int[0], recovered.selectFollowerIds(2, 10));
+        //Ids carry on after the reserved ones and the deleted account
+        Assert.assertEquals(reserved[4] + 1, recovered.insertMessage(new Message(1, "next", 40)).getMessage_id());
+        Assert.assertEquals(4, recovered.insertAccount(new Account("user4", "password")).getAccount_id());
+    }
+
+    /**
+     * A record cut off by a crash should be dropped, and the log should keep working after it
+     */
+    @Test
+    public void tornRecordIsDropped() throws IOException {
+        InMemoryStore crashed = open();
+        crashed.insertAccount(new Account("user1", "password"));
+        crashed.insertMessage(new Message(1, "kept", 10));
+        //Half a record: a length with too few bytes after it
+        Files.write(StoreLog.path(snapshotPath, 0), new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        InMemoryStore recovered = open();
+        Assert.assertEquals(List.of("kept"), texts(recovered.selectAllMessages()));
+        recovered.insertMessage(new Message(1, "after recovery", 20));
+
+        Assert.assertEquals(List.of("kept", "after recovery"), texts(open().selectAllMessages()));
+    }
+
+    /**
+     * A snapshot should delete the log it covers, and changes after it should be replayed on top of it
+     */
+    @Test
+    public void snapshotCompactsLog() {
+        InMemoryStore store = open();
+        store.insertAccount(new Account("user1", "password"));
+        store.insertMessage(new Message(1, "before snapshot", 10));
+        Assert.assertTrue(store.snapshot());
+        Assert.assertFalse(Files.exists(StoreLog.path(snapshotPath, 0)));
+        Assert.assertTrue(Files.exists(StoreLog.path(snapshotPath, 1)));
+        store.updateMessage(1, "after snapshot");
+        store.insertMessage(new Message(1, "also after", 20));
+
+        InMemoryStore recovered = open();
+        Assert.assertEquals(List.of("after snapshot", "also after"), texts(recovered.selectAllMessages()));
+    }
+
+    /**
+     * A failed log should leave the store read-only: changes and snapshots are refused, so nothing is built on a
+     * change that may not be on disk, and a restart recovers only what the log holds. The log is made to fail by
+     * interrupting its writer thread, which closes its channel.
+     */
+    @Test
+    public void failedLogMakesStoreReadOnly() throws InterruptedException {
+        InMemoryStore store = open();
+        store.insertAccount(new Account("user1", "password"));
+
+        //Waits for the writer to give up, so the change below meets a failed log every run
+        Thread writer = writerThread();
+        writer.interrupt();
+        writer.join();
+        Assert.assertTrue(store.isFailed());
+        Assert.assertNull(store.insertAccount(new Account("unsynced", "password")));
+        Assert.assertNull(store.selectAccountByUsername("unsynced"));
+        Assert.assertNull(store.insertAccount(new Account("user3", "password")));
+        Assert.assertNull(store.insertMessage(new Message(1, "refused", 10)));
+        Assert.assertFalse(store.insertFollow(1, 1));
+        Assert.assertFalse(store.snapshot());
+        Assert.assertFalse(Files.exists(snapshotPath));
+
+        InMemoryStore recovered = open();
+        Assert.assertNotNull(recovered.selectAccountByUsername("user1"));
+        Assert.assertNull(recovered.selectAccountByUsername("unsynced"));
+        Assert.assertNotNull(recovered.insertAccount(new Account("user3", "password")));
+    }
+
+    /**
+     * A caller interrupted while waiting for its sync should fail only its own change, with its interrupt flag
+     * kept. The store should carry on, and the change should still reach the log.
+     */
+    @Test
+    public void interruptedCallerFailsOnlyItsChange() {
+        InMemoryStore store = open();
+        store.insertAccount(new Account("user1", "password"));
+
+        Thread.currentThread().interrupt();
+        Account interrupted;
+        try {
+            interrupted = store.insertAccount(new Account("interrupted", "password"));
+            Assert.assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        Assert.assertNull(interrupted);
+        Assert.assertFalse(store.isFailed());
+        Assert.assertNotNull(store.insertAccount(new Account("user3", "password")));
+        Assert.assertTrue(store.snapshot());
+
+        InMemoryStore recovered = open();
+        Assert.assertNotNull(recovered.selectAccountByUsername("interrupted"));
+        Assert.assertNotNull(recovered.selectAccountByUsername("user3"));
+    }
+
+    /**
+     * @return the writer thread of the log the test's store opened last
+     */
+    private Thread writerThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("store-log " + snapshotPath)) {
+                return thread;
+            }
+        }
+        throw new AssertionError("No log writer thread");
+    }
+
+    /**
+     * Opens a store on the test's files with no scheduled snapshots, syncing every change
+     */
+    private InMemoryStore open() {
+        return new InMemoryStore(snapshotPath, 0, StoreLog.SyncPolicy.ALWAYS, 0);
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        List<String> texts = new ArrayList<>();
+        for (Message message : messages) {
+            texts.add(message.getMessage_text());
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,110 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class TimeRangeTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+    }
+
+    /**
+     * Sending GET localhost:8080/messages?since=&until= and the same on /accounts/{account_id}/messages
+     *
+     * Expected Response:
+     *  Status Code: 200, the messages posted at or after since and before until, newest first
+     */
+    @Test
+    public void messagesInWindow() throws IOException, InterruptedException {
+        send("POST", "/register", "{\"username\": \"user2\", \"password\": \"password\"}");
+        send("POST", "/messages/batch", "[{\"posted_by\":1,\"message_text\":\"at 100\",\"time_posted_epoch\":100},"
+                + "{\"posted_by\":2,\"message_text\":\"at 200\",\"time_posted_epoch\":200},"
+                + "{\"posted_by\":1,\"message_text\":\"also at 200\",\"time_posted_epoch\":200},"
+                + "{\"posted_by\":1,\"message_text\":\"at 300\",\"time_posted_epoch\":300}]");
+
+        List<Message> window = get("/messages?since=100&until=300", 200);
+        Assert.assertEquals(3, window.size());
+        Assert.assertEquals(200, window.get(0).getTime_posted_epoch());
+        Assert.assertEquals(3, window.get(0).getMessage_id());
+        Assert.assertEquals(4, window.get(1).getMessage_id());
+        Assert.assertEquals(100, window.get(2).getTime_posted_epoch());
+
+        //Next window starts where the last one ended without repeating anything
+        List<Message> next = get("/messages?since=300&until=1000", 200);
+        Assert.assertEquals(1, next.size());
+        Assert.assertEquals("at 300", next.get(0).getMessage_text());
+
+        //Seeded message is the newest
+        List<Message> account = get("/accounts/1/messages?since=150", 200);
+        Assert.assertEquals(3, account.size());
+        Assert.assertEquals(1669947792, account.get(0).getTime_posted_epoch());
+        Assert.assertEquals("at 300", account.get(1).getMessage_text());
+        Assert.assertEquals("also at 200", account.get(2).getMessage_text());
+        Assert.assertEquals(1, get("/accounts/2/messages?until=250", 200).size());
+    }
+
+    /**
+     * Windows that aren't numbers or are empty are rejected
+     */
+    @Test
+    public void invalidWindowRejected() throws IOException, InterruptedException {
+        HttpRequest bad = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080/messages?since=abc")).build();
+        Assert.assertEquals(400, webClient.send(bad, HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpRequest empty = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/1/messages?since=5&until=5")).build();
+        Assert.assertEquals(400, webClient.send(empty, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private List<Message> get(String path, int status) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assert.assertEquals(status, response.statusCode());
+        return objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+    }
+
+    private void send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(200, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import Controller.SocialMediaController;
+import Model.Message;
+import Service.TimelineStore;
+import Util.ConnectionUtil;
+import io.javalin.Javalin;
+
+public class TimelineTest {
+    SocialMediaController socialMediaController;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+    Javalin app;
+
+    /**
+     * Before every test, reset the database, restart the Javalin app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @Before
+    public void setUp() throws InterruptedException {
+        ConnectionUtil.resetTestDatabase();
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI();
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        app.start(8080);
+        Thread.sleep(1000);
+    }
+
+    @After
+    public void tearDown() {
+        app.stop();
+        System.clearProperty("timeline.celebrityFollowers");
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/2/timeline after account 2 follows accounts 1 and 3
+     *
+     * Expected Response:
+     *  Status Code: 200, messages from the followed accounts newest first, including ones posted after the
+     *  timeline was first read, without unfollowed accounts or deleted messages
+     */
+    @Test
+    public void timelineFollowsPostsAndFollows() throws IOException, InterruptedException {
+        send("POST", "/register", "{\"username\": \"user2\", \"password\": \"password\"}", 200);
+        send("POST", "/register", "{\"username\": \"user3\", \"password\": \"password\"}", 200);
+        send("POST", "/accounts/2/following/1", null, 200);
+        send("POST", "/accounts/2/following/3", null, 200);
+        send("POST", "/accounts/2/following/2", null, 400);
+        send("POST", "/accounts/2/following/99", null, 400);
+
+        //Built from the database on first read
+        Assert.assertEquals(List.of("test message 1"), texts(get("/accounts/2/timeline")));
+
+        //Pushed to the timeline already in memory
+        post(3, "from three");
+        post(1, "from one");
+        post(2, "own message");
+        Assert.assertEquals(List.of("from one", "from three", "test message 1"), texts(get("/accounts/2/timeline")));
+
+        //Paging
+        HttpResponse<String> first = get("/accounts/2/timeline?limit=2");
+        Assert.assertEquals("2", first.headers().firstValue("Next-Before-Message-Id").orElse(""));
+        Assert.assertEquals(List.of("test message 1"), texts(get("/accounts/2/timeline?limit=2&before=2")));
+
+        send("DELETE", "/messages/3", null, 200);
+        send("DELETE", "/accounts/2/following/3", null, 200);
+        Assert.assertEquals(List.of("test message 1"), texts(get("/accounts/2/timeline")));
+        Assert.assertEquals(400, get("/accounts/2/timeline?limit=0").statusCode());
+    }
+
+    /**
+     * Accounts with timeline.celebrityFollowers followers aren't fanned out, their messages are merged into
+     * their followers' timelines on read
+     */
+    @Test
+    public void celebrityMessagesMergedOnRead() throws IOException, InterruptedException {
+        app.stop();
+        System.setProperty("timeline.celebrityFollowers", "2");
+        socialMediaController = new SocialMediaController();
+        app = socialMediaController.startAPI().start(8080);
+
+        send("POST", "/register", "{\"username\": \"user2\", \"password\": \"password\"}", 200);
+        send("POST", "/register", "{\"username\": \"user3\", \"password\": \"password\"}", 200);
+        send("POST", "/accounts/2/following/1", null, 200);
+        send("POST", "/accounts/2/following/3", null, 200);
+        send("POST", "/accounts/3/following/1", null, 200);
+        Assert.assertTrue(get("/metrics").body().contains("timeline_celebrity_accounts 1"));
+
+        get("/accounts/2/timeline");
+        post(3, "regular");
+        post(1, "celebrity");
+        Assert.assertEquals(List.of("celebrity", "regular", "test message 1"), texts(get("/accounts/2/timeline")));
+        Assert.assertEquals(List.of("celebrity", "test message 1"), texts(get("/accounts/3/timeline")));
+    }
+
+    /**
+     * Timelines keep at most maxLength ids, say when older ones were dropped, and the least recently read are
+     * evicted once the store passes its memory limit
+     */
+    @Test
+    public void storeIsBounded() {
+        TimelineStore store = new TimelineStore(4, 200);
+        TimelineStore.Page page = store.read(1, Integer.MAX_VALUE, 10, (id, limit) -> new int[] {3, 2});
+        Assert.assertArrayEquals(new int[] {3, 2}, page.getMessage_ids());
+        Assert.assertTrue(page.isComplete());
+
+        store.add(new int[] {1, 2}, 5);
+        store.add(new int[] {1}, 6);
+        store.add(new int[] {1}, 7);
+        page = store.read(1, Integer.MAX_VALUE, 10, (id, limit) -> null);
+        Assert.assertArrayEquals(new int[] {7, 6, 5, 3}, page.getMessage_ids());
+        Assert.assertFalse(page.isComplete());
+        Assert.assertTrue(store.read(1, 7, 2, (id, limit) -> null).isComplete());
+
+        //Second timeline pushes the store over its limit, the one read longer ago goes
+        store.read(2, Integer.MAX_VALUE, 10, (id, limit) -> new int[] {9, 8, 7, 6});
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals(1, store.getEvictions());
+        Assert.assertTrue(store.getMemoryBytes() <= store.getMaxBytes());
+    }
+
+    /**
+     * A message deleted while a timeline is being built should stay out of it, even though the database read
+     * that builds it saw the message, and a second build finishing late shouldn't bring it back either
+     */
+    @Test
+    public void removeDuringBuildIsKept() {
+        TimelineStore store = new TimelineStore(10, 1024 * 1024);
+        TimelineStore.Page page = store.read(1, Integer.MAX_VALUE, 10, (id, limit) -> {
+            //Deleted and fanned out after the database read, before the build is merged
+            store.remove(new int[] {1}, 3);
+            return new int[] {3, 2};
+        });
+        Assert.assertArrayEquals(new int[] {2}, page.getMessage_ids());
+
+        //Two builds at once, the second finishing after a delete that followed the first
+        store.invalidate(1);
+        int[][] stale = new int[1][];
+        store.read(1, Integer.MAX_VALUE, 10, (id, limit) -> {
+            stale[0] = store.read(1, Integer.MAX_VALUE, 10, (again, max) -> new int[] {5, 2}).getMessage_ids();
+            store.remove(new int[] {1}, 5);
+            return new int[] {5, 2};
+        });
+        Assert.assertArrayEquals(new int[] {5, 2}, stale[0]);
+        Assert.assertArrayEquals(new int[] {2}, store.read(1, Integer.MAX_VALUE, 10, (id, limit) -> null).getMessage_ids());
+    }
+
+    private List<String> texts(HttpResponse<String> response) throws IOException {
+        Assert.assertEquals(200, response.statusCode());
+        List<String> texts = new ArrayList<>();
+        for (Message message : objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {})) {
+            texts.add(message.getMessage_text());
+        }
+        return texts;
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:8080" + path)).build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void post(int posted_by, String text) throws IOException, InterruptedException {
+        send("POST", "/messages", "{\"posted_by\":" + posted_by + ", \"message_text\": \"" + text
+                + "\", \"time_posted_epoch\": 1669947792}", 200);
+    }
+
+    private void send(String method, String path, String body, int status) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        Assert.assertEquals(status, webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+}
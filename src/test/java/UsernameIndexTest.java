@@ -0,0 +1,97 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import Model.Account;
+import Service.SocialMediaService;
+import Util.BloomFilter;
+import Util.ConnectionUtil;
+import Util.UsernameIndex;
+
+public class UsernameIndexTest {
+
+    /**
+     * An exact index should be certain both ways and forget removed usernames
+     */
+    @Test
+    public void exactIndex() {
+        UsernameIndex index = new UsernameIndex();
+        index.add("user", 3);
+
+        Assert.assertTrue(index.definitelyContains("user"));
+        Assert.assertFalse(index.definitelyAbsent("user"));
+        Assert.assertTrue(index.definitelyAbsent("other"));
+        Assert.assertEquals(3, index.getAccountId("user"));
+
+        index.remove("user");
+        Assert.assertTrue(index.definitelyAbsent("user"));
+        Assert.assertEquals(0, index.size());
+    }
+
+    /**
+     * A bloom index should never call an added username absent, should never claim one is taken for certain,
+     * and should give false positives at close to the rate it was sized for
+     */
+    @Test
+    public void bloomIndex() {
+        UsernameIndex index = new UsernameIndex(new BloomFilter(10_000, 0.01));
+        for (int i = 0; i < 10_000; i++) {
+            index.add("user" + i, i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertFalse(index.definitelyAbsent("user" + i));
+        }
+        Assert.assertFalse(index.definitelyContains("user1"));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (!index.definitelyAbsent("missing" + i)) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+
+    /**
+     * The service's index should start with the seed account and pick up new registrations, so taken usernames
+     * and unknown logins are answered without a query
+     */
+    @Test
+    public void serviceUsesIndex() {
+        ConnectionUtil.resetTestDatabase();
+        SocialMediaService service = new SocialMediaService();
+        UsernameIndex index = service.getUsernameIndex();
+
+        Assert.assertEquals(1, index.getAccountId("testuser1"));
+        Assert.assertNull(service.register(new Account("testuser1", "password")));
+
+        Account added = service.register(new Account("newuser", "password"));
+        Assert.assertEquals(added.getAccount_id(), index.getAccountId("newuser"));
+        Assert.assertNull(service.register(new Account("newuser", "password")));
+
+        long definite = index.getDefiniteAnswers();
+        Assert.assertNull(service.login(new Account("nobody", "password")));
+        Assert.assertEquals(definite + 1, index.getDefiniteAnswers());
+    }
+
+    /**
+     * Deleting an account should free its stored username even when the request only carries the id or names
+     * another account
+     */
+    @Test
+    public void deleteForgetsStoredUsername() {
+        ConnectionUtil.resetTestDatabase();
+        SocialMediaService service = new SocialMediaService();
+        UsernameIndex index = service.getUsernameIndex();
+        Account first = service.register(new Account("firstuser", "password"));
+        Account second = service.register(new Account("seconduser", "password"));
+
+        Account deleted = service.deleteAccount(new Account(first.getAccount_id(), null, null));
+        Assert.assertEquals("firstuser", deleted.getUsername());
+        Assert.assertTrue(index.definitelyAbsent("firstuser"));
+
+        service.deleteAccount(new Account(second.getAccount_id(), "testuser1", "password"));
+        Assert.assertTrue(index.definitelyAbsent("seconduser"));
+        Assert.assertEquals(1, index.getAccountId("testuser1"));
+        Assert.assertNotNull(service.register(new Account("seconduser", "password")));
+    }
+}